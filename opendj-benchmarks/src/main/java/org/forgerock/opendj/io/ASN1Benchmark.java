@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the ASN.1 writers and readers on an element shaped like the search result entries, which are the most
+ * frequent messages written by the server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ASN1Benchmark {
+    private static final byte TYPE_SEARCH_RESULT_ENTRY = 0x64;
+
+    private static final String DN = "uid=user.42,ou=People,dc=example,dc=com";
+    private static final String[][] ATTRIBUTES = {
+        { "objectClass", "top", "person", "organizationalPerson", "inetOrgPerson" },
+        { "uid", "user.42" },
+        { "cn", "John Smith" },
+        { "sn", "Smith" },
+        { "givenName", "John" },
+        { "mail", "jsmith@example.com" },
+        { "telephoneNumber", "+1 408 555 4798" },
+        { "description", "This is the description for John Smith." },
+    };
+
+    private final ByteStringBuilder builder = new ByteStringBuilder();
+    private final ASN1Writer writer = ASN1.getWriter(builder);
+    private ByteString encoded;
+
+    /**
+     * Encodes the element read by the reader benchmark.
+     *
+     * @throws IOException
+     *             never
+     */
+    @Setup
+    public void setup() throws IOException {
+        encoded = write().toByteString();
+    }
+
+    /**
+     * Writes the element to a reused buffer.
+     *
+     * @return the buffer
+     * @throws IOException
+     *             never
+     */
+    @Benchmark
+    public ByteStringBuilder write() throws IOException {
+        builder.clear();
+        writer.writeStartSequence(TYPE_SEARCH_RESULT_ENTRY);
+        writer.writeOctetString(DN);
+        writer.writeStartSequence();
+        for (String[] attribute : ATTRIBUTES) {
+            writer.writeStartSequence();
+            writer.writeOctetString(attribute[0]);
+            writer.writeStartSet();
+            for (int i = 1; i < attribute.length; i++) {
+                writer.writeOctetString(attribute[i]);
+            }
+            writer.writeEndSet();
+            writer.writeEndSequence();
+        }
+        writer.writeEndSequence();
+        writer.writeEndSequence();
+        return builder;
+    }
+
+    /**
+     * Reads the element.
+     *
+     * @param blackhole
+     *            consumes the read values
+     * @throws IOException
+     *             never
+     */
+    @Benchmark
+    public void read(final Blackhole blackhole) throws IOException {
+        final ASN1Reader reader = ASN1.getReader(encoded);
+        reader.readStartSequence(TYPE_SEARCH_RESULT_ENTRY);
+        blackhole.consume(reader.readOctetStringAsString());
+        reader.readStartSequence();
+        while (reader.hasNextElement()) {
+            reader.readStartSequence();
+            blackhole.consume(reader.readOctetStringAsString());
+            reader.readStartSet();
+            while (reader.hasNextElement()) {
+                blackhole.consume(reader.readOctetString());
+            }
+            reader.readEndSet();
+            reader.readEndSequence();
+        }
+        reader.readEndSequence();
+        reader.readEndSequence();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the building, copying and comparison of byte strings, on which the encoding of the protocol messages, of
+ * the entries and of the backend keys relies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteStringBuilderBenchmark {
+    private static final String VALUE = "This is the description for John Smith.";
+
+    private final ByteStringBuilder builder = new ByteStringBuilder();
+    private ByteString string1;
+    private ByteString string2;
+
+    /** Creates the compared byte strings, which only differ by their last byte. */
+    @Setup
+    public void setup() {
+        string1 = ByteString.valueOfUtf8(VALUE + "1");
+        string2 = ByteString.valueOfUtf8(VALUE + "2");
+    }
+
+    /**
+     * Appends a UTF-8 string to a reused builder.
+     *
+     * @return the builder
+     */
+    @Benchmark
+    public ByteStringBuilder appendUtf8() {
+        return builder.clear().appendUtf8(VALUE);
+    }
+
+    /**
+     * Appends numbers in the encodings used by the backend keys and values to a reused builder.
+     *
+     * @return the builder
+     */
+    @Benchmark
+    public ByteStringBuilder appendNumbers() {
+        return builder.clear().appendInt(42).appendLong(123456789L).appendCompactUnsigned(123456789L);
+    }
+
+    /**
+     * Appends a byte string to a reused builder and copies the result, as done when encoding a key.
+     *
+     * @return the copy of the builder content
+     */
+    @Benchmark
+    public ByteString appendBytesAndCopy() {
+        return builder.clear().appendBytes(string1).toByteString();
+    }
+
+    /**
+     * Compares two byte strings, as the backend trees do to order their keys.
+     *
+     * @return the result of the comparison
+     */
+    @Benchmark
+    public int compareTo() {
+        return string1.compareTo(string2);
+    }
+}
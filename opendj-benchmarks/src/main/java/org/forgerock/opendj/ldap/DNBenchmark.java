@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing, normalization and comparison of DNs, which the server performs for every operation.
+ * <p>
+ * The parsed DNs are taken in turn from a set larger than the thread local cache of {@link DN#valueOf(String)}, so
+ * that the leaf RDNs are actually parsed while their parents are found in the cache, as when the entries of the same
+ * branch are searched.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DNBenchmark {
+    private static final int NB_DNS = 1024;
+
+    private final String[] dnStrings = new String[NB_DNS];
+    private final DN[] dns = new DN[NB_DNS];
+    private int next;
+
+    /** Creates the DNs of the users of a branch. */
+    @Setup
+    public void setup() {
+        for (int i = 0; i < NB_DNS; i++) {
+            dnStrings[i] = "uid=user." + i + ",ou=People,dc=example,dc=com";
+            dns[i] = DN.valueOf(dnStrings[i]);
+            dns[i].toNormalizedByteString();
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (NB_DNS - 1);
+        return next;
+    }
+
+    /**
+     * Parses a DN.
+     *
+     * @return the parsed DN
+     */
+    @Benchmark
+    public DN valueOf() {
+        return DN.valueOf(dnStrings[next()]);
+    }
+
+    /**
+     * Parses and normalizes a DN, as when it is used as a key of the backend trees.
+     *
+     * @return the normalized DN
+     */
+    @Benchmark
+    public ByteString valueOfAndNormalize() {
+        return DN.valueOf(dnStrings[next()]).toNormalizedByteString();
+    }
+
+    /**
+     * Compares two parsed DNs, whose normalized forms are already computed.
+     *
+     * @return the result of the comparison
+     */
+    @Benchmark
+    public int compareTo() {
+        final int i = next();
+        return dns[i].compareTo(dns[(i + 1) & (NB_DNS - 1)]);
+    }
+
+    /**
+     * Checks whether a parsed DN is subordinate to its branch.
+     *
+     * @return {@code true}
+     */
+    @Benchmark
+    public boolean isSubordinateOrEqualTo() {
+        final int i = next();
+        return dns[i].isSubordinateOrEqualTo(dns[i].parent());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of search filters and their evaluation against an entry, as performed for each candidate
+ * entry of a search.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+    /** The evaluated filter. */
+    @Param({
+        "(uid=user.42)",
+        "(cn=*Smith*)",
+        "(&(objectClass=person)(sn=Smith)(givenName=J*))",
+        "(|(mail=jsmith@example.com)(telephoneNumber=+1 408 555 4798)(employeeNumber>=1000))"
+    })
+    public String filterString;
+
+    private Entry entry;
+    private Filter filter;
+    private Matcher matcher;
+
+    /** Creates the entry and parses the filter. */
+    @Setup
+    public void setup() {
+        entry = new LinkedHashMapEntry(
+            "dn: uid=user.42,ou=People,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user.42",
+            "cn: John Smith",
+            "cn: Johnny Smith",
+            "sn: Smith",
+            "givenName: John",
+            "mail: jsmith@example.com",
+            "telephoneNumber: +1 408 555 4798",
+            "employeeNumber: 42",
+            "description: This is the description for John Smith.");
+        filter = Filter.valueOf(filterString);
+        matcher = filter.matcher();
+    }
+
+    /**
+     * Parses the filter.
+     *
+     * @return the parsed filter
+     */
+    @Benchmark
+    public Filter valueOf() {
+        return Filter.valueOf(filterString);
+    }
+
+    /**
+     * Creates a matcher for the filter, which decodes its assertion values.
+     *
+     * @return the matcher
+     */
+    @Benchmark
+    public Matcher matcher() {
+        return filter.matcher();
+    }
+
+    /**
+     * Evaluates the filter against the entry.
+     *
+     * @return the result of the evaluation
+     */
+    @Benchmark
+    public ConditionResult matches() {
+        return matcher.matches(entry);
+    }
+}
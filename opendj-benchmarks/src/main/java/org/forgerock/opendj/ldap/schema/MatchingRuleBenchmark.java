@@ -0,0 +1,117 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap.schema;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.Assertion;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the normalization of attribute values by the most used matching rules, which is performed for each value
+ * when an entry is indexed or evaluated against a filter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchingRuleBenchmark {
+    private static final Map<String, String> VALUES = new HashMap<>();
+    static {
+        VALUES.put("caseIgnoreMatch", "  This is the Description  for John SMITH.");
+        VALUES.put("caseExactMatch", "  This is the Description  for John SMITH.");
+        VALUES.put("caseIgnoreIA5Match", "JSmith@Example.COM");
+        VALUES.put("distinguishedNameMatch", "UID=User.42, OU=People, DC=Example, DC=Com");
+        VALUES.put("integerMatch", "123456789");
+        VALUES.put("generalizedTimeMatch", "20160923120000.123Z");
+        VALUES.put("telephoneNumberMatch", "+1 408-555-4798");
+    }
+
+    /** The name of the matching rule. */
+    @Param({ "caseIgnoreMatch", "caseExactMatch", "caseIgnoreIA5Match", "distinguishedNameMatch", "integerMatch",
+        "generalizedTimeMatch", "telephoneNumberMatch" })
+    public String matchingRuleName;
+
+    private MatchingRule matchingRule;
+    private ByteString value;
+    private ByteString normalizedValue;
+    private Assertion assertion;
+
+    /**
+     * Retrieves the matching rule from the core schema and prepares the assertion.
+     *
+     * @throws DecodeException
+     *             never
+     */
+    @Setup
+    public void setup() throws DecodeException {
+        matchingRule = Schema.getCoreSchema().getMatchingRule(matchingRuleName);
+        value = ByteString.valueOfUtf8(VALUES.get(matchingRuleName));
+        normalizedValue = matchingRule.normalizeAttributeValue(value);
+        assertion = matchingRule.getAssertion(value);
+    }
+
+    /**
+     * Normalizes an attribute value.
+     *
+     * @return the normalized value
+     * @throws DecodeException
+     *             never
+     */
+    @Benchmark
+    public ByteString normalizeAttributeValue() throws DecodeException {
+        return matchingRule.normalizeAttributeValue(value);
+    }
+
+    /**
+     * Creates an assertion, which normalizes the assertion value.
+     *
+     * @return the assertion
+     * @throws DecodeException
+     *             never
+     */
+    @Benchmark
+    public Assertion getAssertion() throws DecodeException {
+        return matchingRule.getAssertion(value);
+    }
+
+    /**
+     * Evaluates an assertion against a normalized attribute value.
+     *
+     * @return the result of the evaluation
+     */
+    @Benchmark
+    public ConditionResult matches() {
+        return assertion.matches(normalizedValue);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the computations on the dn2id keys performed for each entry read, added or searched by its DN.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DnKeyFormatBenchmark
+{
+  private DN dn;
+  private ByteString key;
+  private ByteString parentKey;
+
+  /** Computes the keys of an entry and of its parent. */
+  @Setup
+  public void setup()
+  {
+    dn = DN.valueOf("uid=user.42,ou=People,dc=example,dc=com");
+    key = DnKeyFormat.dnToDNKey(dn, 2);
+    parentKey = DnKeyFormat.dnToDNKey(dn.parent(), 2);
+  }
+
+  /**
+   * Computes the key of a DN below the base DN of its backend.
+   *
+   * @return the key
+   */
+  @Benchmark
+  public ByteString dnToDNKey()
+  {
+    return DnKeyFormat.dnToDNKey(dn, 2);
+  }
+
+  /**
+   * Finds the key of the parent of a key.
+   *
+   * @return the length of the parent key
+   */
+  @Benchmark
+  public int findDNKeyParent()
+  {
+    return DnKeyFormat.findDNKeyParent(key);
+  }
+
+  /**
+   * Checks whether a key is the key of a child of another key.
+   *
+   * @return {@code true}
+   */
+  @Benchmark
+  public boolean isChild()
+  {
+    return DnKeyFormat.isChild(parentKey, key);
+  }
+
+  /**
+   * Computes the lower bound of the keys of the children of a key, as when the children of an entry are listed.
+   *
+   * @return the lower bound
+   */
+  @Benchmark
+  public ByteStringBuilder beforeFirstChildOf()
+  {
+    return DnKeyFormat.beforeFirstChildOf(parentKey);
+  }
+}
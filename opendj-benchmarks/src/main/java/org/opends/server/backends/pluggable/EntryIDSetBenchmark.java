@@ -0,0 +1,153 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.backends.pluggable.EntryIDSet.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.EntryIDSet.EntryIDSetCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the encoding, decoding and combination of the entry ID sets read from the indexes, as performed when
+ * evaluating the indexed components of a search filter.
+ * <p>
+ * The combinations start from decoded index values, as the index queries do, so that the sets are not shared between
+ * invocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntryIDSetBenchmark
+{
+  private static final ByteString KEY = ByteString.valueOfUtf8("key");
+
+  /** The number of entry IDs of each set. */
+  @Param({ "100", "10000", "1000000" })
+  public int size;
+
+  /** The average distance between two consecutive entry IDs of a set. */
+  @Param({ "1", "10" })
+  public int spacing;
+
+  /** The codec of the index values: "V2" for the arrays of entry IDs, "V4" for the compressed bitmaps. */
+  @Param({ "V2", "V4" })
+  public String codecVersion;
+
+  private EntryIDSetCodec codec;
+  private EntryIDSet set1;
+  private ByteString encoded1;
+  private ByteString encoded2;
+
+  /** Creates two random sets of entry IDs overlapping over half of their range. */
+  @Setup
+  public void setup()
+  {
+    codec = "V4".equals(codecVersion) ? CODEC_V4 : CODEC_V2;
+    final Random random = new Random(0);
+    set1 = newDefinedSet(randomIDs(random, 1));
+    encoded1 = codec.encode(set1);
+    encoded2 = codec.encode(newDefinedSet(randomIDs(random, 1 + size * spacing / 2)));
+  }
+
+  private long[] randomIDs(Random random, long firstID)
+  {
+    final long[] ids = new long[size];
+    long id = firstID;
+    for (int i = 0; i < size; i++)
+    {
+      ids[i] = id;
+      id += 1 + random.nextInt(2 * spacing - 1);
+    }
+    return ids;
+  }
+
+  /**
+   * Encodes an index value.
+   *
+   * @return the encoded index value
+   */
+  @Benchmark
+  public ByteString encode()
+  {
+    return codec.encode(set1);
+  }
+
+  /**
+   * Decodes an index value.
+   *
+   * @return the decoded set
+   */
+  @Benchmark
+  public EntryIDSet decode()
+  {
+    return codec.decode(KEY, encoded1);
+  }
+
+  /**
+   * Decodes two index values and computes their intersection, as for an AND filter.
+   *
+   * @return the intersection
+   */
+  @Benchmark
+  public EntryIDSet decodeAndIntersect()
+  {
+    final EntryIDSet set = codec.decode(KEY, encoded1);
+    set.retainAll(codec.decode(KEY, encoded2));
+    return set;
+  }
+
+  /**
+   * Decodes two index values and computes their union, as for an OR filter.
+   *
+   * @return the union
+   */
+  @Benchmark
+  public EntryIDSet decodeAndUnion()
+  {
+    return newSetFromUnion(Arrays.asList(codec.decode(KEY, encoded1), codec.decode(KEY, encoded2)));
+  }
+
+  /**
+   * Decodes an index value and adds an entry ID beyond the existing ones, as when an entry is added.
+   *
+   * @return the updated set
+   */
+  @Benchmark
+  public EntryIDSet decodeAndAdd()
+  {
+    final EntryIDSet set = codec.decode(KEY, encoded1);
+    set.add(new EntryID(Long.MAX_VALUE / 2));
+    return set;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Entry;
+import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.util.LDIFReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the encoding of the entries to the id2entry tree and their decoding, which are performed for each entry
+ * written or read by the pluggable backends.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ID2EntryBenchmark
+{
+  private static final String LDIF = "dn: uid=user.42,ou=People,dc=example,dc=com\n"
+      + "objectClass: top\n"
+      + "objectClass: person\n"
+      + "objectClass: organizationalPerson\n"
+      + "objectClass: inetOrgPerson\n"
+      + "uid: user.42\n"
+      + "cn: John Smith\n"
+      + "sn: Smith\n"
+      + "givenName: John\n"
+      + "mail: jsmith@example.com\n"
+      + "telephoneNumber: +1 408 555 4798\n"
+      + "employeeNumber: 42\n"
+      + "description: This is the description for John Smith.\n"
+      + "userPassword: {SSHA}QlZBsNP8FspSmGVQ5WJ7ZkUzYaUXkwRbXxj8EA==\n";
+
+  /** Whether the entries are compressed. */
+  @Param({ "false", "true" })
+  public boolean compress;
+
+  private DataConfig dataConfig;
+  private ID2Entry id2entry;
+  private Entry entry;
+  private ByteString encodedEntry;
+
+  /**
+   * Bootstraps the server schema and encodes the decoded entry.
+   *
+   * @throws Exception
+   *           if the entry cannot be read or encoded
+   */
+  @Setup
+  public void setup() throws Exception
+  {
+    DirectoryServer.bootstrapClient();
+    final LDIFImportConfig importConfig = new LDIFImportConfig(new StringReader(LDIF));
+    importConfig.setValidateSchema(false);
+    try (LDIFReader reader = new LDIFReader(importConfig))
+    {
+      entry = reader.readEntry();
+    }
+    dataConfig = new DataConfig.Builder().compress(compress).encode(false).build();
+    id2entry = new ID2Entry(new TreeName("dc=example,dc=com", "id2entry"), dataConfig);
+    encodedEntry = id2entry.entryToDatabase(entry, dataConfig);
+  }
+
+  /**
+   * Encodes the entry.
+   *
+   * @return the encoded entry
+   * @throws Exception
+   *           never
+   */
+  @Benchmark
+  public ByteString encode() throws Exception
+  {
+    return id2entry.entryToDatabase(entry, dataConfig);
+  }
+
+  /**
+   * Decodes the entry.
+   *
+   * @return the decoded entry
+   * @throws Exception
+   *           never
+   */
+  @Benchmark
+  public Entry decode() throws Exception
+  {
+    return id2entry.entryFromDatabase(encodedEntry, DirectoryServer.getDefaultCompressedSchema());
+  }
+}
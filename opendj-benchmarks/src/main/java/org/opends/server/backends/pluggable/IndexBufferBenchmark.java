@@ -0,0 +1,117 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the buffering of the index updates of an entry, which are collected in an {@link IndexBuffer} before being
+ * written to the indexes when the entry is added, modified or deleted.
+ * <p>
+ * The indexes are never opened nor flushed, so that only the buffering is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexBufferBenchmark
+{
+  /** The number of indexes updated for the entry. */
+  @Param({ "10", "50" })
+  public int nbIndexes;
+
+  /** The number of keys of each index, like the substring keys of a value. */
+  @Param({ "1", "20" })
+  public int nbKeysPerIndex;
+
+  private final IndexBuffer buffer = new IndexBuffer();
+  private DefaultIndex[] indexes;
+  private ByteString[] keys;
+  private long nextEntryID;
+
+  /** Creates the indexes and the keys of the entry. */
+  @Setup
+  public void setup()
+  {
+    indexes = new DefaultIndex[nbIndexes];
+    for (int i = 0; i < nbIndexes; i++)
+    {
+      indexes[i] = new DefaultIndex(new TreeName("dc=example,dc=com", "attr" + i + ".equality"), null, 4000, null, null);
+    }
+    keys = new ByteString[nbKeysPerIndex];
+    for (int i = 0; i < nbKeysPerIndex; i++)
+    {
+      keys[i] = ByteString.valueOfUtf8("key" + i);
+    }
+  }
+
+  /**
+   * Buffers the index updates of a new entry.
+   *
+   * @return the buffer
+   */
+  @Benchmark
+  public IndexBuffer put()
+  {
+    buffer.reset();
+    final EntryID entryID = new EntryID(nextEntryID++);
+    for (DefaultIndex index : indexes)
+    {
+      for (ByteString key : keys)
+      {
+        buffer.put(index, key, entryID);
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Buffers the index updates of a modified entry, whose old keys are removed and new keys are added.
+   *
+   * @return the buffer
+   */
+  @Benchmark
+  public IndexBuffer removeAndPut()
+  {
+    buffer.reset();
+    final EntryID entryID = new EntryID(nextEntryID++);
+    for (DefaultIndex index : indexes)
+    {
+      for (ByteString key : keys)
+      {
+        buffer.remove(index, key, entryID);
+        buffer.put(index, key, entryID);
+      }
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.opends.server.protocols.ldap.LDAPConstants.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opends.server.util.StripedCounter;
+
+/**
+ * Measures the cost of updating the connection handler statistics when all the threads of the server update them
+ * concurrently, as the connections of a connection handler do for each message they read or write.
+ * <p>
+ * The {@code atomicLong} benchmarks show the cost of the previous implementation, where all the threads increment the
+ * same {@link AtomicLong}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class LDAPStatisticsBenchmark
+{
+  private final AtomicLong atomicBytesWritten = new AtomicLong();
+  private final AtomicLong atomicMessagesWritten = new AtomicLong();
+  private final AtomicLong atomicSearchResultEntries = new AtomicLong();
+
+  private final StripedCounter stripedBytesWritten = new StripedCounter();
+  private final StripedCounter stripedMessagesWritten = new StripedCounter();
+  private final StripedCounter stripedSearchResultEntries = new StripedCounter();
+
+  private final LDAPStatistics statistics = new LDAPStatistics("Benchmark Statistics");
+
+  /** Updates the counters for a search result entry with shared atomic longs. */
+  @Benchmark
+  public void atomicLong()
+  {
+    atomicBytesWritten.getAndAdd(100);
+    atomicMessagesWritten.getAndIncrement();
+    atomicSearchResultEntries.getAndIncrement();
+  }
+
+  /** Updates the counters for a search result entry with striped counters. */
+  @Benchmark
+  public void stripedCounter()
+  {
+    stripedBytesWritten.add(100);
+    stripedMessagesWritten.increment();
+    stripedSearchResultEntries.increment();
+  }
+
+  /** Updates the statistics as a connection does when writing a search result entry. */
+  @Benchmark
+  public void ldapStatistics()
+  {
+    statistics.updateBytesWritten(100);
+    statistics.updateMessageWritten(OP_TYPE_SEARCH_RESULT_ENTRY, 1);
+  }
+
+  /**
+   * Reads the statistics as the monitor backend does, which is now more expensive since all the cells are summed.
+   *
+   * @return a value computed from the statistics, so that reading them is not optimized away
+   */
+  @Benchmark
+  @Threads(1)
+  public long readLdapStatistics()
+  {
+    return statistics.getBytesWritten() + statistics.getMessagesWritten() + statistics.getSearchResultEntries();
+  }
+}
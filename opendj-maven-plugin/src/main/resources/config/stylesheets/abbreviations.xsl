@@ -44,6 +44,7 @@
               or $value = 'db' or $value = 'snmp' or $value = 'qos'
               or $value = 'ecl' or $value = 'ttl' or $value = 'jpeg'
               or $value = 'pbkdf2' or $value = 'pkcs5s2' or $value = 'pdb'
+              or $value = 'lsm'
              "/>
   </xsl:template>
 </xsl:stylesheet>
@@ -361,6 +361,11 @@ public final class LDAPClientConnection2 extends ClientConnection implements TLS
         return this.connectionValid;
     }
 
+    @Override
+    public boolean isKeepingLatencyHistograms() {
+        return keepStats && statTracker.isLatencyHistogramsEnabled();
+    }
+
     /**
      * Indicates whether this client connection is currently using a secure mechanism to communicate with the server.
      * Note that this may change over time based on operations performed by the client or server (e.g., it may go from
@@ -396,6 +401,7 @@ public final class LDAPClientConnection2 extends ClientConnection implements TLS
                 time = operation.getProcessingTime();
             }
             this.statTracker.updateOperationMonitoringData(operation.getOperationType(), time);
+            this.statTracker.updateOperationLatencies(operation);
         }
 
         // Avoid sending the response if one has already been sent. This may happen
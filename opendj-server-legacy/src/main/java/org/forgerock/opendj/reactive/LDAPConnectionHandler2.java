@@ -277,6 +277,7 @@ public final class LDAPConnectionHandler2 extends ConnectionHandler<LDAPConnecti
         }
 
         // Apply the changes.
+        statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
         currentConfig = config;
         enabled = config.isEnabled();
         allowedClients = config.getAllowedClient();
@@ -540,6 +541,7 @@ public final class LDAPConnectionHandler2 extends ConnectionHandler<LDAPConnecti
 
         // Create and register monitors.
         statTracker = new LDAPStatistics(handlerName + " Statistics");
+        statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
         DirectoryServer.registerMonitorProvider(statTracker);
 
         connMonitor = new ClientConnectionMonitorProvider(this);
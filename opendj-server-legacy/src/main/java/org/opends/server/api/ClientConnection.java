@@ -1576,4 +1576,17 @@ public abstract class ClientConnection
   {
     return getConnectionID() < 0;
   }
+
+  /**
+   * Indicates whether the latencies of the operations of this client
+   * connection are kept in histograms, in which case the operations
+   * record when they are created and when their processing starts.
+   *
+   * @return {@code true} if the latencies of the operations are kept,
+   *         {@code false} otherwise
+   */
+  public boolean isKeepingLatencyHistograms()
+  {
+    return false;
+  }
 }
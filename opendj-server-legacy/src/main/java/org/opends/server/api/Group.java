@@ -248,6 +248,30 @@ public abstract class Group<T extends GroupImplementationCfg>
   public abstract void removeNestedGroup(DN nestedGroupDN)
          throws UnsupportedOperationException, DirectoryException;
 
+  /**
+   * Retrieves the DNs explicitly listed as members of this group,
+   * including the DNs of the nested groups but not their members.
+   * The group manager relies on them to maintain its reverse
+   * membership index, so that finding the groups of an entry does
+   * not require evaluating every group.
+   * <p>
+   * The returned set is a read-only view reflecting the current
+   * members of this group: checking whether it contains a DN must be
+   * cheap, whereas iterating over it may be expensive.
+   * <p>
+   * The default implementation returns {@code null}, meaning the
+   * members of this group are not explicitly listed and membership
+   * must be determined by calling {@link #isMember(Entry)}.
+   *
+   * @return  A read-only view of the DNs explicitly listed as members
+   *          of this group, or {@code null} if they are not
+   *          explicitly listed.
+   */
+  public Set<DN> getDirectMemberDNs()
+  {
+    return null;
+  }
+
   /**
    * Indicates whether the user with the specified DN is a member of
    * this group.  Note that this is a point-in-time determination and
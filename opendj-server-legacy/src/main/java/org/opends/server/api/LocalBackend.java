@@ -21,7 +21,6 @@ import static org.opends.messages.BackendMessages.*;
 import java.util.Collection;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.forgerock.opendj.config.Configuration;
 import org.forgerock.opendj.config.server.ConfigException;
@@ -40,6 +39,7 @@ import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.PersistentSearch;
 import org.opends.server.core.PersistentSearch.CancellationCallback;
+import org.opends.server.core.PersistentSearchDispatcher;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.monitors.LocalBackendMonitor;
@@ -77,8 +77,8 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
   /** The writability mode for this backend. */
   private WritabilityMode writabilityMode = WritabilityMode.ENABLED;
 
-  /** The set of persistent searches registered with this backend. */
-  private final ConcurrentLinkedQueue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
+  /** The persistent searches registered with this backend. */
+  private final PersistentSearchDispatcher persistentSearches = new PersistentSearchDispatcher();
 
   /** The backend monitor associated with this backend. */
   private LocalBackendMonitor backendMonitor;
@@ -100,11 +100,11 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
   @Override
   public final void finalizeBackend()
   {
-    for (PersistentSearch psearch : persistentSearches)
+    for (PersistentSearch psearch : persistentSearches.getPersistentSearches())
     {
       psearch.cancel();
+      persistentSearches.deregister(psearch);
     }
-    persistentSearches.clear();
     closeBackend();
   }
 
@@ -667,14 +667,14 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
    */
   public void registerPersistentSearch(PersistentSearch persistentSearch) throws DirectoryException
   {
-    persistentSearches.add(persistentSearch);
+    persistentSearches.register(persistentSearch);
 
     persistentSearch.registerCancellationCallback(new CancellationCallback()
     {
       @Override
       public void persistentSearchCancelled(PersistentSearch psearch)
       {
-        persistentSearches.remove(psearch);
+        persistentSearches.deregister(psearch);
       }
     });
   }
@@ -687,6 +687,17 @@ public abstract class LocalBackend<C extends Configuration> extends Backend<C>
    *         backend
    */
   public Queue<PersistentSearch> getPersistentSearches()
+  {
+    return persistentSearches.getPersistentSearches();
+  }
+
+  /**
+   * Returns the dispatcher notifying the persistent searches currently active
+   * against this local backend of the changes they may return.
+   *
+   * @return the dispatcher of the persistent searches of this local backend
+   */
+  public PersistentSearchDispatcher getPersistentSearchDispatcher()
   {
     return persistentSearches;
   }
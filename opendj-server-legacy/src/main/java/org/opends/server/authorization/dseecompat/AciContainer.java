@@ -34,10 +34,11 @@ import org.opends.server.api.ClientConnection;
 import org.opends.server.api.Group;
 import org.opends.server.controls.GetEffectiveRightsRequestControl;
 import org.opends.server.core.AddOperation;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.GroupManager;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.types.AuthenticationInfo;
 import org.opends.server.types.AuthenticationType;
-import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Operation;
 
@@ -649,18 +650,15 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
 
     @Override
     public boolean isMemberOf(Group<?> group) {
-        try {
-            if(useAuthzid) {
-                return group.isMember(this.authzid);
-            }
-            Entry e = getClientEntry();
-            if (e != null) {
-                return group.isMember(e);
-            }
-            return group.isMember(getClientDN());
-        } catch (DirectoryException ex) {
-            return false;
+        GroupManager groupManager = DirectoryServer.getGroupManager();
+        if(useAuthzid) {
+            return groupManager.isMember(group, this.authzid);
+        }
+        Entry e = getClientEntry();
+        if (e != null) {
+            return groupManager.isMember(group, e);
         }
+        return groupManager.isMember(group, getClientDN());
     }
 
   /**
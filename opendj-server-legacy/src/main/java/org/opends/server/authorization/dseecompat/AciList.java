@@ -20,13 +20,16 @@ import static org.opends.messages.AccessControlMessages.*;
 import static org.opends.server.authorization.dseecompat.AciHandler.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -40,23 +43,49 @@ import org.opends.server.types.Entry;
 /**
  * The AciList class performs caching of the ACI attribute values
  * using the entry DN as the key.
+ * <p>
+ * The ACIs are stored in immutable snapshots which are replaced as a whole
+ * each time the ACIs change, so that readers never need to take a lock. Each
+ * snapshot also caches the candidate ACIs computed for each DN, which saves
+ * walking up the DIT for every attribute of every entry being evaluated. This
+ * cache is implicitly invalidated when the {@link AciListenerManager} reports
+ * an ACI change, since the change publishes a new snapshot.
  */
 public class AciList {
 
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /**
+   * The maximum number of DNs for which candidate ACIs are cached. The cache is
+   * cleared when it is full: searches returning many entries mostly evaluate
+   * the same entry several times in a row, once per attribute.
+   */
+  private static final int MAX_CACHED_CANDIDATES = 10000;
+
+  /** An immutable set of ACIs together with the candidate ACIs already computed from it. */
+  private static final class Snapshot
+  {
+    /** A map containing all the ACIs, which must not be modified once published. */
+    private final DITCacheMap<List<Aci>> aciList;
+    /** The candidate ACIs computed from this snapshot, keyed by the evaluated DN. */
+    private final ConcurrentMap<DN, List<Aci>> candidates = new ConcurrentHashMap<>();
+
+    private Snapshot(DITCacheMap<List<Aci>> aciList)
+    {
+      this.aciList = aciList;
+    }
+  }
 
   /**
-   * A map containing all the ACIs.
+   * The current ACIs.
    * We use the copy-on-write technique to avoid locking when reading.
    */
-  private volatile DITCacheMap<List<Aci>> aciList = new DITCacheMap<>();
+  private volatile Snapshot snapshot = new Snapshot(new DITCacheMap<List<Aci>>());
 
   /**
-   * Lock to protect internal data structures.
+   * Lock serializing the updates of the ACIs.
    */
-  private final ReentrantReadWriteLock lock =
-          new ReentrantReadWriteLock();
+  private final ReentrantLock lock = new ReentrantLock();
 
   /** The configuration DN used to compare against the global ACI entry DN. */
   private final DN configDN;
@@ -81,52 +110,75 @@ public class AciList {
    * @return A list of candidate ACIs that might be applicable.
    */
   public List<Aci> getCandidateAcis(DN baseDN) {
-    List<Aci> candidates = new LinkedList<>();
     if(baseDN == null)
     {
-      return candidates;
+      return Collections.emptyList();
     }
 
-    lock.readLock().lock();
-    try
-    {
-      //Save the baseDN in case we need to evaluate a global ACI.
-      DN entryDN=baseDN;
-      while (baseDN != null) {
-        List<Aci> acis = aciList.get(baseDN);
-        if (acis != null) {
-          //Check if there are global ACIs. Global ACI has a NULL DN.
-          if (baseDN.isRootDN()) {
-            for (Aci aci : acis) {
-              AciTargets targets = aci.getTargets();
-              //If there is a target, evaluate it to see if this ACI should
-              //be included in the candidate set.
-              if (targets != null
-                  && AciTargets.isTargetApplicable(aci, targets, entryDN))
-              {
-                  candidates.add(aci);  //Add this ACI to the candidates.
-              }
+    final Snapshot current = snapshot;
+    List<Aci> candidates = current.candidates.get(baseDN);
+    if (candidates == null) {
+      candidates = computeCandidateAcis(current.aciList, baseDN);
+      if (current.candidates.size() >= MAX_CACHED_CANDIDATES) {
+        current.candidates.clear();
+      }
+      current.candidates.put(baseDN, candidates);
+    }
+    return candidates;
+  }
+
+  private static List<Aci> computeCandidateAcis(DITCacheMap<List<Aci>> aciList, DN baseDN) {
+    List<Aci> candidates = new ArrayList<>();
+    //Save the baseDN in case we need to evaluate a global ACI.
+    DN entryDN=baseDN;
+    while (baseDN != null) {
+      List<Aci> acis = aciList.get(baseDN);
+      if (acis != null) {
+        //Check if there are global ACIs. Global ACI has a NULL DN.
+        if (baseDN.isRootDN()) {
+          for (Aci aci : acis) {
+            AciTargets targets = aci.getTargets();
+            //If there is a target, evaluate it to see if this ACI should
+            //be included in the candidate set.
+            if (targets != null
+                && AciTargets.isTargetApplicable(aci, targets, entryDN))
+            {
+                candidates.add(aci);  //Add this ACI to the candidates.
             }
-          } else {
-            candidates.addAll(acis);
           }
-        }
-        if(baseDN.isRootDN()) {
-          break;
-        }
-        DN parentDN=baseDN.parent();
-        if(parentDN == null) {
-          baseDN=DN.rootDN();
         } else {
-          baseDN=parentDN;
+          candidates.addAll(acis);
         }
       }
-      return candidates;
-    }
-    finally
-    {
-      lock.readLock().unlock();
+      if(baseDN.isRootDN()) {
+        break;
+      }
+      DN parentDN=baseDN.parent();
+      if(parentDN == null) {
+        baseDN=DN.rootDN();
+      } else {
+        baseDN=parentDN;
+      }
     }
+    return Collections.unmodifiableList(candidates);
+  }
+
+  /**
+   * Returns a copy of the current ACIs, which can be modified then published
+   * with {@link #publish(DITCacheMap)}. Must be called with the lock held.
+   */
+  private DITCacheMap<List<Aci>> copyAciList() {
+    DITCacheMap<List<Aci>> copy = new DITCacheMap<>();
+    copy.putAll(snapshot.aciList);
+    return copy;
+  }
+
+  /**
+   * Makes the provided ACIs visible to the readers, discarding the cached
+   * candidate ACIs. Must be called with the lock held.
+   */
+  private void publish(DITCacheMap<List<Aci>> aciList) {
+    snapshot = new Snapshot(aciList);
   }
 
   /**
@@ -141,9 +193,10 @@ public class AciList {
   public int addAci(List<? extends Entry> entries,
                                  LinkedList<LocalizableMessage> failedACIMsgs)
   {
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       int validAcis = 0;
       for (Entry entry : entries) {
         DN dn=entry.getName();
@@ -152,11 +205,12 @@ public class AciList {
         validAcis += addAciAttributeList(aciList, dn, configDN,
                                          attributeList, failedACIMsgs);
       }
+      publish(aciList);
       return validAcis;
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -170,14 +224,16 @@ public class AciList {
    *
    */
   public void addAci(DN dn, SortedSet<Aci> acis) {
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       aciList.put(dn, new LinkedList<>(acis));
+      publish(aciList);
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -195,9 +251,10 @@ public class AciList {
   public int addAci(Entry entry, boolean hasAci,
                                  boolean hasGlobalAci,
                                  List<LocalizableMessage> failedACIMsgs) {
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       int validAcis = 0;
       //Process global "ds-cfg-global-aci" attribute type. The oldentry
       //DN is checked to verify it is equal to the config DN. If not those
@@ -213,11 +270,12 @@ public class AciList {
           validAcis += addAciAttributeList(aciList, entry.getName(), configDN,
                                            attributeList, failedACIMsgs);
       }
+      publish(aciList);
       return validAcis;
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -282,9 +340,10 @@ public class AciList {
                                              boolean hasAci,
                                              boolean hasGlobalAci) {
 
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       List<LocalizableMessage> failedACIMsgs=new LinkedList<>();
       //Process "aci" attribute types.
       if(hasAci) {
@@ -303,17 +362,18 @@ public class AciList {
           addAciAttributeList(aciList, DN.rootDN(), configDN,
                               attributeList, failedACIMsgs);
       }
+      publish(aciList);
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
   /**
    * Add ACI using the DN as a key. If the DN already
    * has ACI(s) on the list, then the new ACI is added to the
-   * end of the array.
+   * end of a copy of the array, since the published lists must not change.
    * @param aciList The set of ACIs to which ACI is to be added.
    * @param dn The DN to use as the key.
    * @param acis The ACI to be added.
@@ -322,8 +382,9 @@ public class AciList {
                              List<Aci> acis)
   {
     if(aciList.containsKey(dn)) {
-      List<Aci> tmpAci = aciList.get(dn);
+      List<Aci> tmpAci = new ArrayList<>(aciList.get(dn));
       tmpAci.addAll(acis);
+      aciList.put(dn, tmpAci);
     } else {
       aciList.put(dn, acis);
     }
@@ -343,24 +404,41 @@ public class AciList {
    */
   public boolean removeAci(Entry entry,  boolean hasAci,
                                                       boolean hasGlobalAci) {
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> current = snapshot.aciList;
       DN entryDN = entry.getName();
-      if (hasGlobalAci && entryDN.equals(configDN) &&
-          aciList.remove(DN.rootDN()) == null)
+      boolean removeGlobalAcis = hasGlobalAci && entryDN.equals(configDN);
+      if (removeGlobalAcis && !current.containsKey(DN.rootDN()))
       {
         return false;
       }
-      if (hasAci || !hasGlobalAci)
+      boolean removeSubtree = hasAci || !hasGlobalAci;
+      if (!removeGlobalAcis
+          && (!removeSubtree || !current.containsSubtree(entryDN)))
+      {
+        // Most deleted entries have no ACIs at or below them: keep the
+        // published snapshot, along with the candidate ACIs it caches.
+        return !removeSubtree;
+      }
+
+      DITCacheMap<List<Aci>> aciList = copyAciList();
+      if (removeGlobalAcis)
       {
-        return aciList.removeSubtree(entryDN, null);
+        aciList.remove(DN.rootDN());
       }
-      return true;
+      boolean removed = true;
+      if (removeSubtree)
+      {
+        removed = aciList.removeSubtree(entryDN, null);
+      }
+      publish(aciList);
+      return removed;
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -371,9 +449,10 @@ public class AciList {
    */
   public void removeAci(LocalBackend<?> backend) {
 
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       Iterator<Map.Entry<DN,List<Aci>>> iterator =
               aciList.entrySet().iterator();
       while (iterator.hasNext())
@@ -384,10 +463,11 @@ public class AciList {
           iterator.remove();
         }
       }
+      publish(aciList);
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 
@@ -399,9 +479,15 @@ public class AciList {
    */
   public void renameAci(DN oldDN, DN newDN ) {
 
-    lock.writeLock().lock();
+    lock.lock();
     try
     {
+      if (!snapshot.aciList.containsSubtree(oldDN))
+      {
+        // No ACIs to move: keep the published snapshot.
+        return;
+      }
+      DITCacheMap<List<Aci>> aciList = copyAciList();
       Map<DN,List<Aci>> tempAciList = new HashMap<>();
       Iterator<Map.Entry<DN,List<Aci>>> iterator =
               aciList.entrySet().iterator();
@@ -428,10 +514,11 @@ public class AciList {
         }
       }
       aciList.putAll(tempAciList);
+      publish(aciList);
     }
     finally
     {
-      lock.writeLock().unlock();
+      lock.unlock();
     }
   }
 }
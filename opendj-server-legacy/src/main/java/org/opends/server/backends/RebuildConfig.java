@@ -42,6 +42,9 @@ public class RebuildConfig
   private final List<String> rebuildList = new ArrayList<>();
   private String tmpDirectory;
   private boolean isClearDegradedState;
+  private boolean isOnline;
+  /** The maximum number of entries indexed per second by an online rebuild, or 0 if unlimited. */
+  private int maxEntriesPerSecond;
 
   /**
    * Get the base DN to rebuild.
@@ -228,4 +231,52 @@ public class RebuildConfig
     this.isClearDegradedState = isClearDegradedState;
   }
 
+  /**
+   * Returns {@code true} if the indexes should be built while the backend
+   * remains online, instead of rebuilding them with exclusive access to the
+   * backend.
+   *
+   * @return {@code true} if the indexes should be built online.
+   */
+  public boolean isOnline()
+  {
+    return isOnline;
+  }
+
+  /**
+   * Sets whether the indexes should be built while the backend remains online.
+   *
+   * @param isOnline
+   *          {@code true} if the indexes should be built online.
+   */
+  public void setOnline(boolean isOnline)
+  {
+    this.isOnline = isOnline;
+  }
+
+  /**
+   * Returns the maximum number of entries indexed per second by an online
+   * rebuild.
+   *
+   * @return The maximum number of entries indexed per second, or 0 if the
+   *         online rebuild is not throttled.
+   */
+  public int getMaxEntriesPerSecond()
+  {
+    return maxEntriesPerSecond;
+  }
+
+  /**
+   * Sets the maximum number of entries indexed per second by an online
+   * rebuild.
+   *
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries indexed per second, or 0 if the
+   *          online rebuild should not be throttled.
+   */
+  public void setMaxEntriesPerSecond(int maxEntriesPerSecond)
+  {
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+  }
+
 }
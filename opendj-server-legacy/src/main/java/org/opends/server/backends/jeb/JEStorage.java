@@ -60,11 +60,13 @@ import org.opends.server.backends.pluggable.spi.EmptyCursor;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadCommittedSnapshot;
 import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
 import org.opends.server.backends.pluggable.spi.StorageStatus;
 import org.opends.server.backends.pluggable.spi.StorageUtils;
 import org.opends.server.backends.pluggable.spi.TreeName;
@@ -454,6 +456,47 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       }
     }
 
+    @Override
+    public List<ByteString> multiRead(final TreeName treeName, final List<? extends ByteSequence> keys)
+    {
+      /*
+       * Skip ahead with a single cursor: once positioned on the first record following a key,
+       * the keys located before this record are known to be missing without searching the tree again.
+       */
+      try (final com.sleepycat.je.Cursor cursor =
+          getOrOpenTree(treeName).openCursor(txn, CursorConfig.READ_COMMITTED))
+      {
+        final List<ByteString> values = new ArrayList<>(keys.size());
+        final DatabaseEntry dbValue = new DatabaseEntry();
+        ByteString nextExistingKey = null;
+        boolean exhausted = false;
+        for (final ByteSequence key : keys)
+        {
+          if (exhausted || (nextExistingKey != null && nextExistingKey.compareTo(key) > 0))
+          {
+            values.add(null);
+            continue;
+          }
+          final DatabaseEntry dbKey = db(key);
+          if (cursor.getSearchKeyRange(dbKey, dbValue, null) == SUCCESS)
+          {
+            nextExistingKey = ByteString.wrap(dbKey.getData());
+            values.add(nextExistingKey.compareTo(key) == 0 ? ByteString.wrap(dbValue.getData()) : null);
+          }
+          else
+          {
+            exhausted = true;
+            values.add(null);
+          }
+        }
+        return values;
+      }
+      catch (DatabaseException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+
     @Override
     public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
     {
@@ -537,6 +580,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       return delegate.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return delegate.multiRead(treeName, keys);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -626,6 +675,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       return null;
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return Collections.<ByteString> nCopies(keys.size(), null);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -866,6 +921,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     }
   }
 
+  @Override
+  public StorageSnapshot openSnapshot()
+  {
+    return new ReadCommittedSnapshot(this);
+  }
+
   @Override
   public Importer startImport() throws ConfigException, StorageRuntimeException
   {
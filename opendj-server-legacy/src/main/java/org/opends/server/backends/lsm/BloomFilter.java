@@ -0,0 +1,166 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+
+/**
+ * Bloom filter over the keys of a sorted table, used to skip the tables which cannot contain a key without reading
+ * them.
+ * <p>
+ * The bit positions are derived from a single 64 bits hash of the key, by double hashing.
+ */
+final class BloomFilter
+{
+  /** The number of bits per key, which gives a false positive rate of about 1%. */
+  static final int BITS_PER_KEY = 10;
+  /** The number of hash functions which minimizes the false positive rate for {@link #BITS_PER_KEY}. */
+  private static final int NB_HASHES = 7;
+
+  private final long[] bits;
+  private final long nbBits;
+  private final int nbHashes;
+
+  private BloomFilter(long[] bits, int nbHashes)
+  {
+    this.bits = bits;
+    this.nbBits = (long) bits.length * Long.SIZE;
+    this.nbHashes = nbHashes;
+  }
+
+  /**
+   * Builds a filter containing the provided key hashes.
+   *
+   * @param hashes
+   *          the hashes of the keys, as computed by {@link #hash(ByteSequence)}
+   * @param nbKeys
+   *          the number of hashes to read from the array
+   * @return a new filter containing the keys
+   */
+  static BloomFilter build(long[] hashes, int nbKeys)
+  {
+    final long nbBits = Math.max(Long.SIZE, (long) nbKeys * BITS_PER_KEY);
+    final BloomFilter filter = new BloomFilter(new long[(int) ((nbBits + Long.SIZE - 1) / Long.SIZE)], NB_HASHES);
+    for (int i = 0; i < nbKeys; i++)
+    {
+      filter.add(hashes[i]);
+    }
+    return filter;
+  }
+
+  /**
+   * Reads a filter written by {@link #writeTo(DataOutput)}.
+   *
+   * @param buffer
+   *          the buffer, positioned at the start of the filter
+   * @return the filter
+   */
+  static BloomFilter readFrom(ByteBuffer buffer)
+  {
+    final int nbHashes = buffer.getInt();
+    final long[] bits = new long[buffer.getInt()];
+    buffer.asLongBuffer().get(bits);
+    return new BloomFilter(bits, nbHashes);
+  }
+
+  /**
+   * Writes this filter.
+   *
+   * @param out
+   *          where to write this filter
+   * @throws IOException
+   *           if an I/O error occurs
+   */
+  void writeTo(DataOutput out) throws IOException
+  {
+    out.writeInt(nbHashes);
+    out.writeInt(bits.length);
+    for (long word : bits)
+    {
+      out.writeLong(word);
+    }
+  }
+
+  /**
+   * Returns whether a key might have been added to this filter.
+   *
+   * @param keyHash
+   *          the hash of the key, as computed by {@link #hash(ByteSequence)}
+   * @return {@code false} if the key has not been added to this filter, {@code true} if it probably has
+   */
+  boolean mightContain(long keyHash)
+  {
+    final int h1 = (int) keyHash;
+    final int h2 = (int) (keyHash >>> 32);
+    for (int i = 1; i <= nbHashes; i++)
+    {
+      if (!isSet(bitIndex(h1, h2, i)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void add(long hash)
+  {
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= nbHashes; i++)
+    {
+      final long index = bitIndex(h1, h2, i);
+      bits[(int) (index >>> 6)] |= 1L << index;
+    }
+  }
+
+  private boolean isSet(long index)
+  {
+    return (bits[(int) (index >>> 6)] & (1L << index)) != 0;
+  }
+
+  private long bitIndex(int h1, int h2, int i)
+  {
+    final int combined = h1 + i * h2;
+    return (combined < 0 ? ~combined : combined) % nbBits;
+  }
+
+  /**
+   * Computes the hash of a key, using FNV-1a followed by a finalizer spreading its bits.
+   *
+   * @param key
+   *          the key
+   * @return the 64 bits hash of the key
+   */
+  static long hash(ByteSequence key)
+  {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      hash ^= key.byteAt(i) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
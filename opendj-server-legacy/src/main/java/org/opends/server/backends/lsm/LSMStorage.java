@@ -0,0 +1,2062 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.forgerock.util.Utils.*;
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.api.DiskSpaceMonitorHandler;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.EmptyCursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * Log-structured merge tree implementation of the {@link Storage} engine.
+ * <p>
+ * The write operations are appended to a write-ahead log, then applied to a memory table. When the memory table
+ * reaches its maximum size, it is frozen and a background thread writes it to a new immutable sorted table, which is
+ * memory mapped and has a bloom filter of its keys. The background thread also merges the sorted tables once there
+ * are too many of them, dropping the deleted and overwritten records. The records are read from the memory tables,
+ * then from the sorted tables from the newest to the oldest.
+ * <p>
+ * The read operations never wait for the write operations, nor the write operations for the read operations. Each
+ * write operation is given a sequence number, which tags the versions of the records it puts in the memory table, and
+ * which is published once all its records are in the memory table and synced to disk. A read operation only reads
+ * the versions tagged with the sequence number published when it started, or an older one, so it never sees part of a
+ * write operation. The versions which are not published yet, and the newest published one, remain linked to the new
+ * version while the older versions are unlinked, so a read operation which needs an unlinked version reads the changes
+ * committed since instead, like with read-committed isolation. The memory and sorted tables are replaced as a whole,
+ * so that a read operation keeps reading the ones of the time it started.
+ * <p>
+ * The write operations append their changes to the write-ahead log and apply them one at a time, but the log is
+ * synced to disk outside of the writer lock: a single sync covers all the write operations appended while the
+ * previous sync was in progress, and each write operation returns once its changes are synced.
+ * <p>
+ * All the trees share the same memory and sorted tables, the key of each record being prefixed with the identifier of
+ * its tree. Deleting a tree only removes it from the tree catalog, its records being dropped by the next compaction.
+ * <p>
+ * The current state of the storage is described by a manifest file listing the sorted tables, the tree catalog and
+ * the first write-ahead log which has not been written to a sorted table. As all these files are immutable, apart from
+ * the write-ahead log which is only appended to, a backup copies the files of the current manifest, their deletion
+ * being deferred until the end of the backup. A snapshot similarly keeps the tables of the time it was opened, along
+ * with a copy of the memory table.
+ */
+public final class LSMStorage implements Storage, Backupable, ConfigurationChangeListener<LSMBackendCfg>,
+    DiskSpaceMonitorHandler
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String TABLE_SUFFIX = ".sst";
+  private static final String WAL_SUFFIX = ".wal";
+  private static final String MANIFEST_SUFFIX = ".manifest";
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final int MANIFEST_FORMAT_VERSION = 1;
+  private static final String BACKGROUND_THREAD_NAME = "LSM compactor %d";
+  /** The approximate memory used by a record of the memory table, in addition to its key and value. */
+  private static final int RECORD_OVERHEAD = 64;
+
+  /** Filter to retrieve the files of the storage, including the files which are not referenced anymore. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      final String name = file.getName();
+      return name.endsWith(TABLE_SUFFIX) || name.endsWith(WAL_SUFFIX) || name.endsWith(MANIFEST_SUFFIX);
+    }
+  };
+
+  /** Source of records read by the cursors, the keys being prefixed with the tree identifiers. */
+  private abstract static class Source
+  {
+    abstract Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive);
+
+    abstract Map.Entry<ByteString, ByteString> lower(ByteString key);
+
+    static Source of(final NavigableMap<ByteString, ByteString> memTable)
+    {
+      return new Source()
+      {
+        @Override
+        Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive)
+        {
+          return inclusive ? memTable.ceilingEntry(key) : memTable.higherEntry(key);
+        }
+
+        @Override
+        Map.Entry<ByteString, ByteString> lower(ByteString key)
+        {
+          return memTable.lowerEntry(key);
+        }
+      };
+    }
+
+    /** Returns the source of the versions of the records of a memory table which are read by a transaction. */
+    static Source of(final NavigableMap<ByteString, MemRecord> memTable, final TransactionImpl txn)
+    {
+      return new Source()
+      {
+        @Override
+        Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive)
+        {
+          Map.Entry<ByteString, MemRecord> record = inclusive ? memTable.ceilingEntry(key) : memTable.higherEntry(key);
+          while (record != null)
+          {
+            final ByteString value = txn.getValue(record.getValue());
+            if (value != null)
+            {
+              return new SimpleImmutableEntry<>(record.getKey(), value);
+            }
+            record = memTable.higherEntry(record.getKey());
+          }
+          return null;
+        }
+
+        @Override
+        Map.Entry<ByteString, ByteString> lower(ByteString key)
+        {
+          Map.Entry<ByteString, MemRecord> record = memTable.lowerEntry(key);
+          while (record != null)
+          {
+            final ByteString value = txn.getValue(record.getValue());
+            if (value != null)
+            {
+              return new SimpleImmutableEntry<>(record.getKey(), value);
+            }
+            record = memTable.lowerEntry(record.getKey());
+          }
+          return null;
+        }
+      };
+    }
+
+    static Source of(final SSTable table)
+    {
+      return new Source()
+      {
+        @Override
+        Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive)
+        {
+          return table.ceiling(key, inclusive);
+        }
+
+        @Override
+        Map.Entry<ByteString, ByteString> lower(ByteString key)
+        {
+          return table.lower(key);
+        }
+      };
+    }
+  }
+
+  /**
+   * A version of a record of a memory table. The version it replaced remains linked to it for the read operations
+   * which do not read the changes of its write operation yet, until a later write operation replaces it in turn.
+   */
+  private static final class MemRecord
+  {
+    /** Ends the versions of a record which did not exist in the memory table, and is read by all the operations. */
+    private static final MemRecord ABSENT = new MemRecord(null, 0, null);
+
+    /** The value, {@link SSTable#TOMBSTONE} for a deleted record, or null for {@link #ABSENT}. */
+    private final ByteString value;
+    /** The sequence number of the write operation which put this version. */
+    private final long seq;
+    /** The version replaced by this one, or null if it has been unlinked. */
+    private volatile MemRecord previous;
+
+    private MemRecord(ByteString value, long seq, MemRecord previous)
+    {
+      this.value = value;
+      this.seq = seq;
+      this.previous = previous;
+    }
+
+    /** Returns the newest version tagged with a sequence number up to the provided one, or null if it is unlinked. */
+    private MemRecord getVersion(long maxSeq)
+    {
+      MemRecord version = this;
+      while (version != null && version.seq > maxSeq)
+      {
+        version = version.previous;
+      }
+      return version;
+    }
+  }
+
+  /** The memory and sorted tables, which are replaced as a whole so that the operations read them without locking. */
+  private static final class TableSet
+  {
+    private final ConcurrentSkipListMap<ByteString, MemRecord> memTable;
+    /** The memory table being written to a sorted table, or null. */
+    private final ConcurrentSkipListMap<ByteString, MemRecord> frozenMemTable;
+    /** The sorted tables, from the newest to the oldest. */
+    private final List<SSTable> tables;
+
+    private TableSet(ConcurrentSkipListMap<ByteString, MemRecord> memTable,
+        ConcurrentSkipListMap<ByteString, MemRecord> frozenMemTable, List<SSTable> tables)
+    {
+      this.memTable = memTable;
+      this.frozenMemTable = frozenMemTable;
+      this.tables = tables;
+    }
+
+    private static TableSet empty()
+    {
+      return new TableSet(new ConcurrentSkipListMap<ByteString, MemRecord>(), null, Collections.<SSTable> emptyList());
+    }
+  }
+
+  /**
+   * Cursor merging the records of the memory and sorted tables. The records of the newest source hide the records
+   * with the same key in the older sources, and the deleted records are skipped.
+   */
+  private final class CursorImpl implements Cursor<ByteString, ByteString>
+  {
+    private final TreeName treeName;
+    private final TransactionImpl txn;
+    /** The sources, from the newest to the oldest. */
+    private final List<Source> sources;
+    private final ByteString firstKey;
+    private final ByteString endKey;
+    /** The key following which {@link #next()} moves, or null to move to the first record. */
+    private ByteString position;
+    private ByteString currentKey;
+    private ByteString currentValue;
+    private boolean exhausted;
+
+    private CursorImpl(TreeName treeName, long treeId, TransactionImpl txn)
+    {
+      this.treeName = treeName;
+      this.txn = txn;
+      this.sources = txn.getSources();
+      this.firstKey = internalKey(treeId, ByteString.empty());
+      this.endKey = internalKey(treeId + 1, ByteString.empty());
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (exhausted)
+      {
+        return false;
+      }
+      return moveTo(position == null ? ceiling(firstKey, true) : ceiling(position, false));
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return currentKey != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return currentKey;
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return currentValue;
+    }
+
+    @Override
+    public void delete()
+    {
+      throwIfUndefined();
+      txn.delete(treeName, currentKey);
+      currentKey = null;
+      currentValue = null;
+    }
+
+    @Override
+    public boolean positionToKey(ByteSequence key)
+    {
+      exhausted = false;
+      position = internalKey(firstKey, key);
+      final ByteString value = txn.get(position);
+      currentKey = value != null ? key.toByteString() : null;
+      currentValue = value;
+      return value != null;
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(ByteSequence key)
+    {
+      exhausted = false;
+      return moveTo(ceiling(internalKey(firstKey, key), true));
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      exhausted = false;
+      return moveTo(lower(endKey));
+    }
+
+    @Override
+    public boolean positionToIndex(int index)
+    {
+      exhausted = false;
+      position = null;
+      currentKey = null;
+      currentValue = null;
+      for (int i = 0; i <= index; i++)
+      {
+        if (!next())
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      currentKey = null;
+      currentValue = null;
+    }
+
+    private Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive)
+    {
+      while (true)
+      {
+        Map.Entry<ByteString, ByteString> first = null;
+        for (Source source : sources)
+        {
+          final Map.Entry<ByteString, ByteString> record = source.ceiling(key, inclusive);
+          if (record != null && (first == null || record.getKey().compareTo(first.getKey()) < 0))
+          {
+            first = record;
+          }
+        }
+        if (first == null || first.getKey().compareTo(endKey) >= 0)
+        {
+          return null;
+        }
+        else if (first.getValue() != SSTable.TOMBSTONE)
+        {
+          return first;
+        }
+        key = first.getKey();
+        inclusive = false;
+      }
+    }
+
+    private Map.Entry<ByteString, ByteString> lower(ByteString key)
+    {
+      while (true)
+      {
+        Map.Entry<ByteString, ByteString> last = null;
+        for (Source source : sources)
+        {
+          final Map.Entry<ByteString, ByteString> record = source.lower(key);
+          if (record != null && (last == null || record.getKey().compareTo(last.getKey()) > 0))
+          {
+            last = record;
+          }
+        }
+        if (last == null || last.getKey().compareTo(firstKey) < 0)
+        {
+          return null;
+        }
+        else if (last.getValue() != SSTable.TOMBSTONE)
+        {
+          return last;
+        }
+        key = last.getKey();
+      }
+    }
+
+    private boolean moveTo(Map.Entry<ByteString, ByteString> record)
+    {
+      if (record == null)
+      {
+        currentKey = null;
+        currentValue = null;
+        exhausted = true;
+        return false;
+      }
+      position = record.getKey();
+      currentKey = position.subSequence(TREE_ID_LENGTH, position.length());
+      currentValue = record.getValue();
+      return true;
+    }
+
+    private void throwIfUndefined()
+    {
+      if (!isDefined())
+      {
+        throw new NoSuchElementException();
+      }
+    }
+  }
+
+  /**
+   * Implementation of the {@link WriteableTransaction} interface, used by read and write operations. The changes of a
+   * write operation are kept in the transaction until it commits, so that the read operations never see them.
+   */
+  private final class TransactionImpl implements WriteableTransaction
+  {
+    private final boolean writeable;
+    /** Whether the changes are directly applied to the memory table, which is only done by imports. */
+    private final boolean isImport;
+    /** The records changed by this transaction, the deleted records having the {@link SSTable#TOMBSTONE} value. */
+    private final TreeMap<ByteString, ByteString> changes = new TreeMap<>();
+    /** The trees created, mapped to their identifier, or deleted, mapped to null, by this transaction. */
+    private final Map<TreeName, Long> treeChanges = new LinkedHashMap<>();
+    /** The snapshot read by this transaction, or null if it reads the current tables. */
+    private final SnapshotImpl snapshot;
+    /** The tables read by this transaction, or null if it reads the current tables, like the write operations. */
+    private final TableSet tableSet;
+    /** The maximum sequence number of the versions of the records read in the memory tables. */
+    private long readSeq;
+    /** The sequence number of the committed changes, or 0 if no change has been committed. */
+    private long commitSeq;
+    /** The write-ahead log the committed changes must be synced with, or null if they must not be synced. */
+    private WriteAheadLog syncedWal;
+    /** The position following the committed changes in {@link #syncedWal}. */
+    private long syncedWalPosition;
+
+    private TransactionImpl(boolean writeable, boolean isImport)
+    {
+      this.writeable = writeable;
+      this.isImport = isImport;
+      this.snapshot = null;
+      if (writeable)
+      {
+        // The write operations are serialized, so the latest versions are committed or belong to this transaction
+        this.tableSet = null;
+        this.readSeq = Long.MAX_VALUE;
+      }
+      else
+      {
+        // The tables contain all the changes of the write operations committed before the sequence number is read
+        this.tableSet = LSMStorage.this.tableSet;
+        this.readSeq = committedSeq;
+      }
+    }
+
+    private TransactionImpl(SnapshotImpl snapshot)
+    {
+      this.writeable = false;
+      this.isImport = false;
+      this.snapshot = snapshot;
+      this.tableSet = snapshot.tableSet;
+      this.readSeq = Long.MAX_VALUE;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final Long treeId = getTreeId(treeName);
+      return treeId != null ? get(internalKey(treeId, key)) : null;
+    }
+
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      final List<ByteString> values = new ArrayList<>(keys.size());
+      for (ByteSequence key : keys)
+      {
+        values.add(read(treeName, key));
+      }
+      return values;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      final Long treeId = getTreeId(treeName);
+      if (treeId == null)
+      {
+        return new EmptyCursor<>();
+      }
+      return new CursorImpl(treeName, treeId, this);
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      long count = 0;
+      try (Cursor<ByteString, ByteString> cursor = openCursor(treeName))
+      {
+        while (cursor.next())
+        {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand && getTreeId(treeName) == null)
+      {
+        checkWriteable();
+        treeChanges.put(treeName, nextTreeId.getAndIncrement());
+      }
+    }
+
+    @Override
+    public void deleteTree(TreeName treeName)
+    {
+      checkWriteable();
+      if (getTreeId(treeName) != null)
+      {
+        treeChanges.put(treeName, null);
+      }
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      checkWriteable();
+      setRecord(internalKey(getExistingTreeId(treeName), key), value.toByteString());
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      checkWriteable();
+      final ByteString internalKey = internalKey(getExistingTreeId(treeName), key);
+      final ByteString oldValue = get(internalKey);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (Objects.equals(newValue, oldValue))
+      {
+        return false;
+      }
+      setRecord(internalKey, newValue != null ? newValue.toByteString() : SSTable.TOMBSTONE);
+      return true;
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      checkWriteable();
+      final ByteString internalKey = internalKey(getExistingTreeId(treeName), key);
+      if (get(internalKey) == null)
+      {
+        return false;
+      }
+      setRecord(internalKey, SSTable.TOMBSTONE);
+      return true;
+    }
+
+    private void setRecord(ByteString internalKey, ByteString value)
+    {
+      if (isImport)
+      {
+        importRecord(internalKey, value);
+      }
+      else
+      {
+        changes.put(internalKey, value);
+      }
+    }
+
+    /** Returns the value of a record, which is null if the record does not exist or has been deleted. */
+    private ByteString get(ByteString internalKey)
+    {
+      ByteString value = changes.get(internalKey);
+      if (value == null)
+      {
+        final TableSet tables = getTableSet();
+        value = getValue(tables.memTable.get(internalKey));
+        if (value == null && tables.frozenMemTable != null)
+        {
+          value = getValue(tables.frozenMemTable.get(internalKey));
+        }
+        if (value == null)
+        {
+          value = getFromTables(tables.tables, internalKey);
+        }
+      }
+      return value != SSTable.TOMBSTONE ? value : null;
+    }
+
+    /**
+     * Returns the value of the version of a memory table record read by this transaction, or null if the record is
+     * missing from the memory table.
+     */
+    private ByteString getValue(MemRecord record)
+    {
+      if (record == null)
+      {
+        return null;
+      }
+      MemRecord version = record.getVersion(readSeq);
+      while (version == null)
+      {
+        // Unlinked by a later write operation: read the changes committed since, which include the newer versions.
+        // The version is published before its own previous versions are unlinked, hence at most one more attempt.
+        readSeq = committedSeq;
+        version = record.getVersion(readSeq);
+      }
+      return version.value;
+    }
+
+    private TableSet getTableSet()
+    {
+      return tableSet != null ? tableSet : LSMStorage.this.tableSet;
+    }
+
+    private Long getTreeId(TreeName treeName)
+    {
+      if (treeChanges.containsKey(treeName))
+      {
+        return treeChanges.get(treeName);
+      }
+      return snapshot != null ? snapshot.treeIds.get(treeName) : treeIds.get(treeName);
+    }
+
+    private long getExistingTreeId(TreeName treeName)
+    {
+      final Long treeId = getTreeId(treeName);
+      if (treeId == null)
+      {
+        throw new StorageRuntimeException(ERR_LSM_TREE_NOT_FOUND.get(treeName, config.getBackendId()).toString());
+      }
+      return treeId;
+    }
+
+    /** Returns the sources read by the cursors, from the newest to the oldest. */
+    private List<Source> getSources()
+    {
+      final TableSet tables = getTableSet();
+      final List<Source> sources = new ArrayList<>();
+      if (!changes.isEmpty())
+      {
+        sources.add(Source.of(changes));
+      }
+      sources.add(Source.of(tables.memTable, this));
+      if (tables.frozenMemTable != null)
+      {
+        sources.add(Source.of(tables.frozenMemTable, this));
+      }
+      for (SSTable table : tables.tables)
+      {
+        sources.add(Source.of(table));
+      }
+      return sources;
+    }
+
+    private void checkWriteable()
+    {
+      if (!writeable || !accessMode.isWriteable())
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    /**
+     * Appends the changes to the write-ahead log, then applies them to the memory table, where only the write
+     * operations read them until they are published by {@link #publish()}. Must be called with the writer lock held.
+     */
+    private void commit()
+    {
+      if (changes.isEmpty() && treeChanges.isEmpty())
+      {
+        return;
+      }
+      final ByteStringBuilder batch = new ByteStringBuilder();
+      for (Map.Entry<TreeName, Long> treeChange : treeChanges.entrySet())
+      {
+        if (treeChange.getValue() != null)
+        {
+          WriteAheadLog.appendCreateTree(batch, treeChange.getKey(), treeChange.getValue());
+        }
+        else
+        {
+          WriteAheadLog.appendDropTree(batch, treeChange.getKey());
+        }
+      }
+      for (Map.Entry<ByteString, ByteString> change : changes.entrySet())
+      {
+        if (change.getValue() != SSTable.TOMBSTONE)
+        {
+          WriteAheadLog.appendPut(batch, change.getKey(), change.getValue());
+        }
+        else
+        {
+          WriteAheadLog.appendDelete(batch, change.getKey());
+        }
+      }
+      final long walPosition;
+      try
+      {
+        walPosition = wal.append(batch);
+      }
+      catch (IOException e)
+      {
+        throw new StorageRuntimeException(
+            ERR_LSM_WAL_WRITE_FAILED.get(config.getBackendId(), stackTraceToSingleLineString(e)).toString(), e);
+      }
+
+      // The read operations do not read the new versions until the sequence number is published
+      final long seq = appliedSeq + 1;
+      final ConcurrentSkipListMap<ByteString, MemRecord> memTable = LSMStorage.this.tableSet.memTable;
+      for (Map.Entry<TreeName, Long> treeChange : treeChanges.entrySet())
+      {
+        applyTreeChange(treeChange.getKey(), treeChange.getValue());
+      }
+      for (Map.Entry<ByteString, ByteString> change : changes.entrySet())
+      {
+        applyRecord(memTable, change.getKey(), change.getValue(), seq);
+      }
+      appliedSeq = seq;
+      commitSeq = seq;
+      if (!config.isDBTxnNoSync())
+      {
+        syncedWal = wal;
+        syncedWalPosition = walPosition;
+      }
+    }
+
+    /**
+     * Waits for the committed changes to be synced to disk with the write-ahead log, along with the changes committed
+     * by the other write operations in the meantime, then publishes them. Called without holding the writer lock, so
+     * that the next write operations append their changes to the write-ahead log meanwhile.
+     */
+    private void publish()
+    {
+      if (commitSeq == 0)
+      {
+        return;
+      }
+      try
+      {
+        if (syncedWal != null)
+        {
+          syncedWal.sync(syncedWalPosition);
+        }
+      }
+      catch (IOException e)
+      {
+        // The changes are applied to the memory table and may be read by the write operations which followed
+        final LocalizableMessage message =
+            ERR_LSM_WAL_WRITE_FAILED.get(config.getBackendId(), stackTraceToSingleLineString(e));
+        storageStatus = StorageStatus.unusable(message);
+        throw new StorageRuntimeException(message.toString(), e);
+      }
+      finally
+      {
+        publishSeq(commitSeq);
+      }
+    }
+  }
+
+  /**
+   * Implementation of the {@link StorageSnapshot} interface. The sorted tables and the frozen memory table are never
+   * modified, so the snapshot keeps the ones of the time it was opened along with a copy of the memory table, reading
+   * the latest versions of their records, and prevents the files of the storage from being deleted until it is closed.
+   */
+  private final class SnapshotImpl implements StorageSnapshot
+  {
+    private final Map<TreeName, Long> treeIds;
+    private final TableSet tableSet;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    /** Must be called with the writer lock held, so that the latest versions of the records are all committed. */
+    private SnapshotImpl()
+    {
+      treeIds = new HashMap<>(LSMStorage.this.treeIds);
+      final TableSet current = LSMStorage.this.tableSet;
+      tableSet = new TableSet(current.memTable.clone(), current.frozenMemTable, current.tables);
+    }
+
+    @Override
+    public <T> T read(ReadOperation<T> operation) throws Exception
+    {
+      if (isClosed.get())
+      {
+        throw new IllegalStateException("The snapshot has been closed");
+      }
+      return operation.run(new TransactionImpl(this));
+    }
+
+    @Override
+    public boolean isConsistent()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      if (isClosed.compareAndSet(false, true))
+      {
+        releaseFiles();
+      }
+    }
+
+  }
+
+  /** Implementation of the {@link Importer} interface, which does not write the records to the write-ahead log. */
+  private final class ImporterImpl implements Importer
+  {
+    /** Reads the latest versions of the records, without any change of its own. */
+    private final TransactionImpl reader = new TransactionImpl(true, true);
+
+    @Override
+    public void clearTree(TreeName treeName)
+    {
+      lock.writeLock().lock();
+      try
+      {
+        // The records of the previous tree are dropped by the next compaction
+        treeIds.put(treeName, nextTreeId.getAndIncrement());
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      importRecord(internalKey(getOrCreateTreeId(treeName), key), value.toByteString());
+    }
+
+    private long getOrCreateTreeId(TreeName treeName)
+    {
+      final Long treeId = treeIds.get(treeName);
+      if (treeId != null)
+      {
+        return treeId;
+      }
+      lock.writeLock().lock();
+      try
+      {
+        Long newTreeId = treeIds.get(treeName);
+        if (newTreeId == null)
+        {
+          newTreeId = nextTreeId.getAndIncrement();
+          treeIds.put(treeName, newTreeId);
+        }
+        return newTreeId;
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      return reader.read(treeName, key);
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      // The deletions performed with the cursor are directly applied, like the records put
+      return new TransactionImpl(true, true).openCursor(treeName);
+    }
+
+    @Override
+    public void close()
+    {
+      LSMStorage.this.close();
+    }
+  }
+
+  /** The length of the tree identifier prefixing the keys of the records. */
+  private static final int TREE_ID_LENGTH = 8;
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private volatile LSMBackendCfg config;
+  private DiskSpaceMonitor diskMonitor;
+  private volatile StorageStatus storageStatus = StorageStatus.working();
+  private volatile AccessMode accessMode = AccessMode.READ_WRITE;
+  private boolean isOpen;
+
+  /**
+   * Serializes the write operations, which must be appended to the write-ahead log in the order they are applied, and
+   * the replacements of the memory table.
+   */
+  private final ReentrantLock writerLock = new ReentrantLock();
+  /**
+   * Shared by the imports applying records and by the backups, exclusive for replacing the memory or sorted tables.
+   * The read and write operations never take it.
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ConcurrentMap<TreeName, Long> treeIds = new ConcurrentHashMap<>();
+  private final AtomicLong nextTreeId = new AtomicLong();
+  private final AtomicLong nextFileNumber = new AtomicLong();
+  private volatile TableSet tableSet = TableSet.empty();
+  private final AtomicLong memTableSize = new AtomicLong();
+  /** The sequence number of the last write operation whose changes are read by the new read operations. */
+  private volatile long committedSeq;
+  /**
+   * The sequence number of the last write operation applied to the memory table, which is published once synced to
+   * disk. Only accessed while holding the writer lock.
+   */
+  private long appliedSeq;
+  /** Signaled each time a sequence number is published. */
+  private final Object publishMonitor = new Object();
+  /** The write-ahead log of the memory table, null when the storage is read-only. */
+  private WriteAheadLog wal;
+  /** The number of the oldest write-ahead log whose changes have not been written to a sorted table. */
+  private long firstLiveWalNumber;
+  private long manifestNumber = -1;
+  /** Writes the sorted tables and compacts them, one task at a time. */
+  private ExecutorService backgroundExecutor;
+  /** Signaled each time a frozen memory table has been written to a sorted table. */
+  private final Object flushMonitor = new Object();
+  private volatile boolean flushFailed;
+  /** The files which can be deleted at the end of the backups and snapshots in progress. */
+  private final List<File> deferredDeletions = new ArrayList<>();
+  /** The number of backups and snapshots in progress, which defer the deletion of the files they may read. */
+  private int nbFileUsers;
+
+  /**
+   * Creates a new LSM storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  LSMStorage(LSMBackendCfg cfg, ServerContext serverContext)
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+    config = cfg;
+  }
+
+  @Override
+  public synchronized void open(AccessMode accessMode) throws ConfigException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    if (isOpen)
+    {
+      throw new IllegalStateException(
+          "Storage is already open, either the backend is enabled or an import is currently running.");
+    }
+    if (accessMode.isWriteable())
+    {
+      setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    }
+    this.accessMode = accessMode;
+    try
+    {
+      loadFiles();
+      if (accessMode.isWriteable())
+      {
+        deleteUnreferencedFiles();
+        final long walNumber = nextFileNumber.getAndIncrement();
+        wal = new WriteAheadLog(getFile(walNumber, WAL_SUFFIX), walNumber);
+        backgroundExecutor = Executors.newSingleThreadExecutor(newThreadFactory(null, BACKGROUND_THREAD_NAME, true));
+      }
+    }
+    catch (IOException e)
+    {
+      resetState();
+      throw new StorageRuntimeException(ERR_LSM_OPEN_FAILED.get(
+          config.getBackendId(), backendDirectory, stackTraceToSingleLineString(e)).toString(), e);
+    }
+    flushFailed = false;
+    storageStatus = StorageStatus.working();
+    config.addLSMChangeListener(this);
+    if (accessMode.isWriteable())
+    {
+      diskMonitor = serverContext.getDiskSpaceMonitor();
+      registerMonitoredDirectory(config);
+    }
+    isOpen = true;
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException
+  {
+    open(AccessMode.READ_WRITE);
+    return new ImporterImpl();
+  }
+
+  @Override
+  public <T> T read(ReadOperation<T> operation) throws Exception
+  {
+    return operation.run(new TransactionImpl(false, false));
+  }
+
+  @Override
+  public StorageSnapshot openSnapshot()
+  {
+    writerLock.lock();
+    try
+    {
+      // The snapshot reads the latest versions of the memory table, which must not include unsynced changes
+      awaitAppliedChangesPublished();
+      retainFiles();
+      return new SnapshotImpl();
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+  }
+
+  @Override
+  public void write(WriteOperation operation) throws Exception
+  {
+    final TransactionImpl txn = new TransactionImpl(true, false);
+    writerLock.lock();
+    try
+    {
+      operation.run(txn);
+      txn.commit();
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+    txn.publish();
+    if (!writerLock.isHeldByCurrentThread())
+    {
+      freezeMemTableIfFull();
+    }
+  }
+
+  @Override
+  public synchronized void close()
+  {
+    if (!isOpen)
+    {
+      return;
+    }
+    stopBackgroundTasks();
+    if (accessMode.isWriteable() && !flushFailed)
+    {
+      flushAllMemTables();
+    }
+    closeWal();
+    resetState();
+    config.removeLSMChangeListener(this);
+    if (diskMonitor != null)
+    {
+      diskMonitor.deregisterMonitoredDirectory(getDirectory(), this);
+    }
+    isOpen = false;
+  }
+
+  @Override
+  public synchronized void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storageStatus;
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(treeIds.keySet());
+  }
+
+  private static ByteString internalKey(long treeId, ByteSequence key)
+  {
+    return new ByteStringBuilder(TREE_ID_LENGTH + key.length()).appendLong(treeId).appendBytes(key).toByteString();
+  }
+
+  /** Returns the internal key of a key in the same tree as another internal key. */
+  private static ByteString internalKey(ByteString sameTreeKey, ByteSequence key)
+  {
+    return new ByteStringBuilder(TREE_ID_LENGTH + key.length())
+        .appendBytes(sameTreeKey.subSequence(0, TREE_ID_LENGTH)).appendBytes(key).toByteString();
+  }
+
+  /** Returns the value of a record in the newest sorted table containing it, or null if none contains it. */
+  private static ByteString getFromTables(List<SSTable> tables, ByteString internalKey)
+  {
+    if (tables.isEmpty())
+    {
+      return null;
+    }
+    final long keyHash = BloomFilter.hash(internalKey);
+    for (SSTable table : tables)
+    {
+      final ByteString value = table.get(internalKey, keyHash);
+      if (value != null)
+      {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Puts a new version of a record in a memory table. The version it replaces remains linked to it, unless it has
+   * been put by the same write operation, along with the versions which are not published yet and the newest published
+   * one, but the older versions are unlinked.
+   */
+  private void applyRecord(ConcurrentSkipListMap<ByteString, MemRecord> memTable, ByteString internalKey,
+      ByteString value, long seq)
+  {
+    final MemRecord current = memTable.get(internalKey);
+    final MemRecord previous;
+    if (current == null)
+    {
+      previous = MemRecord.ABSENT;
+    }
+    else if (current.seq == seq)
+    {
+      previous = current.previous;
+    }
+    else
+    {
+      previous = current;
+    }
+    final long publishedSeq = committedSeq;
+    for (MemRecord version = previous; version != null && version != MemRecord.ABSENT; version = version.previous)
+    {
+      if (version.seq <= publishedSeq)
+      {
+        version.previous = null;
+        break;
+      }
+    }
+    memTable.put(internalKey, new MemRecord(value, seq, previous));
+    memTableSize.addAndGet(internalKey.length() + value.length() + RECORD_OVERHEAD);
+  }
+
+  /** Returns the records of a memory table with the values of their latest versions. */
+  private static Iterator<Map.Entry<ByteString, ByteString>> latestVersions(
+      ConcurrentSkipListMap<ByteString, MemRecord> memTable)
+  {
+    final Iterator<Map.Entry<ByteString, MemRecord>> records = memTable.entrySet().iterator();
+    return new Iterator<Map.Entry<ByteString, ByteString>>()
+    {
+      @Override
+      public boolean hasNext()
+      {
+        return records.hasNext();
+      }
+
+      @Override
+      public Map.Entry<ByteString, ByteString> next()
+      {
+        final Map.Entry<ByteString, MemRecord> record = records.next();
+        return new SimpleImmutableEntry<>(record.getKey(), record.getValue().value);
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Publishes the changes of the write operations up to the provided sequence number, whose changes are synced to
+   * disk, like the ones of all the previous write operations.
+   */
+  private void publishSeq(long seq)
+  {
+    synchronized (publishMonitor)
+    {
+      if (committedSeq < seq)
+      {
+        committedSeq = seq;
+        publishMonitor.notifyAll();
+      }
+    }
+  }
+
+  /** Waits for the changes applied to the memory table to be published. Must be called with the writer lock held. */
+  private void awaitAppliedChangesPublished()
+  {
+    synchronized (publishMonitor)
+    {
+      boolean isInterrupted = false;
+      while (committedSeq < appliedSeq)
+      {
+        try
+        {
+          publishMonitor.wait();
+        }
+        catch (InterruptedException e)
+        {
+          isInterrupted = true;
+        }
+      }
+      if (isInterrupted)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Applies a record put by an import, which is not written to the write-ahead log. */
+  private void importRecord(ByteString internalKey, ByteString value)
+  {
+    lock.readLock().lock();
+    try
+    {
+      // The imports have exclusive access to the storage, so their records are directly read
+      applyRecord(tableSet.memTable, internalKey, value, committedSeq);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    freezeMemTableIfFull();
+  }
+
+  private void applyTreeChange(TreeName treeName, Long treeId)
+  {
+    if (treeId != null)
+    {
+      treeIds.put(treeName, treeId);
+      if (nextTreeId.get() <= treeId)
+      {
+        nextTreeId.set(treeId + 1);
+      }
+    }
+    else
+    {
+      treeIds.remove(treeName);
+    }
+  }
+
+  /**
+   * Freezes the memory table and starts writing it to a sorted table if it is full. Waits for the previous memory
+   * table to be written first, which slows down the write operations when they are faster than the disk.
+   */
+  private void freezeMemTableIfFull()
+  {
+    if (memTableSize.get() < config.getDBMemtableSize())
+    {
+      return;
+    }
+    synchronized (flushMonitor)
+    {
+      while (tableSet.frozenMemTable != null && !flushFailed)
+      {
+        try
+        {
+          flushMonitor.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    writerLock.lock();
+    try
+    {
+      lock.writeLock().lock();
+      try
+      {
+        if (tableSet.frozenMemTable == null && !flushFailed && backgroundExecutor != null
+            && memTableSize.get() >= config.getDBMemtableSize())
+        {
+          freezeMemTable();
+        }
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+  }
+
+  /** Starts a new memory table and a new write-ahead log, the frozen memory table being written in background. */
+  private void freezeMemTable()
+  {
+    final long walNumber = nextFileNumber.getAndIncrement();
+    try
+    {
+      final WriteAheadLog newWal = new WriteAheadLog(getFile(walNumber, WAL_SUFFIX), walNumber);
+      closeWal();
+      wal = newWal;
+    }
+    catch (IOException e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_LSM_FLUSH_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+      return;
+    }
+    final TableSet current = tableSet;
+    tableSet = new TableSet(new ConcurrentSkipListMap<ByteString, MemRecord>(), current.memTable, current.tables);
+    memTableSize.set(0);
+    backgroundExecutor.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        flushFrozenMemTable(walNumber);
+      }
+    });
+  }
+
+  /**
+   * Writes the frozen memory table to a sorted table, then deletes the write-ahead logs preceding the provided one.
+   * Runs in the background thread.
+   */
+  private void flushFrozenMemTable(long newFirstLiveWalNumber)
+  {
+    try
+    {
+      final List<SSTable> newTables = writeTables(latestVersions(tableSet.frozenMemTable), false);
+      lock.writeLock().lock();
+      try
+      {
+        final TableSet current = tableSet;
+        tableSet = new TableSet(current.memTable, null, concat(newTables, current.tables));
+        firstLiveWalNumber = newFirstLiveWalNumber;
+        writeManifest();
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+      deleteObsoleteWals(newFirstLiveWalNumber);
+      compactTablesIfNeeded();
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_LSM_FLUSH_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+      flushFailed = true;
+      storageStatus = StorageStatus.unusable(
+          ERR_LSM_FLUSH_FAILED.get(config.getBackendId(), stackTraceToSingleLineString(e)));
+    }
+    finally
+    {
+      synchronized (flushMonitor)
+      {
+        flushMonitor.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Merges the newest sorted tables once their number reaches the compaction threshold. The tables are merged from the
+   * newest as long as the next table is not larger than the tables already selected, so that each record is rewritten
+   * a logarithmic number of times. The overwritten records and the records of the deleted trees are dropped, as well
+   * as the deleted records when the oldest table is merged. Runs in the background thread.
+   */
+  private void compactTablesIfNeeded() throws IOException
+  {
+    final List<SSTable> currentTables = tableSet.tables;
+    int nbInputTables = 0;
+    long inputSize = 0;
+    while (nbInputTables < currentTables.size()
+        && (nbInputTables == 0 || currentTables.get(nbInputTables).getSize() <= inputSize))
+    {
+      inputSize += currentTables.get(nbInputTables).getSize();
+      nbInputTables++;
+    }
+    if (nbInputTables < config.getDBCompactionThreshold())
+    {
+      return;
+    }
+    final long startTime = System.currentTimeMillis();
+    final List<SSTable> inputTables = currentTables.subList(0, nbInputTables);
+    // Nothing older can be hidden by the deleted records when the oldest table is merged
+    final boolean dropTombstones = nbInputTables == currentTables.size();
+    final List<SSTable> outputTables = writeTables(SSTable.merge(inputTables), dropTombstones);
+    lock.writeLock().lock();
+    try
+    {
+      // The tables written in the meantime are newer than the merged tables, which are newer than the other tables
+      final TableSet current = tableSet;
+      final List<SSTable> newTables = new ArrayList<>(current.tables);
+      final int firstInputIndex = newTables.indexOf(inputTables.get(0));
+      newTables.removeAll(inputTables);
+      newTables.addAll(firstInputIndex, outputTables);
+      tableSet = new TableSet(current.memTable, current.frozenMemTable, Collections.unmodifiableList(newTables));
+      writeManifest();
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+    for (SSTable table : inputTables)
+    {
+      deleteFile(table.getFile());
+    }
+    logger.info(NOTE_LSM_COMPACTION_DONE, config.getBackendId(), inputTables.size(), outputTables.size(),
+        System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Writes records, in key order, to as many new sorted tables as needed. The records of the deleted trees are dropped.
+   */
+  private List<SSTable> writeTables(Iterator<Map.Entry<ByteString, ByteString>> records, boolean dropTombstones)
+      throws IOException
+  {
+    final Set<Long> liveTreeIds = new HashSet<>(treeIds.values());
+    final List<SSTable> newTables = new ArrayList<>();
+    SSTable.Writer writer = null;
+    try
+    {
+      while (records.hasNext())
+      {
+        final Map.Entry<ByteString, ByteString> record = records.next();
+        final ByteString key = record.getKey();
+        if ((dropTombstones && record.getValue() == SSTable.TOMBSTONE) || !liveTreeIds.contains(key.toLong()))
+        {
+          continue;
+        }
+        if (writer == null)
+        {
+          final long fileNumber = nextFileNumber.getAndIncrement();
+          writer = new SSTable.Writer(getFile(fileNumber, TABLE_SUFFIX), fileNumber);
+        }
+        writer.add(key, record.getValue());
+        if (writer.isFull())
+        {
+          newTables.add(writer.finish());
+          writer = null;
+        }
+      }
+      if (writer != null && !writer.isEmpty())
+      {
+        newTables.add(writer.finish());
+      }
+      return newTables;
+    }
+    finally
+    {
+      closeSilently(writer);
+    }
+  }
+
+  /** Writes the memory tables to sorted tables when closing the storage, so that the write-ahead logs are dropped. */
+  private void flushAllMemTables()
+  {
+    writerLock.lock();
+    lock.writeLock().lock();
+    try
+    {
+      final TableSet current = tableSet;
+      List<SSTable> newTables = current.tables;
+      if (current.frozenMemTable != null)
+      {
+        newTables = concat(writeTables(latestVersions(current.frozenMemTable), false), newTables);
+      }
+      newTables = concat(writeTables(latestVersions(current.memTable), false), newTables);
+      tableSet = new TableSet(new ConcurrentSkipListMap<ByteString, MemRecord>(), null, newTables);
+      memTableSize.set(0);
+      firstLiveWalNumber = nextFileNumber.get();
+      writeManifest();
+      closeWal();
+      deleteObsoleteWals(firstLiveWalNumber);
+    }
+    catch (IOException e)
+    {
+      // The write-ahead logs are replayed when the storage is opened again
+      logger.traceException(e);
+      logger.error(ERR_LSM_FLUSH_FAILED, config.getBackendId(), stackTraceToSingleLineString(e));
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+      writerLock.unlock();
+    }
+  }
+
+  private static List<SSTable> concat(List<SSTable> newerTables, List<SSTable> olderTables)
+  {
+    final List<SSTable> result = new ArrayList<>(newerTables.size() + olderTables.size());
+    result.addAll(newerTables);
+    result.addAll(olderTables);
+    return Collections.unmodifiableList(result);
+  }
+
+  private void stopBackgroundTasks()
+  {
+    if (backgroundExecutor != null)
+    {
+      backgroundExecutor.shutdown();
+      try
+      {
+        backgroundExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+      backgroundExecutor = null;
+    }
+  }
+
+  private void closeWal()
+  {
+    if (wal != null)
+    {
+      closeSilently(wal);
+      wal = null;
+    }
+  }
+
+  private void resetState()
+  {
+    treeIds.clear();
+    nextTreeId.set(0);
+    tableSet = TableSet.empty();
+    memTableSize.set(0);
+    firstLiveWalNumber = 0;
+    manifestNumber = -1;
+  }
+
+  private File getFile(long fileNumber, String suffix)
+  {
+    return new File(backendDirectory, String.format("%016d%s", fileNumber, suffix));
+  }
+
+  /** Returns the number of a file of the storage, or -1 if the file has not the provided suffix. */
+  private static long getFileNumber(File file, String suffix)
+  {
+    final String name = file.getName();
+    if (!name.endsWith(suffix))
+    {
+      return -1;
+    }
+    try
+    {
+      return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+    }
+    catch (NumberFormatException e)
+    {
+      return -1;
+    }
+  }
+
+  private File[] listFiles()
+  {
+    final File[] files = backendDirectory.listFiles();
+    return files != null ? files : new File[0];
+  }
+
+  /** Reads the newest manifest, opens its sorted tables and replays the write-ahead logs into the memory table. */
+  private void loadFiles() throws IOException
+  {
+    final File[] files = listFiles();
+    long maxFileNumber = -1;
+    for (File file : files)
+    {
+      maxFileNumber = Math.max(maxFileNumber, getFileNumber(file, TABLE_SUFFIX));
+      maxFileNumber = Math.max(maxFileNumber, getFileNumber(file, WAL_SUFFIX));
+      maxFileNumber = Math.max(maxFileNumber, getFileNumber(file, MANIFEST_SUFFIX));
+      manifestNumber = Math.max(manifestNumber, getFileNumber(file, MANIFEST_SUFFIX));
+    }
+    nextFileNumber.set(maxFileNumber + 1);
+    if (manifestNumber >= 0)
+    {
+      readManifest(getFile(manifestNumber, MANIFEST_SUFFIX));
+    }
+
+    final List<Long> walNumbers = new ArrayList<>();
+    for (File file : files)
+    {
+      final long walNumber = getFileNumber(file, WAL_SUFFIX);
+      if (walNumber >= firstLiveWalNumber)
+      {
+        walNumbers.add(walNumber);
+      }
+    }
+    Collections.sort(walNumbers);
+    long nbChanges = 0;
+    final WriteAheadLog.Replayer replayer = new WriteAheadLog.Replayer()
+    {
+      @Override
+      public void record(ByteString key, ByteString value)
+      {
+        applyRecord(tableSet.memTable, key, value, committedSeq);
+      }
+
+      @Override
+      public void tree(TreeName treeName, Long treeId)
+      {
+        applyTreeChange(treeName, treeId);
+      }
+    };
+    for (long walNumber : walNumbers)
+    {
+      nbChanges += WriteAheadLog.replay(getFile(walNumber, WAL_SUFFIX), replayer);
+    }
+    logger.info(NOTE_LSM_STORAGE_OPENED, config.getBackendId(), tableSet.tables.size(), walNumbers.size(), nbChanges);
+  }
+
+  private void readManifest(File manifestFile) throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile))))
+    {
+      final int formatVersion = in.readInt();
+      if (formatVersion != MANIFEST_FORMAT_VERSION)
+      {
+        throw new IOException("Unsupported manifest format version " + formatVersion);
+      }
+      nextTreeId.set(in.readLong());
+      firstLiveWalNumber = in.readLong();
+      final int nbTrees = in.readInt();
+      for (int i = 0; i < nbTrees; i++)
+      {
+        treeIds.put(TreeName.valueOf(in.readUTF()), in.readLong());
+      }
+      final int nbTables = in.readInt();
+      final List<SSTable> manifestTables = new ArrayList<>(nbTables);
+      for (int i = 0; i < nbTables; i++)
+      {
+        final long tableNumber = in.readLong();
+        final File tableFile = getFile(tableNumber, TABLE_SUFFIX);
+        try
+        {
+          manifestTables.add(SSTable.open(tableFile, tableNumber));
+        }
+        catch (IOException e)
+        {
+          throw new IOException(ERR_LSM_TABLE_CORRUPT.get(tableFile, stackTraceToSingleLineString(e)).toString(), e);
+        }
+      }
+      tableSet = new TableSet(tableSet.memTable, null, Collections.unmodifiableList(manifestTables));
+    }
+  }
+
+  /**
+   * Writes a new manifest describing the current tables, then deletes the previous one. The manifest is written to a
+   * temporary file which is then renamed, so that a failure leaves the previous manifest untouched.
+   */
+  private void writeManifest() throws IOException
+  {
+    final long newManifestNumber = nextFileNumber.getAndIncrement();
+    final File manifestFile = getFile(newManifestNumber, MANIFEST_SUFFIX);
+    final File tmpFile = new File(backendDirectory, manifestFile.getName() + TMP_SUFFIX);
+    try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut)))
+    {
+      out.writeInt(MANIFEST_FORMAT_VERSION);
+      out.writeLong(nextTreeId.get());
+      out.writeLong(firstLiveWalNumber);
+      final Map<TreeName, Long> trees = new HashMap<>(treeIds);
+      out.writeInt(trees.size());
+      for (Map.Entry<TreeName, Long> tree : trees.entrySet())
+      {
+        out.writeUTF(tree.getKey().toString());
+        out.writeLong(tree.getValue());
+      }
+      final List<SSTable> tables = tableSet.tables;
+      out.writeInt(tables.size());
+      for (SSTable table : tables)
+      {
+        out.writeLong(table.getFileNumber());
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    Files.move(tmpFile.toPath(), manifestFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    if (manifestNumber >= 0)
+    {
+      deleteFile(getFile(manifestNumber, MANIFEST_SUFFIX));
+    }
+    manifestNumber = newManifestNumber;
+  }
+
+  /** Deletes the files left by a previous failure, which are not referenced by the current manifest. */
+  private void deleteUnreferencedFiles()
+  {
+    final Set<Long> tableNumbers = new HashSet<>();
+    for (SSTable table : tableSet.tables)
+    {
+      tableNumbers.add(table.getFileNumber());
+    }
+    for (File file : listFiles())
+    {
+      final long tableNumber = getFileNumber(file, TABLE_SUFFIX);
+      final long walNumber = getFileNumber(file, WAL_SUFFIX);
+      final long fileManifestNumber = getFileNumber(file, MANIFEST_SUFFIX);
+      if ((tableNumber >= 0 && !tableNumbers.contains(tableNumber))
+          || (walNumber >= 0 && walNumber < firstLiveWalNumber)
+          || (fileManifestNumber >= 0 && fileManifestNumber != manifestNumber)
+          || file.getName().endsWith(TMP_SUFFIX))
+      {
+        deleteFile(file);
+      }
+    }
+  }
+
+  private void deleteObsoleteWals(long newFirstLiveWalNumber)
+  {
+    for (File file : listFiles())
+    {
+      final long walNumber = getFileNumber(file, WAL_SUFFIX);
+      if (walNumber >= 0 && walNumber < newFirstLiveWalNumber)
+      {
+        deleteFile(file);
+      }
+    }
+  }
+
+  /** Deletes a file, or defers its deletion until the end of the backups and snapshots in progress. */
+  private void deleteFile(File file)
+  {
+    synchronized (deferredDeletions)
+    {
+      if (nbFileUsers > 0)
+      {
+        deferredDeletions.add(file);
+        return;
+      }
+    }
+    // Files which cannot be deleted yet are deleted the next time the storage is opened
+    file.delete();
+  }
+
+  /** Defers the deletion of the files until {@link #releaseFiles()} is called. */
+  private void retainFiles()
+  {
+    synchronized (deferredDeletions)
+    {
+      nbFileUsers++;
+    }
+  }
+
+  /** Deletes the files whose deletion has been deferred, once no backup or snapshot is in progress. */
+  private void releaseFiles()
+  {
+    final List<File> filesToDelete = new ArrayList<>();
+    synchronized (deferredDeletions)
+    {
+      if (--nbFileUsers == 0)
+      {
+        filesToDelete.addAll(deferredDeletions);
+        deferredDeletions.clear();
+      }
+    }
+    for (File file : filesToDelete)
+    {
+      file.delete();
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    retainFiles();
+    try
+    {
+      new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+    }
+    finally
+    {
+      releaseFiles();
+    }
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return backendDirectory;
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    lock.readLock().lock();
+    try
+    {
+      if (manifestNumber < 0)
+      {
+        // Not open, or nothing has been written yet
+        return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+      }
+      // The files of the current manifest are immutable, and their deletion is deferred until the end of the backup
+      final List<Path> files = new ArrayList<>();
+      files.add(getFile(manifestNumber, MANIFEST_SUFFIX).toPath());
+      for (SSTable table : tableSet.tables)
+      {
+        files.add(table.getFile().toPath());
+      }
+      for (File file : listFiles())
+      {
+        if (getFileNumber(file, WAL_SUFFIX) >= firstLiveWalNumber)
+        {
+          files.add(file.toPath());
+        }
+      }
+      return files.listIterator();
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    synchronized (this)
+    {
+      // The restored files replace the current ones, which must not be written anymore
+      final boolean wasOpen = isOpen;
+      if (wasOpen)
+      {
+        stopBackgroundTasks();
+        closeWal();
+        resetState();
+        config.removeLSMChangeListener(this);
+        isOpen = false;
+      }
+
+      // intermediate directory content is moved to database directory
+      File targetDirectory = getDirectory();
+      recursiveDelete(targetDirectory);
+      try
+      {
+        Files.move(restoreDirectory, targetDirectory.toPath());
+      }
+      catch (IOException e)
+      {
+        LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+        throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(), msg);
+      }
+
+      if (wasOpen)
+      {
+        try
+        {
+          open(accessMode);
+        }
+        catch (ConfigException e)
+        {
+          throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(),
+              e.getMessageObject(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(LSMBackendCfg cfg, List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    checkDBDirExistsOrCanCreate(getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId()), ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(LSMBackendCfg newCfg, List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    if (!newCfg.getDBDirectory().equals(config.getDBDirectory()))
+    {
+      checkDBDirExistsOrCanCreate(getDBDirectory(newCfg.getDBDirectory(), newCfg.getBackendId()), ccr, true);
+    }
+    checkDBDirPermissions(newCfg.getDBDirectoryPermissions(), newCfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(LSMBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    try
+    {
+      if (!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions()))
+      {
+        setDBDirPermissions(backendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      if (diskMonitor != null)
+      {
+        registerMonitoredDirectory(cfg);
+      }
+      config = cfg;
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  private void registerMonitoredDirectory(LSMBackendCfg cfg)
+  {
+    diskMonitor.registerMonitoredDirectory(
+      cfg.getBackendId() + " backend",
+      getDirectory(),
+      cfg.getDiskLowThreshold(),
+      cfg.getDiskFullThreshold(),
+      this);
+  }
+
+  @Override
+  public void diskFullThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceFull(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskLowThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceLow(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskSpaceRestored(File directory, long lowThresholdInBytes, long fullThresholdInBytes) {
+    storageStatus = StorageStatus.working();
+  }
+}
@@ -0,0 +1,579 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Immutable sorted table of records, memory mapped for reading.
+ * <p>
+ * The file starts with the records sorted by key, each of them being a flag telling whether the record is a deletion,
+ * the length and bytes of the key, then the length and bytes of the value for the records which are not deletions.
+ * It is followed by a sparse index holding the key and the offset of one record out of {@link #INDEX_INTERVAL}, the
+ * bloom filter of the keys, and a fixed size footer locating the index and the bloom filter.
+ * <p>
+ * The whole file is mapped, which limits its size to {@link #MAX_DATA_SIZE}, the tables being split when they are
+ * written.
+ */
+final class SSTable
+{
+  /** The value of the records deleted, which must be compared by identity. */
+  static final ByteString TOMBSTONE = ByteString.wrap(new byte[0]);
+  /** The size of the records after which a new table is started. */
+  static final long MAX_DATA_SIZE = 1L << 30;
+  /** The number of records between two keys of the sparse index. */
+  static final int INDEX_INTERVAL = 16;
+
+  private static final long MAGIC = 0x4f444a4c534d0001L;
+  private static final int FOOTER_SIZE = 32;
+  private static final byte VALUE_FLAG = 0;
+  private static final byte TOMBSTONE_FLAG = 1;
+
+  private final long fileNumber;
+  private final File file;
+  private final MappedByteBuffer buffer;
+  /** The offset of the sparse index, which is also the size of the records. */
+  private final int dataSize;
+  private final ByteString[] indexKeys;
+  private final int[] indexOffsets;
+  private final BloomFilter bloomFilter;
+  private final long recordCount;
+
+  private SSTable(long fileNumber, File file, MappedByteBuffer buffer, int dataSize, ByteString[] indexKeys,
+      int[] indexOffsets, BloomFilter bloomFilter, long recordCount)
+  {
+    this.fileNumber = fileNumber;
+    this.file = file;
+    this.buffer = buffer;
+    this.dataSize = dataSize;
+    this.indexKeys = indexKeys;
+    this.indexOffsets = indexOffsets;
+    this.bloomFilter = bloomFilter;
+    this.recordCount = recordCount;
+  }
+
+  /**
+   * Opens and maps a table file.
+   *
+   * @param file
+   *          the table file
+   * @param fileNumber
+   *          the number of the table file
+   * @return the table
+   * @throws IOException
+   *           if the file cannot be read, or is not a valid table
+   */
+  static SSTable open(File file, long fileNumber) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      final long fileSize = channel.size();
+      if (fileSize < FOOTER_SIZE || fileSize > Integer.MAX_VALUE)
+      {
+        throw new IOException("Invalid table size " + fileSize);
+      }
+      // The mapping remains valid once the channel is closed
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      final ByteBuffer footer = buffer.duplicate();
+      footer.position((int) fileSize - FOOTER_SIZE);
+      final long indexOffset = footer.getLong();
+      final long bloomOffset = footer.getLong();
+      final long recordCount = footer.getLong();
+      if (footer.getLong() != MAGIC || indexOffset < 0 || indexOffset > bloomOffset || bloomOffset > fileSize)
+      {
+        throw new IOException("Invalid table footer");
+      }
+
+      final ByteBuffer index = buffer.duplicate();
+      index.position((int) indexOffset);
+      final int nbIndexKeys = index.getInt();
+      final ByteString[] indexKeys = new ByteString[nbIndexKeys];
+      final int[] indexOffsets = new int[nbIndexKeys];
+      for (int i = 0; i < nbIndexKeys; i++)
+      {
+        indexKeys[i] = readBytes(index, index.getInt());
+        indexOffsets[i] = index.getInt();
+      }
+
+      final ByteBuffer bloom = buffer.duplicate();
+      bloom.position((int) bloomOffset);
+      return new SSTable(fileNumber, file, buffer, (int) indexOffset, indexKeys, indexOffsets,
+          BloomFilter.readFrom(bloom), recordCount);
+    }
+    catch (RuntimeException e)
+    {
+      // Offsets out of the file
+      throw new IOException(e);
+    }
+  }
+
+  long getFileNumber()
+  {
+    return fileNumber;
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  long getRecordCount()
+  {
+    return recordCount;
+  }
+
+  long getSize()
+  {
+    return buffer.capacity();
+  }
+
+  /**
+   * Returns the value of a record.
+   *
+   * @param key
+   *          the key of the record
+   * @param keyHash
+   *          the hash of the key, as computed by {@link BloomFilter#hash(org.forgerock.opendj.ldap.ByteSequence)}
+   * @return the value of the record, or {@link #TOMBSTONE} if the record has been deleted, or {@code null} if this
+   *         table does not contain the key
+   */
+  ByteString get(ByteString key, long keyHash)
+  {
+    if (!bloomFilter.mightContain(keyHash))
+    {
+      return null;
+    }
+    final int block = floorBlock(key, true);
+    if (block < 0)
+    {
+      return null;
+    }
+    final Scanner scanner = new Scanner(indexOffsets[block]);
+    for (int i = 0; i < INDEX_INTERVAL && scanner.advance(); i++)
+    {
+      final int cmp = scanner.key.compareTo(key);
+      if (cmp == 0)
+      {
+        return scanner.value();
+      }
+      else if (cmp > 0)
+      {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the first record whose key follows a key.
+   *
+   * @param key
+   *          the key
+   * @param inclusive
+   *          whether the record with the provided key must be returned if it exists
+   * @return the first record whose key is greater than, or equal to if inclusive, the key, or {@code null}
+   */
+  Map.Entry<ByteString, ByteString> ceiling(ByteString key, boolean inclusive)
+  {
+    if (indexOffsets.length == 0)
+    {
+      return null;
+    }
+    // The record is at the latest in the first record of the next block
+    final Scanner scanner = new Scanner(indexOffsets[Math.max(floorBlock(key, true), 0)]);
+    while (scanner.advance())
+    {
+      final int cmp = scanner.key.compareTo(key);
+      if (cmp > 0 || (cmp == 0 && inclusive))
+      {
+        return scanner.entry();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the last record whose key precedes a key.
+   *
+   * @param key
+   *          the key
+   * @return the last record whose key is strictly lower than the key, or {@code null}
+   */
+  Map.Entry<ByteString, ByteString> lower(ByteString key)
+  {
+    final int block = floorBlock(key, false);
+    if (block < 0)
+    {
+      return null;
+    }
+    final Scanner scanner = new Scanner(indexOffsets[block]);
+    int lowerRecordOffset = -1;
+    while (scanner.advance() && scanner.key.compareTo(key) < 0)
+    {
+      lowerRecordOffset = scanner.recordOffset;
+    }
+    final Scanner lowerRecord = new Scanner(lowerRecordOffset);
+    lowerRecord.advance();
+    return lowerRecord.entry();
+  }
+
+  /**
+   * Returns an iterator over all the records of this table, in key order.
+   *
+   * @return an iterator over all the records of this table
+   */
+  Iterator<Map.Entry<ByteString, ByteString>> iterator()
+  {
+    return new Iterator<Map.Entry<ByteString, ByteString>>()
+    {
+      private final Scanner scanner = new Scanner(0);
+      private boolean hasNext = scanner.advance();
+
+      @Override
+      public boolean hasNext()
+      {
+        return hasNext;
+      }
+
+      @Override
+      public Map.Entry<ByteString, ByteString> next()
+      {
+        if (!hasNext)
+        {
+          throw new NoSuchElementException();
+        }
+        final Map.Entry<ByteString, ByteString> entry = scanner.entry();
+        hasNext = scanner.advance();
+        return entry;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Returns the index of the last block whose first key is lower than, or equal to if inclusive, the key.
+   *
+   * @return the index of the block, or -1 if the key precedes all the records of this table
+   */
+  private int floorBlock(ByteString key, boolean inclusive)
+  {
+    int low = 0;
+    int high = indexKeys.length - 1;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      final int cmp = indexKeys[mid].compareTo(key);
+      if (cmp < 0 || (cmp == 0 && inclusive))
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  private static ByteString readBytes(ByteBuffer buffer, int length)
+  {
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return ByteString.wrap(bytes);
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName();
+  }
+
+  /** Reads the records sequentially, only reading their value when requested. */
+  private final class Scanner
+  {
+    private final ByteBuffer records = buffer.duplicate();
+    private int nextRecordOffset;
+    private int recordOffset;
+    private ByteString key;
+    private boolean isTombstone;
+    private int valueOffset;
+    private int valueLength;
+
+    private Scanner(int offset)
+    {
+      nextRecordOffset = offset;
+    }
+
+    private boolean advance()
+    {
+      if (nextRecordOffset < 0 || nextRecordOffset >= dataSize)
+      {
+        return false;
+      }
+      recordOffset = nextRecordOffset;
+      records.position(recordOffset);
+      isTombstone = records.get() == TOMBSTONE_FLAG;
+      key = readBytes(records, records.getInt());
+      valueLength = isTombstone ? 0 : records.getInt();
+      valueOffset = records.position();
+      nextRecordOffset = valueOffset + valueLength;
+      return true;
+    }
+
+    private ByteString value()
+    {
+      if (isTombstone)
+      {
+        return TOMBSTONE;
+      }
+      records.position(valueOffset);
+      return readBytes(records, valueLength);
+    }
+
+    private Map.Entry<ByteString, ByteString> entry()
+    {
+      return new SimpleImmutableEntry<>(key, value());
+    }
+  }
+
+  /**
+   * Returns an iterator merging the records of several tables, in key order. When several tables contain the same
+   * key, only the record of the newest table is returned.
+   *
+   * @param tables
+   *          the tables to merge, from the newest to the oldest
+   * @return an iterator over the merged records
+   */
+  static Iterator<Map.Entry<ByteString, ByteString>> merge(List<SSTable> tables)
+  {
+    final PriorityQueue<MergedSource> queue = new PriorityQueue<>(Math.max(tables.size(), 1));
+    for (int i = 0; i < tables.size(); i++)
+    {
+      final MergedSource source = new MergedSource(i, tables.get(i).iterator());
+      if (source.advance())
+      {
+        queue.add(source);
+      }
+    }
+    return new Iterator<Map.Entry<ByteString, ByteString>>()
+    {
+      @Override
+      public boolean hasNext()
+      {
+        return !queue.isEmpty();
+      }
+
+      @Override
+      public Map.Entry<ByteString, ByteString> next()
+      {
+        final MergedSource newest = queue.poll();
+        if (newest == null)
+        {
+          throw new NoSuchElementException();
+        }
+        final Map.Entry<ByteString, ByteString> entry = newest.current;
+        requeue(newest);
+        // Skip the older versions of the record
+        while (!queue.isEmpty() && queue.peek().current.getKey().equals(entry.getKey()))
+        {
+          requeue(queue.poll());
+        }
+        return entry;
+      }
+
+      private void requeue(MergedSource source)
+      {
+        if (source.advance())
+        {
+          queue.add(source);
+        }
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** The current record of one of the merged tables. */
+  private static final class MergedSource implements Comparable<MergedSource>
+  {
+    /** The age of the table, lower for newer tables. */
+    private final int age;
+    private final Iterator<Map.Entry<ByteString, ByteString>> records;
+    private Map.Entry<ByteString, ByteString> current;
+
+    private MergedSource(int age, Iterator<Map.Entry<ByteString, ByteString>> records)
+    {
+      this.age = age;
+      this.records = records;
+    }
+
+    private boolean advance()
+    {
+      current = records.hasNext() ? records.next() : null;
+      return current != null;
+    }
+
+    @Override
+    public int compareTo(MergedSource o)
+    {
+      final int cmp = current.getKey().compareTo(o.current.getKey());
+      return cmp != 0 ? cmp : Integer.compare(age, o.age);
+    }
+  }
+
+  /** Writes a new table file, the records being added in key order. */
+  static final class Writer implements Closeable
+  {
+    private final long fileNumber;
+    private final File file;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final ByteStringBuilder index = new ByteStringBuilder();
+    private int nbIndexKeys;
+    private long[] keyHashes = new long[1024];
+    private int nbRecords;
+    private long dataSize;
+    private boolean isFinished;
+
+    /**
+     * Creates the file of a new table.
+     *
+     * @param file
+     *          the file to create
+     * @param fileNumber
+     *          the number of the file
+     * @throws IOException
+     *           if the file cannot be created
+     */
+    Writer(File file, long fileNumber) throws IOException
+    {
+      this.file = file;
+      this.fileNumber = fileNumber;
+      fileOut = new FileOutputStream(file);
+      out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+    }
+
+    /**
+     * Appends a record, which must follow the records previously added.
+     *
+     * @param key
+     *          the key of the record
+     * @param value
+     *          the value of the record, or {@link SSTable#TOMBSTONE} for a deleted record
+     * @throws IOException
+     *           if an I/O error occurs
+     */
+    void add(ByteString key, ByteString value) throws IOException
+    {
+      if (nbRecords % INDEX_INTERVAL == 0)
+      {
+        index.appendInt(key.length()).appendBytes(key).appendInt((int) dataSize);
+        nbIndexKeys++;
+      }
+      if (nbRecords == keyHashes.length)
+      {
+        keyHashes = Arrays.copyOf(keyHashes, nbRecords * 2);
+      }
+      keyHashes[nbRecords++] = BloomFilter.hash(key);
+
+      final boolean isTombstone = value == TOMBSTONE;
+      out.writeByte(isTombstone ? TOMBSTONE_FLAG : VALUE_FLAG);
+      out.writeInt(key.length());
+      key.copyTo(out);
+      dataSize += 5 + key.length();
+      if (!isTombstone)
+      {
+        out.writeInt(value.length());
+        value.copyTo(out);
+        dataSize += 4 + value.length();
+      }
+    }
+
+    boolean isFull()
+    {
+      return dataSize >= MAX_DATA_SIZE;
+    }
+
+    boolean isEmpty()
+    {
+      return nbRecords == 0;
+    }
+
+    /**
+     * Writes the index, the bloom filter and the footer, then syncs the file to disk.
+     *
+     * @return the new table
+     * @throws IOException
+     *           if an I/O error occurs
+     */
+    SSTable finish() throws IOException
+    {
+      final long indexOffset = dataSize;
+      out.writeInt(nbIndexKeys);
+      index.copyTo(out);
+      final long bloomOffset = indexOffset + 4 + index.length();
+      BloomFilter.build(keyHashes, nbRecords).writeTo(out);
+      out.writeLong(indexOffset);
+      out.writeLong(bloomOffset);
+      out.writeLong(nbRecords);
+      out.writeLong(MAGIC);
+      out.flush();
+      fileOut.getFD().sync();
+      out.close();
+      isFinished = true;
+      return open(file, fileNumber);
+    }
+
+    /** Deletes the file unless the table has been finished. */
+    @Override
+    public void close() throws IOException
+    {
+      if (!isFinished)
+      {
+        out.close();
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * Write-ahead log of the changes of the memory table.
+ * <p>
+ * Each committed write operation is appended as a single batch made of its length, its CRC32 and its changes, so that
+ * a batch partially written before a crash is detected and ignored when the log is replayed.
+ * <p>
+ * The batches are appended by one thread at a time, but synced to disk by group: the first thread syncing the log
+ * syncs all the batches appended so far, while the threads whose batch is appended in the meantime wait for it, then
+ * for a single sync of all their batches.
+ */
+final class WriteAheadLog implements Closeable
+{
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte CREATE_TREE = 3;
+  private static final byte DROP_TREE = 4;
+  private static final int HEADER_SIZE = 8;
+
+  /** Receives the changes of the batches read from a log. */
+  interface Replayer
+  {
+    /**
+     * Replays a record put or deleted.
+     *
+     * @param key
+     *          the key of the record, prefixed with its tree identifier
+     * @param value
+     *          the value of the record, or {@link SSTable#TOMBSTONE} if the record has been deleted
+     */
+    void record(ByteString key, ByteString value);
+
+    /**
+     * Replays a tree created or deleted.
+     *
+     * @param treeName
+     *          the name of the tree
+     * @param treeId
+     *          the identifier of the created tree, or {@code null} if the tree has been deleted
+     */
+    void tree(TreeName treeName, Long treeId);
+  }
+
+  private final long fileNumber;
+  private final FileChannel channel;
+  /** The position following the last batch appended. */
+  private volatile long appendedPosition;
+  /** Guards the sync state of the log. */
+  private final Object syncMonitor = new Object();
+  /** The position up to which the log has been synced to disk. */
+  private long syncedPosition;
+  /** Whether a thread is syncing the log to disk. */
+  private boolean isSyncing;
+  private boolean isClosed;
+
+  /**
+   * Creates a new log file.
+   *
+   * @param file
+   *          the log file
+   * @param fileNumber
+   *          the number of the log file
+   * @throws IOException
+   *           if the file cannot be created
+   */
+  WriteAheadLog(File file, long fileNumber) throws IOException
+  {
+    this.fileNumber = fileNumber;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  long getFileNumber()
+  {
+    return fileNumber;
+  }
+
+  /**
+   * Appends a batch of changes, without syncing it to disk. Must not be called concurrently.
+   *
+   * @param batch
+   *          the changes, encoded with the {@code append*} methods
+   * @return the position following the batch, to provide to {@link #sync(long)}
+   * @throws IOException
+   *           if an I/O error occurs
+   */
+  long append(ByteSequence batch) throws IOException
+  {
+    final byte[] payload = batch.toByteArray();
+    final CRC32 crc = new CRC32();
+    crc.update(payload);
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(payload.length).putInt((int) crc.getValue()).flip();
+    final ByteBuffer[] buffers = { header, ByteBuffer.wrap(payload) };
+    long position = appendedPosition;
+    while (buffers[1].hasRemaining())
+    {
+      position += channel.write(buffers);
+    }
+    appendedPosition = position;
+    return position;
+  }
+
+  /**
+   * Waits until the log is synced to disk up to the provided position. If no other thread is syncing the log, syncs
+   * all the batches appended so far, otherwise waits for this thread then syncs the batches it did not sync.
+   *
+   * @param position
+   *          the position following the last batch to sync, as returned by {@link #append(ByteSequence)}
+   * @throws IOException
+   *           if the log cannot be synced
+   */
+  void sync(long position) throws IOException
+  {
+    synchronized (syncMonitor)
+    {
+      awaitNoSync();
+      if (syncedPosition >= position)
+      {
+        return;
+      }
+      if (isClosed)
+      {
+        throw new IOException("The write-ahead log could not be synced when it was closed");
+      }
+      isSyncing = true;
+    }
+    forceUpTo(appendedPosition);
+  }
+
+  /** Syncs all the batches appended so far, then closes the log. */
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (syncMonitor)
+    {
+      awaitNoSync();
+      isClosed = true;
+      isSyncing = true;
+    }
+    try
+    {
+      forceUpTo(appendedPosition);
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  /** Must be called once this thread is syncing the log. */
+  private void forceUpTo(long position) throws IOException
+  {
+    boolean isSynced = false;
+    try
+    {
+      channel.force(false);
+      isSynced = true;
+    }
+    finally
+    {
+      synchronized (syncMonitor)
+      {
+        if (isSynced)
+        {
+          syncedPosition = Math.max(syncedPosition, position);
+        }
+        isSyncing = false;
+        syncMonitor.notifyAll();
+      }
+    }
+  }
+
+  /** Must be called with the sync monitor held. Not interruptible, so that the callers know if the log is synced. */
+  private void awaitNoSync()
+  {
+    boolean isInterrupted = false;
+    while (isSyncing)
+    {
+      try
+      {
+        syncMonitor.wait();
+      }
+      catch (InterruptedException e)
+      {
+        isInterrupted = true;
+      }
+    }
+    if (isInterrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  static void appendPut(ByteStringBuilder batch, ByteSequence key, ByteSequence value)
+  {
+    batch.appendByte(PUT);
+    batch.appendInt(key.length()).appendBytes(key);
+    batch.appendInt(value.length()).appendBytes(value);
+  }
+
+  static void appendDelete(ByteStringBuilder batch, ByteSequence key)
+  {
+    batch.appendByte(DELETE);
+    batch.appendInt(key.length()).appendBytes(key);
+  }
+
+  static void appendCreateTree(ByteStringBuilder batch, TreeName treeName, long treeId)
+  {
+    batch.appendByte(CREATE_TREE);
+    appendTreeName(batch, treeName);
+    batch.appendLong(treeId);
+  }
+
+  static void appendDropTree(ByteStringBuilder batch, TreeName treeName)
+  {
+    batch.appendByte(DROP_TREE);
+    appendTreeName(batch, treeName);
+  }
+
+  private static void appendTreeName(ByteStringBuilder batch, TreeName treeName)
+  {
+    final ByteString name = ByteString.valueOfUtf8(treeName.toString());
+    batch.appendInt(name.length()).appendBytes(name);
+  }
+
+  /**
+   * Replays the batches of a log file, stopping at the first batch which has not been entirely written.
+   *
+   * @param file
+   *          the log file
+   * @param replayer
+   *          receives the changes of the batches
+   * @return the number of changes replayed
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  static long replay(File file, Replayer replayer) throws IOException
+  {
+    final long fileSize = file.length();
+    long nbChanges = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      while (true)
+      {
+        final int length;
+        final int expectedCrc;
+        final byte[] payload;
+        try
+        {
+          length = in.readInt();
+          expectedCrc = in.readInt();
+          if (length < 0 || length > fileSize)
+          {
+            return nbChanges;
+          }
+          payload = new byte[length];
+          in.readFully(payload);
+        }
+        catch (EOFException e)
+        {
+          return nbChanges;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc)
+        {
+          return nbChanges;
+        }
+        nbChanges += replayBatch(ByteString.wrap(payload).asReader(), replayer);
+      }
+    }
+  }
+
+  private static long replayBatch(ByteSequenceReader reader, Replayer replayer) throws IOException
+  {
+    long nbChanges = 0;
+    while (reader.remaining() > 0)
+    {
+      final byte op = reader.readByte();
+      switch (op)
+      {
+      case PUT:
+        final ByteString key = reader.readByteString(reader.readInt());
+        replayer.record(key, reader.readByteString(reader.readInt()));
+        break;
+      case DELETE:
+        replayer.record(reader.readByteString(reader.readInt()), SSTable.TOMBSTONE);
+        break;
+      case CREATE_TREE:
+        final TreeName createdTree = TreeName.valueOf(reader.readStringUtf8(reader.readInt()));
+        replayer.tree(createdTree, reader.readLong());
+        break;
+      case DROP_TREE:
+        replayer.tree(TreeName.valueOf(reader.readStringUtf8(reader.readInt())), null);
+        break;
+      default:
+        throw new IOException("Unknown write-ahead log operation " + op);
+      }
+      nbChanges++;
+    }
+    return nbChanges;
+  }
+}
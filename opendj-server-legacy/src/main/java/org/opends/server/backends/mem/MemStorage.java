@@ -0,0 +1,1159 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.mem;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.MemBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.EmptyCursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadCommittedSnapshot;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * In-memory implementation of the {@link Storage} engine.
+ * <p>
+ * Each tree is a concurrent skip list of record versions. The read operations never wait for the write operations,
+ * nor the write operations for the read operations. A write operation buffers its changes, which are discarded if it
+ * fails, and is given a sequence number when it commits: its changes are then added to the trees as new versions
+ * tagged with this sequence number, which is published along with the trees once all the versions are added. A read
+ * operation only reads the versions tagged with the sequence number published when it started, or an older one, so
+ * it never sees part of a write operation. The write operations are serialized with each other. They unlink the
+ * versions, and remove the deleted records, which are no longer read by any read operation in progress.
+ * <p>
+ * The trees remain in memory when the storage is closed, so that it can be reopened without losing them, for example
+ * after an import. When the snapshot is enabled, they are also written to a file when the storage is closed and loaded
+ * back from it the first time the storage is opened, which allows restarting the server and backing up the storage.
+ */
+public final class MemStorage implements Storage, Backupable
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String SNAPSHOT_NAME = "snapshot";
+  private static final int SNAPSHOT_FORMAT_VERSION = 1;
+  /** The value of the records deleted by a write operation which has not been committed yet. */
+  private static final ByteString DELETED = ByteString.wrap(new byte[0]);
+
+  /** Filter to retrieve the snapshot file to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      return SNAPSHOT_NAME.equals(file.getName());
+    }
+  };
+
+  /** A version of a record, from the newest to the oldest. */
+  private static final class Version
+  {
+    /** The value, or null if the record has been deleted. */
+    private final ByteString value;
+    /** The sequence number of the write operation which put this version. */
+    private final long seq;
+    /** The version replaced by this one, or null if it has been unlinked or the record did not exist. */
+    private volatile Version previous;
+
+    private Version(ByteString value, long seq, Version previous)
+    {
+      this.value = value;
+      this.seq = seq;
+      this.previous = previous;
+    }
+
+    /** Returns the value of the newest version tagged with a sequence number up to the provided one, or null. */
+    private ByteString getValue(long maxSeq)
+    {
+      Version version = this;
+      while (version != null && version.seq > maxSeq)
+      {
+        version = version.previous;
+      }
+      return version != null ? version.value : null;
+    }
+  }
+
+  /** The trees, published along with the sequence number of the last write operation committed to them. */
+  private static final class Catalog
+  {
+    private final long seq;
+    /** Never modified once published. */
+    private final Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees;
+
+    private Catalog(long seq, Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees)
+    {
+      this.seq = seq;
+      this.trees = trees;
+    }
+  }
+
+  /** A deleted record, which is removed from its tree once no read operation reads its previous versions. */
+  private static final class DeletedRecord
+  {
+    private final ConcurrentSkipListMap<ByteString, Version> tree;
+    private final ByteString key;
+    private final Version version;
+
+    private DeletedRecord(ConcurrentSkipListMap<ByteString, Version> tree, ByteString key, Version version)
+    {
+      this.tree = tree;
+      this.key = key;
+      this.version = version;
+    }
+  }
+
+  /**
+   * In-memory implementation of the {@link Cursor} interface. The changes of the write operation in progress hide the
+   * records with the same key in the tree, and the deleted records are skipped.
+   */
+  private static final class CursorImpl implements Cursor<ByteString, ByteString>
+  {
+    private final TreeName treeName;
+    private final ConcurrentSkipListMap<ByteString, Version> tree;
+    private final TransactionImpl txn;
+    /** The key following which {@link #next()} moves, or null to move to the first record. */
+    private ByteString position;
+    private Map.Entry<ByteString, ByteString> current;
+    private boolean exhausted;
+
+    private CursorImpl(TreeName treeName, ConcurrentSkipListMap<ByteString, Version> tree, TransactionImpl txn)
+    {
+      this.treeName = treeName;
+      this.tree = tree;
+      this.txn = txn;
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (exhausted)
+      {
+        return false;
+      }
+      return moveTo(position == null ? higherRecord(ByteString.empty(), true) : higherRecord(position, false));
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return current != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return current.getKey();
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return current.getValue();
+    }
+
+    @Override
+    public void delete()
+    {
+      throwIfUndefined();
+      txn.delete(treeName, current.getKey());
+      current = null;
+    }
+
+    @Override
+    public boolean positionToKey(ByteSequence key)
+    {
+      exhausted = false;
+      position = key.toByteString();
+      final ByteString value = txn.get(treeName, tree, position);
+      current = value != null ? new SimpleImmutableEntry<>(position, value) : null;
+      return current != null;
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(ByteSequence key)
+    {
+      exhausted = false;
+      return moveTo(higherRecord(key.toByteString(), true));
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      exhausted = false;
+      return moveTo(lastRecord());
+    }
+
+    @Override
+    public boolean positionToIndex(int index)
+    {
+      exhausted = false;
+      position = null;
+      current = null;
+      for (int i = 0; i <= index; i++)
+      {
+        if (!next())
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      current = null;
+    }
+
+    /** Returns the first record following the provided key, or having this key if inclusive, or null. */
+    private Map.Entry<ByteString, ByteString> higherRecord(ByteString key, boolean inclusive)
+    {
+      final NavigableMap<ByteString, ByteString> changes = txn.getChanges(treeName);
+      ByteString from = key;
+      boolean fromInclusive = inclusive;
+      while (true)
+      {
+        final Map.Entry<ByteString, Version> record = fromInclusive ? tree.ceilingEntry(from) : tree.higherEntry(from);
+        Map.Entry<ByteString, ByteString> change = null;
+        if (changes != null)
+        {
+          change = fromInclusive ? changes.ceilingEntry(from) : changes.higherEntry(from);
+        }
+        if (record == null && change == null)
+        {
+          return null;
+        }
+        final Map.Entry<ByteString, ByteString> next = merge(record, change, change != null
+            && (record == null || change.getKey().compareTo(record.getKey()) <= 0));
+        if (next.getValue() != null)
+        {
+          return next;
+        }
+        from = next.getKey();
+        fromInclusive = false;
+      }
+    }
+
+    /** Returns the last record, or null. */
+    private Map.Entry<ByteString, ByteString> lastRecord()
+    {
+      final NavigableMap<ByteString, ByteString> changes = txn.getChanges(treeName);
+      ByteString from = null;
+      while (true)
+      {
+        final Map.Entry<ByteString, Version> record = from == null ? tree.lastEntry() : tree.lowerEntry(from);
+        Map.Entry<ByteString, ByteString> change = null;
+        if (changes != null)
+        {
+          change = from == null ? changes.lastEntry() : changes.lowerEntry(from);
+        }
+        if (record == null && change == null)
+        {
+          return null;
+        }
+        final Map.Entry<ByteString, ByteString> previous = merge(record, change, change != null
+            && (record == null || change.getKey().compareTo(record.getKey()) >= 0));
+        if (previous.getValue() != null)
+        {
+          return previous;
+        }
+        from = previous.getKey();
+      }
+    }
+
+    /** Returns the change if it is the closest, otherwise the record, with a null value if it is deleted. */
+    private Map.Entry<ByteString, ByteString> merge(Map.Entry<ByteString, Version> record,
+        Map.Entry<ByteString, ByteString> change, boolean isChangeClosest)
+    {
+      if (isChangeClosest)
+      {
+        final ByteString value = change.getValue();
+        return new SimpleImmutableEntry<>(change.getKey(), value != DELETED ? value : null);
+      }
+      return new SimpleImmutableEntry<>(record.getKey(), record.getValue().getValue(txn.readSeq));
+    }
+
+    private boolean moveTo(Map.Entry<ByteString, ByteString> entry)
+    {
+      current = entry;
+      if (entry == null)
+      {
+        exhausted = true;
+        return false;
+      }
+      position = entry.getKey();
+      return true;
+    }
+
+    private void throwIfUndefined()
+    {
+      if (!isDefined())
+      {
+        throw new NoSuchElementException();
+      }
+    }
+  }
+
+  /** In-memory implementation of the {@link WriteableTransaction} interface, used by read and write operations. */
+  private final class TransactionImpl implements WriteableTransaction
+  {
+    private final boolean writeable;
+    /** Whether the changes are directly applied to the trees, which is only done by imports. */
+    private final boolean isImport;
+    /** The trees read by this transaction, or null if it reads the current trees, like the write operations. */
+    private Catalog catalog;
+    /**
+     * The maximum sequence number of the versions read by this transaction, which is negative until a read operation
+     * has read the catalog.
+     */
+    private volatile long readSeq;
+    /** The records changed by this transaction, the deleted records having the {@link #DELETED} value. */
+    private final Map<TreeName, TreeMap<ByteString, ByteString>> changes = new HashMap<>();
+    /** The trees created, mapped to their records, or deleted, mapped to null, by this transaction. */
+    private final Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> treeChanges = new LinkedHashMap<>();
+
+    private TransactionImpl(boolean writeable, boolean isImport)
+    {
+      this.writeable = writeable;
+      this.isImport = isImport;
+      // The write operations are serialized, so the latest versions are committed
+      this.readSeq = writeable ? Long.MAX_VALUE : -1;
+    }
+
+    /** Starts reading the current trees, which must be done once registered as a read operation in progress. */
+    private void startRead()
+    {
+      final Catalog current = MemStorage.this.catalog;
+      catalog = current;
+      readSeq = current.seq;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final ConcurrentSkipListMap<ByteString, Version> tree = getTree(treeName);
+      return tree != null ? get(treeName, tree, key.toByteString()) : null;
+    }
+
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      final List<ByteString> values = new ArrayList<>(keys.size());
+      for (ByteSequence key : keys)
+      {
+        values.add(read(treeName, key));
+      }
+      return values;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      final ConcurrentSkipListMap<ByteString, Version> tree = getTree(treeName);
+      if (tree == null)
+      {
+        return new EmptyCursor<>();
+      }
+      return new CursorImpl(treeName, tree, this);
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      long count = 0;
+      try (Cursor<ByteString, ByteString> cursor = openCursor(treeName))
+      {
+        while (cursor.next())
+        {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand && getTree(treeName) == null)
+      {
+        checkWriteable();
+        changes.remove(treeName);
+        treeChanges.put(treeName, new ConcurrentSkipListMap<ByteString, Version>());
+      }
+    }
+
+    @Override
+    public void deleteTree(TreeName treeName)
+    {
+      checkWriteable();
+      if (getTree(treeName) != null)
+      {
+        changes.remove(treeName);
+        treeChanges.put(treeName, null);
+      }
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      checkWriteable();
+      setRecord(treeName, getExistingTree(treeName), key.toByteString(), value.toByteString());
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      checkWriteable();
+      final ConcurrentSkipListMap<ByteString, Version> tree = getExistingTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      final ByteString oldValue = get(treeName, tree, keyBytes);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (Objects.equals(newValue, oldValue))
+      {
+        return false;
+      }
+      setRecord(treeName, tree, keyBytes, newValue != null ? newValue.toByteString() : DELETED);
+      return true;
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      checkWriteable();
+      final ConcurrentSkipListMap<ByteString, Version> tree = getExistingTree(treeName);
+      final ByteString keyBytes = key.toByteString();
+      if (get(treeName, tree, keyBytes) == null)
+      {
+        return false;
+      }
+      setRecord(treeName, tree, keyBytes, DELETED);
+      return true;
+    }
+
+    private void setRecord(TreeName treeName, ConcurrentSkipListMap<ByteString, Version> tree, ByteString key,
+        ByteString value)
+    {
+      if (!isImport)
+      {
+        TreeMap<ByteString, ByteString> records = changes.get(treeName);
+        if (records == null)
+        {
+          records = new TreeMap<>();
+          changes.put(treeName, records);
+        }
+        records.put(key, value);
+      }
+      else if (value != DELETED)
+      {
+        tree.put(key, new Version(value, MemStorage.this.catalog.seq, null));
+      }
+      else
+      {
+        tree.remove(key);
+      }
+    }
+
+    /** Returns the value of a record, which is null if the record does not exist or has been deleted. */
+    private ByteString get(TreeName treeName, ConcurrentSkipListMap<ByteString, Version> tree, ByteString key)
+    {
+      final NavigableMap<ByteString, ByteString> records = getChanges(treeName);
+      if (records != null && records.containsKey(key))
+      {
+        final ByteString value = records.get(key);
+        return value != DELETED ? value : null;
+      }
+      final Version version = tree.get(key);
+      return version != null ? version.getValue(readSeq) : null;
+    }
+
+    private NavigableMap<ByteString, ByteString> getChanges(TreeName treeName)
+    {
+      return changes.isEmpty() ? null : changes.get(treeName);
+    }
+
+    private ConcurrentSkipListMap<ByteString, Version> getTree(TreeName treeName)
+    {
+      if (treeChanges.containsKey(treeName))
+      {
+        return treeChanges.get(treeName);
+      }
+      return (catalog != null ? catalog : MemStorage.this.catalog).trees.get(treeName);
+    }
+
+    private ConcurrentSkipListMap<ByteString, Version> getExistingTree(TreeName treeName)
+    {
+      final ConcurrentSkipListMap<ByteString, Version> tree = getTree(treeName);
+      if (tree == null)
+      {
+        throw new StorageRuntimeException(ERR_MEM_TREE_NOT_FOUND.get(treeName, config.getBackendId()).toString());
+      }
+      return tree;
+    }
+
+    private void checkWriteable()
+    {
+      if (!writeable || !accessMode.isWriteable())
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    /**
+     * Adds the changes to the trees as new versions, then publishes them. Must be called with the writer lock held.
+     *
+     * @return whether there were changes to commit
+     */
+    private boolean commit()
+    {
+      if (changes.isEmpty() && treeChanges.isEmpty())
+      {
+        return false;
+      }
+      final Catalog current = MemStorage.this.catalog;
+      final long seq = current.seq + 1;
+      final long oldestReadSeq = getOldestReadSeq(current);
+      Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees = current.trees;
+      if (!treeChanges.isEmpty())
+      {
+        trees = new HashMap<>(trees);
+        for (Map.Entry<TreeName, ConcurrentSkipListMap<ByteString, Version>> treeChange : treeChanges.entrySet())
+        {
+          if (treeChange.getValue() != null)
+          {
+            trees.put(treeChange.getKey(), treeChange.getValue());
+          }
+          else
+          {
+            trees.remove(treeChange.getKey());
+          }
+        }
+      }
+      // The read operations do not read the new versions until the sequence number is published
+      for (Map.Entry<TreeName, TreeMap<ByteString, ByteString>> records : changes.entrySet())
+      {
+        final ConcurrentSkipListMap<ByteString, Version> tree = trees.get(records.getKey());
+        for (Map.Entry<ByteString, ByteString> change : records.getValue().entrySet())
+        {
+          final ByteString value = change.getValue();
+          addVersion(tree, change.getKey(), value != DELETED ? value : null, seq, oldestReadSeq);
+        }
+      }
+      MemStorage.this.catalog = new Catalog(seq, trees);
+      removeDeletedRecords(oldestReadSeq);
+      return true;
+    }
+  }
+
+  /** In-memory implementation of the {@link Importer} interface. */
+  private final class ImporterImpl implements Importer
+  {
+    @Override
+    public void clearTree(TreeName treeName)
+    {
+      setTree(treeName, new ConcurrentSkipListMap<ByteString, Version>());
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      ConcurrentSkipListMap<ByteString, Version> tree = catalog.trees.get(treeName);
+      if (tree == null)
+      {
+        writerLock.lock();
+        try
+        {
+          tree = catalog.trees.get(treeName);
+          if (tree == null)
+          {
+            tree = new ConcurrentSkipListMap<>();
+            setTree(treeName, tree);
+          }
+        }
+        finally
+        {
+          writerLock.unlock();
+        }
+      }
+      tree.put(key.toByteString(), new Version(value.toByteString(), catalog.seq, null));
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final ConcurrentSkipListMap<ByteString, Version> tree = catalog.trees.get(treeName);
+      final Version version = tree != null ? tree.get(key) : null;
+      return version != null ? version.value : null;
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      // The deletions performed with the cursor are directly applied
+      return new TransactionImpl(true, true).openCursor(treeName);
+    }
+
+    @Override
+    public void close()
+    {
+      MemStorage.this.close();
+    }
+  }
+
+  private final MemBackendCfg config;
+  private final File backendDirectory;
+  /** The current trees, replaced as a whole so that the read operations read them without locking. */
+  private volatile Catalog catalog =
+      new Catalog(0, new HashMap<TreeName, ConcurrentSkipListMap<ByteString, Version>>());
+  /** Serializes the write operations, and the other changes of the catalog. */
+  private final ReentrantLock writerLock = new ReentrantLock();
+  /** The read operations in progress, which the write operations must not unlink the versions of. */
+  private final Set<TransactionImpl> activeReads =
+      Collections.newSetFromMap(new ConcurrentHashMap<TransactionImpl, Boolean>());
+  /** The deleted records, by increasing sequence number. Only accessed while holding the writer lock. */
+  private final Queue<DeletedRecord> deletedRecords = new ArrayDeque<>();
+  private volatile AccessMode accessMode = AccessMode.READ_WRITE;
+  private boolean isOpen;
+  /** Whether the trees have been loaded from the snapshot file, or must not be loaded anymore. */
+  private boolean isSnapshotLoaded;
+  /** Whether the trees have changed since they were loaded from, or written to, the snapshot file. */
+  private volatile boolean isDirty;
+
+  /**
+   * Creates a new in-memory storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   */
+  MemStorage(MemBackendCfg cfg)
+  {
+    config = cfg;
+    backendDirectory = getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public synchronized void open(AccessMode accessMode) throws ConfigException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    if (config.isDBSnapshotEnabled() && accessMode.isWriteable())
+    {
+      setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    }
+    this.accessMode = accessMode;
+    loadSnapshotIfNeeded();
+    isOpen = true;
+  }
+
+  @Override
+  public synchronized Importer startImport() throws ConfigException
+  {
+    open(AccessMode.READ_WRITE);
+    isDirty = true;
+    return new ImporterImpl();
+  }
+
+  @Override
+  public <T> T read(ReadOperation<T> operation) throws Exception
+  {
+    final TransactionImpl txn = startRead();
+    try
+    {
+      return operation.run(txn);
+    }
+    finally
+    {
+      activeReads.remove(txn);
+    }
+  }
+
+  private TransactionImpl startRead()
+  {
+    final TransactionImpl txn = new TransactionImpl(false, false);
+    // Registered before reading the catalog, so that the write operations keep the versions it reads
+    activeReads.add(txn);
+    txn.startRead();
+    return txn;
+  }
+
+  @Override
+  public StorageSnapshot openSnapshot()
+  {
+    return new ReadCommittedSnapshot(this);
+  }
+
+  @Override
+  public void write(WriteOperation operation) throws Exception
+  {
+    writerLock.lock();
+    try
+    {
+      // A failed write operation discards its changes
+      final TransactionImpl txn = new TransactionImpl(true, false);
+      operation.run(txn);
+      if (txn.commit())
+      {
+        // Set once the changes are published, so that a snapshot file written in the meantime does not reset it
+        isDirty = true;
+      }
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the oldest sequence number read by the read operations in progress, or by the ones starting before the
+   * next catalog is published. Must be called with the writer lock held.
+   */
+  private long getOldestReadSeq(Catalog current)
+  {
+    long oldestReadSeq = current.seq;
+    for (TransactionImpl txn : activeReads)
+    {
+      oldestReadSeq = Math.min(oldestReadSeq, txn.readSeq);
+    }
+    return oldestReadSeq;
+  }
+
+  /**
+   * Adds a new version of a record to a tree, then unlinks the versions which are no longer read by any read
+   * operation: the newest version tagged with the oldest sequence number read, or an older one, is kept, but the
+   * older versions are unlinked. Must be called with the writer lock held.
+   */
+  private void addVersion(ConcurrentSkipListMap<ByteString, Version> tree, ByteString key, ByteString value, long seq,
+      long oldestReadSeq)
+  {
+    final Version current = tree.get(key);
+    if (current == null && value == null)
+    {
+      return;
+    }
+    for (Version version = current; version != null; version = version.previous)
+    {
+      if (version.seq <= oldestReadSeq)
+      {
+        version.previous = null;
+        break;
+      }
+    }
+    final Version version = new Version(value, seq, current);
+    tree.put(key, version);
+    if (value == null)
+    {
+      deletedRecords.add(new DeletedRecord(tree, key, version));
+    }
+  }
+
+  /**
+   * Removes from their trees the deleted records which all the read operations see as deleted, unless they have been
+   * put again since. Must be called with the writer lock held.
+   */
+  private void removeDeletedRecords(long oldestReadSeq)
+  {
+    DeletedRecord record;
+    while ((record = deletedRecords.peek()) != null && record.version.seq <= oldestReadSeq)
+    {
+      deletedRecords.remove();
+      record.tree.remove(record.key, record.version);
+    }
+  }
+
+  /** Replaces or adds a tree outside of a write operation. */
+  private void setTree(TreeName treeName, ConcurrentSkipListMap<ByteString, Version> tree)
+  {
+    writerLock.lock();
+    try
+    {
+      final Catalog current = catalog;
+      final Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees = new HashMap<>(current.trees);
+      trees.put(treeName, tree);
+      catalog = new Catalog(current.seq, trees);
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+  }
+
+  /** Replaces all the trees outside of a write operation. */
+  private void setTrees(Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees)
+  {
+    writerLock.lock();
+    try
+    {
+      deletedRecords.clear();
+      catalog = new Catalog(catalog.seq, trees);
+    }
+    finally
+    {
+      writerLock.unlock();
+    }
+  }
+
+  @Override
+  public synchronized void close()
+  {
+    if (isOpen && isDirty && config.isDBSnapshotEnabled() && accessMode.isWriteable())
+    {
+      try
+      {
+        writeSnapshot();
+      }
+      catch (IOException e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_MEM_SNAPSHOT_WRITE_FAILED, getSnapshotFile(), config.getBackendId(),
+            stackTraceToSingleLineString(e));
+      }
+    }
+    isOpen = false;
+  }
+
+  @Override
+  public synchronized void removeStorageFiles() throws StorageRuntimeException
+  {
+    setTrees(new HashMap<TreeName, ConcurrentSkipListMap<ByteString, Version>>());
+    isSnapshotLoaded = true;
+    isDirty = false;
+    if (config.isDBSnapshotEnabled())
+    {
+      StorageUtils.removeStorageFiles(backendDirectory);
+    }
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return StorageStatus.working();
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return new HashSet<>(catalog.trees.keySet());
+  }
+
+  private File getSnapshotFile()
+  {
+    return new File(backendDirectory, SNAPSHOT_NAME);
+  }
+
+  private void loadSnapshotIfNeeded()
+  {
+    if (isSnapshotLoaded)
+    {
+      return;
+    }
+    isSnapshotLoaded = true;
+    final File snapshotFile = getSnapshotFile();
+    if (!config.isDBSnapshotEnabled() || !snapshotFile.exists())
+    {
+      return;
+    }
+
+    final long startTime = System.currentTimeMillis();
+    long nbRecords = 0;
+    final Map<TreeName, ConcurrentSkipListMap<ByteString, Version>> trees = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile))))
+    {
+      final int formatVersion = in.readInt();
+      if (formatVersion != SNAPSHOT_FORMAT_VERSION)
+      {
+        throw new IOException("Unsupported snapshot format version " + formatVersion);
+      }
+      while (in.readBoolean())
+      {
+        final TreeName treeName = TreeName.valueOf(in.readUTF());
+        final ConcurrentSkipListMap<ByteString, Version> tree = new ConcurrentSkipListMap<>();
+        while (in.readBoolean())
+        {
+          tree.put(readBytes(in), new Version(readBytes(in), 0, null));
+          nbRecords++;
+        }
+        trees.put(treeName, tree);
+      }
+    }
+    catch (IOException e)
+    {
+      throw new StorageRuntimeException(ERR_MEM_SNAPSHOT_READ_FAILED.get(
+          snapshotFile, config.getBackendId(), stackTraceToSingleLineString(e)).toString(), e);
+    }
+    setTrees(trees);
+    logger.info(NOTE_MEM_SNAPSHOT_LOADED, config.getBackendId(), nbRecords, snapshotFile,
+        System.currentTimeMillis() - startTime);
+  }
+
+  /**
+   * Writes the trees to a temporary file which then replaces the snapshot file, so that a failure leaves the previous
+   * snapshot untouched. The trees are read like in a read operation, so the write operations are not blocked.
+   */
+  private void writeSnapshot() throws IOException
+  {
+    final File snapshotFile = getSnapshotFile();
+    final File tmpFile = new File(backendDirectory, SNAPSHOT_NAME + ".tmp");
+    final long startTime = System.currentTimeMillis();
+    long nbRecords = 0;
+    // Reset before reading the trees, so that it is set again by the write operations committed in the meantime
+    isDirty = false;
+    final TransactionImpl txn = startRead();
+    try
+    {
+      try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut)))
+      {
+        out.writeInt(SNAPSHOT_FORMAT_VERSION);
+        for (TreeName treeName : txn.catalog.trees.keySet())
+        {
+          out.writeBoolean(true);
+          out.writeUTF(treeName.toString());
+          try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+          {
+            while (cursor.next())
+            {
+              out.writeBoolean(true);
+              writeBytes(out, cursor.getKey());
+              writeBytes(out, cursor.getValue());
+              nbRecords++;
+            }
+          }
+          out.writeBoolean(false);
+        }
+        out.writeBoolean(false);
+        out.flush();
+        fileOut.getFD().sync();
+      }
+      Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      isDirty = true;
+      throw e;
+    }
+    finally
+    {
+      activeReads.remove(txn);
+    }
+    logger.info(NOTE_MEM_SNAPSHOT_WRITTEN, config.getBackendId(), nbRecords, snapshotFile,
+        System.currentTimeMillis() - startTime);
+  }
+
+  private static void writeBytes(DataOutputStream out, ByteString bytes) throws IOException
+  {
+    out.writeInt(bytes.length());
+    bytes.copyTo(out);
+  }
+
+  private static ByteString readBytes(DataInputStream in) throws IOException
+  {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return ByteString.wrap(bytes);
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return config.isDBSnapshotEnabled();
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    checkSupportsBackupAndRestore();
+    synchronized (this)
+    {
+      if (isOpen && (isDirty || !getSnapshotFile().exists()) && accessMode.isWriteable())
+      {
+        try
+        {
+          writeSnapshot();
+        }
+        catch (IOException e)
+        {
+          throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(),
+              ERR_MEM_SNAPSHOT_WRITE_FAILED.get(getSnapshotFile(), config.getBackendId(),
+                  stackTraceToSingleLineString(e)), e);
+        }
+      }
+    }
+    new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    checkSupportsBackupAndRestore();
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  private void checkSupportsBackupAndRestore() throws DirectoryException
+  {
+    if (!supportsBackupAndRestore())
+    {
+      throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM,
+          ERR_MEM_BACKUP_RESTORE_NOT_SUPPORTED.get(config.getBackendId()));
+    }
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return backendDirectory;
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch (IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(), msg);
+    }
+
+    // The restored snapshot replaces the trees
+    synchronized (this)
+    {
+      setTrees(new HashMap<TreeName, ConcurrentSkipListMap<ByteString, Version>>());
+      isDirty = false;
+      isSnapshotLoaded = false;
+      if (isOpen)
+      {
+        loadSnapshotIfNeeded();
+      }
+    }
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(MemBackendCfg cfg, List<LocalizableMessage> unacceptableReasons)
+  {
+    if (!cfg.isDBSnapshotEnabled())
+    {
+      return true;
+    }
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    checkDBDirExistsOrCanCreate(getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId()), ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+}
@@ -57,12 +57,14 @@ import org.opends.server.backends.pluggable.spi.EmptyCursor;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadCommittedSnapshot;
 import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageInUseException;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
 import org.opends.server.backends.pluggable.spi.StorageStatus;
 import org.opends.server.backends.pluggable.spi.StorageUtils;
 import org.opends.server.backends.pluggable.spi.TreeName;
@@ -520,6 +522,46 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       }
     }
 
+    @Override
+    public List<ByteString> multiRead(final TreeName treeName, final List<? extends ByteSequence> keys)
+    {
+      try
+      {
+        /*
+         * Traverse the tree in key order with a single exchange: once positioned on the first record following a key,
+         * the keys located before this record are known to be missing without searching the tree again.
+         */
+        final Exchange ex = getExchangeFromCache(treeName);
+        final List<ByteString> values = new ArrayList<>(keys.size());
+        ByteString nextExistingKey = null;
+        boolean exhausted = false;
+        for (final ByteSequence key : keys)
+        {
+          if (exhausted || (nextExistingKey != null && nextExistingKey.compareTo(key) > 0))
+          {
+            values.add(null);
+            continue;
+          }
+          bytesToKey(ex.getKey(), key);
+          if (ex.traverse(Key.GTEQ, true))
+          {
+            nextExistingKey = ByteString.wrap(ex.getKey().reset().decodeByteArray());
+            values.add(nextExistingKey.compareTo(key) == 0 ? valueToBytes(ex.getValue()) : null);
+          }
+          else
+          {
+            exhausted = true;
+            values.add(null);
+          }
+        }
+        return values;
+      }
+      catch (final PersistitException | RollbackException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+
     @Override
     public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
     {
@@ -676,6 +718,12 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       return delegate.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return delegate.multiRead(treeName, keys);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -805,6 +853,12 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       return null;
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      return Collections.<ByteString> nCopies(keys.size(), null);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
     {
@@ -1046,6 +1100,12 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
     }
   }
 
+  @Override
+  public StorageSnapshot openSnapshot()
+  {
+    return new ReadCommittedSnapshot(this);
+  }
+
   @Override
   public Importer startImport() throws ConfigException, StorageRuntimeException
   {
@@ -120,10 +120,10 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     private final Indexer indexer;
 
     private MatchingRuleIndex(EntryContainer entryContainer, AttributeType attributeType, State state, Indexer indexer,
-        int indexEntryLimit, CryptoSuite cryptoSuite)
+        int indexEntryLimit, CryptoSuite cryptoSuite, boolean keyFilterEnabled)
     {
       super(getIndexName(entryContainer, attributeType, indexer.getIndexID()),
-          state, indexEntryLimit, entryContainer, cryptoSuite);
+          state, indexEntryLimit, entryContainer, cryptoSuite, keyFilterEnabled);
       this.attributeType = attributeType;
       this.indexer = indexer;
     }
@@ -311,6 +311,8 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
     final IndexingOptions indexingOptions = new IndexingOptionsImpl(config.getSubstringLength());
 
     Map<Indexer, Boolean> indexers = new HashMap<>();
+    // Only the equality indexes are looked up with keys which are often absent, such as in uniqueness checks
+    final Set<String> keyFilteredIndexIds = new HashSet<>();
     for(IndexType indexType : config.getIndexType()) {
       switch (indexType)
       {
@@ -322,8 +324,16 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
             getExtensibleIndexers(config.getAttribute(), config.getIndexExtensibleMatchingRule(), indexingOptions));
         break;
       case EQUALITY:
-        indexers.putAll(buildBaseIndexers(config.isConfidentialityEnabled(), false, indexType, attributeType,
-            indexingOptions));
+        final Map<Indexer, Boolean> equalityIndexers =
+            buildBaseIndexers(config.isConfidentialityEnabled(), false, indexType, attributeType, indexingOptions);
+        indexers.putAll(equalityIndexers);
+        if (entryContainer.isKeyFilterEnabled())
+        {
+          for (Indexer indexer : equalityIndexers.keySet())
+          {
+            keyFilteredIndexIds.add(indexer.getIndexID());
+          }
+        }
         break;
       case SUBSTRING:
         indexers.putAll(buildBaseIndexers(false, config.isConfidentialityEnabled(), indexType, attributeType,
@@ -337,7 +347,8 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
         throw noMatchingRuleForIndexType(attributeType, indexType);
       }
     }
-    return buildIndexesForIndexers(entryContainer, attributeType, state, indexEntryLimit, indexers, cryptoSuite);
+    return buildIndexesForIndexers(entryContainer, attributeType, state, indexEntryLimit, indexers,
+        keyFilteredIndexIds, cryptoSuite);
   }
 
   private Map<Indexer, Boolean> buildBaseIndexers(boolean protectIndexKeys, boolean protectIndexValues,
@@ -381,7 +392,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
 
   private static Map<String, MatchingRuleIndex> buildIndexesForIndexers(EntryContainer entryContainer,
       AttributeType attributeType, State state, int indexEntryLimit, Map<Indexer, Boolean> indexers,
-      CryptoSuite cryptoSuite)
+      Set<String> keyFilteredIndexIds, CryptoSuite cryptoSuite)
   {
     final Map<String, MatchingRuleIndex> indexes = new HashMap<>();
     for (Map.Entry<Indexer, Boolean> indexerEntry : indexers.entrySet())
@@ -391,7 +402,7 @@ class AttributeIndex implements ConfigurationChangeListener<BackendIndexCfg>, Cl
       {
         indexes.put(indexID,
             new MatchingRuleIndex(entryContainer, attributeType, state, indexerEntry.getKey(),
-                indexEntryLimit, cryptoSuite));
+                indexEntryLimit, cryptoSuite, keyFilteredIndexIds.contains(indexID)));
       }
     }
     return indexes;
@@ -181,6 +181,7 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends LocalBa
 
     // Preload the tree cache.
     rootContainer.preload(cfg.getPreloadTimeLimit());
+    rootContainer.buildKeyFilters();
 
     try
     {
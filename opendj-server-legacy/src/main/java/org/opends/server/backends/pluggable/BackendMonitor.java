@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
@@ -80,6 +81,10 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   private final HashMap<SearchFilter, FilterStats> filterToStats = new HashMap<>();
   private final AtomicInteger indexedSearchCount = new AtomicInteger();
   private final AtomicInteger unindexedSearchCount = new AtomicInteger();
+  /** The number of candidate entries read from id2entry by the indexed searches. */
+  private final AtomicLong indexedCandidateReadCount = new AtomicLong();
+  /** The number of batched reads of id2entry performed by the indexed searches. */
+  private final AtomicLong indexedCandidateBatchCount = new AtomicLong();
 
   /**
    * Creates a new backend monitor.
@@ -102,7 +107,7 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   @Override
   public MonitorData getMonitorData()
   {
-    MonitorData monitorAttrs = new MonitorData(5);
+    MonitorData monitorAttrs = new MonitorData(8);
 
     Collection<String> needReindexValues = createNeedReindexValues();
     if (!needReindexValues.isEmpty())
@@ -110,12 +115,20 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
       monitorAttrs.add("need-reindex", needReindexValues);
     }
 
+    Collection<String> keyFilterValues = createKeyFilterValues();
+    if (!keyFilterValues.isEmpty())
+    {
+      monitorAttrs.add("key-filter", keyFilterValues);
+    }
+
     if (filterUseEnabled)
     {
       monitorAttrs.add("filter-use-startTime", startTimeStamp);
       monitorAttrs.add("filter-use", createFilterUseValues());
       monitorAttrs.add("filter-use-indexed", indexedSearchCount);
       monitorAttrs.add("filter-use-unindexed", unindexedSearchCount);
+      monitorAttrs.add("filter-use-indexed-candidate-reads", indexedCandidateReadCount);
+      monitorAttrs.add("filter-use-indexed-candidate-batches", indexedCandidateBatchCount);
     }
 
     return monitorAttrs;
@@ -137,6 +150,19 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     return values;
   }
 
+  private Collection<String> createKeyFilterValues()
+  {
+    Collection<String> values = new ArrayList<>();
+    for (EntryContainer ec : rootContainer.getEntryContainers())
+    {
+      for (KeyFilter keyFilter : ec.getKeyFilters())
+      {
+        values.add(keyFilter.getStats());
+      }
+    }
+    return values;
+  }
+
   private List<String> createFilterUseValues()
   {
     List<String> values = new ArrayList<>();
@@ -235,6 +261,8 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
       startTimeStamp = TimeThread.getGMTTime();
       indexedSearchCount.set(0);
       unindexedSearchCount.set(0);
+      indexedCandidateReadCount.set(0);
+      indexedCandidateBatchCount.set(0);
     }
     else if (!enabled)
     {
@@ -283,6 +311,21 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     }
   }
 
+  /**
+   * Updates the statistics counters with the candidate entries read by an indexed search.
+   *
+   * @param nbBatches the number of batched reads of id2entry performed by the search
+   * @param nbEntriesRead the number of candidate entries read from id2entry, excluding those found in the entry cache
+   */
+  void updateIndexedCandidateReadStats(int nbBatches, int nbEntriesRead)
+  {
+    if (filterUseEnabled)
+    {
+      indexedCandidateBatchCount.getAndAdd(nbBatches);
+      indexedCandidateReadCount.getAndAdd(nbEntriesRead);
+    }
+  }
+
   private void removeLowestHit()
   {
     while (!filterToStats.isEmpty() && filterToStats.size() > maxEntries)
@@ -64,6 +64,8 @@ class DN2ID extends AbstractTree
           };
 
   private final DN baseDN;
+  /** Filter of the DN keys, or null if the lookups always read the tree. */
+  private final KeyFilter keyFilter;
 
   /**
    * Create a DN2ID instance for in a given entryContainer.
@@ -73,9 +75,28 @@ class DN2ID extends AbstractTree
    * @throws StorageRuntimeException If an error occurs in the storage.
    */
   DN2ID(TreeName treeName, DN baseDN) throws StorageRuntimeException
+  {
+    this(treeName, baseDN, false);
+  }
+
+  /**
+   * Create a DN2ID instance for in a given entryContainer.
+   *
+   * @param treeName The name of the DN tree.
+   * @param baseDN The base DN of the tree.
+   * @param keyFilterEnabled Whether the lookups of absent DNs are answered by an in-memory filter of the DN keys.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  DN2ID(TreeName treeName, DN baseDN, boolean keyFilterEnabled) throws StorageRuntimeException
   {
     super(treeName);
     this.baseDN = baseDN;
+    this.keyFilter = keyFilterEnabled ? new KeyFilter(treeName) : null;
+  }
+
+  KeyFilter getKeyFilter()
+  {
+    return keyFilter;
   }
 
   /**
@@ -88,7 +109,12 @@ class DN2ID extends AbstractTree
    */
   void put(final WriteableTransaction txn, DN dn, final EntryID entryID) throws StorageRuntimeException
   {
-    txn.put(getName(), toKey(dn), toValue(entryID));
+    final ByteString key = toKey(dn);
+    if (keyFilter != null)
+    {
+      keyFilter.add(key);
+    }
+    txn.put(getName(), key, toValue(entryID));
   }
 
   private ByteString toKey(DN dn)
@@ -124,7 +150,8 @@ class DN2ID extends AbstractTree
    */
   EntryID get(ReadableTransaction txn, DN dn) throws StorageRuntimeException
   {
-    final ByteString value = txn.read(getName(), toKey(dn));
+    final ByteString key = toKey(dn);
+    final ByteString value = keyFilter != null ? keyFilter.read(txn, key) : txn.read(getName(), key);
     return value != null ? new EntryID(value) : null;
   }
 
@@ -177,6 +204,10 @@ class DN2ID extends AbstractTree
         ByteString newDnKeySuffix = currentDnKey.subSequence(oldTargetDnKeyLength, currentDnKey.length());
         ByteSequence newDnKey = new ByteStringBuilder(newTargetDnKey).appendBytes(newDnKeySuffix);
         EntryID newID = renumberEntryIDs ? rootContainer.getNextEntryID() : oldID;
+        if (keyFilter != null)
+        {
+          keyFilter.add(newDnKey);
+        }
         txn.put(getName(), newDnKey, newID.toByteString());
 
         renamedEntryIDs.add(Pair.of(oldID.longValue(), newID.longValue()));
@@ -67,6 +67,16 @@ class DefaultIndex extends AbstractTree implements Index
    */
   private volatile boolean trusted;
 
+  /**
+   * A flag to indicate that the entries are being indexed in the background while this index is not trusted. In the
+   * meantime, the entryIDs added by the concurrent updates are also stored in the keys which do not exist yet, and
+   * removing entryIDs from non-existing keys is not considered as a corruption.
+   */
+  private volatile boolean building;
+
+  /** Filter of the keys of this index, or null if the lookups always read the tree. */
+  private final KeyFilter keyFilter;
+
   /**
    * Create a new index object.
    *
@@ -84,23 +94,53 @@ class DefaultIndex extends AbstractTree implements Index
    */
   DefaultIndex(TreeName name, State state, int indexEntryLimit, EntryContainer entryContainer, CryptoSuite cryptoSuite)
       throws StorageRuntimeException
+  {
+    this(name, state, indexEntryLimit, entryContainer, cryptoSuite, false);
+  }
+
+  /**
+   * Create a new index object.
+   *
+   * @param name
+   *          The name of the index tree within the entryContainer.
+   * @param state
+   *          The state tree to persist index state info.
+   * @param indexEntryLimit
+   *          The configured limit on the number of entry IDs that may be indexed by one key.
+   * @param entryContainer
+   *          The entryContainer holding this index.
+   * @param cryptoSuite
+   * @param keyFilterEnabled
+   *          Whether the lookups of absent keys are answered by an in-memory filter of the keys.
+   * @throws StorageRuntimeException
+   *           If an error occurs in the storage.
+   */
+  DefaultIndex(TreeName name, State state, int indexEntryLimit, EntryContainer entryContainer, CryptoSuite cryptoSuite,
+      boolean keyFilterEnabled) throws StorageRuntimeException
   {
     super(name);
     this.indexEntryLimit = indexEntryLimit;
     this.state = state;
     this.entryContainer = entryContainer;
     this.cryptoSuite = cryptoSuite;
+    this.keyFilter = keyFilterEnabled ? new KeyFilter(name) : null;
+  }
+
+  final KeyFilter getKeyFilter()
+  {
+    return keyFilter;
   }
 
   @Override
   final void afterOpen(WriteableTransaction txn, boolean createOnDemand)
   {
-    final EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
-    codec = flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
-    if (cryptoSuite.isEncrypted())
+    EnumSet<IndexFlag> flags = state.getIndexFlags(txn, getName());
+    if (createOnDemand && flags.contains(BITMAP) != entryContainer.isIndexBitmapEncoding() && isEmpty(txn))
     {
-      codec = new EntryIDSet.EntryIDSetCodecV3(codec, cryptoSuite);
+      // The encoding can safely be changed since there is no existing value to decode.
+      flags = applyConfiguredEncoding(txn);
     }
+    setCodec(flags);
     trusted = flags.contains(TRUSTED);
     if (createOnDemand && !trusted && entryContainer.isEmpty(txn))
     {
@@ -108,6 +148,62 @@ class DefaultIndex extends AbstractTree implements Index
       // is no reason why this index can't be upgraded to trusted.
       setTrusted(txn, true);
     }
+    if (!trusted && keyFilter != null)
+    {
+      // The keys written while this index is rebuilt do not go through the filter
+      keyFilter.disable();
+    }
+  }
+
+  /**
+   * Switches this index to the configured encoding once its tree has been deleted, for example before it is rebuilt
+   * offline.
+   *
+   * @param txn a non null transaction
+   */
+  final void useConfiguredEncoding(WriteableTransaction txn)
+  {
+    if (state.getIndexFlags(txn, getName()).contains(BITMAP) != entryContainer.isIndexBitmapEncoding())
+    {
+      setCodec(applyConfiguredEncoding(txn));
+    }
+  }
+
+  /** Records the configured encoding in the index state, which must only be done when the index is empty. */
+  private EnumSet<IndexFlag> applyConfiguredEncoding(WriteableTransaction txn)
+  {
+    if (entryContainer.isIndexBitmapEncoding())
+    {
+      state.addFlagsToIndex(txn, getName(), BITMAP);
+    }
+    else
+    {
+      state.removeFlagsFromIndex(txn, getName(), BITMAP);
+    }
+    return state.getIndexFlags(txn, getName());
+  }
+
+  private void setCodec(EnumSet<IndexFlag> flags)
+  {
+    final EntryIDSetCodec newCodec = getCodec(flags);
+    codec = cryptoSuite.isEncrypted() ? new EntryIDSet.EntryIDSetCodecV3(newCodec, cryptoSuite) : newCodec;
+  }
+
+  private static EntryIDSetCodec getCodec(EnumSet<IndexFlag> flags)
+  {
+    if (flags.contains(BITMAP))
+    {
+      return CODEC_V4;
+    }
+    return flags.contains(COMPACTED) ? CODEC_V2 : CODEC_V1;
+  }
+
+  private boolean isEmpty(ReadableTransaction txn)
+  {
+    try (Cursor<ByteString, ByteString> cursor = txn.openCursor(getName()))
+    {
+      return !cursor.next();
+    }
   }
 
   @Override
@@ -177,14 +273,18 @@ class DefaultIndex extends AbstractTree implements Index
 
     /*
      * Avoid taking a write lock on a record which has hit all IDs because it is likely to be a
-     * point of contention.
+     * point of contention. While the index is being built, the non-existing records must be created.
      */
-    if (!get(txn, key).isDefined())
+    if (!get(txn, key).isDefined() && !(building && txn.read(getName(), key) == null))
     {
       return;
     }
 
     // The record is going to be changed in some way.
+    if (keyFilter != null && isNotEmpty(addedIDs))
+    {
+      keyFilter.add(key);
+    }
     txn.update(getName(), key, new UpdateFunction()
     {
       @Override
@@ -200,9 +300,9 @@ class DefaultIndex extends AbstractTree implements Index
            */
           return entryIDSet.size() == 0 ? null : toValue(entryIDSet);
         }
-        else if (trusted)
+        else if (trusted || building)
         {
-          if (deletedIDs != null)
+          if (trusted && deletedIDs != null)
           {
             logIndexCorruptError(txn, key);
           }
@@ -271,7 +371,7 @@ class DefaultIndex extends AbstractTree implements Index
   {
     try
     {
-      ByteString value = txn.read(getName(), key);
+      ByteString value = keyFilter != null ? keyFilter.read(txn, key) : txn.read(getName(), key);
       if (value != null)
       {
         return decodeValue(key, value);
@@ -315,6 +415,10 @@ class DefaultIndex extends AbstractTree implements Index
     }
     else
     {
+      if (keyFilter != null)
+      {
+        keyFilter.disable();
+      }
       state.removeFlagsFromIndex(txn, getName(), TRUSTED);
     }
   }
@@ -325,6 +429,17 @@ class DefaultIndex extends AbstractTree implements Index
     return trusted;
   }
 
+  /**
+   * Sets whether the entries are being indexed in the background while this index is not trusted.
+   *
+   * @param building
+   *          {@code true} while the index is being built online
+   */
+  final void setBuilding(boolean building)
+  {
+    this.building = building;
+  }
+
   final boolean isEncrypted()
   {
     return cryptoSuite.isEncrypted();
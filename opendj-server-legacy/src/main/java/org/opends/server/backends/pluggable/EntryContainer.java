@@ -36,7 +36,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -66,6 +65,7 @@ import org.opends.server.api.EntryCache;
 import org.opends.server.api.VirtualAttributeProvider;
 import org.opends.server.api.plugin.PluginResult.SubordinateDelete;
 import org.opends.server.api.plugin.PluginResult.SubordinateModifyDN;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
@@ -358,7 +358,7 @@ public class EntryContainer
     this.serverContext = serverContext;
     this.treePrefix = baseDN.toNormalizedUrlSafeString();
     this.id2childrenCount = new ID2ChildrenCount(getIndexName(ID2CHILDREN_COUNT_TREE_NAME));
-    this.dn2id = new DN2ID(getIndexName(DN2ID_TREE_NAME), baseDN);
+    this.dn2id = new DN2ID(getIndexName(DN2ID_TREE_NAME), baseDN, config.isKeyFilterEnabled());
     this.dn2uri = new DN2URI(getIndexName(REFERRAL_TREE_NAME), this);
     this.state = new State(getIndexName(STATE_TREE_NAME));
 
@@ -464,6 +464,51 @@ public class EntryContainer
     return getHighestEntryID(txn).longValue() == 0;
   }
 
+  /**
+   * Indicates whether the indexes which do not contain any data yet should store their entry IDs as compressed bitmaps.
+   *
+   * @return {@code true} if empty indexes should use the compressed bitmap encoding
+   */
+  boolean isIndexBitmapEncoding()
+  {
+    return config.isIndexBitmapEncoding();
+  }
+
+  /**
+   * Indicates whether the lookups of absent keys in dn2id and in the equality indexes are answered by key filters.
+   *
+   * @return {@code true} if the dn2id and equality index lookups go through key filters
+   */
+  boolean isKeyFilterEnabled()
+  {
+    return config.isKeyFilterEnabled();
+  }
+
+  /**
+   * Returns the key filters of this entry container, which are built when the backend is opened.
+   *
+   * @return the key filters of dn2id and of the equality indexes
+   */
+  List<KeyFilter> getKeyFilters()
+  {
+    final List<KeyFilter> keyFilters = new ArrayList<>();
+    if (dn2id.getKeyFilter() != null)
+    {
+      keyFilters.add(dn2id.getKeyFilter());
+    }
+    for (AttributeIndex attributeIndex : attrIndexMap.values())
+    {
+      for (MatchingRuleIndex index : attributeIndex.getNameToIndexes().values())
+      {
+        if (index.getKeyFilter() != null)
+        {
+          keyFilters.add(index.getKeyFilter());
+        }
+      }
+    }
+    return keyFilters;
+  }
+
   /**
    * Closes the entry container.
    *
@@ -1257,7 +1302,7 @@ public class EntryContainer
    * Here we are relying on ID order to ensure children are returned after their parents.
    * <ul>
    * <li>Iterate through the candidate IDs
-   * <li>fetch entry by ID from cache or id2entry
+   * <li>fetch entries by batches from cache or id2entry
    * <li>put the entry in the cache if not present
    * <li>discard entries that are not in scope
    * <li>return entry if it matches the filter
@@ -1319,13 +1364,14 @@ public class EntryContainer
     if (continueSearch)
     {
       final SearchFilter filter = searchOperation.getFilter();
+      final CandidatePrefetcher prefetcher = new CandidatePrefetcher(txn, entryIDReorderedSet);
       for (int i = findStartIndex(beginEntryID, entryIDReorderedSet); i < entryIDReorderedSet.length; i++)
       {
         EntryID entryID = new EntryID(entryIDReorderedSet[i]);
         Entry entry;
         try
         {
-          entry = getEntry(txn, entryID);
+          entry = prefetcher.getEntry(i);
         }
         catch (Exception e)
         {
@@ -1374,6 +1420,105 @@ public class EntryContainer
     addPagedResultsControl(searchOperation, pageRequest, null);
   }
 
+  /**
+   * Fetches the candidate entries of an indexed search by batches, so that the storage reads the entries missing from
+   * the entry cache in a single ordered pass over id2entry rather than with one lookup each.
+   * <p>
+   * The batches start small, so that the search of a small page does not read many entries it does not return, and
+   * grow as the search goes on.
+   */
+  private final class CandidatePrefetcher
+  {
+    private static final int MIN_BATCH_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 128;
+
+    private final ReadableTransaction txn;
+    private final long[] entryIDs;
+    /** The prefetched entries, null for the entries which do not exist. */
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private int batchEnd;
+    private int batchSize = MIN_BATCH_SIZE;
+
+    CandidatePrefetcher(ReadableTransaction txn, long[] entryIDs)
+    {
+      this.txn = txn;
+      this.entryIDs = entryIDs;
+    }
+
+    /**
+     * Returns the candidate entry at the provided index, which must be greater than the previous one.
+     *
+     * @param index the index of the entry ID in the candidate entry IDs
+     * @return the entry, or null if it does not exist
+     * @throws DirectoryException if the entry cannot be read
+     */
+    Entry getEntry(int index) throws DirectoryException
+    {
+      if (index >= batchEnd)
+      {
+        prefetch(index);
+      }
+      final long entryID = entryIDs[index];
+      if (entries.containsKey(entryID))
+      {
+        return entries.get(entryID);
+      }
+      // The batch could not be read: fall back to reading the entries one by one
+      return EntryContainer.this.getEntry(txn, new EntryID(entryID));
+    }
+
+    private void prefetch(int from)
+    {
+      entries.clear();
+      batchEnd = Math.min(from + batchSize, entryIDs.length);
+      batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
+
+      final EntryCache<?> entryCache = getEntryCache();
+      final List<EntryID> idsToRead = new ArrayList<>(batchEnd - from);
+      for (int i = from; i < batchEnd; i++)
+      {
+        final Entry cacheEntry = entryCache.getEntry(backendID, entryIDs[i]);
+        if (cacheEntry != null)
+        {
+          entries.put(entryIDs[i], cacheEntry);
+        }
+        else
+        {
+          idsToRead.add(new EntryID(entryIDs[i]));
+        }
+      }
+      if (idsToRead.isEmpty())
+      {
+        return;
+      }
+
+      // The candidates may have been reordered by a sort control
+      Collections.sort(idsToRead);
+      try
+      {
+        final List<Entry> readEntries = id2entry.get(txn, idsToRead);
+        for (int i = 0; i < idsToRead.size(); i++)
+        {
+          final long entryID = idsToRead.get(i).longValue();
+          final Entry entry = readEntries.get(i);
+          if (entry != null)
+          {
+            // Put the entry in the cache making sure not to overwrite a newer copy
+            // that may have been inserted since the time we read the cache.
+            entryCache.putEntryIfAbsent(entry, backendID, entryID);
+          }
+          entries.put(entryID, entry);
+        }
+        rootContainer.getMonitorProvider().updateIndexedCandidateReadStats(1, idsToRead.size());
+      }
+      catch (DirectoryException | StorageRuntimeException e)
+      {
+        // One of the entries is corrupt: getEntry() reads the batch again one entry at a time and skips it
+        logger.traceException(e);
+      }
+    }
+  }
+
   private int findStartIndex(Long beginEntryID, long[] entryIDReorderedSet)
   {
     if (beginEntryID == null)
@@ -2536,6 +2681,11 @@ public class EntryContainer
     return baseEntry;
   }
 
+  /**
+   * Sorts the candidate entries matching the search and returns the IDs which must be returned to the client, in the
+   * requested order. When a VLV request restricts the results to a window, only the keys which may fall in this window
+   * are retained while the candidates are scanned, instead of the sort keys of all the matching entries.
+   */
   private long[] sort(ReadableTransaction txn, EntryIDSet entryIDSet, SearchOperation searchOperation,
       List<SortKey> sortKeys, VLVRequestControl vlvRequest) throws DirectoryException
   {
@@ -2544,11 +2694,35 @@ public class EntryContainer
       return null;
     }
 
+    // See if there is a VLV request to further pare down the set of results, and if there is where it should be
+    // processed by offset or assertion value.
+    if (vlvRequest == null)
+    {
+      final SortedKeys sortedKeys = SortedKeys.all();
+      collectSortKeys(txn, entryIDSet, searchOperation, sortKeys, sortedKeys);
+      return sortedKeys.toSortedEntryIDs();
+    }
+
+    if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
+    {
+      return sortByOffset(txn, entryIDSet, searchOperation, vlvRequest, sortKeys);
+    }
+    return sortByGreaterThanOrEqualAssertion(txn, entryIDSet, searchOperation, vlvRequest, sortKeys);
+  }
+
+  /**
+   * Adds the VLV key of each candidate entry matching the search base, scope and filter to the provided collector.
+   *
+   * @return the number of matching entries
+   */
+  private int collectSortKeys(ReadableTransaction txn, EntryIDSet entryIDSet, SearchOperation searchOperation,
+      List<SortKey> sortKeys, SortedKeys... collectors) throws DirectoryException
+  {
     final DN baseDN = searchOperation.getBaseDN();
     final SearchScope scope = searchOperation.getScope();
     final SearchFilter filter = searchOperation.getFilter();
 
-    final TreeMap<ByteString, EntryID> sortMap = new TreeMap<>();
+    int count = 0;
     for (EntryID id : entryIDSet)
     {
       try
@@ -2556,7 +2730,12 @@ public class EntryContainer
         Entry e = getEntry(txn, id);
         if (e.matchesBaseAndScope(baseDN, scope) && filter.matchesEntry(e))
         {
-          sortMap.put(encodeVLVKey(sortKeys, e, id.longValue()), id);
+          final ByteString key = encodeVLVKey(sortKeys, e, id.longValue());
+          for (SortedKeys collector : collectors)
+          {
+            collector.add(key);
+          }
+          count++;
         }
       }
       catch (Exception e)
@@ -2565,77 +2744,28 @@ public class EntryContainer
         throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(), message, e);
       }
     }
-
-    // See if there is a VLV request to further pare down the set of results, and if there is where it should be
-    // processed by offset or assertion value.
-    if (vlvRequest == null)
-    {
-      return toArray(sortMap.values());
-    }
-
-    if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
-    {
-      return sortByOffset(searchOperation, vlvRequest, sortMap);
-    }
-    return sortByGreaterThanOrEqualAssertion(searchOperation, vlvRequest, sortKeys, sortMap);
+    return count;
   }
 
-  private static final long[] toArray(Collection<EntryID> entryIDs)
-  {
-    final long[] array = new long[entryIDs.size()];
-    int i = 0;
-    for (EntryID entryID : entryIDs)
-    {
-      array[i++] = entryID.longValue();
-    }
-    return array;
-  }
-
-  private static final long[] sortByGreaterThanOrEqualAssertion(SearchOperation searchOperation,
-      VLVRequestControl vlvRequest, List<SortKey> sortKeys, final TreeMap<ByteString, EntryID> sortMap)
-      throws DirectoryException
+  private long[] sortByGreaterThanOrEqualAssertion(ReadableTransaction txn, EntryIDSet entryIDSet,
+      SearchOperation searchOperation, VLVRequestControl vlvRequest, List<SortKey> sortKeys) throws DirectoryException
   {
     ByteString assertionValue = vlvRequest.getGreaterThanOrEqualAssertion();
-    ByteSequence encodedTargetAssertion =
-        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, sortMap.size());
-
-    boolean targetFound = false;
-    int index = 0;
-    int targetIndex = 0;
-    int startIndex = 0;
-    int includedAfterCount = 0;
-    long[] idSet = new long[sortMap.size()];
-    for (Map.Entry<ByteString, EntryID> entry : sortMap.entrySet())
-    {
-      ByteString vlvKey = entry.getKey();
-      EntryID id = entry.getValue();
-      idSet[index++] = id.longValue();
-
-      if (targetFound)
-      {
-        includedAfterCount++;
-        if (includedAfterCount >= vlvRequest.getAfterCount())
-        {
-          break;
-        }
-      }
-      else
-      {
-        targetFound = vlvKey.compareTo(encodedTargetAssertion) >= 0;
-        if (targetFound)
-        {
-          startIndex = Math.max(0, targetIndex - vlvRequest.getBeforeCount());
-        }
-        targetIndex++;
-      }
-    }
+    final ByteSequence encodedTargetAssertion =
+        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, (int) entryIDSet.size());
+
+    // Keys sorting before the target are only needed to fill the "before" part of the window,
+    // the target and the keys following it are only needed to fill the "after" part of the window
+    final SortedKeys beforeTarget = SortedKeys.largestBelow(encodedTargetAssertion, vlvRequest.getBeforeCount());
+    final SortedKeys fromTarget = SortedKeys.smallestFrom(encodedTargetAssertion, 1L + vlvRequest.getAfterCount());
+    final int contentCount = collectSortKeys(txn, entryIDSet, searchOperation, sortKeys, beforeTarget, fromTarget);
 
     final long[] result;
-    if (targetFound)
+    final int targetIndex;
+    if (fromTarget.size() > 0)
     {
-      final long[] array = new long[index - startIndex];
-      System.arraycopy(idSet, startIndex, array, 0, array.length);
-      result = array;
+      result = concat(beforeTarget.toSortedEntryIDs(), fromTarget.toSortedEntryIDs());
+      targetIndex = beforeTarget.getNbAdded() + 1;
     }
     else
     {
@@ -2643,21 +2773,29 @@ public class EntryContainer
        * No entry was found to be greater than or equal to the sort key, so the target offset will
        * be one greater than the content count.
        */
-      targetIndex = sortMap.size() + 1;
+      targetIndex = contentCount + 1;
       result = new long[0];
     }
-    addVLVResponseControl(searchOperation, targetIndex, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetIndex, contentCount, SUCCESS);
+    return result;
+  }
+
+  private static long[] concat(long[] first, long[] second)
+  {
+    final long[] result = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
     return result;
   }
 
-  private static final long[] sortByOffset(SearchOperation searchOperation, VLVRequestControl vlvRequest,
-      TreeMap<ByteString, EntryID> sortMap) throws DirectoryException
+  private long[] sortByOffset(ReadableTransaction txn, EntryIDSet entryIDSet, SearchOperation searchOperation,
+      VLVRequestControl vlvRequest, List<SortKey> sortKeys) throws DirectoryException
   {
     int targetOffset = vlvRequest.getOffset();
     if (targetOffset < 0)
     {
       // The client specified a negative target offset. This should never be allowed.
-      addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), OFFSET_RANGE_ERROR);
+      final int contentCount = collectSortKeys(txn, entryIDSet, searchOperation, sortKeys);
+      addVLVResponseControl(searchOperation, targetOffset, contentCount, OFFSET_RANGE_ERROR);
 
       LocalizableMessage message = ERR_ENTRYIDSORTER_NEGATIVE_START_POS.get();
       throw new DirectoryException(ResultCode.VIRTUAL_LIST_VIEW_ERROR, message);
@@ -2678,41 +2816,27 @@ public class EntryContainer
       startPos = 0;
       beforeCount = listOffset;
     }
-    else if (startPos >= sortMap.size())
-    {
-      // The start position is beyond the end of the list. In this case, we'll assume that the start position was
-      // one greater than the size of the list and will only return the beforeCount entries.
-      targetOffset = sortMap.size() + 1;
-      listOffset = sortMap.size();
-      startPos = listOffset - beforeCount;
-      afterCount = 0;
-    }
 
-    int count = 1 + beforeCount + afterCount;
-    long[] sortedIDs = new long[count];
-    int treePos = 0;
-    int arrayPos = 0;
-    for (EntryID id : sortMap.values())
-    {
-      if (treePos++ < startPos)
-      {
-        continue;
-      }
+    // The window either starts at startPos, or is made of the last beforeCount keys when startPos is beyond the end
+    final SortedKeys firstKeys = SortedKeys.smallest((long) startPos + 1 + beforeCount + afterCount);
+    final SortedKeys lastKeys = SortedKeys.largest(beforeCount);
+    final int contentCount = collectSortKeys(txn, entryIDSet, searchOperation, sortKeys, firstKeys, lastKeys);
 
-      sortedIDs[arrayPos++] = id.longValue();
-      if (arrayPos >= count)
-      {
-        break;
-      }
+    final long[] sortedIDs;
+    if (startPos < contentCount)
+    {
+      final ByteString[] keys = firstKeys.toSortedArray();
+      sortedIDs = SortedKeys.toEntryIDs(keys, startPos, keys.length);
     }
-
-    if (arrayPos < count)
+    else
     {
-      // We don't have enough entries in the set to meet the requested page size, so we'll need to shorten the array.
-      sortedIDs = Arrays.copyOf(sortedIDs, arrayPos);
+      // The start position is beyond the end of the list. In this case, we'll assume that the start position was
+      // one greater than the size of the list and will only return the beforeCount entries.
+      targetOffset = contentCount + 1;
+      sortedIDs = lastKeys.toSortedEntryIDs();
     }
 
-    addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetOffset, contentCount, SUCCESS);
     return sortedIDs;
   }
 
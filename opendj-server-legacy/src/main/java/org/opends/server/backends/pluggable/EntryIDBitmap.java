@@ -0,0 +1,1021 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Compressed bitmap of entry IDs, organized like a Roaring bitmap.
+ * <p>
+ * IDs are partitioned in chunks of 65536 consecutive values sharing the same high-order 48 bits. Each chunk is held
+ * in a container storing only the low-order 16 bits of its IDs: sparse chunks use a sorted array of {@code char}
+ * while dense chunks use a fixed size bitmap of 8KB. Set operations are performed container by container which
+ * keeps intersections and unions of large index keys cheap both in CPU and memory.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDBitmap
+{
+  /** Containers with more than this number of values are stored as bitmaps. */
+  private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+  private static final int BITMAP_CONTAINER_WORDS = 1024;
+  private static final byte ARRAY_CONTAINER = 0;
+  private static final byte BITMAP_CONTAINER = 1;
+  private static final long[] EMPTY_KEYS = new long[0];
+  private static final Container[] EMPTY_CONTAINERS = new Container[0];
+
+  /** High-order 48 bits of the IDs held by each container, sorted in ascending order. */
+  private long[] keys;
+  private Container[] containers;
+  private int nbContainers;
+
+  /** Creates a new empty bitmap. */
+  EntryIDBitmap()
+  {
+    this(EMPTY_KEYS, EMPTY_CONTAINERS, 0);
+  }
+
+  private EntryIDBitmap(long[] keys, Container[] containers, int nbContainers)
+  {
+    this.keys = keys;
+    this.containers = containers;
+    this.nbContainers = nbContainers;
+  }
+
+  /**
+   * Creates a new bitmap containing the provided entry IDs.
+   *
+   * @param sortedIDs
+   *          entry IDs sorted in ascending order
+   * @return a new bitmap containing the provided entry IDs
+   */
+  static EntryIDBitmap valueOf(long[] sortedIDs)
+  {
+    final EntryIDBitmap bitmap = new EntryIDBitmap();
+    int start = 0;
+    while (start < sortedIDs.length)
+    {
+      final long key = highBits(sortedIDs[start]);
+      int end = start + 1;
+      while (end < sortedIDs.length && highBits(sortedIDs[end]) == key)
+      {
+        end++;
+      }
+      final int cardinality = end - start;
+      Container container;
+      if (cardinality <= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        final char[] values = new char[cardinality];
+        for (int i = 0; i < cardinality; i++)
+        {
+          values[i] = lowBits(sortedIDs[start + i]);
+        }
+        container = new ArrayContainer(values, cardinality);
+      }
+      else
+      {
+        final long[] words = new long[BITMAP_CONTAINER_WORDS];
+        for (int i = start; i < end; i++)
+        {
+          final char low = lowBits(sortedIDs[i]);
+          words[low >>> 6] |= 1L << low;
+        }
+        container = new BitmapContainer(words, cardinality);
+      }
+      bitmap.appendContainer(key, container);
+      start = end;
+    }
+    return bitmap;
+  }
+
+  private static long highBits(long id)
+  {
+    return id >>> 16;
+  }
+
+  private static char lowBits(long id)
+  {
+    return (char) id;
+  }
+
+  private static long toID(long key, int low)
+  {
+    return (key << 16) | low;
+  }
+
+  /**
+   * Returns the number of entry IDs in this bitmap.
+   *
+   * @return the number of entry IDs in this bitmap
+   */
+  long cardinality()
+  {
+    long cardinality = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      cardinality += containers[i].cardinality;
+    }
+    return cardinality;
+  }
+
+  boolean isEmpty()
+  {
+    return nbContainers == 0;
+  }
+
+  /**
+   * Returns the smallest entry ID of this bitmap.
+   *
+   * @return the smallest entry ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long first()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return toID(keys[0], containers[0].first());
+  }
+
+  /**
+   * Returns the greatest entry ID of this bitmap.
+   *
+   * @return the greatest entry ID of this bitmap
+   * @throws NoSuchElementException
+   *           if this bitmap is empty
+   */
+  long last()
+  {
+    if (nbContainers == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    return toID(keys[nbContainers - 1], containers[nbContainers - 1].last());
+  }
+
+  boolean contains(long id)
+  {
+    final int pos = indexOfKey(highBits(id));
+    return pos >= 0 && containers[pos].contains(lowBits(id));
+  }
+
+  /**
+   * Adds an entry ID to this bitmap.
+   *
+   * @param id
+   *          the entry ID to add
+   * @return {@code true} if this bitmap has been modified
+   */
+  boolean add(long id)
+  {
+    final long key = highBits(id);
+    final int pos = indexOfKey(key);
+    if (pos >= 0)
+    {
+      final Container container = containers[pos];
+      final long before = container.cardinality;
+      containers[pos] = container.add(lowBits(id));
+      return containers[pos].cardinality != before;
+    }
+    insertContainer(-(pos + 1), key, new ArrayContainer(new char[] { lowBits(id) }, 1));
+    return true;
+  }
+
+  /**
+   * Removes an entry ID from this bitmap.
+   *
+   * @param id
+   *          the entry ID to remove
+   * @return {@code true} if this bitmap has been modified
+   */
+  boolean remove(long id)
+  {
+    final int pos = indexOfKey(highBits(id));
+    if (pos < 0)
+    {
+      return false;
+    }
+    final Container container = containers[pos];
+    final long before = container.cardinality;
+    final Container updated = container.remove(lowBits(id));
+    if (updated.cardinality == 0)
+    {
+      removeContainer(pos);
+    }
+    else
+    {
+      containers[pos] = updated;
+    }
+    return updated.cardinality != before;
+  }
+
+  /**
+   * Returns a new bitmap holding the IDs contained in both this bitmap and the provided one.
+   *
+   * @param that
+   *          the other bitmap
+   * @return a new bitmap holding the intersection of both bitmaps
+   */
+  EntryIDBitmap and(EntryIDBitmap that)
+  {
+    final EntryIDBitmap result = new EntryIDBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < nbContainers && j < that.nbContainers)
+    {
+      final long key1 = keys[i];
+      final long key2 = that.keys[j];
+      if (key1 < key2)
+      {
+        i = advanceUntil(keys, nbContainers, i, key2);
+      }
+      else if (key1 > key2)
+      {
+        j = advanceUntil(that.keys, that.nbContainers, j, key1);
+      }
+      else
+      {
+        final Container container = containers[i].and(that.containers[j]);
+        if (container.cardinality > 0)
+        {
+          result.appendContainer(key1, container);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new bitmap holding the IDs contained in this bitmap or in the provided one.
+   *
+   * @param that
+   *          the other bitmap
+   * @return a new bitmap holding the union of both bitmaps
+   */
+  EntryIDBitmap or(EntryIDBitmap that)
+  {
+    final EntryIDBitmap result = new EntryIDBitmap();
+    result.ensureCapacity(nbContainers + that.nbContainers);
+    int i = 0;
+    int j = 0;
+    while (i < nbContainers && j < that.nbContainers)
+    {
+      final long key1 = keys[i];
+      final long key2 = that.keys[j];
+      if (key1 < key2)
+      {
+        result.appendContainer(key1, containers[i++].copy());
+      }
+      else if (key1 > key2)
+      {
+        result.appendContainer(key2, that.containers[j++].copy());
+      }
+      else
+      {
+        result.appendContainer(key1, containers[i++].or(that.containers[j++]));
+      }
+    }
+    while (i < nbContainers)
+    {
+      result.appendContainer(keys[i], containers[i++].copy());
+    }
+    while (j < that.nbContainers)
+    {
+      result.appendContainer(that.keys[j], that.containers[j++].copy());
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new bitmap holding the IDs contained in this bitmap but not in the provided one.
+   *
+   * @param that
+   *          the other bitmap
+   * @return a new bitmap holding the difference of both bitmaps
+   */
+  EntryIDBitmap andNot(EntryIDBitmap that)
+  {
+    final EntryIDBitmap result = new EntryIDBitmap();
+    result.ensureCapacity(nbContainers);
+    int j = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      final long key = keys[i];
+      j = advanceUntil(that.keys, that.nbContainers, j, key);
+      if (j < that.nbContainers && that.keys[j] == key)
+      {
+        final Container container = containers[i].andNot(that.containers[j]);
+        if (container.cardinality > 0)
+        {
+          result.appendContainer(key, container);
+        }
+      }
+      else
+      {
+        result.appendContainer(key, containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the entry IDs contained in this bitmap.
+   *
+   * @return a new array containing the entry IDs of this bitmap sorted in ascending order
+   */
+  long[] toArray()
+  {
+    final long cardinality = cardinality();
+    if (cardinality > Integer.MAX_VALUE)
+    {
+      throw new IllegalStateException("Too many entry IDs: " + cardinality);
+    }
+    final long[] ids = new long[(int) cardinality];
+    int pos = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      pos = containers[i].fill(keys[i] << 16, ids, pos);
+    }
+    return ids;
+  }
+
+  /**
+   * Returns an iterator over the entry IDs of this bitmap, in ascending order.
+   *
+   * @return an iterator over the entry IDs of this bitmap
+   */
+  IDIterator iterator()
+  {
+    return new IDIterator();
+  }
+
+  /**
+   * Serializes this bitmap.
+   *
+   * @param builder
+   *          where to append the serialized form of this bitmap
+   * @return the provided builder
+   */
+  ByteStringBuilder writeTo(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(nbContainers);
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      builder.appendCompactUnsigned(keys[i] - previousKey);
+      previousKey = keys[i];
+      containers[i].writeTo(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Returns an estimate of the size of the serialized form of this bitmap.
+   *
+   * @return an estimate of the size of the serialized form of this bitmap
+   */
+  int getEstimatedSize()
+  {
+    int size = ByteStringBuilder.MAX_COMPACT_SIZE;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      size += 2 * ByteStringBuilder.MAX_COMPACT_SIZE + 1 + containers[i].getSerializedSize();
+    }
+    return size;
+  }
+
+  /**
+   * Deserializes a bitmap written with {@link #writeTo(ByteStringBuilder)}.
+   *
+   * @param reader
+   *          the reader positioned at the start of the serialized bitmap
+   * @return the deserialized bitmap
+   */
+  static EntryIDBitmap readFrom(ByteSequenceReader reader)
+  {
+    final int nbContainers = reader.readCompactUnsignedInt();
+    final long[] keys = new long[nbContainers];
+    final Container[] containers = new Container[nbContainers];
+    long previousKey = 0;
+    for (int i = 0; i < nbContainers; i++)
+    {
+      keys[i] = previousKey + reader.readCompactUnsignedLong();
+      previousKey = keys[i];
+      containers[i] = readContainer(reader);
+    }
+    return new EntryIDBitmap(keys, containers, nbContainers);
+  }
+
+  private static Container readContainer(ByteSequenceReader reader)
+  {
+    final byte type = reader.readByte();
+    final int cardinality = reader.readCompactUnsignedInt() + 1;
+    switch (type)
+    {
+    case ARRAY_CONTAINER:
+      final char[] values = new char[cardinality];
+      for (int i = 0; i < cardinality; i++)
+      {
+        values[i] = (char) reader.readShort();
+      }
+      return new ArrayContainer(values, cardinality);
+    case BITMAP_CONTAINER:
+      final long[] words = new long[BITMAP_CONTAINER_WORDS];
+      for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+      {
+        words[i] = reader.readLong();
+      }
+      return new BitmapContainer(words, cardinality);
+    default:
+      throw new IllegalArgumentException("Unknown bitmap container type " + type);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[COUNT:" + cardinality() + "]";
+  }
+
+  private int indexOfKey(long key)
+  {
+    if (nbContainers == 0 || keys[nbContainers - 1] == key)
+    {
+      // Fast path for appends
+      return nbContainers - 1;
+    }
+    return Arrays.binarySearch(keys, 0, nbContainers, key);
+  }
+
+  /** Returns the position of the first key greater or equal to the provided key, starting at pos. */
+  private static int advanceUntil(long[] keys, int length, int pos, long key)
+  {
+    while (pos < length && keys[pos] < key)
+    {
+      pos++;
+    }
+    return pos;
+  }
+
+  private void ensureCapacity(int capacity)
+  {
+    if (keys.length < capacity)
+    {
+      final int newCapacity = Math.max(capacity, Math.max(4, keys.length * 2));
+      keys = Arrays.copyOf(keys, newCapacity);
+      containers = Arrays.copyOf(containers, newCapacity);
+    }
+  }
+
+  private void appendContainer(long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    keys[nbContainers] = key;
+    containers[nbContainers] = container;
+    nbContainers++;
+  }
+
+  private void insertContainer(int pos, long key, Container container)
+  {
+    ensureCapacity(nbContainers + 1);
+    System.arraycopy(keys, pos, keys, pos + 1, nbContainers - pos);
+    System.arraycopy(containers, pos, containers, pos + 1, nbContainers - pos);
+    keys[pos] = key;
+    containers[pos] = container;
+    nbContainers++;
+  }
+
+  private void removeContainer(int pos)
+  {
+    System.arraycopy(keys, pos + 1, keys, pos, nbContainers - pos - 1);
+    System.arraycopy(containers, pos + 1, containers, pos, nbContainers - pos - 1);
+    nbContainers--;
+    containers[nbContainers] = null;
+  }
+
+  /** Iterates over the entry IDs of a bitmap. */
+  final class IDIterator
+  {
+    private int containerIndex;
+    private long[] buffer = new long[0];
+    private int bufferSize;
+    private int bufferIndex;
+
+    boolean hasNext()
+    {
+      while (bufferIndex >= bufferSize)
+      {
+        if (containerIndex >= nbContainers)
+        {
+          return false;
+        }
+        final Container container = containers[containerIndex];
+        if (buffer.length < container.cardinality)
+        {
+          buffer = new long[container.cardinality];
+        }
+        bufferSize = container.fill(keys[containerIndex] << 16, buffer, 0);
+        bufferIndex = 0;
+        containerIndex++;
+      }
+      return true;
+    }
+
+    long next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      return buffer[bufferIndex++];
+    }
+  }
+
+  /** Holds the low-order 16 bits of the IDs sharing the same high-order 48 bits. */
+  private abstract static class Container
+  {
+    int cardinality;
+
+    abstract boolean contains(char value);
+
+    /** Returns the container holding the value, which may be this one. */
+    abstract Container add(char value);
+
+    /** Returns the container without the value, which may be this one. */
+    abstract Container remove(char value);
+
+    abstract Container and(Container that);
+
+    abstract Container or(Container that);
+
+    abstract Container andNot(Container that);
+
+    abstract Container copy();
+
+    abstract int first();
+
+    abstract int last();
+
+    /** Writes the IDs of this container in the array starting at pos and returns the next position. */
+    abstract int fill(long high, long[] ids, int pos);
+
+    abstract int getSerializedSize();
+
+    abstract void writeTo(ByteStringBuilder builder);
+  }
+
+  /** Container for sparse chunks, holding a sorted array of values. */
+  private static final class ArrayContainer extends Container
+  {
+    private char[] values;
+
+    ArrayContainer(char[] values, int cardinality)
+    {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      int pos;
+      if (cardinality == 0 || value > values[cardinality - 1])
+      {
+        pos = cardinality;
+      }
+      else
+      {
+        pos = Arrays.binarySearch(values, 0, cardinality, value);
+        if (pos >= 0)
+        {
+          return this;
+        }
+        pos = -(pos + 1);
+      }
+      if (cardinality >= ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().add(value);
+      }
+      if (cardinality == values.length)
+      {
+        values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX_SIZE, Math.max(4, cardinality * 2)));
+      }
+      System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+      values[pos] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final int pos = Arrays.binarySearch(values, 0, cardinality, value);
+      if (pos >= 0)
+      {
+        System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      final char[] result = new char[Math.min(cardinality, that.cardinality)];
+      int size = 0;
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < other.cardinality)
+        {
+          final char v1 = values[i];
+          final char v2 = other.values[j];
+          if (v1 < v2)
+          {
+            i++;
+          }
+          else if (v1 > v2)
+          {
+            j++;
+          }
+          else
+          {
+            result[size++] = v1;
+            i++;
+            j++;
+          }
+        }
+      }
+      else
+      {
+        for (int i = 0; i < cardinality; i++)
+        {
+          if (that.contains(values[i]))
+          {
+            result[size++] = values[i];
+          }
+        }
+      }
+      return new ArrayContainer(result, size);
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      if (that instanceof BitmapContainer)
+      {
+        return that.or(this);
+      }
+      final ArrayContainer other = (ArrayContainer) that;
+      if (cardinality + other.cardinality > ARRAY_CONTAINER_MAX_SIZE)
+      {
+        return toBitmapContainer().or(other);
+      }
+      final char[] result = new char[cardinality + other.cardinality];
+      int i = 0;
+      int j = 0;
+      int size = 0;
+      while (i < cardinality && j < other.cardinality)
+      {
+        final char v1 = values[i];
+        final char v2 = other.values[j];
+        if (v1 < v2)
+        {
+          result[size++] = v1;
+          i++;
+        }
+        else if (v1 > v2)
+        {
+          result[size++] = v2;
+          j++;
+        }
+        else
+        {
+          result[size++] = v1;
+          i++;
+          j++;
+        }
+      }
+      while (i < cardinality)
+      {
+        result[size++] = values[i++];
+      }
+      while (j < other.cardinality)
+      {
+        result[size++] = other.values[j++];
+      }
+      return new ArrayContainer(result, size);
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      final char[] result = new char[cardinality];
+      int size = 0;
+      for (int i = 0; i < cardinality; i++)
+      {
+        if (!that.contains(values[i]))
+        {
+          result[size++] = values[i];
+        }
+      }
+      return new ArrayContainer(result, size);
+    }
+
+    @Override
+    Container copy()
+    {
+      return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+    }
+
+    @Override
+    int first()
+    {
+      return values[0];
+    }
+
+    @Override
+    int last()
+    {
+      return values[cardinality - 1];
+    }
+
+    @Override
+    int fill(long high, long[] ids, int pos)
+    {
+      for (int i = 0; i < cardinality; i++)
+      {
+        ids[pos++] = high | values[i];
+      }
+      return pos;
+    }
+
+    @Override
+    int getSerializedSize()
+    {
+      return cardinality * 2;
+    }
+
+    @Override
+    void writeTo(ByteStringBuilder builder)
+    {
+      builder.appendByte(ARRAY_CONTAINER);
+      builder.appendCompactUnsigned(cardinality - 1);
+      for (int i = 0; i < cardinality; i++)
+      {
+        builder.appendShort(values[i]);
+      }
+    }
+
+    private BitmapContainer toBitmapContainer()
+    {
+      final long[] words = new long[BITMAP_CONTAINER_WORDS];
+      for (int i = 0; i < cardinality; i++)
+      {
+        final char value = values[i];
+        words[value >>> 6] |= 1L << value;
+      }
+      return new BitmapContainer(words, cardinality);
+    }
+  }
+
+  /** Container for dense chunks, holding one bit per possible value. */
+  private static final class BitmapContainer extends Container
+  {
+    private final long[] words;
+
+    BitmapContainer(long[] words, int cardinality)
+    {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    boolean contains(char value)
+    {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value)
+    {
+      final long before = words[value >>> 6];
+      final long after = before | (1L << value);
+      if (before != after)
+      {
+        words[value >>> 6] = after;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container remove(char value)
+    {
+      final long before = words[value >>> 6];
+      final long after = before & ~(1L << value);
+      if (before != after)
+      {
+        words[value >>> 6] = after;
+        cardinality--;
+        if (cardinality <= ARRAY_CONTAINER_MAX_SIZE)
+        {
+          return toArrayContainer(words, cardinality);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container that)
+    {
+      if (that instanceof ArrayContainer)
+      {
+        return that.and(this);
+      }
+      final long[] otherWords = ((BitmapContainer) that).words;
+      final long[] result = new long[BITMAP_CONTAINER_WORDS];
+      int size = 0;
+      for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+      {
+        result[i] = words[i] & otherWords[i];
+        size += Long.bitCount(result[i]);
+      }
+      return newContainer(result, size);
+    }
+
+    @Override
+    Container or(Container that)
+    {
+      final long[] result = Arrays.copyOf(words, BITMAP_CONTAINER_WORDS);
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          final char value = other.values[i];
+          result[value >>> 6] |= 1L << value;
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) that).words;
+        for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+        {
+          result[i] |= otherWords[i];
+        }
+      }
+      return new BitmapContainer(result, bitCount(result));
+    }
+
+    @Override
+    Container andNot(Container that)
+    {
+      final long[] result = Arrays.copyOf(words, BITMAP_CONTAINER_WORDS);
+      if (that instanceof ArrayContainer)
+      {
+        final ArrayContainer other = (ArrayContainer) that;
+        for (int i = 0; i < other.cardinality; i++)
+        {
+          final char value = other.values[i];
+          result[value >>> 6] &= ~(1L << value);
+        }
+      }
+      else
+      {
+        final long[] otherWords = ((BitmapContainer) that).words;
+        for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+        {
+          result[i] &= ~otherWords[i];
+        }
+      }
+      return newContainer(result, bitCount(result));
+    }
+
+    @Override
+    Container copy()
+    {
+      return new BitmapContainer(Arrays.copyOf(words, BITMAP_CONTAINER_WORDS), cardinality);
+    }
+
+    @Override
+    int first()
+    {
+      for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+      {
+        if (words[i] != 0)
+        {
+          return i * 64 + Long.numberOfTrailingZeros(words[i]);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    int last()
+    {
+      for (int i = BITMAP_CONTAINER_WORDS - 1; i >= 0; i--)
+      {
+        if (words[i] != 0)
+        {
+          return i * 64 + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    int fill(long high, long[] ids, int pos)
+    {
+      for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          ids[pos++] = high | (i * 64 + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return pos;
+    }
+
+    @Override
+    int getSerializedSize()
+    {
+      return BITMAP_CONTAINER_WORDS * 8;
+    }
+
+    @Override
+    void writeTo(ByteStringBuilder builder)
+    {
+      builder.appendByte(BITMAP_CONTAINER);
+      builder.appendCompactUnsigned(cardinality - 1);
+      for (long word : words)
+      {
+        builder.appendLong(word);
+      }
+    }
+
+    private static int bitCount(long[] words)
+    {
+      int count = 0;
+      for (long word : words)
+      {
+        count += Long.bitCount(word);
+      }
+      return count;
+    }
+
+    private static Container newContainer(long[] words, int cardinality)
+    {
+      return cardinality > ARRAY_CONTAINER_MAX_SIZE
+          ? new BitmapContainer(words, cardinality)
+          : toArrayContainer(words, cardinality);
+    }
+
+    private static ArrayContainer toArrayContainer(long[] words, int cardinality)
+    {
+      final char[] values = new char[cardinality];
+      int pos = 0;
+      for (int i = 0; i < BITMAP_CONTAINER_WORDS; i++)
+      {
+        long word = words[i];
+        while (word != 0)
+        {
+          values[pos++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(values, cardinality);
+    }
+  }
+}
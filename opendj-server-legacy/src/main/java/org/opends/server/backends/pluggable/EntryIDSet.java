@@ -43,6 +43,7 @@ final class EntryIDSet implements Iterable<EntryID>
 {
   public static final EntryIDSetCodec CODEC_V1 = new EntryIDSetCodecV1();
   public static final EntryIDSetCodec CODEC_V2 = new EntryIDSetCodecV2();
+  public static final EntryIDSetCodec CODEC_V4 = new EntryIDSetCodecV4();
 
   private static final ByteSequence NO_KEY = ByteString.valueOfUtf8("<none>");
   private static final long[] EMPTY_LONG_ARRAY = new long[0];
@@ -272,6 +273,98 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /**
+   * Concrete implementation representing a set of EntryIDs held in a compressed bitmap. Unions, intersections and
+   * differences with other bitmap backed sets are performed without expanding the IDs into arrays.
+   */
+  private static final class BitmapImpl implements EntryIDSetImplementor
+  {
+    /** \@NotNull */
+    private EntryIDBitmap bitmap;
+
+    BitmapImpl(EntryIDBitmap bitmap)
+    {
+      Reject.ifNull(bitmap, "bitmap must not be null");
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    public long size()
+    {
+      return bitmap.cardinality();
+    }
+
+    @Override
+    public void toString(StringBuilder buffer)
+    {
+      buffer.append("[COUNT:").append(size()).append("]");
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean add(EntryID entryID)
+    {
+      return bitmap.add(entryID.longValue());
+    }
+
+    @Override
+    public boolean remove(EntryID entryID)
+    {
+      return bitmap.remove(entryID.longValue());
+    }
+
+    @Override
+    public boolean contains(EntryID entryID)
+    {
+      return bitmap.contains(entryID.longValue());
+    }
+
+    @Override
+    public void addAll(EntryIDSet that)
+    {
+      if (that.size() != 0)
+      {
+        bitmap = bitmap.or(toBitmap(that));
+      }
+    }
+
+    @Override
+    public void removeAll(EntryIDSet that)
+    {
+      if (!bitmap.isEmpty() && compareForOverlap(getRange(), that.getRange()) == 0)
+      {
+        bitmap = bitmap.andNot(toBitmap(that));
+      }
+    }
+
+    @Override
+    public Iterator<EntryID> iterator()
+    {
+      return new BitmapIterator(bitmap.iterator());
+    }
+
+    @Override
+    public long[] getRange()
+    {
+      if (!bitmap.isEmpty())
+      {
+        return new long[] { bitmap.first(), bitmap.last() };
+      }
+      return NO_ENTRY_IDS_RANGE;
+    }
+
+    @Override
+    public long[] getIDs()
+    {
+      return bitmap.toArray();
+    }
+  }
+
   /**
    * Concrete implementation where the EntryIDs are not defined, for example when the index entry
    * limit has been exceeded.
@@ -394,6 +487,35 @@ final class EntryIDSet implements Iterable<EntryID>
     }
   }
 
+  /** Iterator for a set of Entry IDs held in a compressed bitmap. */
+  private static final class BitmapIterator implements Iterator<EntryID>
+  {
+    private final EntryIDBitmap.IDIterator ids;
+
+    BitmapIterator(EntryIDBitmap.IDIterator ids)
+    {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return ids.hasNext();
+    }
+
+    @Override
+    public EntryID next()
+    {
+      return new EntryID(ids.next());
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   /** Legacy EntryIDSet codec implementation. */
   private static final class EntryIDSetCodecV1 implements EntryIDSetCodec
   {
@@ -539,7 +661,52 @@ final class EntryIDSet implements Iterable<EntryID>
   }
 
   /**
-   * Decorate a V1 or V2 codec with encryption. When writing EntryIDSets to disk,
+   * Bitmap EntryIDSet codec implementation. Defined sets are stored as compressed bitmaps (see {@link EntryIDBitmap})
+   * whose size grows with the density of the IDs rather than with their number. This keeps large sets compact and lets
+   * them be decoded straight into a representation on which set operations are cheap, allowing much higher index
+   * entry limits than the other codecs.
+   */
+  private static final class EntryIDSetCodecV4 implements EntryIDSetCodec
+  {
+    private static final byte UNDEFINED_SET = (byte) 0xFF;
+    /**
+     * Prefix of the defined sets, so that no encoded set starts with the {@link EntryIDSetCodecV3} tag, which the
+     * number of containers of an empty bitmap would otherwise be.
+     */
+    private static final byte DEFINED_SET = 0x01;
+
+    @Override
+    public ByteString encode(EntryIDSet idSet)
+    {
+      checkNotNull(idSet, "idSet must not be null");
+      if (!idSet.isDefined())
+      {
+        return ByteString.valueOfBytes(new byte[] { UNDEFINED_SET });
+      }
+      final EntryIDBitmap bitmap = toBitmap(idSet);
+      final ByteStringBuilder builder = new ByteStringBuilder(1 + bitmap.getEstimatedSize());
+      builder.appendByte(DEFINED_SET);
+      return bitmap.writeTo(builder).toByteString();
+    }
+
+    @Override
+    public EntryIDSet decode(ByteSequence key, ByteString value)
+    {
+      checkNotNull(key, "key must not be null");
+      checkNotNull(value, "value must not be null");
+      if (value.byteAt(0) == UNDEFINED_SET)
+      {
+        return newUndefinedSetWithKey(key);
+      }
+      Reject.ifFalse(value.byteAt(0) == DEFINED_SET, "value is not a bitmap encoded entry ID set");
+      final ByteSequenceReader reader = value.asReader();
+      reader.skip(1);
+      return new EntryIDSet(new BitmapImpl(EntryIDBitmap.readFrom(reader)));
+    }
+  }
+
+  /**
+   * Decorate a V1, V2 or V4 codec with encryption. When writing EntryIDSets to disk,
    * prepend two bytes, {0, 1} to mark them as encrypted.
    * The first is tag zero (unused in other encodings), followed by a byte
    * indicating version 1 of encryption.
@@ -628,6 +795,50 @@ final class EntryIDSet implements Iterable<EntryID>
     return new EntryIDSet(new DefinedImpl(entryIDs));
   }
 
+  /**
+   * Creates a new defined entry ID set with the specified sorted entryIDs, held in a compressed bitmap.
+   *
+   * @param entryIDs
+   *          Sorted Entry IDs contained in the set.
+   * @return A new defined {@link EntryIDSet} containing the provided entryIDs
+   * @throws NullPointerException
+   *           if entryIDs is null
+   */
+  static EntryIDSet newDefinedBitmapSet(long... entryIDs)
+  {
+    checkNotNull(entryIDs, "ids must not be null");
+    return new EntryIDSet(new BitmapImpl(EntryIDBitmap.valueOf(entryIDs)));
+  }
+
+  private static boolean isBitmap(EntryIDSet set)
+  {
+    return set.concreteImpl instanceof BitmapImpl;
+  }
+
+  private static EntryIDBitmap toBitmap(EntryIDSet set)
+  {
+    return isBitmap(set) ? ((BitmapImpl) set.concreteImpl).bitmap : EntryIDBitmap.valueOf(set.getIDs());
+  }
+
+  /** Returns the IDs of the provided array which are also contained in the provided bitmap. */
+  private static long[] intersection(long[] set, EntryIDBitmap bitmap)
+  {
+    long[] target = new long[set.length];
+    int ci = 0;
+    for (long id : set)
+    {
+      if (bitmap.contains(id))
+      {
+        target[ci++] = id;
+      }
+    }
+    if (ci < target.length)
+    {
+      target = Arrays.copyOf(target, ci);
+    }
+    return target;
+  }
+
   private static long[] intersection(long[] set1, long[] set2)
   {
     long[] target = new long[Math.min(set1.length, set2.length)];
@@ -689,6 +900,14 @@ final class EntryIDSet implements Iterable<EntryID>
       return newUndefinedSet();
     }
 
+    for (EntryIDSet l : sets)
+    {
+      if (isBitmap(l))
+      {
+        return newSetFromBitmapUnion(sets);
+      }
+    }
+
     boolean needSort = false;
     long[] n = new long[count];
     int pos = 0;
@@ -723,6 +942,19 @@ final class EntryIDSet implements Iterable<EntryID>
     return newDefinedSet(Arrays.copyOf(n1, j));
   }
 
+  private static EntryIDSet newSetFromBitmapUnion(List<EntryIDSet> sets)
+  {
+    EntryIDBitmap union = new EntryIDBitmap();
+    for (EntryIDSet l : sets)
+    {
+      if (l.size() != 0)
+      {
+        union = union.or(toBitmap(l));
+      }
+    }
+    return new EntryIDSet(new BitmapImpl(union));
+  }
+
   private EntryIDSetImplementor concreteImpl;
 
   private EntryIDSet(EntryIDSetImplementor concreteImpl)
@@ -889,7 +1121,9 @@ final class EntryIDSet implements Iterable<EntryID>
     checkNotNull(that, "that must not be null");
     if (!concreteImpl.isDefined())
     {
-      if ( that.isDefined() ) {
+      if (isBitmap(that)) {
+        concreteImpl = new BitmapImpl(new EntryIDBitmap().or(toBitmap(that)));
+      } else if ( that.isDefined() ) {
         // NOTE: It's ok to share the same array instance here thanks to the copy-on-write
         // performed by the implementation.
         concreteImpl = new DefinedImpl(that.getIDs());
@@ -904,7 +1138,20 @@ final class EntryIDSet implements Iterable<EntryID>
     }
 
     final boolean thatSetOverlap = compareForOverlap(getRange(), that.getRange()) == 0;
-    if (thatSetOverlap)
+    if (thatSetOverlap && isBitmap(this) && isBitmap(that))
+    {
+      concreteImpl = new BitmapImpl(toBitmap(this).and(toBitmap(that)));
+    }
+    else if (thatSetOverlap && isBitmap(that))
+    {
+      concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), toBitmap(that)));
+    }
+    else if (thatSetOverlap && isBitmap(this))
+    {
+      // Keep the smallest representation: the result cannot be bigger than the array
+      concreteImpl = new DefinedImpl(intersection(that.getIDs(), toBitmap(this)));
+    }
+    else if (thatSetOverlap)
     {
       concreteImpl = new DefinedImpl(intersection(concreteImpl.getIDs(), that.getIDs()));
     }
@@ -16,27 +16,54 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.api.CompressedSchema;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.Entry;
 import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 
-/** Export a backend to LDIF. */
+/**
+ * Export a backend to LDIF.
+ * <p>
+ * When the export configuration requests several threads, the id2entry records are still read in order by a single
+ * cursor, but they are handed over in batches to worker threads which decode, filter and encode the entries. The
+ * encoded batches are written in the order they were read, so that the LDIF file is the same whatever the number of
+ * threads.
+ * <p>
+ * The records are read from a snapshot of the storage by chunks, each chunk being read by a short read operation, so
+ * that the storage does not retain locks or old versions of the records for the whole duration of the export. When the
+ * storage cannot provide a consistent snapshot, the records are read by a single read operation instead, as the chunks
+ * would otherwise see the entries added, moved or deleted in the meantime.
+ */
 class ExportJob
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
@@ -53,6 +80,35 @@ class ExportJob
   /** The current number of entries skipped. */
   private long skippedCount;
 
+  /** The number of id2entry records handed over at once to a worker thread. */
+  private static final int BATCH_SIZE = 256;
+  /** The maximum number of batches per worker thread read ahead of the writes. */
+  private static final int BATCHES_IN_FLIGHT_PER_THREAD = 4;
+  private static final String EXPORTER_THREAD_NAME = "EXPORTER-%d";
+  /** The number of id2entry records read by each read operation on the storage snapshot. */
+  static final int READ_CHUNK_SIZE = 4096;
+
+  /** The outcome of the export of an id2entry record. */
+  private enum Outcome
+  {
+    EXPORTED, SKIPPED, IGNORED
+  }
+
+  /** The result of the export of a batch of id2entry records by a worker thread. */
+  private static final class EncodedBatch
+  {
+    private final String ldif;
+    private final int exportedCount;
+    private final int skippedCount;
+
+    private EncodedBatch(String ldif, int exportedCount, int skippedCount)
+    {
+      this.ldif = ldif;
+      this.exportedCount = exportedCount;
+      this.skippedCount = skippedCount;
+    }
+  }
+
   /**
    * Create a new export job.
    *
@@ -108,34 +164,39 @@ class ExportJob
     TimerTask progressTask = new ProgressTask();
     timer.scheduleAtFixedRate(progressTask, progressInterval, progressInterval);
 
+    final int threadCount = exportConfig.getThreadCount();
+    final ExecutorService executor;
+    if (threadCount > 1)
+    {
+      logger.info(NOTE_EXPORT_THREAD_COUNT, threadCount);
+      executor = Executors.newFixedThreadPool(threadCount, newThreadFactory(null, EXPORTER_THREAD_NAME, true));
+    }
+    else
+    {
+      executor = null;
+    }
+
     // Iterate through the containers.
-    try
+    try (final StorageSnapshot snapshot = rootContainer.getStorage().openSnapshot())
     {
-      rootContainer.getStorage().read(new ReadOperation<Void>()
+      if (snapshot.isConsistent())
       {
-        @Override
-        public Void run(ReadableTransaction txn) throws Exception
+        exportContainers(exportContainers, snapshot, null, executor, threadCount);
+      }
+      else
+      {
+        // Reading by chunks would see the changes made between two chunks, possibly exporting an entry twice or a
+        // child entry before its parent: read the records with a single read operation instead.
+        snapshot.read(new ReadOperation<Void>()
         {
-          for (EntryContainer exportContainer : exportContainers)
+          @Override
+          public Void run(ReadableTransaction txn) throws Exception
           {
-            if (exportConfig.isCancelled())
-            {
-              break;
-            }
-
-            exportContainer.sharedLock.lock();
-            try
-            {
-              exportContainer(txn, exportContainer);
-            }
-            finally
-            {
-              exportContainer.sharedLock.unlock();
-            }
+            exportContainers(exportContainers, snapshot, txn, executor, threadCount);
+            return null;
           }
-          return null;
-        }
-      });
+        });
+      }
     }
     catch (Exception e)
     {
@@ -144,6 +205,10 @@ class ExportJob
     finally
     {
       timer.cancel();
+      if (executor != null)
+      {
+        executor.shutdownNow();
+      }
     }
 
     long finishTime = System.currentTimeMillis();
@@ -158,9 +223,64 @@ class ExportJob
     logger.info(NOTE_EXPORT_FINAL_STATUS, exportedCount, skippedCount, totalTime/1000, rate);
   }
 
+  /**
+   * Export the entries of the provided entry containers.
+   * @param containers The entry containers to export.
+   * @param snapshot The snapshot of the storage.
+   * @param txn The transaction reading all the id2entry records, or null to
+   *            read them by chunks from the snapshot, which must be consistent.
+   * @param executor The executor encoding the batches of records, or null to
+   *                 export the entries with the calling thread.
+   * @param threadCount The number of threads of the executor.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   * @throws IOException If an error occurs while writing an entry.
+   * @throws  LDIFException  If an error occurs while trying to determine
+   *                         whether to write an entry.
+   */
+  private void exportContainers(List<EntryContainer> containers, StorageSnapshot snapshot, ReadableTransaction txn,
+      ExecutorService executor, int threadCount) throws StorageRuntimeException, IOException, LDIFException
+  {
+    for (EntryContainer exportContainer : containers)
+    {
+      if (exportConfig.isCancelled())
+      {
+        break;
+      }
+
+      exportContainer.sharedLock.lock();
+      try (SequentialCursor<ByteString, ByteString> cursor =
+          openID2EntryCursor(snapshot, txn, exportContainer.getID2Entry()))
+      {
+        if (executor != null)
+        {
+          exportContainer(cursor, exportContainer, executor, threadCount);
+        }
+        else
+        {
+          exportContainer(cursor, exportContainer);
+        }
+      }
+      finally
+      {
+        exportContainer.sharedLock.unlock();
+      }
+    }
+  }
+
+  private static SequentialCursor<ByteString, ByteString> openID2EntryCursor(StorageSnapshot snapshot,
+      ReadableTransaction txn, ID2Entry id2entry)
+  {
+    if (txn != null)
+    {
+      return txn.openCursor(id2entry.getName());
+    }
+    return new ChunkCursor(snapshot, id2entry);
+  }
+
   /**
    * Export the entries in a single entry entryContainer, in other words from
    * one of the base DNs.
+   * @param cursor The cursor on the id2entry records of the entry container.
    * @param entryContainer The entry container that holds the entries to be
    *                       exported.
    * @throws StorageRuntimeException If an error occurs in the storage.
@@ -168,12 +288,56 @@ class ExportJob
    * @throws  LDIFException  If an error occurs while trying to determine
    *                         whether to write an entry.
    */
-  private void exportContainer(ReadableTransaction txn, EntryContainer entryContainer)
+  private void exportContainer(SequentialCursor<ByteString, ByteString> cursor, EntryContainer entryContainer)
        throws StorageRuntimeException, IOException, LDIFException
   {
     ID2Entry id2entry = entryContainer.getID2Entry();
-    try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+    CompressedSchema compressedSchema = entryContainer.getRootContainer().getCompressedSchema();
+    while (cursor.next())
     {
+      if (exportConfig.isCancelled())
+      {
+        break;
+      }
+
+      switch (exportRecord(id2entry, compressedSchema, cursor.getKey(), cursor.getValue(), exportConfig.getWriter()))
+      {
+      case EXPORTED:
+        exportedCount++;
+        break;
+      case SKIPPED:
+        skippedCount++;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  /**
+   * Export the entries in a single entry entryContainer with several threads.
+   * The id2entry records are read by the calling thread, which is the only one
+   * using the cursor, and encoded in batches by the executor threads.
+   * @param cursor The cursor on the id2entry records of the entry container.
+   * @param entryContainer The entry container that holds the entries to be
+   *                       exported.
+   * @param executor The executor encoding the batches of records.
+   * @param threadCount The number of threads of the executor.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   * @throws IOException If an error occurs while writing an entry.
+   * @throws  LDIFException  If an error occurs while trying to determine
+   *                         whether to write an entry.
+   */
+  private void exportContainer(SequentialCursor<ByteString, ByteString> cursor, EntryContainer entryContainer,
+      ExecutorService executor, int threadCount) throws StorageRuntimeException, IOException, LDIFException
+  {
+    final ID2Entry id2entry = entryContainer.getID2Entry();
+    final CompressedSchema compressedSchema = entryContainer.getRootContainer().getCompressedSchema();
+    final int maxBatchesInFlight = threadCount * BATCHES_IN_FLIGHT_PER_THREAD;
+    final Deque<Future<EncodedBatch>> batches = new ArrayDeque<>(maxBatchesInFlight);
+    try
+    {
+      List<ByteString> records = new ArrayList<>(2 * BATCH_SIZE);
       while (cursor.next())
       {
         if (exportConfig.isCancelled())
@@ -181,59 +345,307 @@ class ExportJob
           break;
         }
 
-        ByteString key = cursor.getKey();
-        EntryID entryID = null;
-        try
-        {
-          entryID = new EntryID(key);
-        }
-        catch (Exception e)
+        records.add(cursor.getKey());
+        records.add(cursor.getValue());
+        if (records.size() == 2 * BATCH_SIZE)
         {
-          if (logger.isTraceEnabled())
+          if (batches.size() == maxBatchesInFlight)
           {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+            write(batches.removeFirst());
           }
-          skippedCount++;
-          continue;
-        }
-
-        if (entryID.longValue() == 0)
-        {
-          // This is the stored entry count.
-          continue;
+          batches.add(executor.submit(newBatchEncoder(id2entry, compressedSchema, records)));
+          records = new ArrayList<>(2 * BATCH_SIZE);
         }
+      }
+      if (!records.isEmpty() && !exportConfig.isCancelled())
+      {
+        batches.add(executor.submit(newBatchEncoder(id2entry, compressedSchema, records)));
+      }
+      while (!batches.isEmpty())
+      {
+        write(batches.removeFirst());
+      }
+    }
+    finally
+    {
+      for (Future<EncodedBatch> batch : batches)
+      {
+        batch.cancel(true);
+      }
+    }
+  }
 
-        ByteString value = cursor.getValue();
-        Entry entry = null;
-        try
-        {
-          entry = id2entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
-        }
-        catch (Exception e)
+  /**
+   * Returns a task decoding, filtering and encoding a batch of id2entry records.
+   * @param records The keys and values of the records, interleaved.
+   */
+  private Callable<EncodedBatch> newBatchEncoder(final ID2Entry id2entry, final CompressedSchema compressedSchema,
+      final List<ByteString> records)
+  {
+    return new Callable<EncodedBatch>()
+    {
+      @Override
+      public EncodedBatch call() throws Exception
+      {
+        final StringWriter ldif = new StringWriter();
+        int exported = 0;
+        int skipped = 0;
+        try (BufferedWriter writer = new BufferedWriter(ldif))
         {
-          if (logger.isTraceEnabled())
+          for (int i = 0; i < records.size(); i += 2)
           {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry record for ID %d:%n%s%n",
-                       entryID, StaticUtils.bytesToHex(value));
+            switch (exportRecord(id2entry, compressedSchema, records.get(i), records.get(i + 1), writer))
+            {
+            case EXPORTED:
+              exported++;
+              break;
+            case SKIPPED:
+              skipped++;
+              break;
+            default:
+              break;
+            }
           }
-          skippedCount++;
-          continue;
         }
+        return new EncodedBatch(ldif.toString(), exported, skipped);
+      }
+    };
+  }
+
+  /** Waits for a batch to be encoded and writes it to the LDIF file. */
+  private void write(Future<EncodedBatch> future) throws IOException, LDIFException
+  {
+    final EncodedBatch batch;
+    try
+    {
+      batch = future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new StorageRuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+      {
+        throw (IOException) cause;
+      }
+      else if (cause instanceof LDIFException)
+      {
+        throw (LDIFException) cause;
+      }
+      else if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      throw new StorageRuntimeException(cause);
+    }
+    exportConfig.getWriter().write(batch.ldif);
+    exportedCount += batch.exportedCount;
+    skippedCount += batch.skippedCount;
+  }
+
+  /**
+   * Decodes an id2entry record and writes its entry in LDIF form to the
+   * provided writer, unless the export configuration excludes it.
+   * @return Whether the entry has been exported, skipped, or whether the
+   *         record is not an entry.
+   * @throws IOException If an error occurs while writing the entry.
+   * @throws  LDIFException  If an error occurs while trying to determine
+   *                         whether to write the entry.
+   */
+  private Outcome exportRecord(ID2Entry id2entry, CompressedSchema compressedSchema, ByteString key,
+      ByteString value, BufferedWriter writer) throws IOException, LDIFException
+  {
+    EntryID entryID = null;
+    try
+    {
+      entryID = new EntryID(key);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+      }
+      return Outcome.SKIPPED;
+    }
+
+    if (entryID.longValue() == 0)
+    {
+      // This is the stored entry count.
+      return Outcome.IGNORED;
+    }
 
-        if (entry.toLDIF(exportConfig))
+    Entry entry = null;
+    try
+    {
+      entry = id2entry.entryFromDatabase(value, compressedSchema);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry record for ID %d:%n%s%n",
+                   entryID, StaticUtils.bytesToHex(value));
+      }
+      return Outcome.SKIPPED;
+    }
+
+    return entry.toLDIF(exportConfig, writer) ? Outcome.EXPORTED : Outcome.SKIPPED;
+  }
+
+  /**
+   * Cursor on the id2entry records of a consistent snapshot, reading them by
+   * chunks of {@link #READ_CHUNK_SIZE} records, each with a read operation of
+   * its own.
+   */
+  private static final class ChunkCursor implements SequentialCursor<ByteString, ByteString>
+  {
+    private final StorageSnapshot snapshot;
+    private final ID2Entry id2entry;
+    /** The keys and values of the current chunk, interleaved, or null before the first chunk is read. */
+    private List<ByteString> chunk;
+    /** The index of the key of the current record in the chunk. */
+    private int index;
+
+    private ChunkCursor(StorageSnapshot snapshot, ID2Entry id2entry)
+    {
+      this.snapshot = snapshot;
+      this.id2entry = id2entry;
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (chunk == null)
+      {
+        chunk = readChunk(null);
+        index = 0;
+      }
+      else if (index < chunk.size())
+      {
+        index += 2;
+        if (index == chunk.size() && !isLastChunk(chunk))
         {
-          exportedCount++;
+          chunk = readChunk(lastKey(chunk));
+          index = 0;
         }
-        else
+      }
+      return isDefined();
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return chunk != null && index < chunk.size();
+    }
+
+    @Override
+    public ByteString getKey() throws NoSuchElementException
+    {
+      throwIfNotDefined();
+      return chunk.get(index);
+    }
+
+    @Override
+    public ByteString getValue() throws NoSuchElementException
+    {
+      throwIfNotDefined();
+      return chunk.get(index + 1);
+    }
+
+    @Override
+    public void delete() throws NoSuchElementException, UnsupportedOperationException
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+      // Each chunk has been read by a read operation of its own
+      chunk = Collections.emptyList();
+    }
+
+    private void throwIfNotDefined()
+    {
+      if (!isDefined())
+      {
+        throw new NoSuchElementException();
+      }
+    }
+
+    /**
+     * Reads the id2entry records following the provided key from the snapshot,
+     * with a read operation of their own.
+     * @param lastKey The key of the last record read, or null to read from the
+     *                first record.
+     * @return The keys and values of at most {@link #READ_CHUNK_SIZE} records,
+     *         interleaved.
+     * @throws StorageRuntimeException If an error occurs in the storage.
+     */
+    private List<ByteString> readChunk(final ByteString lastKey) throws StorageRuntimeException
+    {
+      try
+      {
+        return snapshot.read(new ReadOperation<List<ByteString>>()
         {
-          skippedCount++;
-        }
+          @Override
+          public List<ByteString> run(ReadableTransaction txn) throws Exception
+          {
+            final List<ByteString> records = new ArrayList<>(2 * READ_CHUNK_SIZE);
+            try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entry.getName()))
+            {
+              boolean found;
+              if (lastKey == null)
+              {
+                found = cursor.next();
+              }
+              else
+              {
+                found = cursor.positionToKeyOrNext(lastKey);
+                if (found && cursor.getKey().equals(lastKey))
+                {
+                  found = cursor.next();
+                }
+              }
+              while (found && records.size() < 2 * READ_CHUNK_SIZE)
+              {
+                records.add(cursor.getKey());
+                records.add(cursor.getValue());
+                found = cursor.next();
+              }
+            }
+            return records;
+          }
+        });
+      }
+      catch (StorageRuntimeException e)
+      {
+        throw e;
+      }
+      catch (Exception e)
+      {
+        throw new StorageRuntimeException(e);
       }
     }
+
+    private static boolean isLastChunk(List<ByteString> chunk)
+    {
+      return chunk.size() < 2 * READ_CHUNK_SIZE;
+    }
+
+    private static ByteString lastKey(List<ByteString> chunk)
+    {
+      return chunk.get(chunk.size() - 2);
+    }
   }
 
   /** This class reports progress of the export job at fixed intervals. */
@@ -26,6 +26,8 @@ import static org.opends.server.core.DirectoryServer.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.DataFormatException;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
@@ -469,6 +471,40 @@ class ID2Entry extends AbstractTree
     }
   }
 
+  /**
+   * Fetch several records from the entry tree in a single pass over the tree.
+   *
+   * @param txn a non null transaction
+   * @param entryIDs The desired entry IDs, sorted in ascending order.
+   * @return The requested entries in the same order as the entry IDs, with null for the missing records.
+   * @throws DirectoryException If a problem occurs while getting one of the entries.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  List<Entry> get(ReadableTransaction txn, List<EntryID> entryIDs)
+       throws DirectoryException, StorageRuntimeException
+  {
+    final List<ByteString> keys = new ArrayList<>(entryIDs.size());
+    for (EntryID entryID : entryIDs)
+    {
+      keys.add(entryID.toByteString());
+    }
+    final List<ByteString> values = txn.multiRead(getName(), keys);
+    final List<Entry> entries = new ArrayList<>(values.size());
+    for (int i = 0; i < values.size(); i++)
+    {
+      try
+      {
+        entries.add(get0(values.get(i)));
+      }
+      catch (Exception e)
+      {
+        throw new DirectoryException(DirectoryServer.getCoreConfigManager().getServerErrorResultCode(),
+            ERR_ENTRY_DATABASE_CORRUPT.get(entryIDs.get(i)));
+      }
+    }
+    return entries;
+  }
+
   Cursor<EntryID, Entry> openCursor(ReadableTransaction txn)
   {
     return transformKeysAndValues(txn.openCursor(getName()), TO_ENTRY_ID, TO_ENTRY);
@@ -491,6 +527,18 @@ class ID2Entry extends AbstractTree
     }
   }
 
+  /**
+   * Decodes a record read directly from the entry tree.
+   *
+   * @param value the record, or null
+   * @return The entry, or null if the record is null.
+   * @throws Exception If the record cannot be decoded.
+   */
+  Entry decode(ByteString value) throws Exception
+  {
+    return get0(value);
+  }
+
   private Entry get0(ByteString value) throws Exception
   {
     if (value == null)
@@ -0,0 +1,337 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * In-memory bloom filter of the keys of a tree, which answers the lookups of most absent keys without reading the
+ * tree.
+ * <p>
+ * The keys are added to the filter before they are written, and are never removed from it: a deleted key only makes
+ * the filter read the tree when the key is looked up again. The filter is created before the tree can be written, so
+ * that it receives the keys of all the write operations, and is then filled with the existing keys by
+ * {@link #build(StorageSnapshot)}. Until then, the lookups read the tree, and the keys written are kept aside.
+ * <p>
+ * A filter which is disabled, for example because its tree is about to be rebuilt without adding the keys to the
+ * filter, reads the tree for all the lookups until the backend is opened again.
+ */
+final class KeyFilter
+{
+  /** The number of bits per key, which gives a false positive rate of about 1%. */
+  private static final int BITS_PER_KEY = 10;
+  /** The number of hash functions which minimizes the false positive rate for {@link #BITS_PER_KEY}. */
+  private static final int NB_HASHES = 7;
+  /** The filter is sized for this many times the number of records of the tree, leaving room for new keys. */
+  private static final double GROWTH_FACTOR = 1.5;
+  private static final long MIN_NB_KEYS = 1024;
+  /** The maximum number of keys written before the filter is built, beyond which the filter is disabled. */
+  private static final int MAX_PENDING_KEYS = 1 << 20;
+  /** The number of keys read by each read operation on the storage snapshot while the filter is built. */
+  private static final int BUILD_CHUNK_SIZE = 10000;
+
+  private final TreeName treeName;
+  /** The bits of the filter, or null until it has been built. */
+  private volatile AtomicLongArray bits;
+  /** The hashes of the keys written before the filter has been built, guarded by this. */
+  private long[] pendingHashes = new long[64];
+  private int nbPendingHashes;
+  private volatile boolean disabled;
+
+  private final AtomicLong nbLookups = new AtomicLong();
+  private final AtomicLong nbAbsentKeys = new AtomicLong();
+  private final AtomicLong nbFalsePositives = new AtomicLong();
+
+  /**
+   * Creates a new filter for the keys of a tree, which must be created before the tree can be written.
+   *
+   * @param treeName the name of the tree
+   */
+  KeyFilter(TreeName treeName)
+  {
+    this.treeName = treeName;
+  }
+
+  TreeName getTreeName()
+  {
+    return treeName;
+  }
+
+  /**
+   * Adds a key which is going to be written to the tree.
+   *
+   * @param key the key
+   */
+  void add(ByteSequence key)
+  {
+    if (disabled)
+    {
+      return;
+    }
+    final long hash = hash(key);
+    final AtomicLongArray currentBits = bits;
+    if (currentBits != null)
+    {
+      set(currentBits, hash);
+      return;
+    }
+    synchronized (this)
+    {
+      if (bits != null)
+      {
+        set(bits, hash);
+      }
+      else if (nbPendingHashes < MAX_PENDING_KEYS)
+      {
+        if (nbPendingHashes == pendingHashes.length)
+        {
+          pendingHashes = Arrays.copyOf(pendingHashes, 2 * pendingHashes.length);
+        }
+        pendingHashes[nbPendingHashes++] = hash;
+      }
+      else
+      {
+        disable();
+      }
+    }
+  }
+
+  /**
+   * Reads the value of a key from the tree, unless the filter tells that the key does not exist.
+   *
+   * @param txn a non null transaction
+   * @param key the key to read
+   * @return the value of the key, or null if the key does not exist
+   */
+  ByteString read(ReadableTransaction txn, ByteSequence key)
+  {
+    final AtomicLongArray currentBits = bits;
+    if (currentBits == null || disabled)
+    {
+      return txn.read(treeName, key);
+    }
+    nbLookups.incrementAndGet();
+    if (!mightContain(currentBits, hash(key)))
+    {
+      nbAbsentKeys.incrementAndGet();
+      return null;
+    }
+    final ByteString value = txn.read(treeName, key);
+    if (value == null)
+    {
+      nbFalsePositives.incrementAndGet();
+    }
+    return value;
+  }
+
+  /** Disables this filter, so that all the lookups read the tree from now on. */
+  void disable()
+  {
+    disabled = true;
+    synchronized (this)
+    {
+      pendingHashes = null;
+      nbPendingHashes = 0;
+    }
+  }
+
+  /**
+   * Fills this filter with the keys of the tree, sizing it from the number of records of the tree. The keys are read
+   * by chunks, so that the storage does not retain any lock or old version of the records while the filter is built.
+   *
+   * @param snapshot the snapshot of the storage to read
+   * @return the number of keys read, or -1 if this filter has been disabled in the meantime
+   * @throws Exception if a problem occurs with the underlying storage engine
+   */
+  long build(StorageSnapshot snapshot) throws Exception
+  {
+    final long nbRecords = snapshot.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return txn.getRecordCount(treeName);
+      }
+    });
+    final long nbBits = (long) (Math.max(nbRecords, MIN_NB_KEYS) * GROWTH_FACTOR * BITS_PER_KEY);
+    final AtomicLongArray newBits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (nbBits + 63) / 64));
+
+    long nbKeys = 0;
+    List<ByteString> keys = readKeys(snapshot, null);
+    while (!disabled)
+    {
+      for (ByteString key : keys)
+      {
+        set(newBits, hash(key));
+      }
+      nbKeys += keys.size();
+      if (keys.size() < BUILD_CHUNK_SIZE)
+      {
+        synchronized (this)
+        {
+          if (disabled)
+          {
+            break;
+          }
+          for (int i = 0; i < nbPendingHashes; i++)
+          {
+            set(newBits, pendingHashes[i]);
+          }
+          pendingHashes = null;
+          nbPendingHashes = 0;
+          bits = newBits;
+        }
+        return nbKeys;
+      }
+      keys = readKeys(snapshot, keys.get(keys.size() - 1));
+    }
+    return -1;
+  }
+
+  /** Reads the keys following the provided one, with a read operation of their own. */
+  private List<ByteString> readKeys(StorageSnapshot snapshot, final ByteString lastKey) throws Exception
+  {
+    return snapshot.read(new ReadOperation<List<ByteString>>()
+    {
+      @Override
+      public List<ByteString> run(ReadableTransaction txn) throws Exception
+      {
+        final List<ByteString> keys = new ArrayList<>(BUILD_CHUNK_SIZE);
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          boolean found;
+          if (lastKey == null)
+          {
+            found = cursor.next();
+          }
+          else
+          {
+            found = cursor.positionToKeyOrNext(lastKey);
+            if (found && cursor.getKey().equals(lastKey))
+            {
+              found = cursor.next();
+            }
+          }
+          while (found)
+          {
+            keys.add(cursor.getKey());
+            if (keys.size() == BUILD_CHUNK_SIZE)
+            {
+              break;
+            }
+            found = cursor.next();
+          }
+        }
+        return keys;
+      }
+    });
+  }
+
+  /**
+   * Returns a description of the state and statistics of this filter, for the backend monitor.
+   *
+   * @return the description of this filter
+   */
+  String getStats()
+  {
+    final StringBuilder builder = new StringBuilder(treeName.toString());
+    if (disabled)
+    {
+      return builder.append(" state:disabled").toString();
+    }
+    else if (bits == null)
+    {
+      return builder.append(" state:building").toString();
+    }
+    final long lookups = nbLookups.get();
+    final long absentKeys = nbAbsentKeys.get();
+    final long falsePositives = nbFalsePositives.get();
+    builder.append(" state:ready");
+    builder.append(" size:").append(bits.length() * 8L);
+    builder.append(" lookups:").append(lookups);
+    builder.append(" absent-keys:").append(absentKeys);
+    builder.append(" false-positives:").append(falsePositives);
+    builder.append(" hit-rate:").append(percent(absentKeys, lookups));
+    builder.append(" false-positive-rate:").append(percent(falsePositives, absentKeys + falsePositives));
+    return builder.toString();
+  }
+
+  private static String percent(long count, long total)
+  {
+    return total > 0 ? String.format("%.2f%%", 100.0 * count / total) : "0%";
+  }
+
+  private static boolean mightContain(AtomicLongArray bits, long hash)
+  {
+    final long nbBits = bits.length() * 64L;
+    final long h1 = (int) hash;
+    final long h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= NB_HASHES; i++)
+    {
+      final long index = ((h1 + i * h2) & Long.MAX_VALUE) % nbBits;
+      if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void set(AtomicLongArray bits, long hash)
+  {
+    final long nbBits = bits.length() * 64L;
+    final long h1 = (int) hash;
+    final long h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= NB_HASHES; i++)
+    {
+      final long index = ((h1 + i * h2) & Long.MAX_VALUE) % nbBits;
+      final int word = (int) (index >>> 6);
+      final long mask = 1L << index;
+      long oldValue;
+      do
+      {
+        oldValue = bits.get(word);
+      }
+      while ((oldValue & mask) == 0 && !bits.compareAndSet(word, oldValue, oldValue | mask));
+    }
+  }
+
+  /** Returns a 64 bits hash of a key, whose two halves are used as two independent hashes. */
+  private static long hash(ByteSequence key)
+  {
+    final int length = key.length();
+    long hash = 0x9e3779b97f4a7c15L ^ length;
+    for (int i = 0; i < length; i++)
+    {
+      hash = (hash ^ (key.byteAt(i) & 0xff)) * 0xc6a4a7935bd1e995L;
+      hash ^= hash >>> 47;
+    }
+    hash *= 0xc6a4a7935bd1e995L;
+    return hash ^ (hash >>> 32);
+  }
+}
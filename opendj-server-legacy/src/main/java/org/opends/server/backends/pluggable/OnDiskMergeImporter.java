@@ -314,6 +314,10 @@ final class OnDiskMergeImporter
         clearDegradedState(entryContainer, indexesToRebuild);
         logger.info(NOTE_REBUILD_CLEARDEGRADEDSTATE_FINAL_STATUS, rebuildConfig.getRebuildList());
       }
+      else if (rebuildConfig.isOnline())
+      {
+        rebuildIndexOnline(entryContainer, indexesToRebuild, rebuildConfig.getMaxEntriesPerSecond(), totalEntries);
+      }
       else
       {
         rebuildIndex(entryContainer, rebuildConfig.getTmpDirectory(), indexesToRebuild, totalEntries);
@@ -340,6 +344,35 @@ final class OnDiskMergeImporter
       }
     }
 
+    /**
+     * Rebuilds the indexes while the storage remains open, so that the backend can keep serving the operations. The
+     * entries are indexed by small transactions rather than by sorting and merging the keys in temporary files, as the
+     * {@link Importer} needs exclusive access to the storage.
+     */
+    private void rebuildIndexOnline(EntryContainer entryContainer, Set<String> indexesToRebuild,
+        int maxEntriesPerSecond, long totalEntries) throws InitializationException, ExecutionException
+    {
+      if (indexesToRebuild.isEmpty())
+      {
+        logger.info(NOTE_REBUILD_NOTHING_TO_REBUILD);
+        return;
+      }
+      final OnlineIndexBuilder builder =
+          new OnlineIndexBuilder(rootContainer.getStorage(), entryContainer, indexesToRebuild, maxEntriesPerSecond);
+      final long startTime = System.currentTimeMillis();
+      try
+      {
+        builder.build(totalEntries);
+      }
+      catch (Exception e)
+      {
+        throw new ExecutionException(e);
+      }
+      final long totalTime = System.currentTimeMillis() - startTime;
+      final float rate = totalTime > 0 ? 1000f * builder.getProcessedCount() / totalTime : 0;
+      logger.info(NOTE_REBUILD_FINAL_STATUS, builder.getProcessedCount(), totalTime / 1000, rate);
+    }
+
     private void rebuildIndex(EntryContainer entryContainer, String tmpDirectory, Set<String> indexesToRebuild,
         long totalEntries) throws InitializationException, ConfigException, InterruptedException, ExecutionException
     {
@@ -1361,6 +1394,12 @@ final class OnDiskMergeImporter
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
     {
@@ -3625,6 +3664,11 @@ final class OnDiskMergeImporter
     public void visitAttributeIndex(Index index)
     {
       deleteTree(index);
+      if (index instanceof DefaultIndex)
+      {
+        // The rebuilt index is empty, so it can use the configured encoding
+        ((DefaultIndex) index).useConfiguredEncoding(asWriteableTransaction(importer));
+      }
     }
 
     @Override
@@ -3884,6 +3928,17 @@ final class OnDiskMergeImporter
       return importer.read(treeName, key);
     }
 
+    @Override
+    public List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys)
+    {
+      final List<ByteString> values = new ArrayList<>(keys.size());
+      for (ByteSequence key : keys)
+      {
+        values.add(importer.read(treeName, key));
+      }
+      return values;
+    }
+
     @Override
     public void put(TreeName treeName, ByteSequence key, ByteSequence value)
     {
@@ -0,0 +1,342 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+
+/**
+ * Builds attribute and VLV indexes while the backend remains online.
+ * <p>
+ * The indexes are marked as being built and are not trusted until the build completes, so that they are not used for
+ * searching, while the concurrent updates keep going through the {@link IndexBuffer} of each operation and are
+ * applied to them. The existing records are first removed, then the entries are read from id2entry by batches, each
+ * batch being indexed in its own transaction. Once all the entries have been read, the indexes are flagged as trusted
+ * in a single transaction.
+ * <p>
+ * A batch must not commit index keys computed from an entry which a concurrent update is changing: the update may have
+ * removed the entry from a key which the batch had not yet created, and the batch would then create it with the stale
+ * entry. Reading the entry does not prevent this on storages with snapshot isolation, so each batch also writes back,
+ * unchanged, the id2entry records it indexes. The concurrent updates of these entries write the same records, hence
+ * every storage either serializes them with the batch, or makes one of the transactions fail with a conflict and retry.
+ */
+final class OnlineIndexBuilder
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The number of entries indexed, or of index records removed, in each transaction. */
+  private static final int BATCH_SIZE = 100;
+  /** The interval between two progress reports. */
+  private static final long PROGRESS_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Storage storage;
+  private final EntryContainer entryContainer;
+  private final List<MatchingRuleIndex> attributeIndexes = new ArrayList<>();
+  private final List<VLVIndex> vlvIndexes = new ArrayList<>();
+  /** The maximum number of entries indexed per second, or 0 if unlimited. */
+  private final int maxEntriesPerSecond;
+  private long nbEntriesProcessed;
+
+  /**
+   * Creates a builder for some indexes of an entry container.
+   *
+   * @param storage
+   *          the storage of the entry container, which must remain open during the build
+   * @param entryContainer
+   *          the entry container holding the indexes
+   * @param indexIds
+   *          the identifiers of the indexes to build
+   * @param maxEntriesPerSecond
+   *          the maximum number of entries indexed per second, or 0 if the build must not be throttled
+   * @throws InitializationException
+   *           if a system index should be built, as system indexes cannot be built online
+   */
+  OnlineIndexBuilder(Storage storage, EntryContainer entryContainer, Set<String> indexIds, int maxEntriesPerSecond)
+      throws InitializationException
+  {
+    this.storage = storage;
+    this.entryContainer = entryContainer;
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+    for (Tree systemIndex : Arrays.asList(
+        entryContainer.getDN2ID(), entryContainer.getID2ChildrenCount(), entryContainer.getDN2URI()))
+    {
+      if (indexIds.contains(systemIndex.getName().getIndexId()))
+      {
+        throw new InitializationException(ERR_REBUILD_BACKEND_ONLINE.get());
+      }
+    }
+    for (AttributeIndex attributeIndex : entryContainer.getAttributeIndexes())
+    {
+      for (MatchingRuleIndex index : attributeIndex.getNameToIndexes().values())
+      {
+        if (indexIds.contains(index.getName().getIndexId()))
+        {
+          attributeIndexes.add(index);
+        }
+      }
+    }
+    for (VLVIndex index : entryContainer.getVLVIndexes())
+    {
+      if (indexIds.contains(index.getName().getIndexId()))
+      {
+        vlvIndexes.add(index);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of entries indexed so far.
+   *
+   * @return the number of entries indexed so far
+   */
+  long getProcessedCount()
+  {
+    return nbEntriesProcessed;
+  }
+
+  /**
+   * Builds the indexes. The indexes remain untrusted if the build fails.
+   *
+   * @param nbTotalEntries
+   *          the number of entries to index, used for reporting the progress
+   * @throws Exception
+   *           if a problem occurs with the storage, or if the build has been interrupted
+   */
+  void build(final long nbTotalEntries) throws Exception
+  {
+    setBuilding(true);
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          setTrusted(txn, false);
+        }
+      });
+      for (MatchingRuleIndex index : attributeIndexes)
+      {
+        clear(index, false);
+      }
+      for (VLVIndex index : vlvIndexes)
+      {
+        clear(index, true);
+      }
+      indexAllEntries(nbTotalEntries);
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          setTrusted(txn, true);
+        }
+      });
+    }
+    finally
+    {
+      setBuilding(false);
+    }
+  }
+
+  private void setBuilding(boolean building)
+  {
+    for (MatchingRuleIndex index : attributeIndexes)
+    {
+      index.setBuilding(building);
+    }
+    for (VLVIndex index : vlvIndexes)
+    {
+      index.setBuilding(building);
+    }
+  }
+
+  private void setTrusted(WriteableTransaction txn, boolean trusted)
+  {
+    for (MatchingRuleIndex index : attributeIndexes)
+    {
+      index.setTrusted(txn, trusted);
+    }
+    for (VLVIndex index : vlvIndexes)
+    {
+      index.setTrusted(txn, trusted);
+    }
+  }
+
+  /** Removes the records of an index by batches, the VLV records being removed along with their count. */
+  private void clear(final Tree index, final boolean isVLVIndex) throws Exception
+  {
+    final ClearBatch batch = new ClearBatch(index, isVLVIndex);
+    do
+    {
+      storage.write(batch);
+    }
+    while (batch.nbRemoved == BATCH_SIZE);
+  }
+
+  private void indexAllEntries(long nbTotalEntries) throws Exception
+  {
+    final IndexBatch batch = new IndexBatch();
+    final long startTime = System.currentTimeMillis();
+    long previousReportTime = startTime;
+    long previousReportCount = 0;
+    do
+    {
+      storage.write(batch);
+      nbEntriesProcessed += batch.nbIndexed;
+      batch.nextEntryID = batch.lastEntryID + 1;
+
+      final long now = System.currentTimeMillis();
+      if (now - previousReportTime >= PROGRESS_INTERVAL_MS)
+      {
+        final float progressPercent = nbTotalEntries > 0 ? 100f * nbEntriesProcessed / nbTotalEntries : 0;
+        final float rate = 1000f * (nbEntriesProcessed - previousReportCount) / (now - previousReportTime);
+        logger.info(NOTE_REBUILD_PROGRESS_REPORT, progressPercent, nbEntriesProcessed, nbTotalEntries, rate);
+        previousReportTime = now;
+        previousReportCount = nbEntriesProcessed;
+      }
+      throttle(startTime, now);
+    }
+    while (batch.nbIndexed == BATCH_SIZE);
+  }
+
+  /** Sleeps for as long as the entries have been indexed faster than the maximum rate. */
+  private void throttle(long startTime, long now) throws InterruptedException
+  {
+    if (maxEntriesPerSecond > 0)
+    {
+      final long expectedElapsedTime = 1000L * nbEntriesProcessed / maxEntriesPerSecond;
+      final long delay = expectedElapsedTime - (now - startTime);
+      if (delay > 0)
+      {
+        Thread.sleep(delay);
+      }
+    }
+  }
+
+  /** Removes the next records of an index. */
+  private static final class ClearBatch implements WriteOperation
+  {
+    private final Tree index;
+    private final boolean isVLVIndex;
+    private int nbRemoved;
+
+    ClearBatch(Tree index, boolean isVLVIndex)
+    {
+      this.index = index;
+      this.isVLVIndex = isVLVIndex;
+    }
+
+    @Override
+    public void run(WriteableTransaction txn) throws Exception
+    {
+      final TreeSet<ByteString> keys = new TreeSet<>();
+      try (Cursor<ByteString, ByteString> cursor = txn.openCursor(index.getName()))
+      {
+        while (keys.size() < BATCH_SIZE && cursor.next())
+        {
+          keys.add(cursor.getKey());
+        }
+      }
+      if (isVLVIndex)
+      {
+        ((VLVIndex) index).updateIndex(txn, null, keys);
+      }
+      else
+      {
+        for (ByteString key : keys)
+        {
+          txn.delete(index.getName(), key);
+        }
+      }
+      nbRemoved = keys.size();
+    }
+  }
+
+  /** Indexes the entries following an entryID, in entryID order. */
+  private final class IndexBatch implements WriteOperation
+  {
+    private long nextEntryID;
+    private long lastEntryID;
+    private int nbIndexed;
+
+    @Override
+    public void run(WriteableTransaction txn) throws Exception
+    {
+      // Run again from scratch if the transaction is retried
+      final ID2Entry id2entry = entryContainer.getID2Entry();
+      final TreeName id2entryName = id2entry.getName();
+      final List<ByteString> keys = new ArrayList<>(BATCH_SIZE);
+      final List<ByteString> values = new ArrayList<>(BATCH_SIZE);
+      try (Cursor<ByteString, ByteString> cursor = txn.openCursor(id2entryName))
+      {
+        boolean found = cursor.positionToKeyOrNext(new EntryID(nextEntryID).toByteString());
+        while (found && keys.size() < BATCH_SIZE)
+        {
+          keys.add(cursor.getKey());
+          values.add(cursor.getValue());
+          found = cursor.next();
+        }
+      }
+
+      final IndexBuffer buffer = new IndexBuffer();
+      for (int i = 0; i < keys.size(); i++)
+      {
+        // Conflicts with the concurrent updates of the entry, see the class Javadoc
+        txn.put(id2entryName, keys.get(i), values.get(i));
+        index(buffer, new EntryID(keys.get(i)), id2entry.decode(values.get(i)));
+      }
+      buffer.flush(txn);
+      nbIndexed = keys.size();
+      if (nbIndexed > 0)
+      {
+        lastEntryID = new EntryID(keys.get(nbIndexed - 1)).longValue();
+      }
+    }
+
+    private void index(IndexBuffer buffer, EntryID entryID, Entry entry) throws Exception
+    {
+      for (MatchingRuleIndex index : attributeIndexes)
+      {
+        for (ByteString key : index.indexEntry(entry))
+        {
+          buffer.put(index, key, entryID);
+        }
+      }
+      for (VLVIndex index : vlvIndexes)
+      {
+        index.addEntry(buffer, entryID, entry);
+      }
+    }
+  }
+}
@@ -41,6 +41,7 @@ import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
 import org.opends.server.backends.pluggable.spi.StorageStatus;
 import org.opends.server.backends.pluggable.spi.WriteOperation;
 import org.opends.server.backends.pluggable.spi.WriteableTransaction;
@@ -82,6 +83,11 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
   private final ServerContext serverContext;
 
+  /** The thread building the key filters after the backend has been opened, or null if there is none. */
+  private Thread keyFilterBuilder;
+  /** Tells the thread building the key filters to stop, because this root container is being closed. */
+  private volatile boolean keyFilterBuildStopped;
+
   /**
    * Creates a new RootContainer object representing a storage.
    *
@@ -311,6 +317,92 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     }
   }
 
+  /**
+   * Builds the key filters of the entry containers in the background, so that the backend can serve requests
+   * meanwhile: the lookups read the trees until their filter has been built.
+   */
+  void buildKeyFilters()
+  {
+    if (keyFilterBuilder != null)
+    {
+      return;
+    }
+    final List<KeyFilter> keyFilters = new ArrayList<>();
+    for (EntryContainer ec : entryContainers.values())
+    {
+      keyFilters.addAll(ec.getKeyFilters());
+    }
+    if (keyFilters.isEmpty())
+    {
+      return;
+    }
+    keyFilterBuilder = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        final long startTime = System.currentTimeMillis();
+        int nbTrees = 0;
+        long nbKeys = 0;
+        for (KeyFilter keyFilter : keyFilters)
+        {
+          if (keyFilterBuildStopped)
+          {
+            return;
+          }
+          try (StorageSnapshot snapshot = storage.openSnapshot())
+          {
+            final long nbTreeKeys = keyFilter.build(snapshot);
+            if (nbTreeKeys >= 0)
+            {
+              nbTrees++;
+              nbKeys += nbTreeKeys;
+            }
+          }
+          catch (Exception e)
+          {
+            logger.traceException(e);
+            keyFilter.disable();
+            if (!keyFilterBuildStopped)
+            {
+              logger.warn(WARN_KEY_FILTER_BUILD_FAILED, keyFilter.getTreeName(), backendId,
+                  stackTraceToSingleLineString(e));
+            }
+          }
+        }
+        logger.info(NOTE_KEY_FILTERS_BUILT, backendId, nbTrees, nbKeys, System.currentTimeMillis() - startTime);
+      }
+    }, "Key filter builder for backend " + backendId);
+    keyFilterBuilder.setDaemon(true);
+    keyFilterBuilder.start();
+  }
+
+  /** Stops building the key filters, letting the storage operation in progress complete. */
+  private void stopKeyFilterBuilder()
+  {
+    if (keyFilterBuilder == null)
+    {
+      return;
+    }
+    keyFilterBuildStopped = true;
+    for (EntryContainer ec : entryContainers.values())
+    {
+      for (KeyFilter keyFilter : ec.getKeyFilters())
+      {
+        keyFilter.disable();
+      }
+    }
+    try
+    {
+      keyFilterBuilder.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    keyFilterBuilder = null;
+  }
+
   /**
    * Closes this root container.
    *
@@ -319,6 +411,7 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
    */
   void close() throws StorageRuntimeException
   {
+    stopKeyFilterBuilder();
     for (DN baseDN : entryContainers.keySet())
     {
       EntryContainer ec = unregisterEntryContainer(baseDN);
@@ -0,0 +1,246 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.server.backends.pluggable.VLVIndex.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Collects encoded VLV keys and returns them in ascending order. When bounded, only the smallest (or largest) keys
+ * are retained, in a heap whose size never exceeds the bound, so that sorting a large candidate set in order to
+ * return a small window of it does not require all the keys to be held in memory. Collectors can also be restricted
+ * to the keys sorting before or after a VLV target assertion.
+ */
+final class SortedKeys
+{
+  private static final ByteString[] NO_KEYS = new ByteString[0];
+  private static final Comparator<ByteString> ASCENDING_ORDER = new Comparator<ByteString>()
+  {
+    @Override
+    public int compare(ByteString key1, ByteString key2)
+    {
+      return key1.compareTo(key2);
+    }
+  };
+
+  /** Holds all the keys when unbounded. */
+  private final List<ByteString> allKeys;
+  /** Holds the retained keys when bounded, the head being the first key to evict. */
+  private final PriorityQueue<ByteString> retainedKeys;
+  private final Comparator<ByteString> evictionOrder;
+  private final int capacity;
+  /** Keys lower than this bound are ignored, may be {@code null}. */
+  private final ByteSequence lowerBound;
+  /** Keys greater or equal to this bound are ignored, may be {@code null}. */
+  private final ByteSequence upperBound;
+  /** Number of keys within the bounds which have been added, including the evicted ones. */
+  private int nbAdded;
+
+  private SortedKeys(int capacity, boolean retainSmallest, ByteSequence lowerBound, ByteSequence upperBound)
+  {
+    this.capacity = capacity;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    if (capacity == Integer.MAX_VALUE)
+    {
+      this.allKeys = new ArrayList<>();
+      this.retainedKeys = null;
+      this.evictionOrder = null;
+    }
+    else
+    {
+      this.allKeys = null;
+      this.evictionOrder = retainSmallest ? Collections.reverseOrder(ASCENDING_ORDER) : ASCENDING_ORDER;
+      this.retainedKeys = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1024)), evictionOrder);
+    }
+  }
+
+  /**
+   * Returns a collector retaining all the keys.
+   *
+   * @return a new collector retaining all the keys
+   */
+  static SortedKeys all()
+  {
+    return new SortedKeys(Integer.MAX_VALUE, true, null, null);
+  }
+
+  /**
+   * Returns a collector retaining only the smallest keys.
+   *
+   * @param capacity
+   *          the maximum number of keys to retain
+   * @return a new collector retaining only the smallest keys
+   */
+  static SortedKeys smallest(long capacity)
+  {
+    return new SortedKeys(toCapacity(capacity), true, null, null);
+  }
+
+  /**
+   * Returns a collector retaining only the smallest keys greater or equal to the provided bound.
+   *
+   * @param lowerBound
+   *          the keys lower than this bound are ignored
+   * @param capacity
+   *          the maximum number of keys to retain
+   * @return a new collector retaining only the smallest keys greater or equal to the provided bound
+   */
+  static SortedKeys smallestFrom(ByteSequence lowerBound, long capacity)
+  {
+    return new SortedKeys(toCapacity(capacity), true, lowerBound, null);
+  }
+
+  /**
+   * Returns a collector retaining only the largest keys.
+   *
+   * @param capacity
+   *          the maximum number of keys to retain
+   * @return a new collector retaining only the largest keys
+   */
+  static SortedKeys largest(long capacity)
+  {
+    return new SortedKeys(toCapacity(capacity), false, null, null);
+  }
+
+  /**
+   * Returns a collector retaining only the largest keys lower than the provided bound.
+   *
+   * @param upperBound
+   *          the keys greater or equal to this bound are ignored
+   * @param capacity
+   *          the maximum number of keys to retain
+   * @return a new collector retaining only the largest keys lower than the provided bound
+   */
+  static SortedKeys largestBelow(ByteSequence upperBound, long capacity)
+  {
+    return new SortedKeys(toCapacity(capacity), false, null, upperBound);
+  }
+
+  private static int toCapacity(long capacity)
+  {
+    return (int) Math.max(0, Math.min(capacity, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Adds a key, evicting the key which is the furthest from the retained end if this collector is full.
+   *
+   * @param key
+   *          the key to add
+   */
+  void add(ByteString key)
+  {
+    if ((lowerBound != null && key.compareTo(lowerBound) < 0)
+        || (upperBound != null && key.compareTo(upperBound) >= 0))
+    {
+      return;
+    }
+    nbAdded++;
+    if (allKeys != null)
+    {
+      allKeys.add(key);
+    }
+    else if (retainedKeys.size() < capacity)
+    {
+      retainedKeys.add(key);
+    }
+    else if (capacity > 0 && evictionOrder.compare(key, retainedKeys.peek()) > 0)
+    {
+      retainedKeys.poll();
+      retainedKeys.add(key);
+    }
+  }
+
+  /**
+   * Returns the retained keys in ascending order.
+   *
+   * @return the retained keys in ascending order
+   */
+  ByteString[] toSortedArray()
+  {
+    final ByteString[] keys;
+    if (allKeys != null)
+    {
+      keys = allKeys.toArray(NO_KEYS);
+    }
+    else
+    {
+      keys = retainedKeys.toArray(NO_KEYS);
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  /**
+   * Returns the entry IDs of the retained keys, sorted by key.
+   *
+   * @return the entry IDs of the retained keys, sorted by key
+   */
+  long[] toSortedEntryIDs()
+  {
+    return toEntryIDs(toSortedArray(), 0, size());
+  }
+
+  /**
+   * Returns the entry IDs encoded in a range of sorted VLV keys.
+   *
+   * @param sortedKeys
+   *          VLV keys sorted in ascending order
+   * @param from
+   *          the index of the first key, inclusive
+   * @param to
+   *          the index of the last key, exclusive
+   * @return the entry IDs encoded in the specified range of keys
+   */
+  static long[] toEntryIDs(ByteString[] sortedKeys, int from, int to)
+  {
+    final long[] entryIDs = new long[Math.max(0, to - from)];
+    for (int i = 0; i < entryIDs.length; i++)
+    {
+      entryIDs[i] = decodeEntryIDFromVLVKey(sortedKeys[from + i]);
+    }
+    return entryIDs;
+  }
+
+  /**
+   * Returns the number of keys within the bounds of this collector which have been added, including the evicted ones.
+   *
+   * @return the number of keys within the bounds of this collector which have been added
+   */
+  int getNbAdded()
+  {
+    return nbAdded;
+  }
+
+  /**
+   * Returns the number of retained keys.
+   *
+   * @return the number of retained keys
+   */
+  int size()
+  {
+    return allKeys != null ? allKeys.size() : retainedKeys.size();
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -30,6 +31,7 @@ import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
 import org.opends.server.backends.pluggable.spi.StorageStatus;
 import org.opends.server.backends.pluggable.spi.TreeName;
 import org.opends.server.backends.pluggable.spi.UpdateFunction;
@@ -182,6 +184,41 @@ final class TracedStorage implements Storage
   }
 
   /** Decorates an {@link Importer} with additional trace logging. */
+  /** Decorates {@link StorageSnapshot} with trace logging. */
+  private final class TracedSnapshot implements StorageSnapshot
+  {
+    private final StorageSnapshot snapshot;
+
+    private TracedSnapshot(final StorageSnapshot snapshot)
+    {
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public <T> T read(final ReadOperation<T> readOperation) throws Exception
+    {
+      return snapshot.read(traced(readOperation));
+    }
+
+    @Override
+    public boolean isConsistent()
+    {
+      return snapshot.isConsistent();
+    }
+
+    @Override
+    public void close()
+    {
+      trace("Snapshot", id(), "close");
+      snapshot.close();
+    }
+
+    private int id()
+    {
+      return System.identityHashCode(this);
+    }
+  }
+
   private final class TracedImporter implements Importer
   {
     private final Importer importer;
@@ -296,6 +333,15 @@ final class TracedStorage implements Storage
       return value;
     }
 
+    @Override
+    public List<ByteString> multiRead(final TreeName name, final List<? extends ByteSequence> keys)
+    {
+      traceEnter("multiRead", "name", name, "keys", keys.size());
+      final List<ByteString> values = txn.multiRead(name, keys);
+      traceLeave("multiRead", "name", name, "keys", keys.size());
+      return values;
+    }
+
     private int id()
     {
       return System.identityHashCode(this);
@@ -382,6 +428,15 @@ final class TracedStorage implements Storage
       return value;
     }
 
+    @Override
+    public List<ByteString> multiRead(final TreeName name, final List<? extends ByteSequence> keys)
+    {
+      traceEnter("multiRead", "name", name, "keys", keys.size());
+      final List<ByteString> values = txn.multiRead(name, keys);
+      traceLeave("multiRead", "name", name, "keys", keys.size());
+      return values;
+    }
+
     @Override
     public boolean update(final TreeName name, final ByteSequence key, final UpdateFunction f)
     {
@@ -481,19 +536,32 @@ final class TracedStorage implements Storage
   @Override
   public <T> T read(final ReadOperation<T> readOperation) throws Exception
   {
-    ReadOperation<T> op = readOperation;
-    if (logger.isTraceEnabled())
+    return storage.read(traced(readOperation));
+  }
+
+  @Override
+  public StorageSnapshot openSnapshot() throws Exception
+  {
+    traceEnter("openSnapshot");
+    final StorageSnapshot snapshot = storage.openSnapshot();
+    traceLeave("openSnapshot", "isConsistent", snapshot.isConsistent());
+    return logger.isTraceEnabled() ? new TracedSnapshot(snapshot) : snapshot;
+  }
+
+  private <T> ReadOperation<T> traced(final ReadOperation<T> readOperation)
+  {
+    if (!logger.isTraceEnabled())
     {
-      op = new ReadOperation<T>()
-      {
-        @Override
-        public T run(final ReadableTransaction txn) throws Exception
-        {
-          return readOperation.run(new TracedReadableTransaction(txn));
-        }
-      };
+      return readOperation;
     }
-    return storage.read(op);
+    return new ReadOperation<T>()
+    {
+      @Override
+      public T run(final ReadableTransaction txn) throws Exception
+      {
+        return readOperation.run(new TracedReadableTransaction(txn));
+      }
+    };
   }
 
   @Override
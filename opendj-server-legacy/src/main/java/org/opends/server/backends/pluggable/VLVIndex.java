@@ -110,6 +110,12 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
    */
   private boolean trusted;
 
+  /**
+   * A flag to indicate that the entries are being indexed in the background while this vlvIndex is not trusted. In the
+   * meantime, the keys may be added or deleted concurrently more than once, so only the actual changes are counted.
+   */
+  private volatile boolean building;
+
   VLVIndex(final BackendVLVIndexCfg config, final State state, final Storage storage,
       final EntryContainer entryContainer, final WriteableTransaction txn) throws StorageRuntimeException,
       ConfigException
@@ -356,6 +362,17 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     }
   }
 
+  /**
+   * Sets whether the entries are being indexed in the background while this vlvIndex is not trusted.
+   *
+   * @param building
+   *          {@code true} while the index is being built online
+   */
+  void setBuilding(final boolean building)
+  {
+    this.building = building;
+  }
+
   void addEntry(final IndexBuffer buffer, final EntryID entryID, final Entry entry) throws DirectoryException
   {
     if (shouldInclude(entry))
@@ -452,15 +469,20 @@ class VLVIndex extends AbstractTree implements ConfigurationChangeListener<Backe
     {
       if (nextDeletedKey == null || (nextAddedKey != null && nextAddedKey.compareTo(nextDeletedKey) < 0))
       {
-        txn.put(getName(), nextAddedKey, toValue());
+        if (!building || txn.read(getName(), nextAddedKey) == null)
+        {
+          txn.put(getName(), nextAddedKey, toValue());
+          counter.addCount(txn, COUNT_KEY, 1);
+        }
         nextAddedKey = nextOrNull(ai);
-        counter.addCount(txn, COUNT_KEY, 1);
       }
       else
       {
-        txn.delete(getName(), nextDeletedKey);
+        if (txn.delete(getName(), nextDeletedKey) || !building)
+        {
+          counter.addCount(txn, COUNT_KEY, -1);
+        }
         nextDeletedKey = nextOrNull(di);
-        counter.addCount(txn, COUNT_KEY, -1);
       }
     }
   }
@@ -0,0 +1,62 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable.spi;
+
+/**
+ * Implementation of {@link StorageSnapshot} for the storages which cannot cheaply retain a point in time view: each
+ * read operation is executed by the storage and sees the latest committed records.
+ * <p>
+ * Paging through the records by chunks still releases the locks or versions retained by the storage between two
+ * chunks, but the records changed in the meantime are seen by the following chunks.
+ */
+public final class ReadCommittedSnapshot implements StorageSnapshot
+{
+  private final Storage storage;
+  private volatile boolean isClosed;
+
+  /**
+   * Creates a new snapshot executing its read operations on the provided storage.
+   *
+   * @param storage
+   *          the storage to read
+   */
+  public ReadCommittedSnapshot(Storage storage)
+  {
+    this.storage = storage;
+  }
+
+  @Override
+  public <T> T read(ReadOperation<T> readOperation) throws Exception
+  {
+    if (isClosed)
+    {
+      throw new IllegalStateException("The snapshot has been closed");
+    }
+    return storage.read(readOperation);
+  }
+
+  @Override
+  public boolean isConsistent()
+  {
+    return false;
+  }
+
+  @Override
+  public void close()
+  {
+    isClosed = true;
+  }
+}
@@ -15,6 +15,8 @@
  */
 package org.opends.server.backends.pluggable.spi;
 
+import java.util.List;
+
 import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
 
@@ -34,6 +36,20 @@ public interface ReadableTransaction
    */
   ByteString read(TreeName treeName, ByteSequence key);
 
+  /**
+   * Reads the records' values associated to the provided keys, in the tree whose name is provided.
+   * <p>
+   * The keys must be sorted in ascending order, so that implementations can read all the records in a single pass
+   * over the tree, taking advantage of the locality of the keys.
+   *
+   * @param treeName
+   *          the tree name
+   * @param keys
+   *          the records' keys, sorted in ascending order
+   * @return the records' values in the same order as the keys, with {@code null} for the records which do not exist
+   */
+  List<ByteString> multiRead(TreeName treeName, List<? extends ByteSequence> keys);
+
   /**
    * Opens a cursor on the tree whose name is provided.
    *
@@ -69,6 +69,21 @@ public interface Storage extends Closeable
    */
   <T> T read(ReadOperation<T> readOperation) throws Exception;
 
+  /**
+   * Opens a snapshot of this storage. Long reads should page through a snapshot with several short read operations
+   * rather than run a single read operation, which retains locks or old versions of the records until it ends on most
+   * storages.
+   * <p>
+   * Storages which cannot cheaply retain a point in time view return a {@link ReadCommittedSnapshot}, whose read
+   * operations each see the latest committed records.
+   *
+   * @return a new snapshot, which must be closed to release the resources it retains
+   * @throws Exception
+   *           if a problem occurs with the underlying storage engine
+   * @see StorageSnapshot#isConsistent()
+   */
+  StorageSnapshot openSnapshot() throws Exception;
+
   /**
    * Executes a write operation. In case of a write operation rollback, implementations must ensure
    * the write operation is retried until it succeeds.
@@ -0,0 +1,61 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable.spi;
+
+import java.io.Closeable;
+
+/**
+ * View of a {@link Storage} read by several short read operations instead of a single long one, so that large reads,
+ * such as exports, can page through the records by chunks without slowing down the writes.
+ * <p>
+ * A {@link #isConsistent() consistent} snapshot is a point in time view: its read operations see the records as they
+ * were when it was opened, but do not prevent the storage from running its write operations or reclaiming the space
+ * of the records changed in the meantime. Otherwise each read operation sees the latest committed records, so that
+ * the records read by successive read operations may not be consistent with each other: the readers which require it
+ * must check {@link #isConsistent()} and read such snapshots with a single read operation instead. The snapshot must be
+ * closed to release the resources it retains.
+ *
+ * @see Storage#openSnapshot()
+ */
+public interface StorageSnapshot extends Closeable
+{
+  /**
+   * Executes a read operation on this snapshot.
+   *
+   * @param <T>
+   *          type of the value returned
+   * @param readOperation
+   *          the read operation to execute
+   * @return the value read by the read operation
+   * @throws IllegalStateException
+   *           if this snapshot has been closed
+   * @throws Exception
+   *           if a problem occurs with the underlying storage engine
+   */
+  <T> T read(ReadOperation<T> readOperation) throws Exception;
+
+  /**
+   * Returns whether all the read operations of this snapshot see the records as they were when it was opened.
+   * Otherwise each read operation sees the latest records, like a read operation of the storage.
+   *
+   * @return {@code true} if this snapshot is a consistent point in time view of the storage
+   */
+  boolean isConsistent();
+
+  /** Releases the resources retained by this snapshot. Closing a snapshot more than once has no effect. */
+  @Override
+  void close();
+}
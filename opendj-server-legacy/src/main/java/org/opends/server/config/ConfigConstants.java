@@ -4172,6 +4172,15 @@ public final class ConfigConstants
 
 
 
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the number of threads encoding the exported entries.
+   */
+  public static final String ATTR_TASK_EXPORT_THREAD_COUNT =
+       NAME_PREFIX_TASK + "export-thread-count";
+
+
+
   /**
    * The name of the objectclass that will be used for a Directory Server
    * restore task definition.
@@ -4329,6 +4338,20 @@ public final class ConfigConstants
   public static final String ATTR_REBUILD_TMP_DIRECTORY =
        NAME_PREFIX_TASK + "rebuild-tmp-directory";
 
+  /**
+   * The name of the attribute in an rebuild task definition that specifies
+   * whether the indexes should be built while the backend remains online.
+   */
+  public static final String ATTR_REBUILD_ONLINE =
+       NAME_PREFIX_TASK + "rebuild-online";
+
+  /**
+   * The name of the attribute in an rebuild task definition that specifies the
+   * maximum number of entries indexed per second by an online rebuild.
+   */
+  public static final String ATTR_REBUILD_MAX_ENTRIES_PER_SECOND =
+       NAME_PREFIX_TASK + "rebuild-max-entries-per-second";
+
   /**
    * Used to specify that the rebuild all boolean should be set.
    */
@@ -136,6 +136,10 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     private long maxAllowedConnections;
     /** The maximum number of concurrent persistent searches. */
     private int maxPSearches;
+    /** The maximum number of change notifications waiting to be sent to a persistent search client. */
+    private int psearchQueueSize;
+    /** Whether persistent searches overflowing their queue are cancelled rather than disconnected. */
+    private boolean psearchOverflowCancelsSearch;
     /** The maximum size that internal buffers will be allowed to grow to until they are trimmed. */
     private int maxInternalBufferSize = DEFAULT_MAX_INTERNAL_BUFFER_SIZE;
   }
@@ -218,6 +222,9 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     long maxAllowedConnections = globalConfig.getMaxAllowedClientConnections();
     core.maxAllowedConnections = (maxAllowedConnections > 0) ? maxAllowedConnections : -1;
     core.maxPSearches = globalConfig.getMaxPsearches();
+    core.psearchQueueSize = globalConfig.getPsearchQueueSize();
+    core.psearchOverflowCancelsSearch =
+        globalConfig.getPsearchOverflowPolicy() == GlobalCfgDefn.PsearchOverflowPolicy.CANCEL_SEARCH;
     core.maxInternalBufferSize = (int) globalConfig.getMaxInternalBufferSize();
 
     // For tools, common audit may not be available
@@ -624,6 +631,30 @@ public class CoreConfigManager implements ConfigurationChangeListener<GlobalCfg>
     return coreAttributes.maxPSearches;
   }
 
+  /**
+   * Retrieves the maximum number of change notifications which may be waiting to be sent to the
+   * client of a persistent search.
+   *
+   * @return the maximum number of queued change notifications per persistent search, or 0 if the
+   *         change notifications are sent synchronously
+   */
+  public int getPSearchQueueSize()
+  {
+    return coreAttributes.psearchQueueSize;
+  }
+
+  /**
+   * Indicates whether a persistent search whose queue of change notifications is full must be
+   * cancelled, or its client connection closed.
+   *
+   * @return {@code true} if the persistent search must be cancelled, {@code false} if its client
+   *         connection must be closed
+   */
+  public boolean isPSearchOverflowCancelsSearch()
+  {
+    return coreAttributes.psearchOverflowCancelsSearch;
+  }
+
   /**
    * Retrieves the DN of the configuration entry for the identity mapper that
    * should be used in conjunction with proxied authorization V2 controls.
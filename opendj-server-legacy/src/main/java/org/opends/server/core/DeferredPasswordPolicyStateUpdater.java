@@ -0,0 +1,300 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.ServerShutdownListener;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Modification;
+
+/**
+ * Buffers the password policy state updates which password policies allow to write behind the bind operations,
+ * namely the last login time updates, and writes them to the user entries in the background.
+ * <p>
+ * Updates of the same user are coalesced, a newer value of an attribute replacing the buffered one, so that a user
+ * binding many times during the write behind interval causes a single write. An update is written at the latest when
+ * the write behind interval of the first buffered update of the user has elapsed, and all the updates are written
+ * when the server is shut down. Once the shutdown has started, updates are no longer buffered.
+ */
+final class DeferredPasswordPolicyStateUpdater extends DirectoryThread implements ServerShutdownListener
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of users with buffered updates, beyond which updates are written synchronously. */
+  private static final int MAX_PENDING_UPDATES = 100000;
+  /** How often buffered updates are checked, in milliseconds. */
+  private static final long FLUSH_PERIOD = 1000L;
+
+  /** The buffered updates of a user. */
+  private static final class PendingUpdate
+  {
+    /** The time by which the updates must be written. */
+    private final long flushTime;
+    private final List<Modification> modifications;
+
+    private PendingUpdate(long flushTime, List<Modification> modifications)
+    {
+      this.flushTime = flushTime;
+      this.modifications = modifications;
+    }
+  }
+
+  private final ConcurrentMap<DN, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+
+  private volatile boolean shutdownRequested;
+  private final Object shutdownLock = new Object();
+  /**
+   * Shared by the threads buffering updates and exclusively held to request the shutdown, so that the final flush
+   * writes all the updates buffered before the shutdown was requested.
+   */
+  private final ReadWriteLock deferLock = new ReentrantReadWriteLock();
+
+  /** Creates a new deferred password policy state updater. */
+  DeferredPasswordPolicyStateUpdater()
+  {
+    super("Password Policy State Updater");
+    setDaemon(true);
+    DirectoryServer.registerShutdownListener(this);
+  }
+
+  /**
+   * Buffers the provided updates of a user entry, coalescing them with the updates already buffered for this user.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param modifications
+   *          the modifications to apply to the user entry, which must all replace attribute values
+   * @param writeBehindInterval
+   *          the maximum time in milliseconds before the modifications are written
+   * @return {@code true} if the updates have been buffered, or {@code false} if the server is shutting down or too
+   *         many updates are already buffered, and the caller must write them
+   */
+  boolean defer(DN userDN, List<Modification> modifications, long writeBehindInterval)
+  {
+    deferLock.readLock().lock();
+    try
+    {
+      return !shutdownRequested && buffer(userDN, modifications, System.currentTimeMillis() + writeBehindInterval);
+    }
+    finally
+    {
+      deferLock.readLock().unlock();
+    }
+  }
+
+  private boolean buffer(DN userDN, List<Modification> modifications, long flushTime)
+  {
+    while (true)
+    {
+      final PendingUpdate existing = pendingUpdates.get(userDN);
+      if (existing == null)
+      {
+        if (pendingUpdates.size() >= MAX_PENDING_UPDATES)
+        {
+          return false;
+        }
+        if (pendingUpdates.putIfAbsent(userDN, new PendingUpdate(flushTime, modifications)) == null)
+        {
+          return true;
+        }
+      }
+      else
+      {
+        final PendingUpdate coalesced = new PendingUpdate(
+            Math.min(existing.flushTime, flushTime), coalesce(existing.modifications, modifications));
+        if (pendingUpdates.replace(userDN, existing, coalesced))
+        {
+          return true;
+        }
+      }
+    }
+  }
+
+  /** Merges the newer modifications with the older ones, dropping the older ones replacing the same attributes. */
+  private static List<Modification> coalesce(List<Modification> older, List<Modification> newer)
+  {
+    final List<Modification> coalesced = new ArrayList<>(older.size() + newer.size());
+    for (Modification mod : older)
+    {
+      if (!isReplaced(mod.getAttribute().getAttributeDescription().getAttributeType(), newer))
+      {
+        coalesced.add(mod);
+      }
+    }
+    coalesced.addAll(newer);
+    return coalesced;
+  }
+
+  private static boolean isReplaced(AttributeType type, List<Modification> modifications)
+  {
+    for (Modification mod : modifications)
+    {
+      if (mod.getAttribute().getAttributeDescription().getAttributeType().equals(type))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes and returns the updates buffered for a user, so that the caller writes them along with its own updates.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @return the buffered modifications of the user entry, which may be empty
+   */
+  List<Modification> takePendingModifications(DN userDN)
+  {
+    final PendingUpdate pending = pendingUpdates.remove(userDN);
+    return pending != null ? pending.modifications : Collections.<Modification> emptyList();
+  }
+
+  /**
+   * Returns the value of an attribute buffered for a user, which is more recent than the value in the user entry.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param type
+   *          the attribute type
+   * @return the buffered attribute, or {@code null} if no value of this attribute is buffered for the user
+   */
+  Attribute getPendingAttribute(DN userDN, AttributeType type)
+  {
+    final PendingUpdate pending = pendingUpdates.get(userDN);
+    if (pending != null)
+    {
+      for (Modification mod : pending.modifications)
+      {
+        if (mod.getAttribute().getAttributeDescription().getAttributeType().equals(type))
+        {
+          return mod.getAttribute();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Indicates whether this updater is running, that is whether it has been started and the server has not been shut
+   * down since.
+   *
+   * @return {@code true} if this updater is running
+   */
+  boolean isRunning()
+  {
+    return isAlive() && !shutdownRequested;
+  }
+
+  @Override
+  public void run()
+  {
+    while (!shutdownRequested)
+    {
+      try
+      {
+        synchronized (shutdownLock)
+        {
+          if (!shutdownRequested)
+          {
+            shutdownLock.wait(FLUSH_PERIOD);
+          }
+        }
+        flush(System.currentTimeMillis());
+      }
+      catch (InterruptedException e)
+      {
+        // Server shutdown monitor may interrupt slow threads.
+        logger.traceException(e);
+        shutdownRequested = true;
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+  }
+
+  /** Writes the buffered updates which must be written by the provided time. */
+  private void flush(long now)
+  {
+    for (Map.Entry<DN, PendingUpdate> entry : pendingUpdates.entrySet())
+    {
+      final PendingUpdate pending = entry.getValue();
+      if (pending.flushTime <= now && pendingUpdates.remove(entry.getKey(), pending))
+      {
+        write(entry.getKey(), pending.modifications);
+      }
+    }
+  }
+
+  private void write(DN userDN, List<Modification> modifications)
+  {
+    final ModifyOperation modifyOperation = getRootConnection().processModify(userDN, modifications);
+    final ResultCode resultCode = modifyOperation.getResultCode();
+    if (resultCode == ResultCode.NO_SUCH_OBJECT)
+    {
+      logger.trace("Dropping the deferred password policy state updates of deleted user %s", userDN);
+    }
+    else if (resultCode != ResultCode.SUCCESS)
+    {
+      logger.error(ERR_PWPSTATE_CANNOT_WRITE_DEFERRED_UPDATES.get(userDN, modifyOperation.getErrorMessage()));
+    }
+  }
+
+  @Override
+  public String getShutdownListenerName()
+  {
+    return "Password Policy State Updater";
+  }
+
+  @Override
+  public void processServerShutdown(LocalizableMessage reason)
+  {
+    deferLock.writeLock().lock();
+    try
+    {
+      synchronized (shutdownLock)
+      {
+        shutdownRequested = true;
+        shutdownLock.notifyAll();
+      }
+    }
+    finally
+    {
+      deferLock.writeLock().unlock();
+    }
+    // The backends are still available when the shutdown listeners are notified
+    flush(Long.MAX_VALUE);
+  }
+}
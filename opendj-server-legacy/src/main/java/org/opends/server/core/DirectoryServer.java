@@ -221,6 +221,8 @@ public final class DirectoryServer
 
   /** The authenticated users manager for the server. */
   private AuthenticatedUsers authenticatedUsers;
+  /** Writes the password policy state updates deferred by the bind operations. */
+  private DeferredPasswordPolicyStateUpdater deferredPasswordPolicyStateUpdater;
   /** The configuration manager that will handle the server backends. */
   private BackendConfigManager backendConfigManager;
 
@@ -817,6 +819,7 @@ public final class DirectoryServer
       {
         directoryServer.initializeAuthenticationPolicyComponents();
         directoryServer.initializeAuthenticatedUsers();
+        directoryServer.initializeDeferredPasswordPolicyStateUpdater();
       }
       catch (Exception e)
       {
@@ -1448,6 +1451,7 @@ public final class DirectoryServer
       initializeRootDNConfigManager();
 
       initializeAuthenticatedUsers();
+      initializeDeferredPasswordPolicyStateUpdater();
       initializeSubentryManager();
       initializeGroupManager();
       AccessControlConfigManager.getInstance().initializeAccessControl(serverContext);
@@ -1576,6 +1580,26 @@ public final class DirectoryServer
     directoryServer.authenticatedUsers = new AuthenticatedUsers();
   }
 
+  private void initializeDeferredPasswordPolicyStateUpdater()
+  {
+    if (directoryServer.deferredPasswordPolicyStateUpdater == null
+        || !directoryServer.deferredPasswordPolicyStateUpdater.isRunning())
+    {
+      directoryServer.deferredPasswordPolicyStateUpdater = new DeferredPasswordPolicyStateUpdater();
+      directoryServer.deferredPasswordPolicyStateUpdater.start();
+    }
+  }
+
+  /**
+   * Retrieves the writer of the password policy state updates deferred by the bind operations.
+   *
+   * @return  The writer of the password policy state updates deferred by the bind operations.
+   */
+  static DeferredPasswordPolicyStateUpdater getDeferredPasswordPolicyStateUpdater()
+  {
+    return directoryServer.deferredPasswordPolicyStateUpdater;
+  }
+
   /**
    * Retrieves the authenticated users manager for the Directory Server.
    *
@@ -108,6 +108,9 @@ public class GroupManager extends InternalDirectoryServerPlugin
   /** A mapping between the DNs of all group entries and the corresponding group instances. */
   private DITCacheMap<Group<?>> groupInstances;
 
+  /** The reverse membership index of the group instances. */
+  private GroupMembershipIndex membershipIndex;
+
   /** Lock to protect internal data structures. */
   private final ReadWriteLock lock;
 
@@ -138,6 +141,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
 
     groupImplementations = new ConcurrentHashMap<>();
     groupInstances = new DITCacheMap<>();
+    membershipIndex = new GroupMembershipIndex();
 
     lock = new ReentrantReadWriteLock();
 
@@ -270,6 +274,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           if (g.getClass().getName().equals(group.getClass().getName()))
           {
             iterator.remove();
+            membershipIndex.removeGroup(g.getGroupDN());
           }
         }
       }
@@ -331,6 +336,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
               if (g.getClass().getName().equals(group.getClass().getName()))
               {
                 iterator.remove();
+                membershipIndex.removeGroup(g.getGroupDN());
               }
             }
           }
@@ -510,6 +516,178 @@ public class GroupManager extends InternalDirectoryServerPlugin
     }
   }
 
+  /**
+   * Retrieves the group instances which the provided entry is a member of,
+   * either directly or through nested groups.  The groups explicitly
+   * listing their members are found through the reverse membership index,
+   * so only the other groups need to be evaluated.
+   *
+   * @param  memberEntry  The entry for which to retrieve the groups.
+   *
+   * @return  The group instances which the provided entry is a member of.
+   */
+  public List<Group<?>> getGroupInstancesForMember(Entry memberEntry)
+  {
+    final List<Group<?>> unindexedGroups;
+    lock.readLock().lock();
+    try
+    {
+      unindexedGroups = membershipIndex.getUnindexedGroups(false);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+
+    final List<Group<?>> results = new ArrayList<>();
+    final Set<DN> memberDNs = new HashSet<>();
+    memberDNs.add(memberEntry.getName());
+    for (Group<?> group : unindexedGroups)
+    {
+      if (isMember(group, memberEntry.getName(), memberEntry))
+      {
+        results.add(group);
+        memberDNs.add(group.getGroupDN());
+      }
+    }
+
+    lock.readLock().lock();
+    try
+    {
+      for (DN groupDN : membershipIndex.getGroupDNs(memberDNs))
+      {
+        Group<?> group = groupInstances.get(groupDN);
+        if (group != null)
+        {
+          results.add(group);
+        }
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    return results;
+  }
+
+  /**
+   * Indicates whether the user described by the provided entry is a member
+   * of the provided group, either directly or through nested groups.  This
+   * relies on the reverse membership index whenever the group explicitly
+   * lists its members.
+   *
+   * @param  group      The group for which to make the determination.
+   * @param  userEntry  The entry for the user for which to make the
+   *                    determination.
+   *
+   * @return  {@code true} if the user is currently a member of the
+   *          provided group, or {@code false} if not.
+   */
+  public boolean isMember(Group<?> group, Entry userEntry)
+  {
+    return isMemberUsingIndex(group, userEntry.getName(), userEntry);
+  }
+
+  /**
+   * Indicates whether the user with the specified DN is a member of the
+   * provided group, either directly or through nested groups.  This relies
+   * on the reverse membership index whenever the group explicitly lists its
+   * members.
+   *
+   * @param  group   The group for which to make the determination.
+   * @param  userDN  The DN of the user for which to make the determination.
+   *
+   * @return  {@code true} if the user is currently a member of the
+   *          provided group, or {@code false} if not.
+   */
+  public boolean isMember(Group<?> group, DN userDN)
+  {
+    return userDN != null && isMemberUsingIndex(group, userDN, null);
+  }
+
+  private boolean isMemberUsingIndex(Group<?> group, DN userDN, Entry userEntry)
+  {
+    final DN groupDN = group.getGroupDN();
+    final List<Group<?>> nestedUnindexedGroups;
+    lock.readLock().lock();
+    try
+    {
+      if (groupInstances.get(groupDN) != group || !membershipIndex.isIndexed(groupDN))
+      {
+        nestedUnindexedGroups = null;
+      }
+      else
+      {
+        nestedUnindexedGroups = membershipIndex.getUnindexedGroups(true);
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+
+    if (nestedUnindexedGroups == null)
+    {
+      return isMember(group, userDN, userEntry);
+    }
+    final Set<DN> memberDNs = new HashSet<>();
+    memberDNs.add(userDN);
+    for (Group<?> nestedGroup : nestedUnindexedGroups)
+    {
+      if (isMember(nestedGroup, userDN, userEntry))
+      {
+        memberDNs.add(nestedGroup.getGroupDN());
+      }
+    }
+
+    lock.readLock().lock();
+    try
+    {
+      return membershipIndex.getGroupDNs(memberDNs).contains(groupDN);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static boolean isMember(Group<?> group, DN userDN, Entry userEntry)
+  {
+    try
+    {
+      return userEntry != null ? group.isMember(userEntry) : group.isMember(userDN);
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+  }
+
+  /**
+   * Updates the reverse membership index after the provided group has added
+   * or removed the provided member by itself, through an internal operation
+   * which is otherwise ignored by this group manager.
+   *
+   * @param  group     The group which has been updated.
+   * @param  memberDN  The DN of the member which has been added or removed.
+   */
+  public void updateMembershipIndex(Group<?> group, DN memberDN)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      if (groupInstances.get(group.getGroupDN()) == group)
+      {
+        membershipIndex.updateMember(group, memberDN);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
   /**
    * {@inheritDoc}  In this case, the server will search the backend to find
    * all group instances that it may contain and register them with this group
@@ -581,6 +759,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
             {
               Group<?> groupInstance = groupImplementation.newInstance(serverContext, entry);
               groupInstances.put(entry.getName(), groupInstance);
+              membershipIndex.addGroup(groupInstance);
               refreshToken++;
             }
             catch (DirectoryException e)
@@ -616,6 +795,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
         if (backend.handlesEntry(groupEntryDN))
         {
           iterator.remove();
+          membershipIndex.removeGroup(groupEntryDN);
         }
       }
     }
@@ -680,8 +860,13 @@ public class GroupManager extends InternalDirectoryServerPlugin
     lock.writeLock().lock();
     try
     {
-      if (groupInstances.removeSubtree(entry.getName(), null))
+      Set<Group<?>> groupSet = new HashSet<>();
+      if (groupInstances.removeSubtree(entry.getName(), groupSet))
       {
+        for (Group<?> group : groupSet)
+        {
+          membershipIndex.removeGroup(group.getGroupDN());
+        }
         refreshToken++;
       }
     }
@@ -752,12 +937,14 @@ public class GroupManager extends InternalDirectoryServerPlugin
             || updatesObjectClass(modifications))
         {
           groupInstances.remove(oldEntry.getName());
+          membershipIndex.removeGroup(oldEntry.getName());
           // This updates the refreshToken
           createAndRegisterGroup(newEntry);
         }
         else
         {
           group.updateMembers(modifications);
+          membershipIndex.updateMembers(group, modifications);
         }
       }
     }
@@ -797,8 +984,10 @@ public class GroupManager extends InternalDirectoryServerPlugin
       {
         final DN groupDN = group.getGroupDN();
         final DN renamedGroupDN = groupDN.rename(oldDN, newDN);
+        membershipIndex.removeGroup(groupDN);
         group.setGroupDN(renamedGroupDN);
         groupInstances.put(renamedGroupDN, group);
+        membershipIndex.addGroup(group);
       }
       if (!groupSet.isEmpty())
       {
@@ -943,6 +1132,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
           try
           {
             groupInstances.put(entry.getName(), groupInstance);
+            membershipIndex.addGroup(groupInstance);
             refreshToken++;
           }
           finally
@@ -969,6 +1159,7 @@ public class GroupManager extends InternalDirectoryServerPlugin
     try
     {
       groupInstances.clear();
+      membershipIndex.clear();
     }
     finally
     {
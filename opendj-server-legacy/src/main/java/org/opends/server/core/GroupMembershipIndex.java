@@ -0,0 +1,276 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.api.Group;
+import org.opends.server.types.Modification;
+
+/**
+ * Reverse membership index of the groups registered with the group manager, mapping each member DN to the DNs of the
+ * groups explicitly listing it as a member. The member DNs are indexed by their normalized form, so that large static
+ * groups do not cost a decoded DN per member. Finding all the groups of an entry, including through nested groups,
+ * walks this index up from the entry DN, which costs O(memberships) instead of evaluating every group.
+ * <p>
+ * Groups which do not explicitly list their members (see {@link Group#getDirectMemberDNs()}) are not indexed and must
+ * still be evaluated, either because the entry may be one of their members, or because they are nested in indexed
+ * groups.
+ * <p>
+ * This class is not thread safe: the group manager guards it with the same lock as the group instances.
+ */
+final class GroupMembershipIndex
+{
+  /** The DNs of the indexed groups explicitly listing each normalized member DN. */
+  private final Map<ByteString, Set<DN>> groupsByMember = new HashMap<>();
+  /** The normalized member DNs indexed for each indexed group. */
+  private final Map<DN, Set<ByteString>> membersByGroup = new HashMap<>();
+  /** The groups which do not explicitly list their members. */
+  private final Map<DN, Group<?>> unindexedGroups = new HashMap<>();
+
+  /**
+   * Adds or replaces the provided group in this index.
+   *
+   * @param group
+   *          the group to add
+   */
+  void addGroup(Group<?> group)
+  {
+    final DN groupDN = group.getGroupDN();
+    removeGroup(groupDN);
+    final Set<DN> memberDNs = group.getDirectMemberDNs();
+    if (memberDNs == null)
+    {
+      unindexedGroups.put(groupDN, group);
+      return;
+    }
+    final Set<ByteString> indexedMembers = new HashSet<>(memberDNs.size());
+    for (DN memberDN : memberDNs)
+    {
+      final ByteString memberKey = memberDN.toNormalizedByteString();
+      if (indexedMembers.add(memberKey))
+      {
+        addMembership(memberKey, groupDN);
+      }
+    }
+    membersByGroup.put(groupDN, indexedMembers);
+  }
+
+  /**
+   * Removes the group with the provided DN from this index.
+   *
+   * @param groupDN
+   *          the DN of the group to remove
+   */
+  void removeGroup(DN groupDN)
+  {
+    unindexedGroups.remove(groupDN);
+    final Set<ByteString> indexedMembers = membersByGroup.remove(groupDN);
+    if (indexedMembers != null)
+    {
+      for (ByteString memberKey : indexedMembers)
+      {
+        removeMembership(memberKey, groupDN);
+      }
+    }
+  }
+
+  /**
+   * Updates the index after the provided group has applied the provided modifications to its member list. Only the
+   * DNs mentioned in the modifications are checked, unless they cannot account for all the membership changes, e.g.
+   * when the member attribute has been replaced or deleted altogether.
+   *
+   * @param group
+   *          the modified group
+   * @param modifications
+   *          the modifications applied to the group entry
+   */
+  void updateMembers(Group<?> group, List<Modification> modifications)
+  {
+    final DN groupDN = group.getGroupDN();
+    final Set<ByteString> indexedMembers = membersByGroup.get(groupDN);
+    final Set<DN> memberDNs = group.getDirectMemberDNs();
+    if (indexedMembers == null || memberDNs == null)
+    {
+      addGroup(group);
+      return;
+    }
+
+    for (Modification mod : modifications)
+    {
+      for (ByteString value : mod.getAttribute())
+      {
+        try
+        {
+          updateMember(groupDN, DN.valueOf(value), memberDNs, indexedMembers);
+        }
+        catch (LocalizedIllegalArgumentException e)
+        {
+          // Not a DN, hence not a member DN either
+        }
+      }
+    }
+
+    // Members are only ever added to the index if they are members of the group, so the indexed members
+    // are a superset of the group members: any removal which was not mentioned shows in the sizes
+    if (indexedMembers.size() != memberDNs.size())
+    {
+      addGroup(group);
+    }
+  }
+
+  /**
+   * Updates the index for the provided member after it has been added to or removed from the provided group.
+   *
+   * @param group
+   *          the modified group
+   * @param memberDN
+   *          the DN of the member which has been added or removed
+   */
+  void updateMember(Group<?> group, DN memberDN)
+  {
+    final DN groupDN = group.getGroupDN();
+    final Set<ByteString> indexedMembers = membersByGroup.get(groupDN);
+    final Set<DN> memberDNs = group.getDirectMemberDNs();
+    if (indexedMembers == null || memberDNs == null)
+    {
+      addGroup(group);
+      return;
+    }
+    updateMember(groupDN, memberDN, memberDNs, indexedMembers);
+  }
+
+  private void updateMember(DN groupDN, DN memberDN, Set<DN> memberDNs, Set<ByteString> indexedMembers)
+  {
+    final ByteString memberKey = memberDN.toNormalizedByteString();
+    if (memberDNs.contains(memberDN))
+    {
+      if (indexedMembers.add(memberKey))
+      {
+        addMembership(memberKey, groupDN);
+      }
+    }
+    else if (indexedMembers.remove(memberKey))
+    {
+      removeMembership(memberKey, groupDN);
+    }
+  }
+
+  private void addMembership(ByteString memberKey, DN groupDN)
+  {
+    Set<DN> groupDNs = groupsByMember.get(memberKey);
+    if (groupDNs == null)
+    {
+      groupDNs = new HashSet<>(2);
+      groupsByMember.put(memberKey, groupDNs);
+    }
+    groupDNs.add(groupDN);
+  }
+
+  private void removeMembership(ByteString memberKey, DN groupDN)
+  {
+    final Set<DN> groupDNs = groupsByMember.get(memberKey);
+    if (groupDNs != null && groupDNs.remove(groupDN) && groupDNs.isEmpty())
+    {
+      groupsByMember.remove(memberKey);
+    }
+  }
+
+  /** Removes all the groups from this index. */
+  void clear()
+  {
+    groupsByMember.clear();
+    membersByGroup.clear();
+    unindexedGroups.clear();
+  }
+
+  /**
+   * Indicates whether the group with the provided DN is indexed.
+   *
+   * @param groupDN
+   *          the DN of the group
+   * @return {@code true} if the group with the provided DN is indexed, {@code false} otherwise
+   */
+  boolean isIndexed(DN groupDN)
+  {
+    return membersByGroup.containsKey(groupDN);
+  }
+
+  /**
+   * Returns the groups which are not indexed.
+   *
+   * @param nestedOnly
+   *          whether to only return the groups which are explicitly listed as members of indexed groups
+   * @return the groups which are not indexed
+   */
+  List<Group<?>> getUnindexedGroups(boolean nestedOnly)
+  {
+    final List<Group<?>> groups = new ArrayList<>();
+    for (Map.Entry<DN, Group<?>> mapEntry : unindexedGroups.entrySet())
+    {
+      if (!nestedOnly || groupsByMember.containsKey(mapEntry.getKey().toNormalizedByteString()))
+      {
+        groups.add(mapEntry.getValue());
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * Returns the DNs of the indexed groups which explicitly list any of the provided DNs as a member, and of the
+   * indexed groups in which they are nested, at any depth.
+   *
+   * @param memberDNs
+   *          the DNs of the members
+   * @return the DNs of the indexed groups which the provided DNs are members of, directly or through nested groups
+   */
+  Set<DN> getGroupDNs(Collection<DN> memberDNs)
+  {
+    final Set<DN> results = new LinkedHashSet<>();
+    final Deque<ByteString> toVisit = new ArrayDeque<>(memberDNs.size());
+    for (DN memberDN : memberDNs)
+    {
+      toVisit.add(memberDN.toNormalizedByteString());
+    }
+    while (!toVisit.isEmpty())
+    {
+      final Set<DN> groupDNs = groupsByMember.get(toVisit.poll());
+      if (groupDNs != null)
+      {
+        for (DN groupDN : groupDNs)
+        {
+          if (results.add(groupDN))
+          {
+            toVisit.add(groupDN.toNormalizedByteString());
+          }
+        }
+      }
+    }
+    return results;
+  }
+}
@@ -247,6 +247,12 @@ public class OperationWrapper<W extends Operation> implements Operation
     return operation.getProcessingNanoTime();
   }
 
+  @Override
+  public long getQueueingNanoTime()
+  {
+    return operation.getQueueingNanoTime();
+  }
+
   @Override
   public List<String> getReferralURLs()
   {
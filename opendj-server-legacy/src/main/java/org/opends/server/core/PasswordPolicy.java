@@ -523,6 +523,30 @@ public abstract class PasswordPolicy extends AuthenticationPolicy
    */
   public abstract StateUpdateFailurePolicy getStateUpdateFailurePolicy();
 
+  /**
+   * Gets the "state-update-write-behind-interval" property.
+   * <p>
+   * Specifies the maximum length of time during which the last login time
+   * updates of successful bind operations may be buffered before being written
+   * to the user entries.
+   *
+   * @return Returns the value of the "state-update-write-behind-interval"
+   *         property, in seconds.
+   */
+  public abstract long getStateUpdateWriteBehindInterval();
+
+  /**
+   * Gets the "verified-password-cache-duration" property.
+   * <p>
+   * Specifies how long the successful verifications of the passwords of the
+   * users are remembered, so that binding again with the same password does
+   * not verify it against the stored password values.
+   *
+   * @return Returns the value of the "verified-password-cache-duration"
+   *         property, in seconds.
+   */
+  public abstract long getVerifiedPasswordCacheDuration();
+
   @Override
   public boolean isPasswordPolicy()
   {
@@ -730,6 +730,16 @@ public final class PasswordPolicyFactory implements
       buffer.append("Update Failure Policy:                 ");
       buffer.append(configuration.getStateUpdateFailurePolicy());
       buffer.append(EOL);
+
+      buffer.append("Update Write Behind Interval:          ");
+      buffer.append(configuration.getStateUpdateWriteBehindInterval());
+      buffer.append(" seconds");
+      buffer.append(EOL);
+
+      buffer.append("Verified Password Cache Duration:      ");
+      buffer.append(configuration.getVerifiedPasswordCacheDuration());
+      buffer.append(" seconds");
+      buffer.append(EOL);
     }
 
     @Override
@@ -893,6 +903,18 @@ public final class PasswordPolicyFactory implements
     {
       return configuration.getStateUpdateFailurePolicy();
     }
+
+    @Override
+    public long getStateUpdateWriteBehindInterval()
+    {
+      return configuration.getStateUpdateWriteBehindInterval();
+    }
+
+    @Override
+    public long getVerifiedPasswordCacheDuration()
+    {
+      return configuration.getVerifiedPasswordCacheDuration();
+    }
   }
 
   private ServerContext serverContext;
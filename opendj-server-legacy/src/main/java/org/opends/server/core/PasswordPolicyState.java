@@ -79,6 +79,11 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The maximum number of successful password verifications remembered by the server. */
+  private static final int MAX_VERIFIED_PASSWORDS = 100000;
+  /** The successful password verifications remembered when the password policy allows it. */
+  private static final VerifiedPasswordCache verifiedPasswords = new VerifiedPasswordCache(MAX_VERIFIED_PASSWORDS);
+
   /** The string representation of the user's DN. */
   private final String userDNString;
 
@@ -157,12 +162,13 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
     * Retrieves the value of the specified attribute as a string.
     *
     * @param  attributeType  The attribute type whose value should be retrieved.
+    * @param  attributes     The attributes of this type.
     *
     * @return  The value of the specified attribute as a string, or <CODE>null</CODE> if there is no such value.
     */
-  private String getValue(AttributeType attributeType)
+  private String getValue(AttributeType attributeType, List<Attribute> attributes)
   {
-    Attribute attr = getFirstAttributeNotEmpty(attributeType);
+    Attribute attr = getFirstAttributeNotEmpty(attributes);
     String stringValue = attr != null ? attr.iterator().next().toString() : null;
     if (logger.isTraceEnabled())
     {
@@ -182,7 +188,12 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
 
   private Attribute getFirstAttributeNotEmpty(AttributeType attributeType)
   {
-    for (Attribute a : userEntry.getAllAttributes(attributeType))
+    return getFirstAttributeNotEmpty(userEntry.getAllAttributes(attributeType));
+  }
+
+  private Attribute getFirstAttributeNotEmpty(List<Attribute> attributes)
+  {
+    for (Attribute a : attributes)
     {
       if (!a.isEmpty())
       {
@@ -375,6 +386,8 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       logger.trace("Setting password changed time for user %s to current time of %d", userDNString, currentTime);
     }
 
+    verifiedPasswords.invalidate(userEntry.getName());
+
     // passwordChangedTime is computed in the constructor from values in the entry.
     if (getPasswordChangedTime() != passwordChangedTime)
     {
@@ -932,7 +945,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
 
     boolean isGeneralizedTime = SYNTAX_GENERALIZED_TIME_NAME.equals(type.getSyntax().getName());
     lastLoginTime = -1;
-    for (Attribute a : userEntry.getAllAttributes(type))
+    for (Attribute a : getLastLoginTimeAttributes(type))
     {
       if (a.isEmpty())
       {
@@ -997,6 +1010,17 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
     return lastLoginTime;
   }
 
+  /**
+   * Retrieves the last login time attributes of the user, a last login time whose update has been deferred being more
+   * recent than the one in the user entry.
+   */
+  private List<Attribute> getLastLoginTimeAttributes(AttributeType type)
+  {
+    DeferredPasswordPolicyStateUpdater updater = DirectoryServer.getDeferredPasswordPolicyStateUpdater();
+    Attribute pending = updater != null ? updater.getPendingAttribute(userEntry.getName(), type) : null;
+    return pending != null ? Collections.singletonList(pending) : userEntry.getAllAttributes(type);
+  }
+
   private long parseTime(String format, String time, boolean isGeneralizedTime) throws ParseException
   {
     SimpleDateFormat dateFormat = new SimpleDateFormat(format);
@@ -1047,7 +1071,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       return;
     }
 
-    String existingTimestamp = getValue(type);
+    String existingTimestamp = getValue(type, getLastLoginTimeAttributes(type));
     if (existingTimestamp != null && timestamp.equals(existingTimestamp))
     {
       logger.trace("Not updating last login time for user %s because the new value matches the existing value.",
@@ -1963,6 +1987,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       return false;
     }
 
+    long verifiedPasswordCacheDuration = 1000L * passwordPolicy.getVerifiedPasswordCacheDuration();
     for (Attribute a : attrList)
     {
       for (ByteString v : a)
@@ -1983,8 +2008,24 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
             continue;
           }
 
+          if (verifiedPasswordCacheDuration > 0 && verifiedPasswords.isVerified(userEntry.getName(), v, password))
+          {
+            if (logger.isTraceEnabled())
+            {
+              logger.trace("Returning true for user %s because the provided password has recently been verified " +
+                      "against a value encoded with scheme %s", userDNString, schemeName);
+            }
+
+            return true;
+          }
+
           if (passwordMatches(password, pwComponents, scheme))
           {
+            if (verifiedPasswordCacheDuration > 0)
+            {
+              verifiedPasswords.putVerified(userEntry.getName(), v, password, verifiedPasswordCacheDuration);
+            }
+
             if (logger.isTraceEnabled())
             {
               logger.trace("Returning true for user %s because the provided password matches a value " +
@@ -2748,6 +2789,24 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
     return modifications;
   }
 
+  /**
+   * Indicates whether the only modifications of the user entry update its last login time, which may be written behind
+   * the bind operation.
+   */
+  private boolean isOnlyLastLoginTimeUpdate()
+  {
+    AttributeType type = passwordPolicy.getLastLoginTimeAttribute();
+    for (Modification m : modifications)
+    {
+      if (m.getModificationType() != ModificationType.REPLACE
+          || !m.getAttribute().getAttributeDescription().getAttributeType().equals(type))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void finalizeStateAfterBind()
          throws DirectoryException
@@ -2758,9 +2817,29 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       return;
     }
 
+    // Buffer the last login time updates if the policy allows to write them behind.
+    DeferredPasswordPolicyStateUpdater updater = DirectoryServer.getDeferredPasswordPolicyStateUpdater();
+    long writeBehindInterval = passwordPolicy.getStateUpdateWriteBehindInterval();
+    if (updater != null && writeBehindInterval > 0 && isOnlyLastLoginTimeUpdate()
+        && updater.defer(userEntry.getName(), new ArrayList<>(modifications), 1000L * writeBehindInterval))
+    {
+      return;
+    }
+
+    // Otherwise write the deferred updates of the user along with these ones, so that they cannot later
+    // overwrite these ones.
+    List<Modification> allModifications = modifications;
+    List<Modification> pendingModifications =
+        updater != null ? updater.takePendingModifications(userEntry.getName()) : Collections.<Modification> emptyList();
+    if (!pendingModifications.isEmpty())
+    {
+      allModifications = new ArrayList<>(pendingModifications);
+      allModifications.addAll(modifications);
+    }
+
     // Convert the set of modifications to a set of LDAP modifications.
     ArrayList<RawModification> modList = new ArrayList<>();
-    for (Modification m : modifications)
+    for (Modification m : allModifications)
     {
       modList.add(RawModification.create(m.getModificationType(), new LDAPAttribute(m.getAttribute())));
     }
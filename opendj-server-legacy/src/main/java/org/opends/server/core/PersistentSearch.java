@@ -18,19 +18,32 @@ package org.opends.server.core;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.api.DirectoryThread;
 import org.opends.server.controls.EntryChangeNotificationControl;
 import org.opends.server.controls.PersistentSearchChangeType;
 import org.opends.server.types.CancelResult;
 import org.opends.server.types.Control;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
 import org.opends.server.types.Entry;
 
+import static org.opends.messages.CoreMessages.*;
 import static org.opends.server.controls.PersistentSearchChangeType.*;
 
 /**
@@ -63,6 +76,13 @@ import static org.opends.server.controls.PersistentSearchChangeType.*;
  * Work flow element implementations should {@link #cancel()} active
  * persistent searches when the work flow element fails or is shut
  * down.
+ * <p>
+ * Unless the psearch-queue-size of the global configuration is 0, the
+ * change notifications are queued and sent to the client by a shared
+ * pool of notifier threads, so that write operations never wait for the
+ * persistent search clients. A persistent search whose queue is full is
+ * either cancelled or has its client connection closed, depending on the
+ * psearch-overflow-policy.
  */
 public final class PersistentSearch
 {
@@ -85,6 +105,33 @@ public final class PersistentSearch
   }
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** The threads sending the queued change notifications of all the persistent searches. */
+  private static final class Notifier
+  {
+    private static final ExecutorService EXECUTOR;
+    static
+    {
+      final int nbThreads = 2 * Runtime.getRuntime().availableProcessors();
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(nbThreads, nbThreads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new DirectoryThread.Factory("Persistent Search Notifier"));
+      executor.allowCoreThreadTimeOut(true);
+      EXECUTOR = executor;
+    }
+  }
+
+  /** A change notification waiting to be sent to the client. */
+  private static final class Notification
+  {
+    private final Entry entry;
+    private final List<Control> controls;
+
+    private Notification(Entry entry, List<Control> controls)
+    {
+      this.entry = entry;
+      this.controls = controls;
+    }
+  }
+
   /** Cancel a persistent search. */
   private static synchronized void cancel(PersistentSearch psearch)
   {
@@ -119,7 +166,27 @@ public final class PersistentSearch
   private final Set<PersistentSearchChangeType> changeTypes;
 
   /** Indicates whether this persistent search has already been aborted. */
-  private boolean isCancelled;
+  private volatile boolean isCancelled;
+
+  /** The change notifications waiting to be sent to the client. */
+  private final Queue<Notification> notifications = new ConcurrentLinkedQueue<>();
+  /** The number of change notifications waiting to be sent to the client. */
+  private final AtomicInteger nbNotifications = new AtomicInteger();
+  /** Whether a notifier thread is sending the queued change notifications. */
+  private final AtomicBoolean isNotifying = new AtomicBoolean();
+  /** Whether more change notifications were produced than the queue can hold. */
+  private volatile boolean overflowed;
+  /** Whether the overflow policy has been applied, only accessed by the notifier thread. */
+  private boolean overflowHandled;
+  /** Sends the queued change notifications to the client. */
+  private final Runnable notifierTask = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      sendNotifications();
+    }
+  };
 
   /** Indicates whether entries returned should include the entry change notification control. */
   private final boolean returnECs;
@@ -385,6 +452,122 @@ public final class PersistentSearch
   }
 
   private void sendEntry(Entry entry, List<Control> entryControls)
+  {
+    if (isCancelled || overflowed)
+    {
+      return;
+    }
+
+    final int queueSize = getQueueSize();
+    if (queueSize == 0 && nbNotifications.get() == 0)
+    {
+      returnEntry(entry, entryControls);
+      return;
+    }
+
+    // Once changes are queued, keep queueing them so that they are sent in order
+    if (nbNotifications.incrementAndGet() > queueSize && queueSize > 0)
+    {
+      nbNotifications.decrementAndGet();
+      overflowed = true;
+    }
+    else
+    {
+      notifications.add(new Notification(entry, entryControls));
+    }
+    scheduleNotifications();
+  }
+
+  private static int getQueueSize()
+  {
+    final CoreConfigManager coreConfig = DirectoryServer.getCoreConfigManager();
+    return coreConfig != null ? coreConfig.getPSearchQueueSize() : 0;
+  }
+
+  private void scheduleNotifications()
+  {
+    if (isNotifying.compareAndSet(false, true))
+    {
+      try
+      {
+        Notifier.EXECUTOR.execute(notifierTask);
+      }
+      catch (RejectedExecutionException e)
+      {
+        logger.traceException(e);
+        isNotifying.set(false);
+      }
+    }
+  }
+
+  private void sendNotifications()
+  {
+    do
+    {
+      try
+      {
+        Notification notification;
+        while (!isCancelled && !overflowed && (notification = notifications.poll()) != null)
+        {
+          nbNotifications.decrementAndGet();
+          returnEntry(notification.entry, notification.controls);
+        }
+        if (isCancelled || overflowed)
+        {
+          notifications.clear();
+          if (overflowed && !isCancelled && !overflowHandled)
+          {
+            overflowHandled = true;
+            handleOverflow();
+          }
+          return;
+        }
+      }
+      finally
+      {
+        isNotifying.set(false);
+      }
+      // Notifications added after the queue was found empty must not be left behind
+    }
+    while ((overflowed || !notifications.isEmpty()) && isNotifying.compareAndSet(false, true));
+  }
+
+  private void handleOverflow()
+  {
+    final LocalizableMessage message =
+        ERR_PSEARCH_NOTIFICATION_QUEUE_FULL.get(toString(), getQueueSize());
+    final CoreConfigManager coreConfig = DirectoryServer.getCoreConfigManager();
+    if (coreConfig == null || coreConfig.isPSearchOverflowCancelsSearch())
+    {
+      cancel();
+      try
+      {
+        searchOperation.setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
+        searchOperation.appendErrorMessage(message);
+        searchOperation.sendSearchResultDone();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+    else
+    {
+      searchOperation.getClientConnection().disconnect(DisconnectReason.ADMIN_LIMIT_EXCEEDED, true, message);
+    }
+  }
+
+  /**
+   * Returns the number of change notifications waiting to be sent to the client.
+   *
+   * @return the number of change notifications waiting to be sent to the client
+   */
+  int getNbPendingNotifications()
+  {
+    return nbNotifications.get();
+  }
+
+  private void returnEntry(Entry entry, List<Control> entryControls)
   {
     try
     {
@@ -0,0 +1,394 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ConditionResult;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * Dispatches the changes made to the entries of a backend to the persistent
+ * searches registered with this backend.
+ * <p>
+ * The persistent searches are indexed by base DN and, when their filter
+ * requires an equality match, by the normalized assertion value, so that a
+ * change is only handed to the persistent searches which may return it
+ * instead of all of them. The candidate persistent searches still check the
+ * change type, the scope and the filter before sending the change.
+ */
+public final class PersistentSearchDispatcher
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The attribute type and normalized assertion value under which a persistent search is indexed. */
+  private static final class EqualityKey
+  {
+    private final AttributeType attributeType;
+    private final ByteString normalizedValue;
+
+    private EqualityKey(AttributeType attributeType, ByteString normalizedValue)
+    {
+      this.attributeType = attributeType;
+      this.normalizedValue = normalizedValue;
+    }
+  }
+
+  /** The persistent searches registered with the same base DN. */
+  private static final class BaseDNIndex
+  {
+    /** The persistent searches whose filter cannot be indexed. */
+    private final Set<PersistentSearch> unindexed = newConcurrentSet();
+    /** The other persistent searches, by attribute type and normalized assertion value. */
+    private final ConcurrentMap<AttributeType, ConcurrentMap<ByteString, Set<PersistentSearch>>> byEquality =
+        new ConcurrentHashMap<>();
+
+    private boolean isEmpty()
+    {
+      return unindexed.isEmpty() && byEquality.isEmpty();
+    }
+  }
+
+  /** The persistent searches registered with the backend, in registration order. */
+  private final Queue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
+  /** The indexes of the persistent searches, by base DN. */
+  private final ConcurrentMap<DN, BaseDNIndex> baseDNIndexes = new ConcurrentHashMap<>();
+  /** The key of each registered persistent search, {@code null} when not indexed. Guarded by this. */
+  private final Map<PersistentSearch, EqualityKey> registeredKeys = new HashMap<>();
+
+  private static <T> Set<T> newConcurrentSet()
+  {
+    return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+  }
+
+  /**
+   * Registers the provided persistent search so that it will be notified of the changes it may
+   * return.
+   *
+   * @param psearch
+   *          the persistent search to register
+   */
+  public synchronized void register(PersistentSearch psearch)
+  {
+    if (registeredKeys.containsKey(psearch))
+    {
+      return;
+    }
+    final SearchOperation searchOperation = psearch.getSearchOperation();
+    final EqualityKey key = getEqualityKey(searchOperation.getFilter());
+    registeredKeys.put(psearch, key);
+    persistentSearches.add(psearch);
+
+    final DN baseDN = searchOperation.getBaseDN();
+    BaseDNIndex index = baseDNIndexes.get(baseDN);
+    if (index == null)
+    {
+      index = new BaseDNIndex();
+      baseDNIndexes.put(baseDN, index);
+    }
+    if (key == null)
+    {
+      index.unindexed.add(psearch);
+      return;
+    }
+    ConcurrentMap<ByteString, Set<PersistentSearch>> byValue = index.byEquality.get(key.attributeType);
+    if (byValue == null)
+    {
+      byValue = new ConcurrentHashMap<>();
+      index.byEquality.put(key.attributeType, byValue);
+    }
+    Set<PersistentSearch> psearches = byValue.get(key.normalizedValue);
+    if (psearches == null)
+    {
+      psearches = newConcurrentSet();
+      byValue.put(key.normalizedValue, psearches);
+    }
+    psearches.add(psearch);
+  }
+
+  /**
+   * Deregisters the provided persistent search.
+   *
+   * @param psearch
+   *          the persistent search to deregister
+   */
+  public synchronized void deregister(PersistentSearch psearch)
+  {
+    if (!registeredKeys.containsKey(psearch))
+    {
+      return;
+    }
+    final EqualityKey key = registeredKeys.remove(psearch);
+    persistentSearches.remove(psearch);
+
+    final DN baseDN = psearch.getSearchOperation().getBaseDN();
+    final BaseDNIndex index = baseDNIndexes.get(baseDN);
+    if (key == null)
+    {
+      index.unindexed.remove(psearch);
+    }
+    else
+    {
+      final ConcurrentMap<ByteString, Set<PersistentSearch>> byValue = index.byEquality.get(key.attributeType);
+      final Set<PersistentSearch> psearches = byValue.get(key.normalizedValue);
+      psearches.remove(psearch);
+      if (psearches.isEmpty())
+      {
+        byValue.remove(key.normalizedValue);
+        if (byValue.isEmpty())
+        {
+          index.byEquality.remove(key.attributeType);
+        }
+      }
+    }
+    if (index.isEmpty())
+    {
+      baseDNIndexes.remove(baseDN);
+    }
+  }
+
+  /**
+   * Returns the registered persistent searches.
+   *
+   * @return the registered persistent searches
+   */
+  public Queue<PersistentSearch> getPersistentSearches()
+  {
+    return persistentSearches;
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been added.
+   *
+   * @param entry
+   *          The entry that was added.
+   */
+  public void processAdd(Entry entry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      for (PersistentSearch psearch : getCandidates(entry.getName(), null, entry, null))
+      {
+        psearch.processAdd(entry);
+      }
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been deleted.
+   *
+   * @param entry
+   *          The entry that was deleted.
+   */
+  public void processDelete(Entry entry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      for (PersistentSearch psearch : getCandidates(entry.getName(), null, entry, null))
+      {
+        psearch.processDelete(entry);
+      }
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been modified.
+   *
+   * @param entry
+   *          The entry after it was modified.
+   * @param oldEntry
+   *          The entry before it was modified.
+   */
+  public void processModify(Entry entry, Entry oldEntry)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      for (PersistentSearch psearch : getCandidates(oldEntry.getName(), null, entry, oldEntry))
+      {
+        psearch.processModify(entry, oldEntry);
+      }
+    }
+  }
+
+  /**
+   * Notifies the persistent searches that an entry has been renamed.
+   *
+   * @param entry
+   *          The entry after it was renamed.
+   * @param oldDN
+   *          The DN of the entry before it was renamed.
+   */
+  public void processModifyDN(Entry entry, DN oldDN)
+  {
+    if (!persistentSearches.isEmpty())
+    {
+      for (PersistentSearch psearch : getCandidates(entry.getName(), oldDN, entry, null))
+      {
+        psearch.processModifyDN(entry, oldDN);
+      }
+    }
+  }
+
+  /**
+   * Returns the persistent searches whose base DN is superior or equal to one of the provided DNs
+   * and which do not require an equality match that none of the provided entries could satisfy.
+   */
+  Set<PersistentSearch> getCandidates(DN dn, DN otherDN, Entry entry, Entry otherEntry)
+  {
+    final Set<PersistentSearch> candidates = new LinkedHashSet<>();
+    addCandidates(candidates, dn, entry, otherEntry);
+    if (otherDN != null)
+    {
+      addCandidates(candidates, otherDN, entry, otherEntry);
+    }
+    return candidates;
+  }
+
+  private void addCandidates(Set<PersistentSearch> candidates, DN dn, Entry entry, Entry otherEntry)
+  {
+    for (DN baseDN = dn; baseDN != null; baseDN = baseDN.parent())
+    {
+      final BaseDNIndex index = baseDNIndexes.get(baseDN);
+      if (index == null)
+      {
+        continue;
+      }
+      candidates.addAll(index.unindexed);
+      for (Map.Entry<AttributeType, ConcurrentMap<ByteString, Set<PersistentSearch>>> mapEntry
+          : index.byEquality.entrySet())
+      {
+        addMatchingCandidates(candidates, mapEntry.getKey(), mapEntry.getValue(), entry);
+        if (otherEntry != null)
+        {
+          addMatchingCandidates(candidates, mapEntry.getKey(), mapEntry.getValue(), otherEntry);
+        }
+      }
+    }
+  }
+
+  private void addMatchingCandidates(Set<PersistentSearch> candidates, AttributeType attributeType,
+      Map<ByteString, Set<PersistentSearch>> byValue, Entry entry)
+  {
+    final MatchingRule rule = attributeType.getEqualityMatchingRule();
+    for (Attribute attribute : entry.getAllAttributes(attributeType))
+    {
+      final AttributeType actualType = attribute.getAttributeDescription().getAttributeType();
+      if (attribute.isVirtual() || !rule.equals(actualType.getEqualityMatchingRule()))
+      {
+        // The filters will not compare the values the way they were indexed
+        addAllCandidates(candidates, byValue);
+        return;
+      }
+      for (ByteString value : attribute)
+      {
+        try
+        {
+          final Set<PersistentSearch> psearches = byValue.get(rule.normalizeAttributeValue(value));
+          if (psearches != null)
+          {
+            candidates.addAll(psearches);
+          }
+        }
+        catch (DecodeException e)
+        {
+          logger.traceException(e);
+          addAllCandidates(candidates, byValue);
+          return;
+        }
+      }
+    }
+  }
+
+  private void addAllCandidates(Set<PersistentSearch> candidates, Map<ByteString, Set<PersistentSearch>> byValue)
+  {
+    for (Set<PersistentSearch> psearches : byValue.values())
+    {
+      candidates.addAll(psearches);
+    }
+  }
+
+  /**
+   * Returns the key under which a persistent search with the provided filter can be indexed, or
+   * {@code null} if the filter does not require entries to match an equality assertion.
+   */
+  private static EqualityKey getEqualityKey(SearchFilter filter)
+  {
+    switch (filter.getFilterType())
+    {
+    case EQUALITY:
+      return toEqualityKey(filter);
+    case AND:
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        final EqualityKey key = getEqualityKey(component);
+        if (key != null)
+        {
+          return key;
+        }
+      }
+      return null;
+    default:
+      return null;
+    }
+  }
+
+  private static EqualityKey toEqualityKey(SearchFilter filter)
+  {
+    final AttributeType attributeType = filter.getAttributeType();
+    // Nearly all the entries match objectClass assertions, indexing them would not prune anything
+    if (attributeType == null || attributeType.isObjectClass())
+    {
+      return null;
+    }
+    final MatchingRule rule = attributeType.getEqualityMatchingRule();
+    if (rule == null)
+    {
+      return null;
+    }
+    try
+    {
+      final ByteString assertionValue = filter.getAssertionValue();
+      final ByteString normalizedValue = rule.normalizeAttributeValue(assertionValue);
+      // Like the equality indexes, only rely on rules matching the values normalized as the assertion value
+      if (rule.getAssertion(assertionValue).matches(normalizedValue) != ConditionResult.TRUE)
+      {
+        return null;
+      }
+      return new EqualityKey(attributeType, normalizedValue);
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+}
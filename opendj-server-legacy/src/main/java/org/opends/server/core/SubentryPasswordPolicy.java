@@ -566,6 +566,18 @@ public final class SubentryPasswordPolicy extends PasswordPolicy
     return getDefaultPasswordPolicy().getStateUpdateFailurePolicy();
   }
 
+  @Override
+  public long getStateUpdateWriteBehindInterval()
+  {
+    return getDefaultPasswordPolicy().getStateUpdateWriteBehindInterval();
+  }
+
+  @Override
+  public long getVerifiedPasswordCacheDuration()
+  {
+    return getDefaultPasswordPolicy().getVerifiedPasswordCacheDuration();
+  }
+
   @Override
   public boolean isAuthPasswordSyntax()
   {
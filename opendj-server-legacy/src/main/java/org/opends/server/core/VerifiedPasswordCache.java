@@ -0,0 +1,265 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+
+/**
+ * Remembers for a limited time the successful verifications of passwords against stored password values, so that
+ * repeated binds with the same credentials, like the re-authentications of connection pools or health checks, do not
+ * recompute expensive password hashes such as PBKDF2 or bcrypt.
+ * <p>
+ * Neither the presented passwords nor the stored password values are kept: a verification is remembered by a HMAC of
+ * the user DN, the stored password value and the presented password, keyed with a secret randomly generated for the
+ * process and never written anywhere. Since the stored password value is part of the key, changing the password of a
+ * user makes its remembered verifications useless. They are nevertheless forgotten immediately to free memory.
+ * <p>
+ * The number of remembered verifications is bounded. When the cache is full, expired verifications are purged, at most
+ * once per {@link #PURGE_INTERVAL} so that binds on a full cache do not all scan it, and, if this is not enough, new
+ * verifications are not remembered until some expire.
+ */
+final class VerifiedPasswordCache
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  /** Minimum time between two purges of the expired verifications, in milliseconds. */
+  private static final long PURGE_INTERVAL = 1000L;
+
+  /** A remembered verification. */
+  private static final class Verification
+  {
+    private final DN userDN;
+    private final long expirationTime;
+
+    private Verification(DN userDN, long expirationTime)
+    {
+      this.userDN = userDN;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  private final int maxSize;
+  private final SecretKeySpec secretKey;
+  /** {@link Mac} instances are not thread safe. */
+  private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>()
+  {
+    @Override
+    protected Mac initialValue()
+    {
+      try
+      {
+        final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(secretKey);
+        return mac;
+      }
+      catch (GeneralSecurityException e)
+      {
+        // The cache is then disabled for this thread
+        logger.traceException(e);
+        return null;
+      }
+    }
+  };
+  private final ConcurrentMap<ByteString, Verification> verifications = new ConcurrentHashMap<>();
+  /**
+   * The keys of the verifications of each user, so that they can be forgotten without scanning the whole cache. A key
+   * added concurrently with the removal of the last key of its user can be missed by {@link #invalidate(DN)}: this is
+   * harmless since the verification can no longer match once the password has changed, and it is purged on expiration.
+   */
+  private final ConcurrentMap<DN, Set<ByteString>> keysByUser = new ConcurrentHashMap<>();
+  private final AtomicLong nextPurgeTime = new AtomicLong();
+
+  /**
+   * Creates a new verified password cache.
+   *
+   * @param maxSize
+   *          the maximum number of remembered verifications
+   */
+  VerifiedPasswordCache(int maxSize)
+  {
+    this.maxSize = maxSize;
+    final byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.secretKey = new SecretKeySpec(secret, MAC_ALGORITHM);
+  }
+
+  /**
+   * Indicates whether the provided password has been successfully verified against the provided stored password value
+   * of the user, and this verification has not expired yet.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param storedPassword
+   *          the stored password value, including its storage scheme
+   * @param password
+   *          the presented password
+   * @return {@code true} if the password is known to match the stored password value
+   */
+  boolean isVerified(DN userDN, ByteSequence storedPassword, ByteSequence password)
+  {
+    final ByteString key = key(userDN, storedPassword, password);
+    if (key == null)
+    {
+      return false;
+    }
+    final Verification verification = verifications.get(key);
+    if (verification == null)
+    {
+      return false;
+    }
+    if (verification.expirationTime < System.currentTimeMillis())
+    {
+      if (verifications.remove(key, verification))
+      {
+        removeKey(verification.userDN, key);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Remembers that the provided password matches the provided stored password value of the user.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param storedPassword
+   *          the stored password value, including its storage scheme
+   * @param password
+   *          the presented password
+   * @param duration
+   *          how long the verification is remembered, in milliseconds
+   */
+  void putVerified(DN userDN, ByteSequence storedPassword, ByteSequence password, long duration)
+  {
+    if (verifications.size() >= maxSize && !purgeExpired())
+    {
+      return;
+    }
+    final ByteString key = key(userDN, storedPassword, password);
+    if (key != null)
+    {
+      verifications.put(key, new Verification(userDN, System.currentTimeMillis() + duration));
+      addKey(userDN, key);
+    }
+  }
+
+  /**
+   * Forgets all the verifications of the passwords of the provided user, for example because its password has changed.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   */
+  void invalidate(DN userDN)
+  {
+    final Set<ByteString> keys = keysByUser.remove(userDN);
+    if (keys != null)
+    {
+      for (ByteString key : keys)
+      {
+        verifications.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Purges the expired verifications, unless another thread did it less than {@link #PURGE_INTERVAL} ago, and returns
+   * whether the cache has room for new ones.
+   */
+  private boolean purgeExpired()
+  {
+    final long now = System.currentTimeMillis();
+    final long purgeTime = nextPurgeTime.get();
+    if (now >= purgeTime && nextPurgeTime.compareAndSet(purgeTime, now + PURGE_INTERVAL))
+    {
+      for (Iterator<Map.Entry<ByteString, Verification>> it = verifications.entrySet().iterator(); it.hasNext();)
+      {
+        final Map.Entry<ByteString, Verification> entry = it.next();
+        if (entry.getValue().expirationTime < now)
+        {
+          it.remove();
+          removeKey(entry.getValue().userDN, entry.getKey());
+        }
+      }
+    }
+    return verifications.size() < maxSize;
+  }
+
+  private void addKey(DN userDN, ByteString key)
+  {
+    Set<ByteString> keys = keysByUser.get(userDN);
+    if (keys == null)
+    {
+      final Set<ByteString> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<ByteString, Boolean>());
+      keys = keysByUser.putIfAbsent(userDN, newKeys);
+      if (keys == null)
+      {
+        keys = newKeys;
+      }
+    }
+    keys.add(key);
+  }
+
+  private void removeKey(DN userDN, ByteString key)
+  {
+    final Set<ByteString> keys = keysByUser.get(userDN);
+    if (keys != null && keys.remove(key) && keys.isEmpty())
+    {
+      keysByUser.remove(userDN, keys);
+    }
+  }
+
+  private ByteString key(DN userDN, ByteSequence storedPassword, ByteSequence password)
+  {
+    final Mac mac = macs.get();
+    if (mac == null)
+    {
+      return null;
+    }
+    update(mac, userDN.toNormalizedByteString());
+    update(mac, storedPassword);
+    update(mac, password);
+    return ByteString.wrap(mac.doFinal());
+  }
+
+  /** Updates the MAC with the length of the provided bytes before the bytes, so that the key is unambiguous. */
+  private static void update(Mac mac, ByteSequence bytes)
+  {
+    final int length = bytes.length();
+    mac.update((byte) (length >>> 24));
+    mac.update((byte) (length >>> 16));
+    mac.update((byte) (length >>> 8));
+    mac.update((byte) length);
+    mac.update(bytes.toByteArray());
+  }
+}
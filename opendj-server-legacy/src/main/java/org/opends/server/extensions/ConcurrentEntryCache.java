@@ -0,0 +1,1028 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.server.ConcurrentEntryCacheCfg;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.LocalBackend;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.CacheEntry;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+import org.opends.server.util.StripedCounter;
+
+/**
+ * This class defines a Directory Server entry cache designed for servers handling many concurrent operations.
+ * <p>
+ * Cache hits never block: entries are looked up in concurrent maps and recording the access is skipped when another
+ * thread is already updating the same part of the cache. The cached entries are spread over independently locked
+ * segments according to the hash of their DN, so that writers rarely contend with each other.
+ * <p>
+ * Each segment uses the W-TinyLFU policy to select the entries to keep: new entries first go to a small LRU admission
+ * window, then are only admitted into the main area of the cache if they have recently been accessed more often than
+ * the entry which would be evicted to make room for them. The access frequencies are tracked by a compact
+ * {@link FrequencySketch}. The main area is a segmented LRU, so entries accessed at least twice are protected from
+ * entries accessed only once. This makes the cache resistant to scans such as unindexed searches or exports, which
+ * would otherwise flush the frequently accessed entries.
+ * <p>
+ * The cache is sized by an estimate of the memory used by the cached entries, and optionally by a number of entries.
+ * Hits and misses are also reported for each backend.
+ */
+public class ConcurrentEntryCache
+       extends EntryCache<ConcurrentEntryCacheCfg>
+       implements ConfigurationChangeListener<ConcurrentEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of segments. */
+  private static final int MAX_SEGMENTS = 256;
+  /** The minimum number of entries each segment should be able to hold. */
+  private static final long MIN_SEGMENT_ENTRIES = 16;
+  /** The minimum amount of memory each segment should be able to use. */
+  private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+  /** Percentage of each segment used by the admission window. */
+  private static final int WINDOW_PERCENT = 1;
+  /** Percentage of the main area of each segment used by the protected entries. */
+  private static final int PROTECTED_PERCENT = 80;
+  /** Average entry size used to size the frequency sketches when the cache is only limited by memory. */
+  private static final int AVERAGE_ENTRY_SIZE = 1024;
+
+  /** Rough estimates of the memory used by the JVM objects of a cached entry, in bytes. */
+  private static final int ENTRY_OVERHEAD = 256;
+  private static final int ATTRIBUTE_OVERHEAD = 96;
+  private static final int VALUE_OVERHEAD = 48;
+
+  /** The region of a segment holding an entry. */
+  private static enum Region
+  {
+    WINDOW, PROBATION, PROTECTED, REMOVED
+  }
+
+  /** A cached entry, linked in the access order list of its region. */
+  private static final class Node
+  {
+    private final CacheEntry cacheEntry;
+    private final int hash;
+    private final long size;
+
+    /** The fields below are guarded by the lock of the segment holding this node. */
+    private Region region;
+    private Node prev;
+    private Node next;
+
+    private Node(CacheEntry cacheEntry, int hash, long size)
+    {
+      this.cacheEntry = cacheEntry;
+      this.hash = hash;
+      this.size = size;
+    }
+  }
+
+  /** A list of nodes in least recently used first order. */
+  private static final class AccessList
+  {
+    private final Node head = new Node(null, 0, 0);
+    private long size;
+    private long count;
+
+    private AccessList()
+    {
+      head.prev = head;
+      head.next = head;
+    }
+
+    private Node first()
+    {
+      return head.next != head ? head.next : null;
+    }
+
+    private Node next(Node node)
+    {
+      return node.next != head ? node.next : null;
+    }
+
+    private void addLast(Node node)
+    {
+      node.prev = head.prev;
+      node.next = head;
+      head.prev.next = node;
+      head.prev = node;
+      size += node.size;
+      count++;
+    }
+
+    private void remove(Node node)
+    {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+      size -= node.size;
+      count--;
+    }
+
+    private void clear()
+    {
+      head.prev = head;
+      head.next = head;
+      size = 0;
+      count = 0;
+    }
+  }
+
+  /**
+   * A part of the cache, holding the entries whose DN hash maps to it. Its lock guards the eviction policy, and must be
+   * held when adding or removing its entries to or from the cache maps.
+   */
+  private final class Segment extends ReentrantLock
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final AccessList window = new AccessList();
+    private final AccessList probation = new AccessList();
+    private final AccessList protectedEntries = new AccessList();
+    private final FrequencySketch sketch;
+
+    private long maxSize;
+    private long maxCount;
+    private long windowMaxSize;
+    private long windowMaxCount;
+    private long protectedMaxSize;
+    private long protectedMaxCount;
+
+    private Segment(long maxSize, long maxCount)
+    {
+      sketch = new FrequencySketch(expectedItems(maxSize, maxCount));
+      setMaximums(maxSize, maxCount);
+    }
+
+    private void setMaximums(long maxSize, long maxCount)
+    {
+      this.maxSize = maxSize;
+      this.maxCount = maxCount;
+      windowMaxSize = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+      windowMaxCount = Math.max(1, maxCount * WINDOW_PERCENT / 100);
+      protectedMaxSize = (maxSize - windowMaxSize) * PROTECTED_PERCENT / 100;
+      protectedMaxCount = (maxCount - windowMaxCount) * PROTECTED_PERCENT / 100;
+      sketch.ensureCapacity(expectedItems(maxSize, maxCount));
+    }
+
+    private long size()
+    {
+      return window.size + probation.size + protectedEntries.size;
+    }
+
+    private long count()
+    {
+      return window.count + probation.count + protectedEntries.count;
+    }
+
+    private boolean isOverflowing()
+    {
+      return size() > maxSize || count() > maxCount;
+    }
+
+    /** Records an access to the provided node, which must still be part of the cache. */
+    private void onAccess(Node node)
+    {
+      sketch.increment(node.hash);
+      switch (node.region)
+      {
+      case WINDOW:
+        window.remove(node);
+        window.addLast(node);
+        break;
+      case PROBATION:
+        // Entries accessed at least twice in the main area get protected
+        probation.remove(node);
+        node.region = Region.PROTECTED;
+        protectedEntries.addLast(node);
+        while (protectedEntries.size > protectedMaxSize || protectedEntries.count > protectedMaxCount)
+        {
+          final Node demoted = protectedEntries.first();
+          protectedEntries.remove(demoted);
+          demoted.region = Region.PROBATION;
+          probation.addLast(demoted);
+        }
+        break;
+      case PROTECTED:
+        protectedEntries.remove(node);
+        protectedEntries.addLast(node);
+        break;
+      default:
+        // Concurrently removed
+        break;
+      }
+    }
+
+    /** Adds the provided node to the cache, then evicts entries until this segment fits its maximums again. */
+    private void add(Node node)
+    {
+      sketch.increment(node.hash);
+      node.region = Region.WINDOW;
+      window.addLast(node);
+
+      // The entries overflowing the window become candidates for admission in the main area
+      Node candidate = null;
+      while (window.count > 1 && (window.size > windowMaxSize || window.count > windowMaxCount))
+      {
+        final Node n = window.first();
+        window.remove(n);
+        n.region = Region.PROBATION;
+        probation.addLast(n);
+        if (candidate == null)
+        {
+          candidate = n;
+        }
+      }
+
+      while (isOverflowing())
+      {
+        if (candidate == null)
+        {
+          evict(firstNode());
+          continue;
+        }
+
+        // Candidates are at the tail of the probation list, the victim is the least recently used other entry
+        Node victim = probation.first();
+        if (victim == candidate)
+        {
+          victim = protectedEntries.first();
+        }
+        final Node nextCandidate = probation.next(candidate);
+        if (victim == null)
+        {
+          evict(candidate);
+          candidate = nextCandidate;
+        }
+        else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash))
+        {
+          evict(victim);
+        }
+        else
+        {
+          evict(candidate);
+          candidate = nextCandidate;
+        }
+      }
+    }
+
+    private Node firstNode()
+    {
+      Node node = probation.first();
+      if (node == null)
+      {
+        node = protectedEntries.first();
+      }
+      if (node == null)
+      {
+        node = window.first();
+      }
+      return node;
+    }
+
+    /** Removes the provided node from the cache. */
+    private void evict(Node node)
+    {
+      dnMap.remove(node.cacheEntry.getDN(), node);
+      removeFromIdMap(node);
+      unlink(node);
+    }
+
+    /** Removes the provided node from the eviction policy, its removal from the cache maps being the caller's job. */
+    private void unlink(Node node)
+    {
+      switch (node.region)
+      {
+      case WINDOW:
+        window.remove(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedEntries.remove(node);
+        break;
+      default:
+        return;
+      }
+      node.region = Region.REMOVED;
+    }
+
+    /** Evicts the provided percentage of entries from this segment, starting with the least valuable ones. */
+    private void evictPercent(int percent)
+    {
+      long nbToEvict = count() * percent / 100;
+      Node node;
+      while (nbToEvict > 0 && (node = firstNode()) != null)
+      {
+        evict(node);
+        nbToEvict--;
+      }
+    }
+
+    private void clear()
+    {
+      for (AccessList list : new AccessList[] { window, probation, protectedEntries })
+      {
+        for (Node node = list.first(); node != null; node = list.next(node))
+        {
+          node.region = Region.REMOVED;
+        }
+        list.clear();
+      }
+    }
+  }
+
+  /** Hit and miss counters of a backend. */
+  private static final class BackendStatistics
+  {
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+  }
+
+  /** The mapping between DNs and entries. */
+  private final ConcurrentMap<DN, Node> dnMap = new ConcurrentHashMap<>();
+  /** The mapping between entry backends/IDs and entries. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Node>> idMap = new ConcurrentHashMap<>();
+  /** The hit and miss counters of each backend. */
+  private final ConcurrentMap<String, BackendStatistics> backendStatistics = new ConcurrentHashMap<>();
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+
+  /** The segments, whose number is a power of two fixed when the cache is initialized. */
+  private Segment[] segments;
+  private volatile long maxMemorySize;
+  private volatile long maxEntries;
+
+  /** Currently registered configuration object. */
+  private ConcurrentEntryCacheCfg registeredConfiguration;
+
+  private ServerContext serverContext;
+
+  /** Creates a new instance of this concurrent entry cache. */
+  public ConcurrentEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  @Override
+  public void initializeEntryCache(ServerContext serverContext, ConcurrentEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    this.serverContext = serverContext;
+    registeredConfiguration = configuration;
+    configuration.addConcurrentChangeListener(this);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_CONCURRENTCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeConcurrentChangeListener(this);
+
+    // Release all memory currently in use by this cache.
+    clear();
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    final Node node = dnMap.get(entryDN);
+    if (node == null)
+    {
+      misses.increment();
+      final String backendID = getBackendID(entryDN);
+      if (backendID != null)
+      {
+        getBackendStatistics(backendID).misses.increment();
+      }
+      recordMiss(entryDN.hashCode());
+      return null;
+    }
+    return onHit(node);
+  }
+
+  @Override
+  public Entry getEntry(String backendID, long entryID)
+  {
+    final Map<Long, Node> backendMap = idMap.get(backendID);
+    final Node node = backendMap != null ? backendMap.get(entryID) : null;
+    if (node == null)
+    {
+      misses.increment();
+      getBackendStatistics(backendID).misses.increment();
+      return null;
+    }
+    return onHit(node);
+  }
+
+  private Entry onHit(Node node)
+  {
+    hits.increment();
+    getBackendStatistics(node.cacheEntry.getBackendID()).hits.increment();
+
+    // Never block readers: the access is not recorded if another thread is updating the segment
+    final Segment segment = segmentFor(node.hash);
+    if (segment.tryLock())
+    {
+      try
+      {
+        segment.onAccess(node);
+      }
+      finally
+      {
+        segment.unlock();
+      }
+    }
+    return node.cacheEntry.getEntry();
+  }
+
+  /** Records an access to a missing entry, making it more likely to be admitted in the cache once loaded. */
+  private void recordMiss(int hash)
+  {
+    final Segment segment = segmentFor(hash);
+    if (segment.tryLock())
+    {
+      try
+      {
+        segment.sketch.increment(hash);
+      }
+      finally
+      {
+        segment.unlock();
+      }
+    }
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Node node = dnMap.get(entryDN);
+    return node != null ? node.cacheEntry.getEntryID() : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    final Map<Long, Node> backendMap = idMap.get(backendID);
+    if (backendMap != null)
+    {
+      final Node node = backendMap.get(entryID);
+      if (node != null)
+      {
+        return node.cacheEntry.getDN();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(entry, backendID, entryID, true);
+  }
+
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final DN entryDN = entry.getName();
+    final Node node = new Node(new CacheEntry(entry, backendID, entryID), entryDN.hashCode(), estimateSize(entry));
+    final Segment segment = segmentFor(node.hash);
+    segment.lock();
+    try
+    {
+      if (onlyIfAbsent && dnMap.containsKey(entryDN))
+      {
+        return false;
+      }
+
+      final Node oldNode = dnMap.remove(entryDN);
+      if (oldNode != null)
+      {
+        removeFromIdMap(oldNode);
+        segment.unlink(oldNode);
+      }
+
+      // Entries which cannot fit in their segment are not cached at all
+      if (node.size <= segment.maxSize && segment.maxCount > 0)
+      {
+        dnMap.put(entryDN, node);
+        getBackendMap(backendID).put(entryID, node);
+        segment.add(node);
+      }
+      // Always return true, even if the entry was not actually cached.
+      return true;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // We can't be sure there wasn't a conflict, so return false.
+      return false;
+    }
+    finally
+    {
+      segment.unlock();
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    final Segment segment = segmentFor(entryDN.hashCode());
+    segment.lock();
+    try
+    {
+      final Node node = dnMap.remove(entryDN);
+      if (node != null)
+      {
+        removeFromIdMap(node);
+        segment.unlink(node);
+      }
+    }
+    finally
+    {
+      segment.unlock();
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    lockAllSegments();
+    try
+    {
+      dnMap.clear();
+      idMap.clear();
+      for (Segment segment : segments)
+      {
+        segment.clear();
+      }
+    }
+    finally
+    {
+      unlockAllSegments();
+    }
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    idMap.remove(backendID);
+
+    // Entries are not grouped by backend in the DN map: look for them, locking one segment at a time so this does not
+    // become a stop-the-world event as far as the cache is concerned.
+    for (Node node : dnMap.values())
+    {
+      if (backendID.equals(node.cacheEntry.getBackendID()))
+      {
+        final Segment segment = segmentFor(node.hash);
+        segment.lock();
+        try
+        {
+          if (dnMap.remove(node.cacheEntry.getDN(), node))
+          {
+            segment.unlink(node);
+          }
+        }
+        finally
+        {
+          segment.unlock();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    // If there are less than 1000 entries, dump all of them. Otherwise, dump 10% of the entries.
+    if (dnMap.size() < 1000)
+    {
+      clear();
+      return;
+    }
+
+    for (Segment segment : segments)
+    {
+      segment.lock();
+      try
+      {
+        segment.evictPercent(10);
+      }
+      finally
+      {
+        segment.unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    ConcurrentEntryCacheCfg config = (ConcurrentEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      ConcurrentEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ConcurrentEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      ConcurrentEntryCacheCfg             configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+    long newMaxEntries = configuration.getMaxEntries();
+
+    // Get include and exclude filters.
+    Set<SearchFilter> newIncludeFilters = EntryCacheCommon.getFilters (
+        configuration.getIncludeFilter(),
+        ERR_CACHE_INVALID_INCLUDE_FILTER,
+        errorHandler,
+        newConfigEntryDN
+        );
+    Set<SearchFilter> newExcludeFilters = EntryCacheCommon.getFilters (
+        configuration.getExcludeFilter(),
+        ERR_CACHE_INVALID_EXCLUDE_FILTER,
+        errorHandler,
+        newConfigEntryDN
+        );
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      applyMaximums(newMaxMemorySize, newMaxEntries);
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /**
+   * Shares the provided maximums between the segments, creating them on first call. The number of segments cannot
+   * change afterwards because it determines where each entry is stored.
+   */
+  private void applyMaximums(long newMaxMemorySize, long newMaxEntries)
+  {
+    maxMemorySize = newMaxMemorySize;
+    maxEntries = newMaxEntries;
+    if (segments == null)
+    {
+      segments = createSegments(getNumberOfSegments(newMaxMemorySize, newMaxEntries));
+      return;
+    }
+
+    final int nbSegments = segments.length;
+    for (Segment segment : segments)
+    {
+      segment.lock();
+      try
+      {
+        segment.setMaximums(newMaxMemorySize / nbSegments, newMaxEntries / nbSegments);
+        while (segment.isOverflowing())
+        {
+          segment.evict(segment.firstNode());
+        }
+      }
+      finally
+      {
+        segment.unlock();
+      }
+    }
+  }
+
+  private Segment[] createSegments(int nbSegments)
+  {
+    final Segment[] newSegments = new Segment[nbSegments];
+    for (int i = 0; i < nbSegments; i++)
+    {
+      newSegments[i] = new Segment(maxMemorySize / nbSegments, maxEntries / nbSegments);
+    }
+    return newSegments;
+  }
+
+  /**
+   * Returns the number of segments: enough for writers to rarely contend with each other, but not so many that each
+   * segment can only hold a handful of entries, as this would make the eviction policy meaningless.
+   */
+  private static int getNumberOfSegments(long maxMemorySize, long maxEntries)
+  {
+    int nbSegments = Integer.highestOneBit(Math.min(MAX_SEGMENTS, 4 * Runtime.getRuntime().availableProcessors()));
+    while (nbSegments > 1
+        && (maxEntries / nbSegments < MIN_SEGMENT_ENTRIES || maxMemorySize / nbSegments < MIN_SEGMENT_SIZE))
+    {
+      nbSegments >>>= 1;
+    }
+    return nbSegments;
+  }
+
+  private static int expectedItems(long maxSize, long maxCount)
+  {
+    return (int) Math.min(Integer.MAX_VALUE, Math.min(maxCount, maxSize / AVERAGE_ENTRY_SIZE));
+  }
+
+  private Segment segmentFor(int hash)
+  {
+    final Segment[] s = segments;
+    return s[(hash ^ (hash >>> 16)) & (s.length - 1)];
+  }
+
+  private void lockAllSegments()
+  {
+    for (Segment segment : segments)
+    {
+      segment.lock();
+    }
+  }
+
+  private void unlockAllSegments()
+  {
+    for (Segment segment : segments)
+    {
+      segment.unlock();
+    }
+  }
+
+  private ConcurrentMap<Long, Node> getBackendMap(String backendID)
+  {
+    ConcurrentMap<Long, Node> map = idMap.get(backendID);
+    if (map == null)
+    {
+      final ConcurrentMap<Long, Node> newMap = new ConcurrentHashMap<>();
+      map = idMap.putIfAbsent(backendID, newMap);
+      if (map == null)
+      {
+        map = newMap;
+      }
+    }
+    return map;
+  }
+
+  private void removeFromIdMap(Node node)
+  {
+    final ConcurrentMap<Long, Node> map = idMap.get(node.cacheEntry.getBackendID());
+    if (map != null)
+    {
+      map.remove(node.cacheEntry.getEntryID(), node);
+    }
+  }
+
+  private BackendStatistics getBackendStatistics(String backendID)
+  {
+    BackendStatistics stats = backendStatistics.get(backendID);
+    if (stats == null)
+    {
+      final BackendStatistics newStats = new BackendStatistics();
+      stats = backendStatistics.putIfAbsent(backendID, newStats);
+      if (stats == null)
+      {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  private String getBackendID(DN entryDN)
+  {
+    if (serverContext != null)
+    {
+      final LocalBackend<?> backend = serverContext.getBackendConfigManager().findLocalBackendForEntry(entryDN);
+      if (backend != null)
+      {
+        return backend.getBackendID();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns a rough estimate of the memory used by the provided entry. Exact accounting would be too expensive, but
+   * this is enough to share the memory fairly between small and large entries.
+   */
+  private static long estimateSize(Entry entry)
+  {
+    long size = ENTRY_OVERHEAD + 2L * entry.getName().toString().length();
+    size += entry.getObjectClasses().size() * VALUE_OVERHEAD;
+    for (Attribute attribute : entry.getAllAttributes())
+    {
+      size += ATTRIBUTE_OVERHEAD;
+      for (ByteString value : attribute)
+      {
+        size += VALUE_OVERHEAD + value.length();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public long getCacheHits()
+  {
+    return hits.sum();
+  }
+
+  @Override
+  public long getCacheMisses()
+  {
+    return misses.sum();
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try {
+      long cacheSize = 0;
+      for (Segment segment : segments)
+      {
+        segment.lock();
+        try
+        {
+          cacheSize += segment.size();
+        }
+        finally
+        {
+          segment.unlock();
+        }
+      }
+
+      MonitorData attrs = EntryCacheCommon.getGenericMonitorData(
+        hits.sum(),
+        misses.sum(),
+        cacheSize,
+        maxMemorySize,
+        Long.valueOf(dnMap.size()),
+        Long.valueOf(
+            (maxEntries != Integer.MAX_VALUE && maxEntries != Long.MAX_VALUE) ? maxEntries : 0)
+        );
+
+      List<String> backendHits = new ArrayList<>();
+      List<String> backendMisses = new ArrayList<>();
+      for (Map.Entry<String, BackendStatistics> entry : new TreeMap<>(backendStatistics).entrySet())
+      {
+        backendHits.add(entry.getValue().hits.sum() + " " + entry.getKey());
+        backendMisses.add(entry.getValue().misses.sum() + " " + entry.getKey());
+      }
+      attrs.add("entryCacheBackendHits", backendHits);
+      attrs.add("entryCacheBackendMisses", backendMisses);
+      return attrs;
+    } catch (Exception e) {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (Map.Entry<DN, Node> mapEntry : dnMap.entrySet()) {
+      final CacheEntry cacheEntry = mapEntry.getValue().cacheEntry;
+      sb.append(mapEntry.getKey());
+      sb.append(":");
+      sb.append(cacheEntry.getEntryID());
+      sb.append(":");
+      sb.append(cacheEntry.getBackendID());
+      sb.append(ServerConstants.EOL);
+    }
+
+    // See if there is anything on idMap that is not reflected on dnMap in case maps went out of sync.
+    for (Map.Entry<String, ConcurrentMap<Long, Node>> backendCache : idMap.entrySet()) {
+      final String backendID = backendCache.getKey();
+      for (Map.Entry<Long, Node> entry : backendCache.getValue().entrySet()) {
+        final CacheEntry cacheEntry = entry.getValue().cacheEntry;
+        if (dnMap.get(cacheEntry.getDN()) != entry.getValue()) {
+          sb.append(cacheEntry.getDN());
+          sb.append(":");
+          sb.append(entry.getKey());
+          sb.append(":");
+          sb.append(backendID);
+          sb.append(ServerConstants.EOL);
+        }
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
@@ -0,0 +1,676 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.ElasticWorkQueueCfg;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.ElasticWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+import org.opends.server.util.StripedCounter;
+
+/**
+ * A work queue which processes each operation on a thread of its own, instead
+ * of a fixed number of worker threads, so that operations blocking on I/O do
+ * not prevent other operations from being processed.
+ * <p>
+ * Operations run on virtual threads when the Java virtual machine supports
+ * them and the work queue is configured to use them. Otherwise they run on
+ * platform threads which are created on demand and which exit after having
+ * been idle for some time.
+ * <p>
+ * The number of operations processed concurrently is bounded by a limiter, in
+ * order to keep the pressure on backends under control. Operations submitted
+ * while the limit is reached are queued and processed in FIFO order by the
+ * threads completing operations.
+ */
+public class ElasticWorkQueue
+       extends WorkQueue<ElasticWorkQueueCfg>
+       implements ConfigurationChangeListener<ElasticWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The time after which idle platform threads exit. */
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+  /** The time between two attempts to submit an operation to a full queue. */
+  private static final long FULL_QUEUE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** A semaphore whose number of permits can be reduced while permits are acquired. */
+  private static final class ConcurrencyLimiter extends Semaphore
+  {
+    private static final long serialVersionUID = 1L;
+
+    private ConcurrencyLimiter(int permits)
+    {
+      super(permits);
+    }
+
+    private void reduce(int reduction)
+    {
+      reducePermits(reduction);
+    }
+  }
+
+  /** Processes operations until none is pending, then releases its permit. */
+  private final class OperationRunner implements Runnable
+  {
+    private Operation operation;
+
+    private OperationRunner(Operation operation)
+    {
+      this.operation = operation;
+    }
+
+    @Override
+    public void run()
+    {
+      while (operation != null)
+      {
+        process(operation);
+        operation = pollPendingOperation();
+        if (operation == null)
+        {
+          releasePermit();
+          // Operations queued after the poll may have found no available permit.
+          operation = tryAcquireAndPoll();
+        }
+      }
+    }
+  }
+
+  /** The executor running operations, which may be replaced when the configuration changes. */
+  private volatile ExecutorService executor;
+
+  /** Indicates whether the configuration requests virtual threads. */
+  private boolean useVirtualThreads;
+
+  /** Indicates whether the executor runs operations on virtual threads. */
+  private volatile boolean usesVirtualThreads;
+
+  /** Limits the number of operations processed concurrently. */
+  private ConcurrencyLimiter limiter;
+
+  /** The operations waiting for the number of concurrent operations to drop below the limit. */
+  private final ConcurrentLinkedQueue<Operation> pendingOperations = new ConcurrentLinkedQueue<>();
+
+  /** The number of pending operations, including those being enqueued, used for enforcing the capacity. */
+  private final AtomicInteger nbPendingOperations = new AtomicInteger();
+
+  /** The number of permits acquired from the limiter, used for telling whether the work queue is idle. */
+  private final AtomicInteger nbAcquiredPermits = new AtomicInteger();
+
+  /** The operations being processed. */
+  private final Set<Operation> activeOperations =
+      Collections.newSetFromMap(new ConcurrentHashMap<Operation, Boolean>());
+
+  /** The maximum number of operations processed concurrently since startup. */
+  private final AtomicInteger maxActiveOperations = new AtomicInteger();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final StripedCounter opsSubmitted = new StripedCounter();
+
+  /** The number of operations rejected because the work queue was already at its maximum capacity. */
+  private final StripedCounter queueFullRejects = new StripedCounter();
+
+  /** The name of the monitor provider for this work queue. */
+  private String monitorInstanceName;
+
+  /** The monitor provider for this work queue. */
+  private ElasticWorkQueueMonitor monitor;
+
+  /** The maximum number of operations processed concurrently. */
+  private volatile int maxConcurrentOperations;
+
+  /** The maximum number of pending operations. */
+  private volatile int maxCapacity;
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /**
+   * Creates a new instance of this work queue.  All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public ElasticWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(ElasticWorkQueueCfg configuration)
+         throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+
+    // Register to be notified of any configuration changes.
+    configuration.addElasticChangeListener(this);
+
+    // Get the necessary configuration from the provided entry.
+    maxConcurrentOperations = configuration.getMaxConcurrentOperations();
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+    limiter = new ConcurrencyLimiter(maxConcurrentOperations);
+    useVirtualThreads = configuration.isUseVirtualThreads();
+    executor = newExecutor(useVirtualThreads);
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      monitorInstanceName = configuration.dn().rdn().getFirstAVA().getAttributeValue().toString();
+      monitor = new ElasticWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, ElasticWorkQueueMonitor.class, e);
+    }
+  }
+
+  /**
+   * Creates the executor running operations, using virtual threads if requested and supported by the Java virtual
+   * machine.
+   */
+  private ExecutorService newExecutor(boolean virtualThreads)
+  {
+    if (virtualThreads)
+    {
+      try
+      {
+        // Virtual threads are only available from Java 21
+        ExecutorService virtualThreadExecutor =
+            (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        usesVirtualThreads = true;
+        return virtualThreadExecutor;
+      }
+      catch (ReflectiveOperationException e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_CONFIG_WORK_QUEUE_VIRTUAL_THREADS_NOT_SUPPORTED, System.getProperty("java.version"));
+      }
+    }
+
+    usesVirtualThreads = false;
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new DirectoryThread.Factory("Worker Thread"));
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    if (monitor != null)
+    {
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      monitor.finalizeMonitorProvider();
+    }
+
+    // Send responses to any operations in the pending queue to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    Operation o;
+    while ((o = pollPendingOperation()) != null)
+    {
+      try
+      {
+        // The operation has no chance of responding to the cancel
+        // request so avoid waiting for a cancel response.
+        if (o.getCancelResult() == null)
+        {
+          o.abort(cancelRequest);
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+      }
+    }
+
+    // Cancel the operations in progress, then let the threads exit.
+    CancelRequest shutdownCancelRequest = new CancelRequest(true, INFO_CANCELED_BY_SHUTDOWN.get());
+    for (Operation operation : activeOperations)
+    {
+      try
+      {
+        operation.cancel(shutdownCancelRequest);
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return  <CODE>true</CODE> if the work queue has recieved a request to shut
+   *          down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+  /**
+   * Submits an operation to be processed by this work queue.
+   *
+   * @param  operation  The operation to be processed.
+   *
+   * @throws  DirectoryException  If the provided operation is not accepted for
+   *                              some reason (e.g., if the server is shutting
+   *                              down or the thread submitting the operation
+   *                              is interrupted while waiting for the queue to
+   *                              have available capacity).
+   */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation, boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+
+    if (pendingOperations.isEmpty() && tryAcquirePermit())
+    {
+      // Fast path: start processing the operation right away.
+      opsSubmitted.increment();
+      execute(operation);
+      return;
+    }
+
+    while (!tryReserveCapacity())
+    {
+      if (!blockEnqueuingWhenFull)
+      {
+        queueFullRejects.increment();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+      }
+
+      LockSupport.parkNanos(this, FULL_QUEUE_RETRY_NANOS);
+      if (Thread.interrupted())
+      {
+        // We cannot handle the interruption here. Reject the request and
+        // re-interrupt this thread.
+        Thread.currentThread().interrupt();
+        queueFullRejects.increment();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+      }
+      checkNotShutdown();
+    }
+
+    pendingOperations.offer(operation);
+    if (shutdownRequested && pendingOperations.remove(operation))
+    {
+      // The work queue has been finalized concurrently and has not seen this operation.
+      nbPendingOperations.decrementAndGet();
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+    opsSubmitted.increment();
+
+    // The operations in progress may have completed while this one was being queued.
+    Operation nextOperation = tryAcquireAndPoll();
+    if (nextOperation != null)
+    {
+      execute(nextOperation);
+    }
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+  }
+
+  private boolean tryReserveCapacity()
+  {
+    for (;;)
+    {
+      final int current = nbPendingOperations.get();
+      if (current >= maxCapacity)
+      {
+        return false;
+      }
+      if (nbPendingOperations.compareAndSet(current, current + 1))
+      {
+        return true;
+      }
+    }
+  }
+
+  private Operation pollPendingOperation()
+  {
+    final Operation operation = pendingOperations.poll();
+    if (operation != null)
+    {
+      nbPendingOperations.decrementAndGet();
+    }
+    return operation;
+  }
+
+  /**
+   * Returns the next pending operation after having acquired a permit for processing it, or {@code null} if there is
+   * no pending operation or no available permit.
+   */
+  private Operation tryAcquireAndPoll()
+  {
+    while (!pendingOperations.isEmpty() && !shutdownRequested && tryAcquirePermit())
+    {
+      final Operation operation = pollPendingOperation();
+      if (operation != null)
+      {
+        return operation;
+      }
+      // Another thread took the operation.
+      releasePermit();
+    }
+    return null;
+  }
+
+  private boolean tryAcquirePermit()
+  {
+    if (limiter.tryAcquire())
+    {
+      nbAcquiredPermits.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private void releasePermit()
+  {
+    nbAcquiredPermits.decrementAndGet();
+    limiter.release();
+  }
+
+  /** Starts processing the provided operation on a new thread, the caller having acquired a permit for it. */
+  private void execute(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      executor.execute(new OperationRunner(operation));
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The executor has been shut down, either by a configuration change which
+      // replaced it or by the server shutdown.
+      if (shutdownRequested)
+      {
+        releasePermit();
+        throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+      }
+      executor.execute(new OperationRunner(operation));
+    }
+  }
+
+  /** Processes the provided operation in the current thread. */
+  private void process(Operation operation)
+  {
+    activeOperations.add(operation);
+    updateMaxActiveOperations(activeOperations.size());
+    try
+    {
+      operation.run();
+      operation.operationCompleted();
+    }
+    catch (Throwable t)
+    {
+      logger.traceException(t);
+      LocalizableMessage message = ERR_UNCAUGHT_WORKER_THREAD_EXCEPTION.get(
+          Thread.currentThread().getName(), operation, stackTraceToSingleLineString(t));
+      try
+      {
+        logger.error(message);
+        operation.setResultCode(DirectoryServer.getCoreConfigManager().getServerErrorResultCode());
+        operation.appendErrorMessage(message);
+        operation.getClientConnection().sendResponse(operation);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+
+      try
+      {
+        operation.disconnectClient(DisconnectReason.SERVER_ERROR, true, message);
+      }
+      catch (Throwable t2)
+      {
+        logger.traceException(t2);
+      }
+    }
+    finally
+    {
+      activeOperations.remove(operation);
+    }
+  }
+
+  private void updateMaxActiveOperations(int nbActiveOperations)
+  {
+    int max;
+    while (nbActiveOperations > (max = maxActiveOperations.get())
+        && !maxActiveOperations.compareAndSet(max, nbActiveOperations))
+    {
+      // Try again
+    }
+  }
+
+  /**
+   * Retrieves the name of the monitor provider for this work queue.
+   *
+   * @return  The name of the monitor provider for this work queue.
+   */
+  public String getMonitorInstanceName()
+  {
+    return monitorInstanceName;
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup.
+   *
+   * @return  The total number of operations that have been successfully
+   *          submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.sum();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return  The total number of operations that have been rejected because the
+   *          work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.sum();
+  }
+
+  /**
+   * Retrieves the number of operations being processed.
+   *
+   * @return  The number of operations being processed.
+   */
+  public int getActiveOperations()
+  {
+    return activeOperations.size();
+  }
+
+  /**
+   * Retrieves the maximum number of operations which have been processed
+   * concurrently since startup.
+   *
+   * @return  The maximum number of operations which have been processed
+   *          concurrently since startup.
+   */
+  public int getMaxActiveOperations()
+  {
+    return maxActiveOperations.get();
+  }
+
+  /**
+   * Indicates whether operations are processed on virtual threads.
+   *
+   * @return  {@code true} if operations are processed on virtual threads, or
+   *          {@code false} if they are processed on platform threads.
+   */
+  public boolean usesVirtualThreads()
+  {
+    return usesVirtualThreads;
+  }
+
+  /**
+   * Retrieves the number of pending operations waiting for the number of
+   * operations being processed to drop below the limit.
+   *
+   * @return  The number of pending operations in the queue that have not yet
+   *          been picked up for processing.
+   */
+  public int size()
+  {
+    return nbPendingOperations.get();
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(ElasticWorkQueueCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ElasticWorkQueueCfg configuration)
+  {
+    maxCapacity = configuration.getMaxWorkQueueCapacity();
+
+    // Permits acquired beyond a reduced limit are not released until the
+    // corresponding operations complete.
+    synchronized (limiter)
+    {
+      int delta = configuration.getMaxConcurrentOperations() - maxConcurrentOperations;
+      maxConcurrentOperations = configuration.getMaxConcurrentOperations();
+      if (delta > 0)
+      {
+        limiter.release(delta);
+      }
+      else if (delta < 0)
+      {
+        limiter.reduce(-delta);
+      }
+    }
+
+    // Operations in progress complete on the threads of the previous executor.
+    if (configuration.isUseVirtualThreads() != useVirtualThreads)
+    {
+      useVirtualThreads = configuration.isUseVirtualThreads();
+      ExecutorService previousExecutor = executor;
+      executor = newExecutor(useVirtualThreads);
+      previousExecutor.shutdown();
+    }
+
+    // Start processing the pending operations allowed by an increased limit.
+    try
+    {
+      Operation operation;
+      while ((operation = tryAcquireAndPoll()) != null)
+      {
+        execute(operation);
+      }
+    }
+    catch (DirectoryException e)
+    {
+      logger.traceException(e);
+    }
+
+    return new ConfigChangeResult();
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    return pendingOperations.isEmpty() && nbAcquiredPermits.get() == 0;
+  }
+
+  /**
+   * Return the maximum number of operations processed concurrently, which is
+   * the equivalent of the number of worker threads for other work queues.
+   *
+   * @return the maximum number of operations processed concurrently
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return maxConcurrentOperations;
+  }
+}
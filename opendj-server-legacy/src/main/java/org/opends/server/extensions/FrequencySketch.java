@@ -0,0 +1,171 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+/**
+ * A probabilistic estimate of how often items have recently been accessed, used by TinyLFU style cache admission
+ * policies.
+ * <p>
+ * This is a count-min sketch made of 4 bits counters, 16 of them being packed in each long. Each item is mapped to 4
+ * counters and its frequency is estimated as the minimum of these counters. When the number of recorded accesses
+ * reaches ten times the capacity of the sketch, all the counters are halved so that the estimates favor recent
+ * accesses.
+ * <p>
+ * This class is not thread safe.
+ */
+final class FrequencySketch
+{
+  private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+    0xcbf29ce484222325L };
+  /** Keeps the 3 low bits of each counter after a right shift. */
+  private static final long HALVE_MASK = 0x7777777777777777L;
+  /** Keeps the lowest bit of each counter. */
+  private static final long LOWEST_BIT_MASK = 0x1111111111111111L;
+  private static final int MAX_FREQUENCY = 15;
+  private static final int MAX_TABLE_LENGTH = 1 << 24;
+
+  private long[] table;
+  private int tableMask;
+  /** Number of recorded accesses after which the counters are halved. */
+  private int sampleSize;
+  /** Number of recorded accesses since the counters were last halved. */
+  private int size;
+
+  /**
+   * Creates a new frequency sketch.
+   *
+   * @param expectedItems
+   *          the number of distinct items which are expected to be tracked
+   */
+  FrequencySketch(int expectedItems)
+  {
+    ensureCapacity(expectedItems);
+  }
+
+  /**
+   * Grows this sketch, if needed, so that it can accurately track the provided number of distinct items. Growing the
+   * sketch discards all the recorded frequencies.
+   *
+   * @param expectedItems
+   *          the number of distinct items which are expected to be tracked
+   */
+  void ensureCapacity(int expectedItems)
+  {
+    final int length = Math.min(MAX_TABLE_LENGTH, ceilingPowerOfTwo(Math.max(16, expectedItems)));
+    if (table == null || table.length < length)
+    {
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = 10 * length;
+      size = 0;
+    }
+  }
+
+  /**
+   * Returns the capacity of this sketch, in number of distinct items.
+   *
+   * @return the capacity of this sketch
+   */
+  int capacity()
+  {
+    return table.length;
+  }
+
+  /**
+   * Returns the estimated number of recent accesses to the provided item.
+   *
+   * @param itemHash
+   *          the hash code of the item
+   * @return the estimated number of recent accesses to the item, between 0 and 15
+   */
+  int frequency(int itemHash)
+  {
+    final int hash = spread(itemHash);
+    final int firstCounter = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      final long counters = table[indexOf(hash, i)];
+      frequency = Math.min(frequency, (int) ((counters >>> ((firstCounter + i) << 2)) & 0xfL));
+    }
+    return frequency;
+  }
+
+  /**
+   * Records an access to the provided item.
+   *
+   * @param itemHash
+   *          the hash code of the item
+   */
+  void increment(int itemHash)
+  {
+    final int hash = spread(itemHash);
+    final int firstCounter = (hash & 3) << 2;
+    boolean incremented = false;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      incremented |= incrementCounter(indexOf(hash, i), firstCounter + i);
+    }
+    if (incremented && ++size >= sampleSize)
+    {
+      halve();
+    }
+  }
+
+  private boolean incrementCounter(int index, int counter)
+  {
+    final int shift = counter << 2;
+    final long mask = 0xfL << shift;
+    if ((table[index] & mask) != mask)
+    {
+      table[index] += 1L << shift;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves all the counters, so that old accesses progressively weigh less than recent ones. */
+  private void halve()
+  {
+    int nbOddCounters = 0;
+    for (int i = 0; i < table.length; i++)
+    {
+      nbOddCounters += Long.bitCount(table[i] & LOWEST_BIT_MASK);
+      table[i] = (table[i] >>> 1) & HALVE_MASK;
+    }
+    // Each item has been counted in 4 counters, and halving an odd counter loses one half access
+    size = (size - (nbOddCounters >>> 2)) >>> 1;
+  }
+
+  private int indexOf(int hash, int i)
+  {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return (int) h & tableMask;
+  }
+
+  private static int spread(int x)
+  {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+  private static int ceilingPowerOfTwo(int x)
+  {
+    return x <= 1 ? 1 : Integer.highestOneBit(x - 1) << 1;
+  }
+}
@@ -0,0 +1,813 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ExtensionMessages.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.server.EntryCacheCfg;
+import org.forgerock.opendj.server.config.server.OffHeapEntryCacheCfg;
+import org.forgerock.util.Utils;
+import org.opends.server.api.CompressedSchema;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.MonitorData;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.EntryEncodeConfig;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.SearchFilter;
+import org.opends.server.util.ServerConstants;
+
+/**
+ * This class defines a Directory Server entry cache which stores the cached entries outside of the JVM heap, so that
+ * large caches do not lengthen garbage collections.
+ * <p>
+ * Entries are stored in their compact binary encoding, with attribute descriptions and object class sets replaced by
+ * compressed schema tokens like in the pluggable backends. The encoded entries are appended to large slabs of direct
+ * memory, and only small index records pointing to the slabs are kept on the heap. Cached entries are decoded on each
+ * hit.
+ * <p>
+ * The slabs are used as a ring: when all of them are full, the oldest slab is recycled. The entries it contains which
+ * have been accessed since they were added are kept by compacting them at the start of the slab, up to half of its
+ * size, and the other entries are evicted.
+ */
+public class OffHeapEntryCache
+       extends EntryCache<OffHeapEntryCacheCfg>
+       implements ConfigurationChangeListener<OffHeapEntryCacheCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final long MB = 1024 * 1024;
+  private static final long MIN_SLAB_SIZE = MB;
+  private static final long MAX_SLAB_SIZE = 64 * MB;
+  /** Number of slabs the memory is split into, when allowed by the slab size limits. */
+  private static final int TARGET_NB_SLABS = 32;
+  /** Maximum percentage of a recycled slab which can be used by the entries kept in it. */
+  private static final int MAX_RETAINED_PERCENT = 50;
+
+  /** The location of a cached entry in the slabs. */
+  private static final class Slot
+  {
+    private final DN dn;
+    private final String backendID;
+    private final long entryID;
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+    /** Whether the entry has been read since it was stored in its slab. */
+    private volatile boolean accessed;
+    /** Whether this slot no longer holds a cached entry. Always set while holding the slab write lock when recycled. */
+    private volatile boolean evicted;
+
+    private Slot(DN dn, String backendID, long entryID, Slab slab, int offset, int length)
+    {
+      this.dn = dn;
+      this.backendID = backendID;
+      this.entryID = entryID;
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /** A block of direct memory holding encoded entries. */
+  private static final class Slab
+  {
+    private final ByteBuffer buffer;
+    /** Readers hold the read lock while copying an entry, the write lock is held while recycling the slab. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** The slots stored in this slab, in increasing offset order. Guarded by the cache allocation lock. */
+    private List<Slot> slots = new ArrayList<>();
+    /** The offset where the next entry will be written. Guarded by the cache allocation lock. */
+    private int position;
+
+    private Slab(int size)
+    {
+      buffer = ByteBuffer.allocateDirect(size);
+    }
+  }
+
+  /** The mapping between DNs and entries. Only updated while holding the allocation lock. */
+  private final ConcurrentMap<DN, Slot> dnMap = new ConcurrentHashMap<>();
+  /** The mapping between entry backends/IDs and entries. Only updated while holding the allocation lock. */
+  private final ConcurrentMap<String, ConcurrentMap<Long, Slot>> idMap = new ConcurrentHashMap<>();
+  /** The number of bytes used by the cached entries. */
+  private final AtomicLong cacheSize = new AtomicLong();
+
+  /** Serializes the slabs allocation and the writes to the slabs. */
+  private final Lock allocationLock = new ReentrantLock();
+  /** The slabs, lazily allocated. Guarded by the allocation lock. */
+  private final List<Slab> slabs = new ArrayList<>();
+  /** The index of the slab currently being filled, or -1 if none. Guarded by the allocation lock. */
+  private int currentSlab = -1;
+  /** The maximum number of slabs. Guarded by the allocation lock. */
+  private int maxSlabs;
+  /** The size of each slab. Guarded by the allocation lock. */
+  private int slabSize;
+
+  /** The compressed schema used to encode the cached entries, whose tokens do not need to be persisted. */
+  private CompressedSchema compressedSchema;
+  private EntryEncodeConfig encodeConfig;
+  private volatile long maxMemorySize;
+
+  /** Currently registered configuration object. */
+  private OffHeapEntryCacheCfg registeredConfiguration;
+
+  /** Creates a new instance of this off-heap entry cache. */
+  public OffHeapEntryCache()
+  {
+    super();
+    // All initialization should be performed in the initializeEntryCache.
+  }
+
+  @Override
+  public void initializeEntryCache(ServerContext serverContext, OffHeapEntryCacheCfg configuration)
+      throws ConfigException, InitializationException
+  {
+    registeredConfiguration = configuration;
+    configuration.addOffHeapChangeListener(this);
+
+    compressedSchema = new CompressedSchema(serverContext);
+    encodeConfig = new EntryEncodeConfig(false, true, true, compressedSchema);
+
+    // Read configuration and apply changes.
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_INIT, null, errorMessages
+          );
+    if (!processEntryCacheConfig(configuration, applyChanges, errorHandler)) {
+      String buffer = Utils.joinAsString(".  ", errorMessages);
+      throw new ConfigException(ERR_OFFHEAPCACHE_CANNOT_INITIALIZE.get(buffer));
+    }
+  }
+
+  @Override
+  public void finalizeEntryCache()
+  {
+    registeredConfiguration.removeOffHeapChangeListener(this);
+
+    // Release all memory currently in use by this cache.
+    allocationLock.lock();
+    try
+    {
+      clearSlabs();
+      slabs.clear();
+      currentSlab = -1;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsEntry(DN entryDN)
+  {
+    return entryDN != null && dnMap.containsKey(entryDN);
+  }
+
+  @Override
+  public Entry getEntry(DN entryDN)
+  {
+    return readEntry(dnMap.get(entryDN));
+  }
+
+  @Override
+  public Entry getEntry(String backendID, long entryID)
+  {
+    final Map<Long, Slot> map = idMap.get(backendID);
+    return readEntry(map != null ? map.get(entryID) : null);
+  }
+
+  private Entry readEntry(Slot slot)
+  {
+    final byte[] bytes = slot != null ? readBytes(slot) : null;
+    if (bytes == null)
+    {
+      // Indicate cache miss.
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+
+    try
+    {
+      final Entry entry = Entry.decode(ByteString.wrap(bytes).asReader(), compressedSchema);
+      // Indicate cache hit.
+      cacheHits.getAndIncrement();
+      return entry;
+    }
+    catch (DirectoryException e)
+    {
+      // This should never happen, but the entry will then be read from the backend.
+      logger.traceException(e);
+      cacheMisses.getAndIncrement();
+      return null;
+    }
+  }
+
+  /** Copies the encoded entry from its slab, or returns null if it has been evicted. */
+  private byte[] readBytes(Slot slot)
+  {
+    final byte[] bytes = new byte[slot.length];
+    final Lock readLock = slot.slab.lock.readLock();
+    readLock.lock();
+    try
+    {
+      if (slot.evicted)
+      {
+        return null;
+      }
+      final ByteBuffer buffer = slot.slab.buffer.duplicate();
+      buffer.position(slot.offset);
+      buffer.get(bytes);
+    }
+    finally
+    {
+      readLock.unlock();
+    }
+
+    // Avoid writing to memory shared by all readers of this entry when possible
+    if (!slot.accessed)
+    {
+      slot.accessed = true;
+    }
+    return bytes;
+  }
+
+  @Override
+  public long getEntryID(DN entryDN)
+  {
+    final Slot slot = dnMap.get(entryDN);
+    return slot != null && !slot.evicted ? slot.entryID : -1;
+  }
+
+  @Override
+  public DN getEntryDN(String backendID, long entryID)
+  {
+    final Map<Long, Slot> map = idMap.get(backendID);
+    if (map != null)
+    {
+      final Slot slot = map.get(entryID);
+      if (slot != null && !slot.evicted)
+      {
+        return slot.dn;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void putEntry(Entry entry, String backendID, long entryID)
+  {
+    put(entry, backendID, entryID, false);
+  }
+
+  @Override
+  public boolean putEntryIfAbsent(Entry entry, String backendID, long entryID)
+  {
+    return put(entry, backendID, entryID, true);
+  }
+
+  private boolean put(Entry entry, String backendID, long entryID, boolean onlyIfAbsent)
+  {
+    final DN entryDN = entry.getName();
+    if (onlyIfAbsent && dnMap.containsKey(entryDN))
+    {
+      return false;
+    }
+
+    // Encode the entry before taking the lock
+    final ByteStringBuilder encodedEntry = new ByteStringBuilder();
+    try
+    {
+      entry.encode(encodedEntry, encodeConfig);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // We can't be sure there wasn't a conflict, so return false.
+      return false;
+    }
+
+    allocationLock.lock();
+    try
+    {
+      if (onlyIfAbsent && dnMap.containsKey(entryDN))
+      {
+        return false;
+      }
+
+      final Slot slot = write(entryDN, backendID, entryID, encodedEntry);
+      if (slot == null)
+      {
+        // The entry cannot be cached, make sure a previous version of it is not returned either.
+        discard(dnMap.remove(entryDN));
+        return true;
+      }
+
+      discard(dnMap.put(entryDN, slot));
+      getBackendMap(backendID).put(entryID, slot);
+      cacheSize.addAndGet(slot.length);
+
+      // Always return true, even if the entry was not actually cached.
+      return true;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+
+      // We can't be sure there wasn't a conflict, so return false.
+      return false;
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  /**
+   * Appends the provided encoded entry to the current slab, recycling the oldest slab if needed. Must be called while
+   * holding the allocation lock.
+   *
+   * @return the slot where the entry has been written, or null if it could not be written
+   */
+  private Slot write(DN entryDN, String backendID, long entryID, ByteStringBuilder encodedEntry)
+  {
+    final int length = encodedEntry.length();
+    if (length > slabSize)
+    {
+      return null;
+    }
+
+    int nbAdvances = 0;
+    while (currentSlab == -1 || slabs.get(currentSlab).position + length > slabSize)
+    {
+      // After a full round without success, recycle slabs without keeping their entries so the entry fits
+      if (!advance(nbAdvances++ < slabs.size()))
+      {
+        return null;
+      }
+    }
+
+    final Slab slab = slabs.get(currentSlab);
+    final ByteBuffer buffer = slab.buffer.duplicate();
+    buffer.position(slab.position);
+    buffer.put(encodedEntry.getBackingArray(), 0, length);
+
+    final Slot slot = new Slot(entryDN, backendID, entryID, slab, slab.position, length);
+    slab.slots.add(slot);
+    slab.position += length;
+    return slot;
+  }
+
+  /**
+   * Moves to the next slab, allocating it or recycling it. Must be called while holding the allocation lock.
+   *
+   * @return {@code false} if there is no slab to move to
+   */
+  private boolean advance(boolean keepAccessedEntries)
+  {
+    if (slabs.size() < maxSlabs && currentSlab == slabs.size() - 1)
+    {
+      try
+      {
+        slabs.add(new Slab(slabSize));
+        currentSlab = slabs.size() - 1;
+        return true;
+      }
+      catch (OutOfMemoryError e)
+      {
+        // Direct memory is limited by the JVM independently of the heap: do with the slabs allocated so far.
+        logger.warn(WARN_OFFHEAPCACHE_CANNOT_ALLOCATE_SLAB, slabs.size() * (long) slabSize / MB,
+            maxMemorySize / MB, e.getLocalizedMessage());
+        maxSlabs = slabs.size();
+      }
+    }
+    if (slabs.isEmpty())
+    {
+      return false;
+    }
+
+    currentSlab = (currentSlab + 1) % slabs.size();
+    recycle(slabs.get(currentSlab), keepAccessedEntries);
+    return true;
+  }
+
+  /**
+   * Evicts the entries stored in the provided slab, except the entries accessed since they were stored if requested.
+   * These are moved to the start of the slab. Must be called while holding the allocation lock.
+   */
+  private void recycle(Slab slab, boolean keepAccessedEntries)
+  {
+    final long maxRetainedSize = keepAccessedEntries ? (long) slabSize * MAX_RETAINED_PERCENT / 100 : 0;
+    final List<Slot> retainedSlots = new ArrayList<>();
+    int position = 0;
+
+    final Lock writeLock = slab.lock.writeLock();
+    writeLock.lock();
+    try
+    {
+      final ByteBuffer buffer = slab.buffer.duplicate();
+      byte[] bytes = new byte[0];
+      for (Slot slot : slab.slots)
+      {
+        if (slot.evicted)
+        {
+          // Already removed
+          continue;
+        }
+        slot.evicted = true;
+        if (slot.accessed && position + slot.length <= maxRetainedSize)
+        {
+          // Slots are in increasing offset order, so the kept entries never overwrite the entries still to process
+          if (bytes.length < slot.length)
+          {
+            bytes = new byte[slot.length];
+          }
+          buffer.position(slot.offset);
+          buffer.get(bytes, 0, slot.length);
+          buffer.position(position);
+          buffer.put(bytes, 0, slot.length);
+
+          final Slot newSlot = new Slot(slot.dn, slot.backendID, slot.entryID, slab, position, slot.length);
+          if (dnMap.replace(slot.dn, slot, newSlot))
+          {
+            final ConcurrentMap<Long, Slot> map = idMap.get(slot.backendID);
+            if (map != null)
+            {
+              map.replace(slot.entryID, slot, newSlot);
+            }
+            retainedSlots.add(newSlot);
+            position += slot.length;
+            continue;
+          }
+          // Concurrently removed, the remover accounts for the removal
+          newSlot.evicted = true;
+        }
+        else if (dnMap.remove(slot.dn, slot))
+        {
+          removeFromIdMap(slot);
+          cacheSize.addAndGet(-slot.length);
+        }
+      }
+    }
+    finally
+    {
+      writeLock.unlock();
+    }
+    slab.slots = retainedSlots;
+    slab.position = position;
+  }
+
+  /**
+   * Forgets the provided slot after it has been removed from the DN map by the caller, its memory being reclaimed when
+   * its slab is recycled.
+   */
+  private void discard(Slot slot)
+  {
+    if (slot != null)
+    {
+      slot.evicted = true;
+      removeFromIdMap(slot);
+      cacheSize.addAndGet(-slot.length);
+    }
+  }
+
+  @Override
+  public void removeEntry(DN entryDN)
+  {
+    // Recycling a slab moves the entries it keeps in both maps, which must not be interleaved with a removal
+    allocationLock.lock();
+    try
+    {
+      discard(dnMap.remove(entryDN));
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    allocationLock.lock();
+    try
+    {
+      clearSlabs();
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  /** Evicts all the entries, keeping the slabs for reuse. Must be called while holding the allocation lock. */
+  private void clearSlabs()
+  {
+    for (Slab slab : slabs)
+    {
+      recycle(slab, false);
+    }
+    currentSlab = slabs.isEmpty() ? -1 : 0;
+    dnMap.clear();
+    idMap.clear();
+    cacheSize.set(0);
+  }
+
+  @Override
+  public void clearBackend(String backendID)
+  {
+    allocationLock.lock();
+    try
+    {
+      idMap.remove(backendID);
+
+      // Entries are not grouped by backend in the DN map: look for them.
+      for (Slot slot : dnMap.values())
+      {
+        if (backendID.equals(slot.backendID) && dnMap.remove(slot.dn, slot))
+        {
+          discard(slot);
+        }
+      }
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public void handleLowMemory()
+  {
+    // Only the index of this cache is on the heap.
+    // If there are less than 1000 entries, dump all of them. Otherwise, dump the 10% oldest entries.
+    if (dnMap.size() < 1000)
+    {
+      clear();
+      return;
+    }
+
+    allocationLock.lock();
+    try
+    {
+      final int nbSlabs = slabs.size();
+      for (int i = 1; i <= Math.max(1, nbSlabs / 10) && i < nbSlabs; i++)
+      {
+        recycle(slabs.get((currentSlab + i) % nbSlabs), false);
+      }
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isConfigurationAcceptable(EntryCacheCfg configuration,
+                                           List<LocalizableMessage> unacceptableReasons)
+  {
+    OffHeapEntryCacheCfg config = (OffHeapEntryCacheCfg) configuration;
+    return isConfigurationChangeAcceptable(config, unacceptableReasons);
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(
+      OffHeapEntryCacheCfg configuration,
+      List<LocalizableMessage> unacceptableReasons
+      )
+  {
+    boolean applyChanges = false;
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_ACCEPTABLE,
+          unacceptableReasons,
+          null
+        );
+    processEntryCacheConfig (configuration, applyChanges, errorHandler);
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(OffHeapEntryCacheCfg configuration)
+  {
+    boolean applyChanges = true;
+    List<LocalizableMessage> errorMessages = new ArrayList<>();
+    EntryCacheCommon.ConfigErrorHandler errorHandler =
+      EntryCacheCommon.getConfigErrorHandler (
+          EntryCacheCommon.ConfigPhase.PHASE_APPLY, null, errorMessages
+          );
+
+    // Do not apply changes unless this cache is enabled.
+    if (configuration.isEnabled()) {
+      processEntryCacheConfig (configuration, applyChanges, errorHandler);
+    }
+
+    final ConfigChangeResult changeResult = new ConfigChangeResult();
+    changeResult.setResultCode(errorHandler.getResultCode());
+    changeResult.setAdminActionRequired(errorHandler.getIsAdminActionRequired());
+    changeResult.getMessages().addAll(errorHandler.getErrorMessages());
+    return changeResult;
+  }
+
+  /**
+   * Parses the provided configuration and configure the entry cache.
+   *
+   * @param configuration  The new configuration containing the changes.
+   * @param applyChanges   If true then take into account the new configuration.
+   * @param errorHandler   An handler used to report errors.
+   *
+   * @return  <CODE>true</CODE> if configuration is acceptable,
+   *          or <CODE>false</CODE> otherwise.
+   */
+  private boolean processEntryCacheConfig(
+      OffHeapEntryCacheCfg                configuration,
+      boolean                             applyChanges,
+      EntryCacheCommon.ConfigErrorHandler errorHandler
+      )
+  {
+    // Read configuration.
+    DN newConfigEntryDN = configuration.dn();
+    long newMaxMemorySize = configuration.getMaxMemorySize();
+
+    // Get include and exclude filters.
+    Set<SearchFilter> newIncludeFilters = EntryCacheCommon.getFilters (
+        configuration.getIncludeFilter(),
+        ERR_CACHE_INVALID_INCLUDE_FILTER,
+        errorHandler,
+        newConfigEntryDN
+        );
+    Set<SearchFilter> newExcludeFilters = EntryCacheCommon.getFilters (
+        configuration.getExcludeFilter(),
+        ERR_CACHE_INVALID_EXCLUDE_FILTER,
+        errorHandler,
+        newConfigEntryDN
+        );
+
+    if (applyChanges && errorHandler.getIsAcceptable())
+    {
+      if (newMaxMemorySize != maxMemorySize)
+      {
+        resize(newMaxMemorySize);
+      }
+      setIncludeFilters(newIncludeFilters);
+      setExcludeFilters(newExcludeFilters);
+      registeredConfiguration = configuration;
+    }
+
+    return errorHandler.getIsAcceptable();
+  }
+
+  /** Splits the provided amount of memory in slabs. The cached entries are lost if the slab size changes. */
+  private void resize(long newMaxMemorySize)
+  {
+    final int newSlabSize =
+        (int) Math.max(MIN_SLAB_SIZE, Math.min(MAX_SLAB_SIZE, newMaxMemorySize / TARGET_NB_SLABS));
+    allocationLock.lock();
+    try
+    {
+      maxMemorySize = newMaxMemorySize;
+      if (newSlabSize != slabSize)
+      {
+        clearSlabs();
+        slabs.clear();
+        currentSlab = -1;
+        slabSize = newSlabSize;
+      }
+      maxSlabs = (int) Math.max(1, newMaxMemorySize / slabSize);
+      while (slabs.size() > maxSlabs)
+      {
+        recycle(slabs.remove(slabs.size() - 1), false);
+      }
+      if (currentSlab >= slabs.size())
+      {
+        currentSlab = slabs.size() - 1;
+      }
+    }
+    finally
+    {
+      allocationLock.unlock();
+    }
+  }
+
+  private ConcurrentMap<Long, Slot> getBackendMap(String backendID)
+  {
+    ConcurrentMap<Long, Slot> map = idMap.get(backendID);
+    if (map == null)
+    {
+      final ConcurrentMap<Long, Slot> newMap = new ConcurrentHashMap<>();
+      map = idMap.putIfAbsent(backendID, newMap);
+      if (map == null)
+      {
+        map = newMap;
+      }
+    }
+    return map;
+  }
+
+  private void removeFromIdMap(Slot slot)
+  {
+    final ConcurrentMap<Long, Slot> map = idMap.get(slot.backendID);
+    if (map != null)
+    {
+      map.remove(slot.entryID, slot);
+    }
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    try {
+      return EntryCacheCommon.getGenericMonitorData(
+        cacheHits.longValue(),
+        cacheMisses.longValue(),
+        cacheSize.longValue(),
+        maxMemorySize,
+        Long.valueOf(dnMap.size()),
+        null
+        );
+    } catch (Exception e) {
+      logger.traceException(e);
+      return new MonitorData(0);
+    }
+  }
+
+  @Override
+  public Long getCacheCount()
+  {
+    return Long.valueOf(dnMap.size());
+  }
+
+  @Override
+  public String toVerboseString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (Slot slot : dnMap.values()) {
+      sb.append(slot.dn);
+      sb.append(":");
+      sb.append(slot.entryID);
+      sb.append(":");
+      sb.append(slot.backendID);
+      sb.append(ServerConstants.EOL);
+    }
+
+    // See if there is anything on idMap that is not reflected on dnMap in case maps went out of sync.
+    for (Map.Entry<String, ConcurrentMap<Long, Slot>> backendCache : idMap.entrySet()) {
+      final String backendID = backendCache.getKey();
+      for (Map.Entry<Long, Slot> entry : backendCache.getValue().entrySet()) {
+        final Slot slot = entry.getValue();
+        if (dnMap.get(slot.dn) != slot) {
+          sb.append(slot.dn);
+          sb.append(":");
+          sb.append(entry.getKey());
+          sb.append(":");
+          sb.append(backendID);
+          sb.append(ServerConstants.EOL);
+        }
+      }
+    }
+
+    String verboseString = sb.toString();
+    return verboseString.length() > 0 ? verboseString : null;
+  }
+}
@@ -0,0 +1,749 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.messages.ConfigMessages.*;
+import static org.opends.messages.CoreMessages.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.server.config.server.ShardedWorkQueueCfg;
+import org.opends.server.api.WorkQueue;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.ShardedWorkQueueMonitor;
+import org.opends.server.types.CancelRequest;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.Operation;
+import org.opends.server.util.StripedCounter;
+
+/**
+ * A work queue made of several independent queues, called shards, so that submitting and dequeuing operations do not
+ * contend on a single lock or queue head.
+ * <p>
+ * There are as many shards as worker threads when the work queue is initialized, and each worker thread has a home
+ * shard which it polls first. Worker threads which find their home shard empty steal operations from the other shards
+ * before parking, so that no operation waits behind a busy worker thread while another one is idle.
+ * <p>
+ * Operations are dispatched to shards according to the connection they were received on, so that all the operations
+ * of a connection are dequeued in the order in which they were submitted. Operations of internal connections are
+ * dispatched according to the submitting thread instead, because all of them share a few connection IDs.
+ * <p>
+ * The maximum capacity of the work queue is evenly split between the shards. Submitting an operation to a full shard
+ * blocks until the shard has available capacity, unless the operation is submitted with
+ * {@link #trySubmitOperation(Operation)}.
+ */
+public class ShardedWorkQueue
+       extends WorkQueue<ShardedWorkQueueCfg>
+       implements ConfigurationChangeListener<ShardedWorkQueueCfg>
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum time that worker threads remain parked before checking whether they should stop. */
+  private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(5);
+  /** The time between two attempts to submit an operation to a full shard. */
+  private static final long FULL_SHARD_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** An operation waiting in a shard, with the time at which it was submitted. */
+  private static final class QueuedOperation
+  {
+    private final Operation operation;
+    private final long submitNanos;
+
+    private QueuedOperation(Operation operation)
+    {
+      this.operation = operation;
+      this.submitNanos = System.nanoTime();
+    }
+  }
+
+  /** One of the queues of this work queue. */
+  private static final class Shard
+  {
+    private final ConcurrentLinkedQueue<QueuedOperation> queue = new ConcurrentLinkedQueue<>();
+    /** The number of queued operations, including those being enqueued, used for enforcing the capacity. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private boolean tryReserve(int capacity)
+    {
+      for (;;)
+      {
+        final int current = size.get();
+        if (current >= capacity)
+        {
+          return false;
+        }
+        if (size.compareAndSet(current, current + 1))
+        {
+          return true;
+        }
+      }
+    }
+
+    private QueuedOperation poll()
+    {
+      final QueuedOperation queuedOperation = queue.poll();
+      if (queuedOperation != null)
+      {
+        size.decrementAndGet();
+      }
+      return queuedOperation;
+    }
+
+    private boolean remove(QueuedOperation queuedOperation)
+    {
+      if (queue.remove(queuedOperation))
+      {
+        size.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /** The shards, whose number is fixed when the work queue is initialized. */
+  private Shard[] shards;
+
+  /** The worker threads, copied on write while holding the queue lock. */
+  private volatile ShardedWorkerThread[] workerThreads;
+
+  /** The number of worker threads which are parked, waiting for operations to be submitted. */
+  private final AtomicInteger nbParkedWorkerThreads = new AtomicInteger();
+
+  /** The lock used for changing the set of worker threads. */
+  private final Object queueLock = new Object();
+
+  /** The number of operations that have been submitted to the work queue for processing. */
+  private final StripedCounter opsSubmitted = new StripedCounter();
+
+  /** The number of operations rejected because the work queue was already at its maximum capacity. */
+  private final StripedCounter queueFullRejects = new StripedCounter();
+
+  /** The number of operations dequeued by a worker thread from a shard other than its home shard. */
+  private final StripedCounter opsStolen = new StripedCounter();
+
+  /** The name of the monitor provider for this work queue. */
+  private String monitorInstanceName;
+
+  /** The monitor provider for this work queue. */
+  private ShardedWorkQueueMonitor monitor;
+
+  /**
+   * Indicates whether one or more of the worker threads needs to be killed at
+   * the next convenient opportunity.
+   */
+  private volatile boolean killThreads;
+
+  /** Indicates whether the Directory Server is shutting down. */
+  private volatile boolean shutdownRequested;
+
+  /** The thread number used for the last worker thread that was created. */
+  private int lastThreadNumber;
+
+  /**
+   * The number of worker threads that should be active (or will be shortly if a
+   * configuration change has not been completely applied).
+   */
+  private volatile int numWorkerThreads;
+
+  /** The maximum number of operations that can be queued in the whole work queue. */
+  private volatile int maxCapacity;
+
+  /** The maximum number of operations that can be queued in each shard. */
+  private volatile int shardCapacity;
+
+  /**
+   * Creates a new instance of this work queue.  All initialization should be
+   * performed in the <CODE>initializeWorkQueue</CODE> method.
+   */
+  public ShardedWorkQueue()
+  {
+    // No implementation should be performed here.
+  }
+
+  @Override
+  public void initializeWorkQueue(ShardedWorkQueueCfg configuration)
+         throws ConfigException, InitializationException
+  {
+    shutdownRequested = false;
+    killThreads       = false;
+
+    // Register to be notified of any configuration changes.
+    configuration.addShardedChangeListener(this);
+
+    // Get the necessary configuration from the provided entry.
+    numWorkerThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+    shards = new Shard[numWorkerThreads];
+    for (int i = 0; i < shards.length; i++)
+    {
+      shards[i] = new Shard();
+    }
+    setMaxCapacity(configuration.getMaxWorkQueueCapacity());
+
+    // Create the set of worker threads that should be used to service the work queue.
+    synchronized (queueLock)
+    {
+      workerThreads = new ShardedWorkerThread[0];
+      for (lastThreadNumber = 0; lastThreadNumber < numWorkerThreads; lastThreadNumber++)
+      {
+        addWorkerThread();
+      }
+    }
+
+    // Create and register a monitor provider for the work queue.
+    try
+    {
+      monitorInstanceName = configuration.dn().rdn().getFirstAVA().getAttributeValue().toString();
+      monitor = new ShardedWorkQueueMonitor(this);
+      monitor.initializeMonitorProvider(null);
+      DirectoryServer.registerMonitorProvider(monitor);
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      logger.error(ERR_CONFIG_WORK_QUEUE_CANNOT_CREATE_MONITOR, ShardedWorkQueueMonitor.class, e);
+    }
+  }
+
+  @Override
+  public void finalizeWorkQueue(LocalizableMessage reason)
+  {
+    shutdownRequested = true;
+
+    if (monitor != null)
+    {
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      monitor.finalizeMonitorProvider();
+    }
+
+    // Send responses to any operations in the pending queues to indicate that
+    // they won't be processed because the server is shutting down.
+    CancelRequest cancelRequest = new CancelRequest(true, reason);
+    for (Shard shard : shards)
+    {
+      QueuedOperation queuedOperation;
+      while ((queuedOperation = shard.poll()) != null)
+      {
+        Operation o = queuedOperation.operation;
+        try
+        {
+          // The operation has no chance of responding to the cancel
+          // request so avoid waiting for a cancel response.
+          if (o.getCancelResult() == null)
+          {
+            o.abort(cancelRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          logger.traceException(e);
+          logger.warn(WARN_QUEUE_UNABLE_TO_CANCEL, o, e);
+        }
+      }
+    }
+
+    // Notify all the worker threads of the shutdown.
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      try
+      {
+        t.shutDown();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+        logger.warn(WARN_QUEUE_UNABLE_TO_NOTIFY_THREAD, t.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Indicates whether this work queue has received a request to shut down.
+   *
+   * @return  <CODE>true</CODE> if the work queue has recieved a request to shut
+   *          down, or <CODE>false</CODE> if not.
+   */
+  public boolean shutdownRequested()
+  {
+    return shutdownRequested;
+  }
+
+  /**
+   * Submits an operation to be processed by one of the worker threads
+   * associated with this work queue.
+   *
+   * @param  operation  The operation to be processed.
+   *
+   * @throws  DirectoryException  If the provided operation is not accepted for
+   *                              some reason (e.g., if the server is shutting
+   *                              down or the thread submitting the operation
+   *                              is interrupted while waiting for the queue to
+   *                              have available capacity).
+   */
+  @Override
+  public void submitOperation(Operation operation) throws DirectoryException
+  {
+    submitOperation(operation, true);
+  }
+
+  @Override
+  public boolean trySubmitOperation(Operation operation) throws DirectoryException
+  {
+    try
+    {
+      submitOperation(operation, false);
+      return true;
+    }
+    catch (DirectoryException e)
+    {
+      if (ResultCode.BUSY == e.getResultCode())
+      {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private void submitOperation(Operation operation, boolean blockEnqueuingWhenFull) throws DirectoryException
+  {
+    checkNotShutdown();
+
+    final int shardIndex = shardIndex(operation);
+    final Shard shard = shards[shardIndex];
+    while (!shard.tryReserve(shardCapacity))
+    {
+      if (!blockEnqueuingWhenFull)
+      {
+        queueFullRejects.increment();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_FULL.get(maxCapacity));
+      }
+
+      LockSupport.parkNanos(this, FULL_SHARD_RETRY_NANOS);
+      if (Thread.interrupted())
+      {
+        // We cannot handle the interruption here. Reject the request and
+        // re-interrupt this thread.
+        Thread.currentThread().interrupt();
+        queueFullRejects.increment();
+        throw new DirectoryException(ResultCode.BUSY, WARN_OP_REJECTED_BY_QUEUE_INTERRUPT.get());
+      }
+      checkNotShutdown();
+    }
+
+    final QueuedOperation queuedOperation = new QueuedOperation(operation);
+    shard.queue.offer(queuedOperation);
+    if (shutdownRequested && shard.remove(queuedOperation))
+    {
+      // The work queue has been finalized concurrently and has not seen this operation.
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+    opsSubmitted.increment();
+    unparkWorkerThread(shardIndex);
+  }
+
+  private void checkNotShutdown() throws DirectoryException
+  {
+    if (shutdownRequested)
+    {
+      throw new DirectoryException(ResultCode.UNAVAILABLE, WARN_OP_REJECTED_BY_SHUTDOWN.get());
+    }
+  }
+
+  /** Returns the shard of the provided operation, so that a connection always uses the same shard. */
+  private int shardIndex(Operation operation)
+  {
+    long id = operation.getClientConnection().getConnectionID();
+    if (id < 0)
+    {
+      // Internal connections are shared by many threads.
+      id = Thread.currentThread().getId();
+    }
+    id ^= id >>> 33;
+    id *= 0xff51afd7ed558ccdL;
+    id ^= id >>> 33;
+    return (int) ((id >>> 1) % shards.length);
+  }
+
+  /**
+   * Unparks a worker thread, if any is parked, for processing an operation which has been submitted to the provided
+   * shard. The worker thread whose home shard is the provided one is preferred, so that connections tend to be
+   * served by the same worker thread.
+   */
+  private void unparkWorkerThread(int shardIndex)
+  {
+    if (nbParkedWorkerThreads.get() == 0)
+    {
+      return;
+    }
+    final ShardedWorkerThread[] threads = workerThreads;
+    for (int i = 0; i < threads.length; i++)
+    {
+      if (threads[(shardIndex + i) % threads.length].unparkIfParked())
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Retrieves the next operation that should be processed by one of the worker
+   * threads, blocking if necessary until a new request arrives.  This method
+   * should only be called by a worker thread associated with this work queue.
+   *
+   * @param  workerThread  The worker thread that is requesting the operation.
+   *
+   * @return  The next operation that should be processed, or <CODE>null</CODE>
+   *          if the server is shutting down and no more operations will be
+   *          processed.
+   */
+  Operation nextOperation(ShardedWorkerThread workerThread)
+  {
+    while (true)
+    {
+      if (shutdownRequested)
+      {
+        return null;
+      }
+      if (killThreads && tryStopWorkerThread(workerThread))
+      {
+        return null;
+      }
+
+      QueuedOperation queuedOperation = poll(workerThread);
+      if (queuedOperation == null)
+      {
+        // Advertise that this thread is about to park, then check again so that
+        // operations submitted concurrently either are seen here or unpark this thread.
+        workerThread.setParked();
+        nbParkedWorkerThreads.incrementAndGet();
+        queuedOperation = poll(workerThread);
+        if (queuedOperation == null)
+        {
+          LockSupport.parkNanos(this, PARK_NANOS);
+          if (Thread.interrupted() && !shutdownRequested)
+          {
+            logger.warn(WARN_WORKER_INTERRUPTED_WITHOUT_SHUTDOWN, workerThread.getName(),
+                new InterruptedException());
+          }
+        }
+        nbParkedWorkerThreads.decrementAndGet();
+        if (!workerThread.clearParked() && queuedOperation != null)
+        {
+          // A submitting thread has unparked this thread in the meantime, expecting it to process its operation:
+          // pass the signal on since this thread is going to process another operation.
+          unparkWorkerThread(workerThread.getHomeShard());
+        }
+      }
+
+      if (queuedOperation != null)
+      {
+        return queuedOperation.operation;
+      }
+    }
+  }
+
+  /** Polls the home shard of the provided worker thread, then steals from the other shards. */
+  private QueuedOperation poll(ShardedWorkerThread workerThread)
+  {
+    final int homeShard = workerThread.getHomeShard();
+    for (int i = 0; i < shards.length; i++)
+    {
+      final Shard shard = shards[(homeShard + i) % shards.length];
+      final QueuedOperation queuedOperation = shard.poll();
+      if (queuedOperation != null)
+      {
+        if (i != 0)
+        {
+          opsStolen.increment();
+        }
+        workerThread.operationDequeued(System.nanoTime() - queuedOperation.submitNanos, shard.size.get());
+        return queuedOperation;
+      }
+    }
+    return null;
+  }
+
+  /** Stops the provided worker thread if there are more worker threads than needed. */
+  private boolean tryStopWorkerThread(ShardedWorkerThread workerThread)
+  {
+    synchronized (queueLock)
+    {
+      final ShardedWorkerThread[] threads = workerThreads;
+      if (threads.length <= numWorkerThreads)
+      {
+        killThreads = false;
+        return false;
+      }
+
+      final ShardedWorkerThread[] newThreads = new ShardedWorkerThread[threads.length - 1];
+      int j = 0;
+      for (ShardedWorkerThread t : threads)
+      {
+        if (t != workerThread && j < newThreads.length)
+        {
+          newThreads[j++] = t;
+        }
+      }
+      workerThreads = newThreads;
+      if (newThreads.length <= numWorkerThreads)
+      {
+        killThreads = false;
+      }
+
+      workerThread.setStoppedByReducedThreadNumber();
+      return true;
+    }
+  }
+
+  /**
+   * Creates and starts a new worker thread, whose home shard is the shard having the fewest worker threads. Must be
+   * called while holding the queue lock.
+   */
+  private void addWorkerThread()
+  {
+    final int[] nbThreadsPerShard = new int[shards.length];
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      nbThreadsPerShard[t.getHomeShard()]++;
+    }
+    int homeShard = 0;
+    for (int i = 1; i < nbThreadsPerShard.length; i++)
+    {
+      if (nbThreadsPerShard[i] < nbThreadsPerShard[homeShard])
+      {
+        homeShard = i;
+      }
+    }
+
+    final ShardedWorkerThread t = new ShardedWorkerThread(this, lastThreadNumber, homeShard);
+    final ShardedWorkerThread[] threads = Arrays.copyOf(workerThreads, workerThreads.length + 1);
+    threads[threads.length - 1] = t;
+    workerThreads = threads;
+    t.start();
+  }
+
+  private void setMaxCapacity(int maxCapacity)
+  {
+    this.maxCapacity = maxCapacity;
+    this.shardCapacity = Math.max(1, (maxCapacity + shards.length - 1) / shards.length);
+  }
+
+  /**
+   * Retrieves the name of the monitor provider for this work queue.
+   *
+   * @return  The name of the monitor provider for this work queue.
+   */
+  public String getMonitorInstanceName()
+  {
+    return monitorInstanceName;
+  }
+
+  /**
+   * Retrieves the total number of operations that have been successfully
+   * submitted to this work queue for processing since server startup.  This
+   * does not include operations that have been rejected for some reason like
+   * the queue already at its maximum capacity.
+   *
+   * @return  The total number of operations that have been successfully
+   *          submitted to this work queue since startup.
+   */
+  public long getOpsSubmitted()
+  {
+    return opsSubmitted.sum();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been rejected because
+   * the work queue was already at its maximum capacity.
+   *
+   * @return  The total number of operations that have been rejected because the
+   *          work queue was already at its maximum capacity.
+   */
+  public long getOpsRejectedDueToQueueFull()
+  {
+    return queueFullRejects.sum();
+  }
+
+  /**
+   * Retrieves the total number of operations that have been processed by a
+   * worker thread other than the ones associated with the shard they were
+   * submitted to.
+   *
+   * @return  The total number of operations that have been stolen from another
+   *          shard.
+   */
+  public long getOpsStolen()
+  {
+    return opsStolen.sum();
+  }
+
+  /**
+   * Retrieves the number of pending operations in the queue that have not yet
+   * been picked up for processing.
+   *
+   * @return  The number of pending operations in the queue that have not yet
+   *          been picked up for processing.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Shard shard : shards)
+    {
+      size += shard.size.get();
+    }
+    return size;
+  }
+
+  /**
+   * Retrieves the number of pending operations in each shard.
+   *
+   * @return  The number of pending operations in each shard.
+   */
+  public int[] getShardSizes()
+  {
+    final int[] sizes = new int[shards.length];
+    for (int i = 0; i < shards.length; i++)
+    {
+      sizes[i] = shards[i].size.get();
+    }
+    return sizes;
+  }
+
+  /**
+   * Retrieves the histogram of the time operations waited in the queue, in
+   * microseconds, merged over all the worker threads.
+   *
+   * @return  The counts of each bucket of the wait time histogram.
+   */
+  public long[] getWaitTimeHistogram()
+  {
+    long[] counts = new long[ShardedWorkerThread.NB_HISTOGRAM_BUCKETS];
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      t.getWaitTimes().addCountsTo(counts);
+    }
+    return counts;
+  }
+
+  /**
+   * Retrieves the histogram of the number of pending operations observed each
+   * time an operation was dequeued, merged over all the worker threads.
+   *
+   * @return  The counts of each bucket of the queue depth histogram.
+   */
+  public long[] getQueueDepthHistogram()
+  {
+    long[] counts = new long[ShardedWorkerThread.NB_HISTOGRAM_BUCKETS];
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      t.getQueueDepths().addCountsTo(counts);
+    }
+    return counts;
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(ShardedWorkQueueCfg configuration,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ShardedWorkQueueCfg configuration)
+  {
+    int newNumThreads = computeNumWorkerThreads(configuration.getNumWorkerThreads());
+
+    // Apply a change to the number of worker threads if appropriate. The
+    // number of shards does not change, worker threads being spread evenly
+    // over the existing shards.
+    synchronized (queueLock)
+    {
+      try
+      {
+        int threadsToAdd = newNumThreads - workerThreads.length;
+        numWorkerThreads = newNumThreads;
+        if (threadsToAdd > 0)
+        {
+          for (int i = 0; i < threadsToAdd; i++)
+          {
+            addWorkerThread();
+            lastThreadNumber++;
+          }
+          killThreads = false;
+        }
+        else if (threadsToAdd < 0)
+        {
+          killThreads = true;
+          // Parked worker threads check whether they should stop when they are unparked.
+          for (ShardedWorkerThread t : workerThreads)
+          {
+            t.unparkIfParked();
+          }
+        }
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+    }
+
+    // Operations already queued beyond the new capacity are kept, the shards
+    // will accept new operations once they have been processed.
+    setMaxCapacity(configuration.getMaxWorkQueueCapacity());
+
+    return new ConfigChangeResult();
+  }
+
+  @Override
+  public boolean isIdle()
+  {
+    if (size() != 0)
+    {
+      return false;
+    }
+
+    for (ShardedWorkerThread t : workerThreads)
+    {
+      if (t.isActive())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the number of worker threads used by this WorkQueue.
+   *
+   * @return the number of worker threads used by this WorkQueue
+   */
+  @Override
+  public int getNumWorkerThreads()
+  {
+    return numWorkerThreads;
+  }
+}
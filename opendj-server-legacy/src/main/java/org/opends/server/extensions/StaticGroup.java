@@ -19,9 +19,12 @@ package org.opends.server.extensions;
 import static com.forgerock.opendj.util.StaticUtils.getBytes;
 
 import java.io.UnsupportedEncodingException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -349,6 +352,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMembershipIndex(this, nestedGroupDN);
   }
 
   @Override
@@ -387,6 +391,13 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMembershipIndex(this, nestedGroupDN);
+  }
+
+  @Override
+  public Set<DN> getDirectMemberDNs()
+  {
+    return new MemberDnSet();
   }
 
   @Override
@@ -641,6 +652,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMembershipIndex(this, userEntry.getName());
   }
 
   @Override
@@ -681,6 +693,7 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     {
       lock.writeLock().unlock();
     }
+    getGroupManager().updateMembershipIndex(this, userDN);
   }
 
   private ModifyOperation newModifyOperation(ModificationType modType, DN userDN)
@@ -701,6 +714,66 @@ public class StaticGroup extends Group<StaticGroupImplementationCfg>
     buffer.append(")");
   }
 
+  /**
+   * A read-only view of the member DNs of this group. Membership checks do not decode the member DNs, whereas
+   * iterating decodes a snapshot of them.
+   */
+  private final class MemberDnSet extends AbstractSet<DN>
+  {
+    @Override
+    public boolean contains(Object o)
+    {
+      if (!(o instanceof DN))
+      {
+        return false;
+      }
+      CompactDn compactDn = new CompactDn((DN) o);
+      lock.readLock().lock();
+      try
+      {
+        return memberDNs.contains(compactDn);
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+    }
+
+    @Override
+    public Iterator<DN> iterator()
+    {
+      List<DN> dns;
+      lock.readLock().lock();
+      try
+      {
+        dns = new ArrayList<>(memberDNs.size());
+        for (CompactDn compactDn : memberDNs)
+        {
+          dns.add(compactDn.toDn(serverContext));
+        }
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+      return Collections.unmodifiableList(dns).iterator();
+    }
+
+    @Override
+    public int size()
+    {
+      lock.readLock().lock();
+      try
+      {
+        return memberDNs.size();
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
   /**
    * A compact representation of a DN, suitable for equality and comparisons, and providing a natural hierarchical
    * ordering.
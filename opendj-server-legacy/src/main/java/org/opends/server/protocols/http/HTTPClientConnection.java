@@ -326,6 +326,7 @@ final class HTTPClientConnection extends ClientConnection
     {
       this.statTracker.updateRequestMonitoringData(method, time);
       this.statTracker.updateOperationMonitoringData(operation.getOperationType(), time);
+      this.statTracker.updateOperationLatencies(operation);
     }
 
     OperationWithPromise op = this.operationsInProgress.get(operation.getMessageID());
@@ -729,6 +730,12 @@ final class HTTPClientConnection extends ClientConnection
     return connectionValid;
   }
 
+  @Override
+  public boolean isKeepingLatencyHistograms()
+  {
+    return keepStats && statTracker.isLatencyHistogramsEnabled();
+  }
+
   @Override
   public boolean isInnerConnection()
   {
@@ -231,6 +231,7 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
       }
     }
 
+    statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
     this.initConfig = config;
     this.currentConfig = config;
     this.enabled = this.currentConfig.isEnabled();
@@ -439,6 +440,7 @@ public class HTTPConnectionHandler extends ConnectionHandler<HTTPConnectionHandl
 
     // Create and register monitors.
     statTracker = new HTTPStatistics(handlerName + " Statistics");
+    statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
     DirectoryServer.registerMonitorProvider(statTracker);
 
     connMonitor = new ClientConnectionMonitorProvider(this);
@@ -35,13 +35,16 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -147,12 +150,20 @@ public final class LDAPClientConnection extends ClientConnection implements
   }
 
   /**
-   * Channel that writes the contents of the provided buffer to the client,
-   * throwing an exception if the write is unsuccessful for too
-   * long (e.g., if the client is unresponsive or there is a network
-   * problem). If possible, it will attempt to use the selector returned
-   * by the {@code ClientConnection.getWriteSelector} method, but it is
-   * capable of working even if that method returns {@code null}. <BR>
+   * Channel that writes the contents of the provided buffer to the client.
+   * <p>
+   * Once the connection is registered with a request handler, writes never
+   * block on the socket: data which the client cannot accept immediately is
+   * queued and written by the request handler when the socket becomes
+   * writable. Threads writing to the connection only wait when the amount of
+   * queued data exceeds the configured maximum, until the request handler has
+   * written enough of it. An exception is thrown if they have to wait for too
+   * long (e.g., if the client is unresponsive or there is a network problem).
+   * <p>
+   * Before the connection is registered with a request handler, or if queuing
+   * is disabled, writes block until all the data is written, using the
+   * selector returned by the {@code ClientConnection.getWriteSelector} method
+   * if possible. <BR>
    *
    * Note that the original position and limit values will not be
    * preserved, so if that is important to the caller, then it should
@@ -163,6 +174,12 @@ public final class LDAPClientConnection extends ClientConnection implements
   {
     /** Synchronize concurrent writes to the same connection. */
     private final Lock writeLock = new ReentrantLock();
+    /** Signaled when the request handler has written some of the queued data. */
+    private final Condition queuedDataWritten = writeLock.newCondition();
+    /** The data waiting for the client to be ready to accept it, in write order. */
+    private final ArrayDeque<ByteBuffer> queuedData = new ArrayDeque<>();
+    /** The number of bytes in the queued data. */
+    private long queuedBytes;
 
     @Override
     public int read(ByteBuffer byteBuffer) throws IOException
@@ -193,119 +210,310 @@ public final class LDAPClientConnection extends ClientConnection implements
       writeLock.lock();
       try
       {
+        final LDAPRequestHandler handler = requestHandler;
+        final long maxQueuedBytes = connectionHandler.getMaxQueuedWriteSize();
+        if (handler == null || (maxQueuedBytes <= 0 && queuedData.isEmpty()))
+        {
+          return blockingWrite(byteBuffer);
+        }
+
         int bytesToWrite = byteBuffer.remaining();
-        int bytesWritten = clientChannel.write(byteBuffer);
-        if (bytesWritten > 0 && keepStats)
+        if (queuedData.isEmpty())
         {
-          statTracker.updateBytesWritten(bytesWritten);
+          writeToClient(byteBuffer);
+          if (!byteBuffer.hasRemaining())
+          {
+            return bytesToWrite;
+          }
         }
-        if (!byteBuffer.hasRemaining())
+
+        if (queuedBytes > 0 && queuedBytes + byteBuffer.remaining() > maxQueuedBytes)
         {
-          return bytesToWrite;
+          if (Thread.currentThread() == handler)
+          {
+            // The request handler cannot wait for itself to write the queued data.
+            throw new ClosedChannelException();
+          }
+          waitForQueuedDataWritten(maxQueuedBytes - byteBuffer.remaining());
+          if (queuedData.isEmpty())
+          {
+            writeToClient(byteBuffer);
+            if (!byteBuffer.hasRemaining())
+            {
+              return bytesToWrite;
+            }
+          }
         }
 
-        long startTime = System.currentTimeMillis();
-        long waitTime = getMaxBlockedWriteTimeLimit();
-        if (waitTime <= 0)
+        final boolean wasEmpty = queuedData.isEmpty();
+        final ByteBuffer copy = ByteBuffer.allocate(byteBuffer.remaining());
+        copy.put(byteBuffer);
+        copy.flip();
+        queuedData.add(copy);
+        queuedBytes += copy.remaining();
+        if (wasEmpty)
         {
-          // We won't support an infinite time limit, so fall back to using
-          // five minutes, which is a very long timeout given that we're
-          // blocking a worker thread.
-          waitTime = 300000L;
+          handler.registerPendingWrite(LDAPClientConnection.this);
         }
-        long stopTime = startTime + waitTime;
+        return bytesToWrite;
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
 
-        Selector selector = getWriteSelector();
-        if (selector == null)
+    /**
+     * Waits until the amount of queued data drops to the provided threshold,
+     * or the queue is empty.
+     */
+    private void waitForQueuedDataWritten(long threshold) throws IOException
+    {
+      long waitTime = getMaxBlockedWriteTimeLimit();
+      if (waitTime <= 0)
+      {
+        // We won't support an infinite time limit, so fall back to using
+        // five minutes, which is a very long timeout given that we're
+        // blocking a worker thread.
+        waitTime = 300000L;
+      }
+      long remainingNanos = TimeUnit.MILLISECONDS.toNanos(waitTime);
+      try
+      {
+        while (queuedBytes > 0 && queuedBytes > threshold)
         {
-          // The client connection does not provide a selector, so we'll
-          // fall back to a more inefficient way that will work without a
-          // selector.
-          while (byteBuffer.hasRemaining()
-              && System.currentTimeMillis() < stopTime)
+          if (remainingNanos <= 0 || !connectionValid || !clientChannel.isOpen())
           {
-            bytesWritten = clientChannel.write(byteBuffer);
-            if (bytesWritten < 0)
-            {
-              // The client connection has been closed.
-              throw new ClosedChannelException();
-            }
-            if (bytesWritten > 0 && keepStats)
+            // We've been blocked for too long, or the connection was closed.
+            throw new ClosedChannelException();
+          }
+          remainingNanos = queuedDataWritten.awaitNanos(remainingNanos);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new ClosedChannelException();
+      }
+    }
+
+    /**
+     * Writes as much queued data as the client accepts without blocking. This
+     * method is called by the request handler when the socket is writable.
+     *
+     * @return {@code true} if all the queued data has been written
+     */
+    private boolean writeQueuedData() throws IOException
+    {
+      writeLock.lock();
+      try
+      {
+        ByteBuffer buffer;
+        while ((buffer = queuedData.peek()) != null)
+        {
+          queuedBytes -= writeToClient(buffer);
+          queuedDataWritten.signalAll();
+          if (buffer.hasRemaining())
+          {
+            return false;
+          }
+          queuedData.poll();
+        }
+        return true;
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+
+    /**
+     * Writes the queued data before the connection is closed, such as the
+     * notice of disconnection, waiting at most the provided time for the
+     * client to accept it.
+     */
+    private void flushQueuedData(long timeLimit)
+    {
+      writeLock.lock();
+      try
+      {
+        if (queuedData.isEmpty() || !clientChannel.isOpen())
+        {
+          return;
+        }
+        final long stopTime = System.currentTimeMillis() + timeLimit;
+        try (Selector selector = Selector.open())
+        {
+          clientChannel.register(selector, SelectionKey.OP_WRITE);
+          while (!writeQueuedData())
+          {
+            final long waitTime = stopTime - System.currentTimeMillis();
+            if (waitTime <= 0)
             {
-              statTracker.updateBytesWritten(bytesWritten);
+              return;
             }
+            selector.select(waitTime);
+            selector.selectedKeys().clear();
           }
+        }
+      }
+      catch (IOException e)
+      {
+        // The client will not get the queued data.
+        logger.traceException(e);
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
 
-          if (byteBuffer.hasRemaining())
+    /** Wakes up the threads waiting for queued data to be written, for example when the connection is closed. */
+    private void wakeUpWaitingWriters()
+    {
+      writeLock.lock();
+      try
+      {
+        queuedDataWritten.signalAll();
+      }
+      finally
+      {
+        writeLock.unlock();
+      }
+    }
+
+    /** Writes as much of the provided buffer as the client accepts without blocking. */
+    private int writeToClient(ByteBuffer byteBuffer) throws IOException
+    {
+      int bytesWritten = clientChannel.write(byteBuffer);
+      if (bytesWritten < 0)
+      {
+        // The client connection has been closed.
+        throw new ClosedChannelException();
+      }
+      if (bytesWritten > 0 && keepStats)
+      {
+        statTracker.updateBytesWritten(bytesWritten);
+      }
+      return bytesWritten;
+    }
+
+    private int blockingWrite(ByteBuffer byteBuffer) throws IOException
+    {
+      int bytesToWrite = byteBuffer.remaining();
+      int bytesWritten = clientChannel.write(byteBuffer);
+      if (bytesWritten > 0 && keepStats)
+      {
+        statTracker.updateBytesWritten(bytesWritten);
+      }
+      if (!byteBuffer.hasRemaining())
+      {
+        return bytesToWrite;
+      }
+
+      long startTime = System.currentTimeMillis();
+      long waitTime = getMaxBlockedWriteTimeLimit();
+      if (waitTime <= 0)
+      {
+        // We won't support an infinite time limit, so fall back to using
+        // five minutes, which is a very long timeout given that we're
+        // blocking a worker thread.
+        waitTime = 300000L;
+      }
+      long stopTime = startTime + waitTime;
+
+      Selector selector = getWriteSelector();
+      if (selector == null)
+      {
+        // The client connection does not provide a selector, so we'll
+        // fall back to a more inefficient way that will work without a
+        // selector.
+        while (byteBuffer.hasRemaining()
+            && System.currentTimeMillis() < stopTime)
+        {
+          bytesWritten = clientChannel.write(byteBuffer);
+          if (bytesWritten < 0)
           {
-            // If we've gotten here, then the write timed out.
+            // The client connection has been closed.
             throw new ClosedChannelException();
           }
+          if (bytesWritten > 0 && keepStats)
+          {
+            statTracker.updateBytesWritten(bytesWritten);
+          }
+        }
 
-          return bytesToWrite;
+        if (byteBuffer.hasRemaining())
+        {
+          // If we've gotten here, then the write timed out.
+          throw new ClosedChannelException();
         }
 
-        // Register with the selector for handling write operations.
-        SelectionKey key = clientChannel.register(selector,
-            SelectionKey.OP_WRITE);
-        try
+        return bytesToWrite;
+      }
+
+      // Register with the selector for handling write operations.
+      SelectionKey key = clientChannel.register(selector,
+          SelectionKey.OP_WRITE);
+      try
+      {
+        selector.select(waitTime);
+        while (byteBuffer.hasRemaining())
         {
-          selector.select(waitTime);
-          while (byteBuffer.hasRemaining())
+          long currentTime = System.currentTimeMillis();
+          if (currentTime >= stopTime)
           {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime >= stopTime)
-            {
-              // We've been blocked for too long.
-              throw new ClosedChannelException();
-            }
-            waitTime = stopTime - currentTime;
+            // We've been blocked for too long.
+            throw new ClosedChannelException();
+          }
+          waitTime = stopTime - currentTime;
 
-            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
-            while (iterator.hasNext())
+          Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+          while (iterator.hasNext())
+          {
+            SelectionKey k = iterator.next();
+            if (k.isWritable())
             {
-              SelectionKey k = iterator.next();
-              if (k.isWritable())
+              bytesWritten = clientChannel.write(byteBuffer);
+              if (bytesWritten < 0)
               {
-                bytesWritten = clientChannel.write(byteBuffer);
-                if (bytesWritten < 0)
-                {
-                  // The client connection has been closed.
-                  throw new ClosedChannelException();
-                }
-                if (bytesWritten > 0 && keepStats)
-                {
-                  statTracker.updateBytesWritten(bytesWritten);
-                }
-
-                iterator.remove();
+                // The client connection has been closed.
+                throw new ClosedChannelException();
+              }
+              if (bytesWritten > 0 && keepStats)
+              {
+                statTracker.updateBytesWritten(bytesWritten);
               }
-            }
 
-            if (byteBuffer.hasRemaining())
-            {
-              selector.select(waitTime);
+              iterator.remove();
             }
           }
 
-          return bytesToWrite;
-        }
-        finally
-        {
-          if (key.isValid())
+          if (byteBuffer.hasRemaining())
           {
-            key.cancel();
-            selector.selectNow();
+            selector.select(waitTime);
           }
         }
+
+        return bytesToWrite;
       }
       finally
       {
-        writeLock.unlock();
+        if (key.isValid())
+        {
+          key.cancel();
+          selector.selectNow();
+        }
       }
     }
   }
 
+  /**
+   * The maximum time in milliseconds to wait for the client to accept the
+   * queued data when the connection is being closed.
+   */
+  private static final long MAX_DISCONNECT_FLUSH_TIME = 5000L;
+
   /** The tracer object for the debug logger. */
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
@@ -409,8 +617,13 @@ public final class LDAPClientConnection extends ClientConnection implements
 
   /** The socket channel with which this client connection is associated. */
   private final SocketChannel clientChannel;
-  /** The byte channel used for blocking writes with time out. */
-  private final ByteChannel timeoutClientChannel;
+  /** The byte channel used for writes with time out. */
+  private final TimeoutWriteByteChannel timeoutClientChannel;
+  /**
+   * The request handler which reads requests from this connection and writes
+   * queued data to it, or {@code null} if the connection is not registered yet.
+   */
+  private volatile LDAPRequestHandler requestHandler;
 
   /** The string representation of the address of the client. */
   private final String clientAddress;
@@ -525,6 +738,33 @@ public final class LDAPClientConnection extends ClientConnection implements
     return clientChannel;
   }
 
+  /**
+   * Associates this connection with the request handler which reads its
+   * requests. From then on, data which cannot be written to the client
+   * immediately is queued and written by the request handler.
+   *
+   * @param requestHandler
+   *          The request handler with which this connection is registered.
+   */
+  void setRequestHandler(LDAPRequestHandler requestHandler)
+  {
+    this.requestHandler = requestHandler;
+  }
+
+  /**
+   * Writes as much queued data as the client accepts without blocking. This
+   * method is called by the request handler when the socket is writable.
+   *
+   * @return {@code true} if all the queued data has been written, or
+   *         {@code false} if some data is still waiting for the client.
+   * @throws IOException
+   *           If an error occurs while writing to the client.
+   */
+  boolean processDataWrite() throws IOException
+  {
+    return timeoutClientChannel.writeQueuedData();
+  }
+
   /**
    * Retrieves the protocol that the client is using to communicate with
    * the Directory Server.
@@ -619,6 +859,12 @@ public final class LDAPClientConnection extends ClientConnection implements
     return this.connectionValid;
   }
 
+  @Override
+  public boolean isKeepingLatencyHistograms()
+  {
+    return keepStats && statTracker.isLatencyHistogramsEnabled();
+  }
+
   /**
    * Indicates whether this client connection is currently using a
    * secure mechanism to communicate with the server. Note that this may
@@ -672,6 +918,7 @@ public final class LDAPClientConnection extends ClientConnection implements
         this.statTracker.updateOperationMonitoringData(
                 operation.getOperationType(),
                 time);
+        this.statTracker.updateOperationLatencies(operation);
     }
 
     // Avoid sending the response if one has already been sent. This may happen
@@ -1004,6 +1251,7 @@ public final class LDAPClientConnection extends ClientConnection implements
 
     // Indicate that this connection is no longer valid.
     connectionValid = false;
+    timeoutClientChannel.wakeUpWaitingWriters();
 
     final LocalizableMessage cancelMessage;
     if (message != null)
@@ -1049,6 +1297,11 @@ public final class LDAPClientConnection extends ClientConnection implements
       }
     }
 
+    // Give the client a chance to receive the data which is still queued,
+    // without stalling the other connections of the request handler.
+    timeoutClientChannel.flushQueuedData(
+        Thread.currentThread() == requestHandler ? 0 : MAX_DISCONNECT_FLUSH_TIME);
+
     // Enqueue the connection channels for closing by the finalizer.
     Runnable r = new ConnectionFinalizerJob(asn1Reader, clientChannel);
     connectionHandler.registerConnectionFinalizer(r);
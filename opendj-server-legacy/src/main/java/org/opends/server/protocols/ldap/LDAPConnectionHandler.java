@@ -286,6 +286,7 @@ public final class LDAPConnectionHandler extends
     }
 
     // Apply the changes.
+    statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
     currentConfig = config;
     enabled = config.isEnabled();
     allowedClients = config.getAllowedClient();
@@ -527,6 +528,18 @@ public final class LDAPConnectionHandler extends
     return (int) currentConfig.getBufferSize();
   }
 
+  /**
+   * Retrieves the maximum amount of response data in bytes which can be
+   * queued for a client connection which is not ready to accept it.
+   *
+   * @return The maximum amount of response data in bytes which can be queued
+   *         for a client connection, or zero if writes should not be queued.
+   */
+  public long getMaxQueuedWriteSize()
+  {
+    return currentConfig.getMaxQueuedWriteSize();
+  }
+
   @Override
   public String getProtocol()
   {
@@ -672,6 +685,7 @@ public final class LDAPConnectionHandler extends
 
     // Create and register monitors.
     statTracker = new LDAPStatistics(handlerName + " Statistics");
+    statTracker.setLatencyHistogramsEnabled(config.isKeepLatencyHistograms());
     DirectoryServer.registerMonitorProvider(statTracker);
 
     connMonitor = new ClientConnectionMonitorProvider(this);
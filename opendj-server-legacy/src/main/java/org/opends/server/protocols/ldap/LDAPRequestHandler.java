@@ -30,6 +30,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -68,6 +69,8 @@ public class LDAPRequestHandler
 
   /** Lock object for synchronizing access to the pending connections queue. */
   private final Object pendingConnectionsLock = new Object();
+  /** The connections which have queued data waiting for their socket to be writable. */
+  private final ConcurrentLinkedQueue<LDAPClientConnection> pendingWriteConnections = new ConcurrentLinkedQueue<>();
   /** The list of connections ready for request processing. */
   private final LinkedList<LDAPClientConnection> readyConnections = new LinkedList<>();
   /** The selector that will be used to monitor the client connections. */
@@ -221,6 +224,7 @@ public class LDAPRequestHandler
             SocketChannel socketChannel = c.getSocketChannel();
             socketChannel.configureBlocking(false);
             socketChannel.register(selector, SelectionKey.OP_READ, c);
+            c.setRequestHandler(this);
             logConnect(c);
           }
           catch (Exception e)
@@ -233,6 +237,25 @@ public class LDAPRequestHandler
         }
       }
 
+      // Watch for the sockets of connections with queued data becoming writable.
+      LDAPClientConnection writeConnection;
+      while ((writeConnection = pendingWriteConnections.poll()) != null)
+      {
+        SelectionKey key = writeConnection.getSocketChannel().keyFor(selector);
+        try
+        {
+          if (key != null && key.isValid())
+          {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          }
+        }
+        catch (CancelledKeyException cke)
+        {
+          // The connection was closed in the meantime.
+          logger.traceException(cke);
+        }
+      }
+
       // Create a copy of the selection keys which can be used in a
       // thread-safe manner by getClientConnections. This copy is only
       // updated once per loop, so may not be accurate.
@@ -266,6 +289,11 @@ public class LDAPRequestHandler
 
           try
           {
+            if (key.isValid() && key.isWritable())
+            {
+              processDataWrite(key);
+            }
+
             if (key.isReadable())
             {
               LDAPClientConnection clientConnection = null;
@@ -390,6 +418,50 @@ public class LDAPRequestHandler
 
 
 
+  /** Writes the data queued by the connection of the provided key, now that its socket is writable. */
+  private void processDataWrite(SelectionKey key)
+  {
+    LDAPClientConnection clientConnection = (LDAPClientConnection) key.attachment();
+    try
+    {
+      if (clientConnection.processDataWrite())
+      {
+        // All the queued data has been written: stop watching for
+        // writability until the connection queues data again.
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+    }
+    catch (CancelledKeyException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      key.cancel();
+      clientConnection.disconnect(DisconnectReason.IO_ERROR, false,
+          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+  }
+
+
+
+  /**
+   * Registers the provided client connection as having data waiting for its
+   * socket to be writable, so that this request handler writes the data as
+   * soon as the client is ready to accept it.
+   *
+   * @param clientConnection
+   *          The client connection which has queued data.
+   */
+  void registerPendingWrite(LDAPClientConnection clientConnection)
+  {
+    pendingWriteConnections.add(clientConnection);
+    selector.wakeup();
+  }
+
+
+
   /**
    * Registers the provided client connection with this request
    * handler so that any requests received from that client will be
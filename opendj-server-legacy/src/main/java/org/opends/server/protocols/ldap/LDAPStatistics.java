@@ -19,17 +19,25 @@ package org.opends.server.protocols.ldap;
 import static org.opends.messages.ProtocolMessages.*;
 import static org.opends.server.protocols.ldap.LDAPConstants.*;
 import static org.opends.server.util.ServerConstants.*;
+import static org.opends.server.util.StaticUtils.*;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.schema.ObjectClass;
 import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
 import org.opends.server.api.MonitorData;
 import org.opends.server.api.MonitorProvider;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Operation;
 import org.opends.server.types.OperationType;
+import org.opends.server.util.Histogram;
+import org.opends.server.util.StripedCounter;
+import org.opends.server.util.StripedHistogram;
 
 /**
  * This class defines a data structure that will be used to keep track
@@ -46,6 +54,9 @@ import org.opends.server.types.OperationType;
  * broken down by message type.</LI>
  * <LI>The total number of bytes read from LDAP clients.</LI>
  * <LI>The total number of bytes written to LDAP clients.</LI>
+ * <LI>Optionally, the distribution of the time operations waited in the
+ * work queue and of their processing time, broken down by operation type
+ * and by result code.</LI>
  * </UL>
  * <BR>
  * <BR>
@@ -57,64 +68,131 @@ import org.opends.server.types.OperationType;
 public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 {
 
-  // The statistics maintained by this class.
-  private AtomicLong abandonRequests = new AtomicLong(0);
-  private AtomicLong addRequests = new AtomicLong(0);
-  private AtomicLong bindRequests = new AtomicLong(0);
-  private AtomicLong addResponses = new AtomicLong(0);
-  private AtomicLong bindResponses = new AtomicLong(0);
-  private AtomicLong bytesRead = new AtomicLong(0);
-  private AtomicLong bytesWritten = new AtomicLong(0);
-  private AtomicLong compareRequests = new AtomicLong(0);
-  private AtomicLong compareResponses = new AtomicLong(0);
-  private AtomicLong connectionsClosed = new AtomicLong(0);
-  private AtomicLong connectionsEstablished = new AtomicLong(0);
-  private AtomicLong deleteRequests = new AtomicLong(0);
-  private AtomicLong deleteResponses = new AtomicLong(0);
-  private AtomicLong extendedRequests = new AtomicLong(0);
-  private AtomicLong extendedResponses = new AtomicLong(0);
-  private AtomicLong messagesRead = new AtomicLong(0);
-  private AtomicLong messagesWritten = new AtomicLong(0);
-  private AtomicLong modifyRequests = new AtomicLong(0);
-  private AtomicLong modifyResponses = new AtomicLong(0);
-  private AtomicLong modifyDNRequests = new AtomicLong(0);
-  private AtomicLong modifyDNResponses = new AtomicLong(0);
-  private AtomicLong operationsAbandoned = new AtomicLong(0);
-  private AtomicLong operationsCompleted = new AtomicLong(0);
-  private AtomicLong operationsInitiated = new AtomicLong(0);
-  private AtomicLong searchRequests = new AtomicLong(0);
-  private AtomicLong searchOneRequests = new AtomicLong(0);
-  private AtomicLong searchSubRequests = new AtomicLong(0);
-  private AtomicLong searchResultEntries = new AtomicLong(0);
-  private AtomicLong searchResultReferences = new AtomicLong(0);
-  private AtomicLong searchResultsDone = new AtomicLong(0);
-  private AtomicLong unbindRequests = new AtomicLong(0);
+  // The statistics maintained by this class. They are updated by all the
+  // connections of a connection handler for each message, so they are striped
+  // to avoid contention and only summed when the monitor entry is read.
+  private final StripedCounter abandonRequests = new StripedCounter();
+  private final StripedCounter addRequests = new StripedCounter();
+  private final StripedCounter bindRequests = new StripedCounter();
+  private final StripedCounter addResponses = new StripedCounter();
+  private final StripedCounter bindResponses = new StripedCounter();
+  private final StripedCounter bytesRead = new StripedCounter();
+  private final StripedCounter bytesWritten = new StripedCounter();
+  private final StripedCounter compareRequests = new StripedCounter();
+  private final StripedCounter compareResponses = new StripedCounter();
+  private final StripedCounter connectionsClosed = new StripedCounter();
+  private final StripedCounter connectionsEstablished = new StripedCounter();
+  private final StripedCounter deleteRequests = new StripedCounter();
+  private final StripedCounter deleteResponses = new StripedCounter();
+  private final StripedCounter extendedRequests = new StripedCounter();
+  private final StripedCounter extendedResponses = new StripedCounter();
+  private final StripedCounter messagesRead = new StripedCounter();
+  private final StripedCounter messagesWritten = new StripedCounter();
+  private final StripedCounter modifyRequests = new StripedCounter();
+  private final StripedCounter modifyResponses = new StripedCounter();
+  private final StripedCounter modifyDNRequests = new StripedCounter();
+  private final StripedCounter modifyDNResponses = new StripedCounter();
+  private final StripedCounter operationsAbandoned = new StripedCounter();
+  private final StripedCounter operationsCompleted = new StripedCounter();
+  private final StripedCounter operationsInitiated = new StripedCounter();
+  private final StripedCounter searchRequests = new StripedCounter();
+  private final StripedCounter searchOneRequests = new StripedCounter();
+  private final StripedCounter searchSubRequests = new StripedCounter();
+  private final StripedCounter searchResultEntries = new StripedCounter();
+  private final StripedCounter searchResultReferences = new StripedCounter();
+  private final StripedCounter searchResultsDone = new StripedCounter();
+  private final StripedCounter unbindRequests = new StripedCounter();
 
 
   /** The instance name for this monitor provider instance. */
   private final String instanceName;
 
   // Monitor Objects : for Operations (count and time)
-  private AtomicLong addOperationCount = new AtomicLong(0);
-  private AtomicLong addOperationTime = new AtomicLong(0);
-  private AtomicLong searchOperationCount = new AtomicLong(0);
-  private AtomicLong searchOperationTime = new AtomicLong(0);
-  private AtomicLong delOperationCount = new AtomicLong(0);
-  private AtomicLong delOperationTime = new AtomicLong(0);
-  private AtomicLong bindOperationCount = new AtomicLong(0);
-  private AtomicLong bindOperationTime = new AtomicLong(0);
-  private AtomicLong unbindOperationCount = new AtomicLong(0);
-  private AtomicLong unbindOperationTime = new AtomicLong(0);
-  private AtomicLong compOperationCount = new AtomicLong(0);
-  private AtomicLong compOperationTime = new AtomicLong(0);
-  private AtomicLong modOperationCount = new AtomicLong(0);
-  private AtomicLong modOperationTime = new AtomicLong(0);
-  private AtomicLong moddnOperationCount = new AtomicLong(0);
-  private AtomicLong moddnOperationTime = new AtomicLong(0);
-  private AtomicLong abandonOperationCount = new AtomicLong(0);
-  private AtomicLong abandonOperationTime = new AtomicLong(0);
-  private AtomicLong extOperationCount = new AtomicLong(0);
-  private AtomicLong extOperationTime = new AtomicLong(0);
+  private final StripedCounter addOperationCount = new StripedCounter();
+  private final StripedCounter addOperationTime = new StripedCounter();
+  private final StripedCounter searchOperationCount = new StripedCounter();
+  private final StripedCounter searchOperationTime = new StripedCounter();
+  private final StripedCounter delOperationCount = new StripedCounter();
+  private final StripedCounter delOperationTime = new StripedCounter();
+  private final StripedCounter bindOperationCount = new StripedCounter();
+  private final StripedCounter bindOperationTime = new StripedCounter();
+  private final StripedCounter unbindOperationCount = new StripedCounter();
+  private final StripedCounter unbindOperationTime = new StripedCounter();
+  private final StripedCounter compOperationCount = new StripedCounter();
+  private final StripedCounter compOperationTime = new StripedCounter();
+  private final StripedCounter modOperationCount = new StripedCounter();
+  private final StripedCounter modOperationTime = new StripedCounter();
+  private final StripedCounter moddnOperationCount = new StripedCounter();
+  private final StripedCounter moddnOperationTime = new StripedCounter();
+  private final StripedCounter abandonOperationCount = new StripedCounter();
+  private final StripedCounter abandonOperationTime = new StripedCounter();
+  private final StripedCounter extOperationCount = new StripedCounter();
+  private final StripedCounter extOperationTime = new StripedCounter();
+
+  /**
+   * The number of buckets of the latency histograms. The latencies are recorded
+   * in microseconds, the last bucket counting those above 2^30us (about 18 minutes).
+   */
+  private static final int NB_LATENCY_BUCKETS = 32;
+  /** The percentiles of the latencies published in the monitor entry. */
+  private static final double[] LATENCY_PERCENTILES = { 50, 90, 99, 99.9 };
+
+  /** The latency histograms, {@code null} when they are not kept. */
+  private volatile OperationLatencies latencies;
+
+  /** Latency histograms in microseconds, by operation type and by result code. */
+  private static final class OperationLatencies
+  {
+    private final StripedHistogram[] queueingTimes = newHistograms(OperationType.values().length);
+    private final StripedHistogram[] processingTimes = newHistograms(OperationType.values().length);
+    private final ConcurrentMap<Integer, StripedHistogram> processingTimesByResultCode = new ConcurrentHashMap<>();
+
+    private static StripedHistogram[] newHistograms(int nb)
+    {
+      final StripedHistogram[] histograms = new StripedHistogram[nb];
+      for (int i = 0; i < nb; i++)
+      {
+        histograms[i] = new StripedHistogram(NB_LATENCY_BUCKETS);
+      }
+      return histograms;
+    }
+
+    private void record(Operation operation)
+    {
+      final int type = operation.getOperationType().ordinal();
+      final long queueingNanos = operation.getQueueingNanoTime();
+      if (queueingNanos >= 0)
+      {
+        queueingTimes[type].record(queueingNanos / 1000);
+      }
+
+      final long processingNanos = operation.getProcessingNanoTime();
+      final long processingMicros =
+          processingNanos >= 0 ? processingNanos / 1000 : operation.getProcessingTime() * 1000;
+      processingTimes[type].record(processingMicros);
+
+      final ResultCode resultCode = operation.getResultCode();
+      if (resultCode != null)
+      {
+        getProcessingTimes(resultCode.intValue()).record(processingMicros);
+      }
+    }
+
+    private StripedHistogram getProcessingTimes(int resultCode)
+    {
+      StripedHistogram histogram = processingTimesByResultCode.get(resultCode);
+      if (histogram == null)
+      {
+        histogram = new StripedHistogram(NB_LATENCY_BUCKETS);
+        final StripedHistogram existing = processingTimesByResultCode.putIfAbsent(resultCode, histogram);
+        if (existing != null)
+        {
+          histogram = existing;
+        }
+      }
+      return histogram;
+    }
+  }
 
   /**
    * Creates a new instance of this class with the specified parent.
@@ -168,136 +246,252 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
      *        OC_MONITOR_CONNHANDLERSTATS
      */
     final MonitorData attrs = new MonitorData(31 + 10 * 2);
-    attrs.add("connectionsEstablished", connectionsEstablished);
-    attrs.add("connectionsClosed", connectionsClosed);
-    attrs.add("bytesRead", bytesRead);
-    attrs.add("bytesWritten", bytesWritten);
-    attrs.add("ldapMessagesRead", messagesRead);
-    attrs.add("ldapMessagesWritten", messagesWritten);
-    attrs.add("operationsAbandoned", operationsAbandoned);
-    attrs.add("operationsInitiated", operationsInitiated);
-    attrs.add("operationsCompleted", operationsCompleted);
-    attrs.add("abandonRequests", abandonRequests);
-    attrs.add("addRequests", addRequests);
-    attrs.add("addResponses", addResponses);
-    attrs.add("bindRequests", bindRequests);
-    attrs.add("bindResponses", bindResponses);
-    attrs.add("compareRequests", compareRequests);
-    attrs.add("compareResponses", compareResponses);
-    attrs.add("deleteRequests", deleteRequests);
-    attrs.add("deleteResponses", deleteResponses);
-    attrs.add("extendedRequests", extendedRequests);
-    attrs.add("extendedResponses", extendedResponses);
-    attrs.add("modifyRequests", modifyRequests);
-    attrs.add("modifyResponses", modifyResponses);
-    attrs.add("modifyDNRequests", modifyDNRequests);
-    attrs.add("modifyDNResponses", modifyDNResponses);
-    attrs.add("searchRequests", searchRequests);
-    attrs.add("searchOneRequests", searchOneRequests);
-    attrs.add("searchSubRequests", searchSubRequests);
-    attrs.add("searchResultEntries", searchResultEntries);
-    attrs.add("searchResultReferences", searchResultReferences);
-    attrs.add("searchResultsDone", searchResultsDone);
-    attrs.add("unbindRequests", unbindRequests);
+    attrs.add("connectionsEstablished", connectionsEstablished.sum());
+    attrs.add("connectionsClosed", connectionsClosed.sum());
+    attrs.add("bytesRead", bytesRead.sum());
+    attrs.add("bytesWritten", bytesWritten.sum());
+    attrs.add("ldapMessagesRead", messagesRead.sum());
+    attrs.add("ldapMessagesWritten", messagesWritten.sum());
+    attrs.add("operationsAbandoned", operationsAbandoned.sum());
+    attrs.add("operationsInitiated", operationsInitiated.sum());
+    attrs.add("operationsCompleted", operationsCompleted.sum());
+    attrs.add("abandonRequests", abandonRequests.sum());
+    attrs.add("addRequests", addRequests.sum());
+    attrs.add("addResponses", addResponses.sum());
+    attrs.add("bindRequests", bindRequests.sum());
+    attrs.add("bindResponses", bindResponses.sum());
+    attrs.add("compareRequests", compareRequests.sum());
+    attrs.add("compareResponses", compareResponses.sum());
+    attrs.add("deleteRequests", deleteRequests.sum());
+    attrs.add("deleteResponses", deleteResponses.sum());
+    attrs.add("extendedRequests", extendedRequests.sum());
+    attrs.add("extendedResponses", extendedResponses.sum());
+    attrs.add("modifyRequests", modifyRequests.sum());
+    attrs.add("modifyResponses", modifyResponses.sum());
+    attrs.add("modifyDNRequests", modifyDNRequests.sum());
+    attrs.add("modifyDNResponses", modifyDNResponses.sum());
+    attrs.add("searchRequests", searchRequests.sum());
+    attrs.add("searchOneRequests", searchOneRequests.sum());
+    attrs.add("searchSubRequests", searchSubRequests.sum());
+    attrs.add("searchResultEntries", searchResultEntries.sum());
+    attrs.add("searchResultReferences", searchResultReferences.sum());
+    attrs.add("searchResultsDone", searchResultsDone.sum());
+    attrs.add("unbindRequests", unbindRequests.sum());
 
     // adds
-    attrs.add("ds-mon-add-operations-total-count", addOperationCount);
-    attrs.add("ds-mon-resident-time-add-operations-total-time", addOperationTime);
+    attrs.add("ds-mon-add-operations-total-count", addOperationCount.sum());
+    attrs.add("ds-mon-resident-time-add-operations-total-time", addOperationTime.sum());
 
     // search
-    attrs.add("ds-mon-search-operations-total-count", searchOperationCount);
-    attrs.add("ds-mon-resident-time-search-operations-total-time", searchOperationTime);
+    attrs.add("ds-mon-search-operations-total-count", searchOperationCount.sum());
+    attrs.add("ds-mon-resident-time-search-operations-total-time", searchOperationTime.sum());
 
     // bind
-    attrs.add("ds-mon-bind-operations-total-count", bindOperationCount);
-    attrs.add("ds-mon-resident-time-bind-operations-total-time", bindOperationTime);
+    attrs.add("ds-mon-bind-operations-total-count", bindOperationCount.sum());
+    attrs.add("ds-mon-resident-time-bind-operations-total-time", bindOperationTime.sum());
 
     // unbind
-    attrs.add("ds-mon-unbind-operations-total-count", unbindOperationCount);
-    attrs.add("ds-mon-resident-time-unbind-operations-total-time", unbindOperationTime);
+    attrs.add("ds-mon-unbind-operations-total-count", unbindOperationCount.sum());
+    attrs.add("ds-mon-resident-time-unbind-operations-total-time", unbindOperationTime.sum());
 
     // compare
-    attrs.add("ds-mon-compare-operations-total-count", compOperationCount);
-    attrs.add("ds-mon-resident-time-compare-operations-total-time", compOperationTime);
+    attrs.add("ds-mon-compare-operations-total-count", compOperationCount.sum());
+    attrs.add("ds-mon-resident-time-compare-operations-total-time", compOperationTime.sum());
 
     // del
-    attrs.add("ds-mon-delete-operations-total-count", delOperationCount);
-    attrs.add("ds-mon-resident-time-delete-operations-total-time", delOperationTime);
+    attrs.add("ds-mon-delete-operations-total-count", delOperationCount.sum());
+    attrs.add("ds-mon-resident-time-delete-operations-total-time", delOperationTime.sum());
 
     // mod
-    attrs.add("ds-mon-mod-operations-total-count", modOperationCount);
-    attrs.add("ds-mon-resident-time-mod-operations-total-time", modOperationTime);
+    attrs.add("ds-mon-mod-operations-total-count", modOperationCount.sum());
+    attrs.add("ds-mon-resident-time-mod-operations-total-time", modOperationTime.sum());
 
     // moddn
-    attrs.add("ds-mon-moddn-operations-total-count", moddnOperationCount);
-    attrs.add("ds-mon-resident-time-moddn-operations-total-time", moddnOperationTime);
+    attrs.add("ds-mon-moddn-operations-total-count", moddnOperationCount.sum());
+    attrs.add("ds-mon-resident-time-moddn-operations-total-time", moddnOperationTime.sum());
 
     // abandon
-    attrs.add("ds-mon-abandon-operations-total-count", abandonOperationCount);
-    attrs.add("ds-mon-resident-time-abandon-operations-total-time", abandonOperationTime);
+    attrs.add("ds-mon-abandon-operations-total-count", abandonOperationCount.sum());
+    attrs.add("ds-mon-resident-time-abandon-operations-total-time", abandonOperationTime.sum());
 
     // extended
-    attrs.add("ds-mon-extended-operations-total-count", extOperationCount);
-    attrs.add("ds-mon-resident-time-extended-operations-total-time", extOperationTime);
+    attrs.add("ds-mon-extended-operations-total-count", extOperationCount.sum());
+    attrs.add("ds-mon-resident-time-extended-operations-total-time", extOperationTime.sum());
+
+    final OperationLatencies currentLatencies = latencies;
+    if (currentLatencies != null)
+    {
+      for (OperationType type : OperationType.values())
+      {
+        final String name = getMonitorName(type);
+        addLatencies(attrs, "ds-mon-queue-time-" + name + "-operations",
+            currentLatencies.queueingTimes[type.ordinal()].getCounts());
+        addLatencies(attrs, "ds-mon-resident-time-" + name + "-operations",
+            currentLatencies.processingTimes[type.ordinal()].getCounts());
+      }
+      for (Map.Entry<Integer, StripedHistogram> entry : currentLatencies.processingTimesByResultCode.entrySet())
+      {
+        addLatencies(attrs, "ds-mon-resident-time-result-code-" + entry.getKey() + "-operations",
+            entry.getValue().getCounts());
+      }
+    }
 
     return attrs;
   }
 
+  /** Returns the name of the operation type used in the monitor attribute names. */
+  private static String getMonitorName(OperationType type)
+  {
+    switch (type)
+    {
+    case MODIFY:
+      return "mod";
+    case MODIFY_DN:
+      return "moddn";
+    default:
+      return toLowerCase(type.name());
+    }
+  }
+
+  /**
+   * Adds the percentiles, in microseconds, and the histogram of the provided
+   * latencies under attribute names starting with the provided prefix.
+   */
+  private static void addLatencies(MonitorData attrs, String prefix, long[] counts)
+  {
+    final long count = sum(counts);
+    if (count == 0)
+    {
+      return;
+    }
+    attrs.add(prefix + "-latency-count", count);
+    for (double percentile : LATENCY_PERCENTILES)
+    {
+      final String name = percentile == (long) percentile
+          ? Long.toString((long) percentile)
+          : Double.toString(percentile).replace(".", "");
+      attrs.add(prefix + "-latency-p" + name, Histogram.percentile(counts, percentile));
+    }
+    attrs.add(prefix + "-latency-histogram", Histogram.toMonitorValues(counts, "us"));
+  }
+
+  private static long sum(long[] counts)
+  {
+    long sum = 0;
+    for (long count : counts)
+    {
+      sum += count;
+    }
+    return sum;
+  }
+
+  /**
+   * Indicates whether histograms of the latencies of the operations should be
+   * kept. Keeping them costs a few atomic increments and timestamps per
+   * operation, whereas not keeping them costs two volatile reads: one when the
+   * operation is created and one when its response is sent.
+   *
+   * @param enabled
+   *          {@code true} if the latency histograms should be kept
+   */
+  public void setLatencyHistogramsEnabled(boolean enabled)
+  {
+    if (!enabled)
+    {
+      latencies = null;
+    }
+    else if (latencies == null)
+    {
+      latencies = new OperationLatencies();
+    }
+  }
+
+  /**
+   * Indicates whether histograms of the latencies of the operations are kept.
+   *
+   * @return {@code true} if the latency histograms are kept
+   */
+  public boolean isLatencyHistogramsEnabled()
+  {
+    return latencies != null;
+  }
+
+  /**
+   * Records in the latency histograms, if they are kept, the time the provided
+   * operation waited before being processed and its processing time.
+   *
+   * @param operation
+   *          the operation for which a response has been sent
+   */
+  public void updateOperationLatencies(Operation operation)
+  {
+    final OperationLatencies currentLatencies = latencies;
+    if (currentLatencies != null)
+    {
+      currentLatencies.record(operation);
+    }
+  }
+
   /** Clears any statistical information collected to this point. */
   public void clearStatistics()
   {
-      abandonRequests.set(0);
-      addRequests.set(0);
-      addResponses.set(0);
-      bindRequests.set(0);
-      bindResponses.set(0);
-      bytesRead.set(0);
-      bytesWritten.set(0);
-      compareRequests.set(0);
-      compareResponses.set(0);
-      connectionsClosed.set(0);
-      connectionsEstablished.set(0);
-      deleteRequests.set(0);
-      deleteResponses.set(0);
-      extendedRequests.set(0);
-      extendedResponses.set(0);
-      messagesRead.set(0);
-      messagesWritten.set(0);
-      modifyRequests.set(0);
-      modifyResponses.set(0);
-      modifyDNRequests.set(0);
-      modifyDNResponses.set(0);
-      operationsAbandoned.set(0);
-      operationsCompleted.set(0);
-      operationsInitiated.set(0);
-      searchRequests.set(0);
-      searchOneRequests.set(0);
-      searchSubRequests.set(0);
-      searchResultEntries.set(0);
-      searchResultReferences.set(0);
-      searchResultsDone.set(0);
-      unbindRequests.set(0);
-
-      addOperationCount.set(0);
-      addOperationTime.set(0);
-      searchOperationCount.set(0);
-      searchOperationTime.set(0);
-      delOperationCount.set(0);
-      delOperationTime.set(0);
-      bindOperationCount.set(0);
-      bindOperationTime.set(0);
-      unbindOperationCount.set(0);
-      unbindOperationTime.set(0);
-      compOperationCount.set(0);
-      compOperationTime.set(0);
-      modOperationCount.set(0);
-      modOperationTime.set(0);
-      moddnOperationCount.set(0);
-      moddnOperationTime.set(0);
-      abandonOperationCount.set(0);
-      abandonOperationTime.set(0);
-      extOperationCount.set(0);
-      extOperationTime.set(0);
+      abandonRequests.reset();
+      addRequests.reset();
+      addResponses.reset();
+      bindRequests.reset();
+      bindResponses.reset();
+      bytesRead.reset();
+      bytesWritten.reset();
+      compareRequests.reset();
+      compareResponses.reset();
+      connectionsClosed.reset();
+      connectionsEstablished.reset();
+      deleteRequests.reset();
+      deleteResponses.reset();
+      extendedRequests.reset();
+      extendedResponses.reset();
+      messagesRead.reset();
+      messagesWritten.reset();
+      modifyRequests.reset();
+      modifyResponses.reset();
+      modifyDNRequests.reset();
+      modifyDNResponses.reset();
+      operationsAbandoned.reset();
+      operationsCompleted.reset();
+      operationsInitiated.reset();
+      searchRequests.reset();
+      searchOneRequests.reset();
+      searchSubRequests.reset();
+      searchResultEntries.reset();
+      searchResultReferences.reset();
+      searchResultsDone.reset();
+      unbindRequests.reset();
+
+      addOperationCount.reset();
+      addOperationTime.reset();
+      searchOperationCount.reset();
+      searchOperationTime.reset();
+      delOperationCount.reset();
+      delOperationTime.reset();
+      bindOperationCount.reset();
+      bindOperationTime.reset();
+      unbindOperationCount.reset();
+      unbindOperationTime.reset();
+      compOperationCount.reset();
+      compOperationTime.reset();
+      modOperationCount.reset();
+      modOperationTime.reset();
+      moddnOperationCount.reset();
+      moddnOperationTime.reset();
+      abandonOperationCount.reset();
+      abandonOperationTime.reset();
+      extOperationCount.reset();
+      extOperationTime.reset();
+
+      if (latencies != null)
+      {
+        latencies = new OperationLatencies();
+      }
   }
 
   /**
@@ -306,13 +500,13 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public void updateConnect()
   {
-    connectionsEstablished.getAndIncrement();
+    connectionsEstablished.increment();
   }
 
   /** Updates the appropriate set of counters to indicate that a connection has been closed. */
   public void updateDisconnect()
   {
-      connectionsClosed.getAndIncrement();
+      connectionsClosed.increment();
   }
 
   /**
@@ -324,7 +518,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public void updateBytesRead(int bytesRead)
   {
-     this.bytesRead.getAndAdd(bytesRead);
+     this.bytesRead.add(bytesRead);
   }
 
   /**
@@ -336,7 +530,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public void updateBytesWritten(int bytesWritten)
   {
-     this.bytesWritten.getAndAdd(bytesWritten);
+     this.bytesWritten.add(bytesWritten);
   }
 
   /**
@@ -348,37 +542,37 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public void updateMessageRead(LDAPMessage message)
   {
-      messagesRead.getAndIncrement();
-      operationsInitiated.getAndIncrement();
+      messagesRead.increment();
+      operationsInitiated.increment();
 
       switch (message.getProtocolOp().getType())
       {
       case OP_TYPE_ABANDON_REQUEST:
-        abandonRequests.getAndIncrement();
+        abandonRequests.increment();
         break;
       case OP_TYPE_ADD_REQUEST:
-        addRequests.getAndIncrement();
+        addRequests.increment();
         break;
       case OP_TYPE_BIND_REQUEST:
-        bindRequests.getAndIncrement();
+        bindRequests.increment();
         break;
       case OP_TYPE_COMPARE_REQUEST:
-        compareRequests.getAndIncrement();
+        compareRequests.increment();
         break;
       case OP_TYPE_DELETE_REQUEST:
-        deleteRequests.getAndIncrement();
+        deleteRequests.increment();
         break;
       case OP_TYPE_EXTENDED_REQUEST:
-        extendedRequests.getAndIncrement();
+        extendedRequests.increment();
         break;
       case OP_TYPE_MODIFY_REQUEST:
-        modifyRequests.getAndIncrement();
+        modifyRequests.increment();
         break;
       case OP_TYPE_MODIFY_DN_REQUEST:
-        modifyDNRequests.getAndIncrement();
+        modifyDNRequests.increment();
         break;
       case OP_TYPE_SEARCH_REQUEST:
-        searchRequests.getAndIncrement();
+        searchRequests.increment();
         SearchRequestProtocolOp s = (SearchRequestProtocolOp)message
             .getProtocolOp();
         switch (s.getScope().asEnum())
@@ -388,17 +582,17 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
             // this value can be derived from the others
             break;
         case SINGLE_LEVEL:
-            searchOneRequests.getAndIncrement();
+            searchOneRequests.increment();
             break;
         case WHOLE_SUBTREE:
-            searchSubRequests.getAndIncrement();
+            searchSubRequests.increment();
             break;
         default:
             break;
         }
         break;
       case OP_TYPE_UNBIND_REQUEST:
-        unbindRequests.getAndIncrement();
+        unbindRequests.increment();
         break;
       }
   }
@@ -413,52 +607,52 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    *          The message id that was written to the client
    */
   public void updateMessageWritten(byte messageType, int messageId) {
-      messagesWritten.getAndIncrement();
+      messagesWritten.increment();
       switch (messageType)
       {
       case OP_TYPE_ADD_RESPONSE:
-        addResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        addResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_BIND_RESPONSE:
-        bindResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        bindResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_COMPARE_RESPONSE:
-        compareResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        compareResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_DELETE_RESPONSE:
-        deleteResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        deleteResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_EXTENDED_RESPONSE:
-        extendedResponses.getAndIncrement();
+        extendedResponses.increment();
 
         // We don't want to include unsolicited notifications as
         // "completed" operations.
         if (messageId > 0)
         {
-          operationsCompleted.getAndIncrement();
+          operationsCompleted.increment();
         }
         break;
       case OP_TYPE_MODIFY_RESPONSE:
-        modifyResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        modifyResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_MODIFY_DN_RESPONSE:
-        modifyDNResponses.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        modifyDNResponses.increment();
+        operationsCompleted.increment();
         break;
       case OP_TYPE_SEARCH_RESULT_ENTRY:
-        searchResultEntries.getAndIncrement();
+        searchResultEntries.increment();
         break;
       case OP_TYPE_SEARCH_RESULT_REFERENCE:
-        searchResultReferences.getAndIncrement();
+        searchResultReferences.increment();
         break;
       case OP_TYPE_SEARCH_RESULT_DONE:
-        searchResultsDone.getAndIncrement();
-        operationsCompleted.getAndIncrement();
+        searchResultsDone.increment();
+        operationsCompleted.increment();
         break;
       }
   }
@@ -481,7 +675,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public void updateAbandonedOperation()
   {
-      operationsAbandoned.getAndIncrement();
+      operationsAbandoned.increment();
   }
 
   /**
@@ -493,7 +687,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getConnectionsEstablished()
   {
-    return connectionsEstablished.get();
+    return connectionsEstablished.sum();
   }
 
   /**
@@ -503,7 +697,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getConnectionsClosed()
   {
-    return connectionsClosed.get();
+    return connectionsClosed.sum();
   }
 
   /**
@@ -513,7 +707,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getBytesRead()
   {
-      return bytesRead.get();
+      return bytesRead.sum();
   }
 
   /**
@@ -523,7 +717,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getBytesWritten()
   {
-      return bytesWritten.get();
+      return bytesWritten.sum();
   }
 
   /**
@@ -535,7 +729,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getMessagesRead()
   {
-    return messagesRead.get();
+    return messagesRead.sum();
   }
 
   /**
@@ -547,7 +741,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getMessagesWritten()
   {
-   return messagesWritten.get();
+   return messagesWritten.sum();
   }
 
   /**
@@ -559,7 +753,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getOperationsInitiated()
   {
-    return operationsInitiated.get();
+    return operationsInitiated.sum();
   }
 
   /**
@@ -571,7 +765,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getOperationsCompleted()
   {
-      return operationsCompleted.get();
+      return operationsCompleted.sum();
   }
 
   /**
@@ -583,7 +777,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getOperationsAbandoned()
   {
-      return operationsAbandoned.get();
+      return operationsAbandoned.sum();
   }
 
   /**
@@ -593,7 +787,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getAbandonRequests()
   {
-      return abandonRequests.get();
+      return abandonRequests.sum();
   }
 
   /**
@@ -603,7 +797,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getAddRequests()
   {
-      return addRequests.get();
+      return addRequests.sum();
   }
 
   /**
@@ -613,7 +807,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getAddResponses()
   {
-      return addResponses.get();
+      return addResponses.sum();
   }
 
   /**
@@ -623,7 +817,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getBindRequests()
   {
-      return bindRequests.get();
+      return bindRequests.sum();
   }
 
   /**
@@ -633,7 +827,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getBindResponses()
   {
-      return bindResponses.get();
+      return bindResponses.sum();
   }
 
   /**
@@ -643,7 +837,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getCompareRequests()
   {
-      return compareRequests.get();
+      return compareRequests.sum();
   }
 
   /**
@@ -653,7 +847,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getCompareResponses()
   {
-      return compareResponses.get();
+      return compareResponses.sum();
   }
 
   /**
@@ -663,7 +857,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getDeleteRequests()
   {
-      return deleteRequests.get();
+      return deleteRequests.sum();
   }
 
   /**
@@ -673,7 +867,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getDeleteResponses()
   {
-      return deleteResponses.get();
+      return deleteResponses.sum();
   }
 
   /**
@@ -683,7 +877,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getExtendedRequests()
   {
-      return extendedRequests.get();
+      return extendedRequests.sum();
   }
 
   /**
@@ -693,7 +887,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getExtendedResponses()
   {
-      return extendedResponses.get();
+      return extendedResponses.sum();
   }
 
   /**
@@ -703,7 +897,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getModifyRequests()
   {
-      return modifyRequests.get();
+      return modifyRequests.sum();
   }
 
   /**
@@ -713,7 +907,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getModifyResponses()
   {
-      return modifyResponses.get();
+      return modifyResponses.sum();
   }
 
   /**
@@ -723,7 +917,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getModifyDNRequests()
   {
-      return modifyDNRequests.get();
+      return modifyDNRequests.sum();
   }
 
   /**
@@ -733,7 +927,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getModifyDNResponses()
   {
-      return modifyDNResponses.get();
+      return modifyDNResponses.sum();
   }
 
   /**
@@ -743,7 +937,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchRequests()
   {
-      return searchRequests.get();
+      return searchRequests.sum();
   }
 
   /**
@@ -753,7 +947,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchOneRequests()
   {
-      return searchOneRequests.get();
+      return searchOneRequests.sum();
   }
 
   /**
@@ -763,7 +957,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchSubRequests()
   {
-      return searchSubRequests.get();
+      return searchSubRequests.sum();
   }
 
   /**
@@ -773,7 +967,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchResultEntries()
   {
-      return searchResultEntries.get();
+      return searchResultEntries.sum();
   }
 
   /**
@@ -784,7 +978,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchResultReferences()
   {
-      return searchResultReferences.get();
+      return searchResultReferences.sum();
   }
 
   /**
@@ -796,7 +990,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getSearchResultsDone()
   {
-      return searchResultsDone.get();
+      return searchResultsDone.sum();
   }
 
   /**
@@ -806,7 +1000,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
    */
   public long getUnbindRequests()
   {
-      return unbindRequests.get();
+      return unbindRequests.sum();
   }
 
   /**
@@ -817,44 +1011,44 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
 
   public void updateOperationMonitoringData(OperationType type, long time) {
       if (type.equals(OperationType.ADD)) {
-          addOperationCount.getAndIncrement();
-          addOperationTime.getAndAdd(time);
+          addOperationCount.increment();
+          addOperationTime.add(time);
       }
       else if (type.equals(OperationType.SEARCH)) {
-          searchOperationCount.getAndIncrement();
-          searchOperationTime.getAndAdd(time);
+          searchOperationCount.increment();
+          searchOperationTime.add(time);
       }
       else if (type.equals(OperationType.ABANDON)) {
-          abandonOperationCount.getAndIncrement();
-          abandonOperationTime.getAndAdd(time);
+          abandonOperationCount.increment();
+          abandonOperationTime.add(time);
       }
       else if (type.equals(OperationType.BIND)) {
-          bindOperationCount.getAndIncrement();
-          bindOperationTime.getAndAdd(time);
+          bindOperationCount.increment();
+          bindOperationTime.add(time);
       }
       else if (type.equals(OperationType.UNBIND)) {
-          unbindOperationCount.getAndIncrement();
-          unbindOperationTime.getAndAdd(time);
+          unbindOperationCount.increment();
+          unbindOperationTime.add(time);
       }
       else if (type.equals(OperationType.COMPARE)) {
-          compOperationCount.getAndIncrement();
-          compOperationTime.getAndAdd(time);
+          compOperationCount.increment();
+          compOperationTime.add(time);
       }
       else if (type.equals(OperationType.DELETE)) {
-          delOperationCount.getAndIncrement();
-          delOperationTime.getAndAdd(time);
+          delOperationCount.increment();
+          delOperationTime.add(time);
       }
       else if (type.equals(OperationType.EXTENDED)) {
-          extOperationCount.getAndIncrement();
-          extOperationTime.getAndAdd(time);
+          extOperationCount.increment();
+          extOperationTime.add(time);
       }
       else if (type.equals(OperationType.MODIFY)) {
-          modOperationCount.getAndIncrement();
-          modOperationTime.getAndAdd(time);
+          modOperationCount.increment();
+          modOperationTime.add(time);
       }
       else if (type.equals(OperationType.MODIFY_DN)) {
-          moddnOperationCount.getAndIncrement();
-          moddnOperationTime.getAndAdd(time);
+          moddnOperationCount.increment();
+          moddnOperationTime.add(time);
       }
   }
 }
@@ -49,7 +49,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -299,7 +298,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * The update to replay message queue where the listener thread is going to
    * push incoming update messages.
    */
-  private final BlockingQueue<UpdateToReplay> updateToReplayQueue;
+  private final PartitionedReplayQueue updateToReplayQueue;
   /** The number of naming conflicts successfully resolved. */
   private final AtomicInteger numResolvedNamingConflicts = new AtomicInteger();
   /** The number of modify conflicts successfully resolved. */
@@ -539,7 +538,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
    * @throws ConfigException In case of invalid configuration.
    */
   LDAPReplicationDomain(ReplicationDomainCfg configuration,
-      BlockingQueue<UpdateToReplay> updateToReplayQueue,
+      PartitionedReplayQueue updateToReplayQueue,
       DSRSShutdownSync dsrsShutdownSync) throws ConfigException
   {
     super(configuration, -1);
@@ -2266,7 +2265,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
   }
 
   /**
-   * Marks the specified message as the one currently processed by a replay thread.
+   * Marks the specified message as in progress, which is done when it is queued for the replay threads.
    * @param msg the message being processed
    */
   void markInProgress(LDAPUpdateMsg msg)
@@ -2410,6 +2409,7 @@ public final class LDAPReplicationDomain extends ReplicationDomain
                *  Note: When msg is a DeleteMsg, the DeleteOperation is properly
                *  created with subtreeDelete request control when needed.
                */
+              remotePendingChanges.updateIndexes(msg);
               nextOp = msg.createOperation(conn);
             }
           }
@@ -4266,6 +4266,9 @@ private boolean solveNamingConflict(ModifyDNOperation op, LDAPUpdateMsg msg)
         }
         return true;
       }
+      // Mark the update in progress before handing it to the replay threads, so
+      // that the dependencies are checked against all the older updates
+      remotePendingChanges.markInProgress(msg);
 
       // Put update message into the replay queue
       // (block until some place in the queue is available)
@@ -0,0 +1,258 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.jcip.annotations.GuardedBy;
+
+/**
+ * The queue of the updates to replay, partitioned by the DN of their target
+ * entry. Each replay thread consumes its own partition: the updates of an
+ * entry are replayed in order by a single thread, while the updates of
+ * different entries are replayed in parallel without the replay threads
+ * contending on a single queue.
+ * <p>
+ * The dependencies between updates of different entries, like the add of an
+ * entry below a parent entry being added, are still checked by the replication
+ * domain before replaying each update.
+ * <p>
+ * The capacity of the queue is shared by all the partitions. The updates are
+ * consumed with {@link #poll(int, long, TimeUnit)}, each partition being a
+ * {@link BlockingQueue} on which the replay threads wait for updates.
+ */
+final class PartitionedReplayQueue
+{
+  /** The number of updates which can still be added to the queue. */
+  private final Semaphore permits;
+  /** Prevents adding updates while they are moved to new partitions. */
+  private final ReentrantReadWriteLock partitionsLock = new ReentrantReadWriteLock();
+  @GuardedBy("partitionsLock")
+  private volatile List<BlockingQueue<UpdateToReplay>> partitions = newPartitions(1);
+
+  /**
+   * Creates a new partitioned replay queue with a single partition.
+   *
+   * @param capacity
+   *          the maximum number of updates in all the partitions
+   */
+  PartitionedReplayQueue(int capacity)
+  {
+    this.permits = new Semaphore(capacity);
+  }
+
+  private static List<BlockingQueue<UpdateToReplay>> newPartitions(int nbPartitions)
+  {
+    final List<BlockingQueue<UpdateToReplay>> newPartitions = new ArrayList<>(nbPartitions);
+    for (int i = 0; i < nbPartitions; i++)
+    {
+      newPartitions.add(new LinkedBlockingQueue<UpdateToReplay>());
+    }
+    return newPartitions;
+  }
+
+  /**
+   * Changes the number of partitions, moving the queued updates to the new
+   * partitions in order.
+   *
+   * @param nbPartitions
+   *          the new number of partitions, which must be positive
+   */
+  void setNumberOfPartitions(int nbPartitions)
+  {
+    partitionsLock.writeLock().lock();
+    try
+    {
+      if (nbPartitions == partitions.size())
+      {
+        return;
+      }
+      final List<BlockingQueue<UpdateToReplay>> oldPartitions = partitions;
+      partitions = newPartitions(nbPartitions);
+      // The updates of an entry are all in the same old partition, so they stay in order
+      for (BlockingQueue<UpdateToReplay> oldPartition : oldPartitions)
+      {
+        UpdateToReplay update;
+        while ((update = oldPartition.poll()) != null)
+        {
+          getPartition(update).add(update);
+        }
+      }
+    }
+    finally
+    {
+      partitionsLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the number of partitions.
+   *
+   * @return the number of partitions
+   */
+  int getNumberOfPartitions()
+  {
+    return partitions.size();
+  }
+
+  private BlockingQueue<UpdateToReplay> getPartition(UpdateToReplay update)
+  {
+    final List<BlockingQueue<UpdateToReplay>> currentPartitions = partitions;
+    final int hash = update.getUpdateMessage().getDN().hashCode();
+    return currentPartitions.get((hash & Integer.MAX_VALUE) % currentPartitions.size());
+  }
+
+  /**
+   * Retrieves and removes the head of the provided partition, waiting up to
+   * the specified wait time if necessary for an update to become available.
+   *
+   * @param partition
+   *          the index of the partition to poll
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}
+   * @param unit
+   *          the unit of the {@code timeout} parameter
+   * @return the head of the partition, or {@code null} if the specified waiting
+   *         time elapses before an update is available or if there is no such
+   *         partition
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  UpdateToReplay poll(int partition, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    final List<BlockingQueue<UpdateToReplay>> currentPartitions = partitions;
+    if (partition >= currentPartitions.size())
+    {
+      // The number of partitions is being changed
+      unit.sleep(timeout);
+      return null;
+    }
+    return released(currentPartitions.get(partition).poll(timeout, unit));
+  }
+
+  private UpdateToReplay released(UpdateToReplay update)
+  {
+    if (update != null)
+    {
+      permits.release();
+    }
+    return update;
+  }
+
+  private void add(UpdateToReplay update, boolean hasPermit)
+  {
+    if (hasPermit)
+    {
+      partitionsLock.readLock().lock();
+      try
+      {
+        getPartition(update).add(update);
+      }
+      finally
+      {
+        partitionsLock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Adds an update to its partition if the queue is not full.
+   *
+   * @param update
+   *          the update to add
+   * @return {@code true} if the update has been added, {@code false} if the
+   *         queue is full
+   */
+  boolean offer(UpdateToReplay update)
+  {
+    final boolean hasPermit = permits.tryAcquire();
+    add(update, hasPermit);
+    return hasPermit;
+  }
+
+  /**
+   * Adds an update to its partition, waiting up to the specified wait time if
+   * necessary for the queue not to be full.
+   *
+   * @param update
+   *          the update to add
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}
+   * @param unit
+   *          the unit of the {@code timeout} parameter
+   * @return {@code true} if the update has been added, {@code false} if the
+   *         specified waiting time elapses before the queue is not full
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  boolean offer(UpdateToReplay update, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    final boolean hasPermit = permits.tryAcquire(timeout, unit);
+    add(update, hasPermit);
+    return hasPermit;
+  }
+
+  /**
+   * Retrieves and removes the head of the first partition which is not empty,
+   * without waiting.
+   *
+   * @return the head of the first partition which is not empty, or
+   *         {@code null} if the queue is empty
+   */
+  UpdateToReplay poll()
+  {
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      final UpdateToReplay update = partition.poll();
+      if (update != null)
+      {
+        return released(update);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of updates which can still be added to the queue.
+   *
+   * @return the number of updates which can still be added to the queue
+   */
+  int remainingCapacity()
+  {
+    return permits.availablePermits();
+  }
+
+  /**
+   * Returns the number of updates in all the partitions.
+   *
+   * @return the number of updates in all the partitions
+   */
+  int size()
+  {
+    int size = 0;
+    for (BlockingQueue<UpdateToReplay> partition : partitions)
+    {
+      size += partition.size();
+    }
+    return size;
+  }
+}
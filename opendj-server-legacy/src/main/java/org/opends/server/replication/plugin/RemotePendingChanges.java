@@ -16,18 +16,24 @@
  */
 package org.opends.server.replication.plugin;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.jcip.annotations.GuardedBy;
 
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.core.AddOperation;
 import org.opends.server.core.DeleteOperation;
@@ -70,6 +76,17 @@ final class RemotePendingChanges
    * on currently in progress changes.
    */
   private final ConcurrentSkipListSet<PendingChange> activeAndDependentChanges = new ConcurrentSkipListSet<>();
+  /**
+   * The changes of {@code activeAndDependentChanges} indexed by the DN of their target entry, so
+   * that checking the dependencies of a change does not scan all the changes in progress.
+   */
+  private final ConcurrentSkipListMap<DN, SortedSet<PendingChange>> activeChangesByDN =
+      new ConcurrentSkipListMap<>();
+  /** The modify DN changes of {@code activeAndDependentChanges} indexed by the new DN of their target entry. */
+  private final ConcurrentMap<DN, SortedSet<PendingChange>> activeChangesByNewDN = new ConcurrentHashMap<>();
+  /** The DN and new DN under which each change is indexed. */
+  @GuardedBy("indexedDNs")
+  private final Map<PendingChange, DN[]> indexedDNs = new HashMap<>();
 
   private final ReentrantReadWriteLock pendingChangesLock = new ReentrantReadWriteLock(true);
   private final ReentrantReadWriteLock.ReadLock pendingChangesReadLock = pendingChangesLock.readLock();
@@ -176,7 +193,10 @@ final class RemotePendingChanges
         throw new NoSuchElementException();
       }
       curChange.setCommitted(true);
-      activeAndDependentChanges.remove(curChange);
+      if (activeAndDependentChanges.remove(curChange))
+      {
+        removeFromIndexes(curChange);
+      }
 
       final Iterator<PendingChange> it = pendingChanges.values().iterator();
       while (it.hasNext())
@@ -199,18 +219,148 @@ final class RemotePendingChanges
     }
   }
 
+  /**
+   * Marks the provided update message as in progress, so that the newer changes
+   * depending on it are not replayed before it is committed.
+   * <p>
+   * The updates must be marked in the order they were received, before being
+   * handed to the replay threads.
+   *
+   * @param msg
+   *          The update message to mark as in progress.
+   */
   public void markInProgress(LDAPUpdateMsg msg)
   {
     pendingChangesReadLock.lock();
     try
     {
-      activeAndDependentChanges.add(pendingChanges.get(msg.getCSN()));
+      final PendingChange change = pendingChanges.get(msg.getCSN());
+      if (change != null && activeAndDependentChanges.add(change))
+      {
+        addToIndexes(change);
+      }
     }
     finally
     {
       pendingChangesReadLock.unlock();
     }
   }
+
+  /**
+   * Updates the indexes of the changes in progress after the provided update
+   * message was modified by the conflict resolution.
+   *
+   * @param msg
+   *          The update message which target entry or new DN may have changed.
+   */
+  public void updateIndexes(LDAPUpdateMsg msg)
+  {
+    final PendingChange change = getPendingChange(msg.getCSN());
+    if (change != null)
+    {
+      synchronized (indexedDNs)
+      {
+        if (indexedDNs.containsKey(change))
+        {
+          removeFromIndexes(change);
+          addToIndexes(change);
+        }
+      }
+    }
+  }
+
+  private void addToIndexes(PendingChange change)
+  {
+    final LDAPUpdateMsg msg = change.getLDAPUpdateMsg();
+    final DN dn = msg.getDN();
+    final DN newDN = msg instanceof ModifyDNMsg ? getNewDN((ModifyDNMsg) msg) : null;
+    synchronized (indexedDNs)
+    {
+      indexedDNs.put(change, new DN[] { dn, newDN });
+      addToIndex(activeChangesByDN, dn, change);
+      if (newDN != null)
+      {
+        addToIndex(activeChangesByNewDN, newDN, change);
+      }
+    }
+  }
+
+  private void removeFromIndexes(PendingChange change)
+  {
+    synchronized (indexedDNs)
+    {
+      final DN[] dns = indexedDNs.remove(change);
+      if (dns != null)
+      {
+        removeFromIndex(activeChangesByDN, dns[0], change);
+        if (dns[1] != null)
+        {
+          removeFromIndex(activeChangesByNewDN, dns[1], change);
+        }
+      }
+    }
+  }
+
+  private static void addToIndex(Map<DN, SortedSet<PendingChange>> index, DN dn, PendingChange change)
+  {
+    SortedSet<PendingChange> changes = index.get(dn);
+    if (changes == null)
+    {
+      changes = new ConcurrentSkipListSet<>();
+      index.put(dn, changes);
+    }
+    changes.add(change);
+  }
+
+  private static void removeFromIndex(Map<DN, SortedSet<PendingChange>> index, DN dn, PendingChange change)
+  {
+    final SortedSet<PendingChange> changes = index.get(dn);
+    if (changes != null)
+    {
+      changes.remove(change);
+      if (changes.isEmpty())
+      {
+        index.remove(dn);
+      }
+    }
+  }
+
+  /** Adds to the candidates the indexed changes older than the provided change and targeting the provided DN. */
+  private static void addOlderChanges(SortedSet<PendingChange> candidates, Map<DN, SortedSet<PendingChange>> index,
+      DN dn, PendingChange change)
+  {
+    final SortedSet<PendingChange> changes = dn != null ? index.get(dn) : null;
+    if (changes != null)
+    {
+      candidates.addAll(changes.headSet(change));
+    }
+  }
+
+  private static DN getNewDN(ModifyDNMsg msg)
+  {
+    try
+    {
+      return msg.computeNewDN();
+    }
+    catch (LocalizedIllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+
+  /** Returns the DN compared by {@link ModifyDNMsg#newParentIsEqual(DN)}. */
+  private static DN getNewSuperiorDN(ModifyDNMsg msg)
+  {
+    try
+    {
+      return msg.getNewSuperior() != null ? DN.valueOf(msg.getNewSuperior()) : DN.rootDN();
+    }
+    catch (LocalizedIllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+
   /**
    * Get the first update in the list that have some dependencies cleared.
    *
@@ -298,13 +448,14 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = op.getEntryDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    final SortedSet<PendingChange> candidates = new TreeSet<>();
+    for (DN dn = targetDN; dn != null; dn = dn.parent())
+    {
+      addOlderChanges(candidates, activeChangesByDN, dn, change);
+      addOlderChanges(candidates, activeChangesByNewDN, dn, change);
+    }
+    for (PendingChange pendingChange : candidates)
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
-      {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
-      }
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
       if (pendingMsg instanceof DeleteMsg)
       {
@@ -372,13 +523,11 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = change.getLDAPUpdateMsg().getDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    final SortedSet<PendingChange> candidates = new TreeSet<>();
+    addOlderChanges(candidates, activeChangesByDN, targetDN, change);
+    addOlderChanges(candidates, activeChangesByNewDN, targetDN, change);
+    for (PendingChange pendingChange : candidates)
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
-      {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
-      }
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
       if (pendingMsg instanceof AddMsg)
       {
@@ -430,13 +579,12 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = change.getLDAPUpdateMsg().getDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    final SortedSet<PendingChange> candidates = new TreeSet<>();
+    addOlderChanges(candidates, activeChangesByDN, targetDN, change);
+    addOlderChanges(candidates, activeChangesByDN, getNewDN(msg), change);
+    addOlderChanges(candidates, activeChangesByDN, getNewSuperiorDN(msg), change);
+    for (PendingChange pendingChange : candidates)
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
-      {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
-        break;
-      }
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
       if (pendingMsg instanceof DeleteMsg)
       {
@@ -505,13 +653,22 @@ final class RemotePendingChanges
 
     boolean hasDependencies = false;
     final DN targetDN = op.getEntryDN();
-    for (PendingChange pendingChange : activeAndDependentChanges)
+    final SortedSet<PendingChange> candidates = new TreeSet<>();
+    // The DN ordering is hierarchical: the subordinate entries immediately follow their superior entry
+    for (Map.Entry<DN, SortedSet<PendingChange>> entry : activeChangesByDN.tailMap(targetDN).entrySet())
     {
-      if (pendingChange.getCSN().isNewerThanOrEqualTo(csn))
+      if (!entry.getKey().isSubordinateOrEqualTo(targetDN))
       {
-        // From now on, the dependency should be for newer changes to be dependent on this one, so we can stop for now.
         break;
       }
+      candidates.addAll(entry.getValue().headSet(change));
+    }
+    for (DN dn = targetDN; dn != null; dn = dn.parent())
+    {
+      addOlderChanges(candidates, activeChangesByNewDN, dn, change);
+    }
+    for (PendingChange pendingChange : candidates)
+    {
       final LDAPUpdateMsg pendingMsg = pendingChange.getLDAPUpdateMsg();
       if (pendingMsg instanceof DeleteMsg)
       {
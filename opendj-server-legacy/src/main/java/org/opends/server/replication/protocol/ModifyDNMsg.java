@@ -358,7 +358,7 @@ public class ModifyDNMsg extends ModifyCommonMsg
    * @throws LocalizedIllegalArgumentException
    *           in case of decoding problems.
    */
-  private DN computeNewDN() throws LocalizedIllegalArgumentException
+  public DN computeNewDN() throws LocalizedIllegalArgumentException
   {
     if (newSuperior != null)
     {
@@ -20,12 +20,19 @@ import static org.opends.server.util.StaticUtils.*;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -33,21 +40,43 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.net.ssl.SSLSocket;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.MonitorData;
 import org.opends.server.types.HostPort;
 import org.opends.server.util.StaticUtils;
 
 /**
  * This class defines a replication session using TLS.
+ * <p>
+ * Up to {@link ProtocolVersion#REPLICATION_PROTOCOL_V8}, each message is sent
+ * prefixed with its length written as 8 hexadecimal characters. Once both
+ * peers are known to support {@link ProtocolVersion#REPLICATION_PROTOCOL_V9},
+ * the messages waiting to be sent are coalesced into binary frames, which are
+ * optionally compressed. The first byte of a binary frame can never be an
+ * hexadecimal character, so that frames of both kinds are always received.
  */
 public final class Session extends DirectoryThread implements Closeable
 {
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** Marks a binary frame: 4 bytes frame length followed by the messages, each prefixed by its 4 bytes length. */
+  private static final int FRAME_UNCOMPRESSED = 1;
+  /**
+   * Marks a compressed binary frame: 4 bytes frame length, 4 bytes uncompressed length and the messages compressed
+   * with the deflate stream of the session.
+   */
+  private static final int FRAME_COMPRESSED = 2;
+  /** The number of bytes of messages beyond which no more messages are coalesced into a frame. */
+  private static final int MAX_FRAME_SIZE = 256 * 1024;
+  /** The frames smaller than this number of bytes are not worth compressing. */
+  private static final int MIN_COMPRESSED_FRAME_SIZE = 256;
+
   private final Socket plainSocket;
   private final SSLSocket secureSocket;
   private final InputStream plainInput;
@@ -96,6 +125,29 @@ public final class Session extends DirectoryThread implements Closeable
    */
   private BufferedOutputStream output;
 
+  /** Whether the peer can receive binary frames. */
+  private volatile boolean binaryFraming;
+  /** Whether binary frames are compressed. */
+  private volatile boolean compressionEnabled;
+  /** The compressor of the frames sent, guarded by publishLock. */
+  private Deflater deflater;
+  /** The decompressor of the frames received, only used by the receiving thread. */
+  private Inflater inflater;
+  /** The buffer in which frames are built, guarded by publishLock. */
+  private ByteArrayOutputStream frameBuilder = new ByteArrayOutputStream();
+  /** The messages received in a frame and not yet returned, only used by the receiving thread. */
+  private final Queue<byte[]> receivedBuffers = new ArrayDeque<>();
+
+  /** Statistics of the messages sent, updated under publishLock. */
+  private volatile long nbSentMessages;
+  private volatile long nbSentFrames;
+  private volatile long nbSentBytes;
+  private volatile long nbSentUncompressedBytes;
+  /** Statistics of the messages received, updated by the receiving thread. */
+  private volatile long nbReceivedMessages;
+  private volatile long nbReceivedFrames;
+  private volatile long nbReceivedBytes;
+
   private final LinkedBlockingQueue<byte[]> sendQueue = new LinkedBlockingQueue<>(4000);
   private AtomicBoolean isRunning = new AtomicBoolean(false);
   private final CountDownLatch latch = new CountDownLatch(1);
@@ -201,6 +253,20 @@ public final class Session extends DirectoryThread implements Closeable
     }
 
     StaticUtils.close(plainSocket, secureSocket);
+
+    publishLock.lock();
+    try
+    {
+      if (deflater != null)
+      {
+        deflater.end();
+        deflater = null;
+      }
+    }
+    finally
+    {
+      publishLock.unlock();
+    }
   }
 
 
@@ -334,31 +400,42 @@ public final class Session extends DirectoryThread implements Closeable
     }
     else
     {
-      send(buffer);
+      send(Collections.singletonList(buffer));
     }
   }
 
-  /** Sends a replication message already encoded to the socket.
+  /** Sends replication messages already encoded to the socket.
    *
-   * @param buffer
-   *          the encoded buffer
-   * @throws IOException if the message could not be sent
+   * @param buffers
+   *          the encoded buffers
+   * @throws IOException if the messages could not be sent
    */
-  private void send(final byte[] buffer) throws IOException
+  private void send(final List<byte[]> buffers) throws IOException
   {
-    final String str = String.format("%08x", buffer.length);
-    final byte[] sendLengthBuf = str.getBytes();
-
     publishLock.lock();
     try
     {
       /*
-       * The buffered output stream ensures that the message is usually sent as
-       * a single TCP packet.
+       * The buffered output stream ensures that the messages are usually sent
+       * in as few TCP packets as possible.
        */
-      output.write(sendLengthBuf);
-      output.write(buffer);
+      if (binaryFraming)
+      {
+        writeFrame(buffers);
+      }
+      else
+      {
+        for (byte[] buffer : buffers)
+        {
+          output.write(String.format("%08x", buffer.length).getBytes());
+          output.write(buffer);
+          nbSentBytes += 8 + buffer.length;
+          nbSentUncompressedBytes += buffer.length;
+        }
+        nbSentFrames += buffers.size();
+      }
       output.flush();
+      nbSentMessages += buffers.size();
     } catch (final IOException e) {
       setSessionError(e);
       throw e;
@@ -371,6 +448,73 @@ public final class Session extends DirectoryThread implements Closeable
     lastPublishTime = System.currentTimeMillis();
   }
 
+  private void writeFrame(final List<byte[]> buffers) throws IOException
+  {
+    frameBuilder.reset();
+    for (byte[] buffer : buffers)
+    {
+      writeInt(frameBuilder, buffer.length);
+      frameBuilder.write(buffer);
+    }
+    final byte[] frame = frameBuilder.toByteArray();
+    if (frame.length > MAX_FRAME_SIZE)
+    {
+      // Do not keep the memory used by very large messages
+      frameBuilder = new ByteArrayOutputStream();
+    }
+    nbSentUncompressedBytes += frame.length;
+    nbSentFrames++;
+
+    if (compressionEnabled && frame.length >= MIN_COMPRESSED_FRAME_SIZE)
+    {
+      final byte[] compressed = compress(frame);
+      output.write(FRAME_COMPRESSED);
+      writeInt(output, compressed.length);
+      writeInt(output, frame.length);
+      output.write(compressed);
+      nbSentBytes += 9 + compressed.length;
+    }
+    else
+    {
+      output.write(FRAME_UNCOMPRESSED);
+      writeInt(output, frame.length);
+      output.write(frame);
+      nbSentBytes += 5 + frame.length;
+    }
+  }
+
+  /**
+   * Compresses the provided frame with the deflate stream of this session. The
+   * stream is flushed after each frame but never reset, so that each frame
+   * benefits from the data sent before it.
+   */
+  private byte[] compress(final byte[] frame)
+  {
+    if (deflater == null)
+    {
+      deflater = new Deflater(Deflater.BEST_SPEED);
+    }
+    deflater.setInput(frame);
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream(frame.length / 2);
+    final byte[] chunk = new byte[8192];
+    int length;
+    do
+    {
+      length = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+      compressed.write(chunk, 0, length);
+    }
+    while (length == chunk.length);
+    return compressed.toByteArray();
+  }
+
+  private static void writeInt(final OutputStream out, final int i) throws IOException
+  {
+    out.write(i >>> 24);
+    out.write(i >>> 16);
+    out.write(i >>> 8);
+    out.write(i);
+  }
+
 
 
   /**
@@ -399,39 +543,155 @@ public final class Session extends DirectoryThread implements Closeable
        */
       lastReceiveTime = System.currentTimeMillis();
 
-      // Read the first 8 bytes containing the packet length.
-      read(rcvLengthBuf);
+      byte[] buffer;
+      while ((buffer = receivedBuffers.poll()) == null)
+      {
+        readFrame();
+      }
+      nbReceivedMessages++;
+
+      /*
+       * We do not want the heartbeat to close the session when we are
+       * processing a message even a time consuming one.
+       */
+      lastReceiveTime = 0;
+      return ReplicationMsg.generateMsg(buffer, protocolVersion);
+    }
+    catch (final IOException | DataFormatException | NotSupportedOldVersionPDUException | RuntimeException e)
+    {
+      setSessionError(e);
+      throw e;
+    }
+  }
+
+  /** Reads the next frame and adds the messages it contains to the received buffers. */
+  private void readFrame() throws IOException, DataFormatException
+  {
+    final int marker = input.read();
+    if (marker == -1)
+    {
+      lastReceiveTime = 0;
+      throw new IOException("no more data");
+    }
+    nbReceivedFrames++;
+
+    if (marker != FRAME_UNCOMPRESSED && marker != FRAME_COMPRESSED)
+    {
+      // The first 8 bytes contain the message length in hexadecimal
+      rcvLengthBuf[0] = (byte) marker;
+      read(rcvLengthBuf, 1);
       final int totalLength = Integer.parseInt(new String(rcvLengthBuf), 16);
+      receivedBuffers.add(readBuffer(totalLength));
+      nbReceivedBytes += 8 + totalLength;
+      return;
+    }
 
-      try
+    final int frameLength = readInt();
+    final byte[] frame;
+    if (marker == FRAME_COMPRESSED)
+    {
+      final int uncompressedLength = readInt();
+      frame = uncompress(readBuffer(frameLength), uncompressedLength);
+      nbReceivedBytes += 9 + frameLength;
+    }
+    else
+    {
+      frame = readBuffer(frameLength);
+      nbReceivedBytes += 5 + frameLength;
+    }
+
+    int offset = 0;
+    while (offset < frame.length)
+    {
+      final int length = getInt(frame, offset);
+      offset += 4;
+      if (length < 0 || length > frame.length - offset)
       {
-        final byte[] buffer = new byte[totalLength];
-        read(buffer);
+        throw new DataFormatException("Invalid message length " + length + " in frame");
+      }
+      receivedBuffers.add(Arrays.copyOfRange(frame, offset, offset + length));
+      offset += length;
+    }
+  }
 
-        /*
-         * We do not want the heartbeat to close the session when we are
-         * processing a message even a time consuming one.
-         */
-        lastReceiveTime = 0;
-        return ReplicationMsg.generateMsg(buffer, protocolVersion);
+  private byte[] uncompress(final byte[] compressed, final int uncompressedLength)
+      throws IOException, DataFormatException
+  {
+    if (inflater == null)
+    {
+      inflater = new Inflater();
+    }
+    inflater.setInput(compressed);
+    final byte[] frame = newBuffer(uncompressedLength);
+    int length = 0;
+    while (length < uncompressedLength)
+    {
+      final int inflated = inflater.inflate(frame, length, uncompressedLength - length);
+      if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished()))
+      {
+        throw new DataFormatException("Truncated compressed frame");
+      }
+      length += inflated;
+    }
+    // Consume the end of the flushed block so that the next frame starts on a block boundary
+    final byte[] extra = new byte[1];
+    while (!inflater.needsInput() && !inflater.finished())
+    {
+      if (inflater.needsDictionary())
+      {
+        throw new DataFormatException("Compressed frame requires a preset dictionary");
       }
-      catch (final OutOfMemoryError e)
+      if (inflater.inflate(extra) != 0)
       {
-        throw new IOException("Packet too large, can't allocate "
-            + totalLength + " bytes.");
+        throw new DataFormatException("Compressed frame longer than " + uncompressedLength + " bytes");
       }
     }
-    catch (final IOException | DataFormatException | NotSupportedOldVersionPDUException | RuntimeException e)
+    return frame;
+  }
+
+  private int readInt() throws IOException
+  {
+    final byte[] buffer = new byte[4];
+    read(buffer);
+    return getInt(buffer, 0);
+  }
+
+  private static int getInt(final byte[] buffer, final int offset)
+  {
+    return (buffer[offset] & 0xFF) << 24
+        | (buffer[offset + 1] & 0xFF) << 16
+        | (buffer[offset + 2] & 0xFF) << 8
+        | (buffer[offset + 3] & 0xFF);
+  }
+
+  private byte[] readBuffer(final int length) throws IOException
+  {
+    final byte[] buffer = newBuffer(length);
+    read(buffer);
+    return buffer;
+  }
+
+  private static byte[] newBuffer(final int length) throws IOException
+  {
+    try
     {
-      setSessionError(e);
-      throw e;
+      return new byte[length];
+    }
+    catch (final OutOfMemoryError | NegativeArraySizeException e)
+    {
+      throw new IOException("Packet too large, can't allocate " + length + " bytes.");
     }
   }
 
   private void read(byte[] buffer) throws IOException
+  {
+    read(buffer, 0);
+  }
+
+  private void read(byte[] buffer, int offset) throws IOException
   {
     final int totalLength = buffer.length;
-    int length = 0;
+    int length = offset;
     while (length < totalLength)
     {
       final int read = input.read(buffer, length, totalLength - length);
@@ -453,6 +713,40 @@ public final class Session extends DirectoryThread implements Closeable
   public void setProtocolVersion(final short version)
   {
     protocolVersion = version;
+    binaryFraming = version >= ProtocolVersion.REPLICATION_PROTOCOL_V9;
+  }
+
+  /**
+   * Sets whether the messages sent on this session are compressed. Compression
+   * is only used once the protocol version negotiated with the peer is at least
+   * {@link ProtocolVersion#REPLICATION_PROTOCOL_V9}.
+   *
+   * @param compressionEnabled
+   *          whether the messages sent on this session are compressed
+   */
+  public void setCompressionEnabled(final boolean compressionEnabled)
+  {
+    this.compressionEnabled = compressionEnabled;
+  }
+
+  /**
+   * Adds the statistics of the messages sent and received on this session to
+   * the provided monitor data.
+   *
+   * @param attributes
+   *          the monitor data to which the statistics are added
+   */
+  public void addMonitorData(final MonitorData attributes)
+  {
+    attributes.add("binary-framing", binaryFraming);
+    attributes.add("compression", binaryFraming && compressionEnabled);
+    attributes.add("sent-messages", nbSentMessages);
+    attributes.add("sent-frames", nbSentFrames);
+    attributes.add("sent-bytes", nbSentBytes);
+    attributes.add("sent-uncompressed-bytes", nbSentUncompressedBytes);
+    attributes.add("received-messages", nbReceivedMessages);
+    attributes.add("received-frames", nbReceivedFrames);
+    attributes.add("received-bytes", nbReceivedBytes);
   }
 
 
@@ -533,26 +827,35 @@ public final class Session extends DirectoryThread implements Closeable
       logger.trace(getName() + " starting.");
     }
     boolean needClosing = false;
+    final List<byte[]> buffers = new ArrayList<>();
     while (!closeInitiated)
     {
-      byte[] buffer;
       try
       {
-        buffer = sendQueue.take();
+        buffers.add(sendQueue.take());
       }
       catch (InterruptedException ie)
       {
         break;
       }
+      // Coalesce the messages already waiting into a single write
+      int frameSize = buffers.get(0).length;
+      byte[] buffer;
+      while (frameSize < MAX_FRAME_SIZE && (buffer = sendQueue.poll()) != null)
+      {
+        buffers.add(buffer);
+        frameSize += buffer.length;
+      }
       try
       {
-        send(buffer);
+        send(buffers);
       }
       catch (IOException e)
       {
         setSessionError(e);
         needClosing = true;
       }
+      buffers.clear();
     }
     isRunning.set(false);
     if (needClosing)
@@ -48,6 +48,7 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.server.config.meta.ReplicationServerCfgDefn.ReplicationCompression;
 import org.forgerock.opendj.server.config.meta.VirtualAttributeCfgDefn.ConflictBehavior;
 import org.forgerock.opendj.server.config.server.ReplicationServerCfg;
 import org.forgerock.opendj.server.config.server.UserDefinedVirtualAttributeCfg;
@@ -245,6 +246,7 @@ public class ReplicationServer
           {
             continue;
           }
+          session.setCompressionEnabled(isCompressionEnabled());
         }
         catch (Exception e)
         {
@@ -404,6 +406,7 @@ public class ReplicationServer
       int timeoutMS = MultimasterReplication.getConnectionTimeoutMS();
       socket.connect(remoteServerAddress.toInetSocketAddress(), timeoutMS);
       session = replSessionSecurity.createClientSession(socket, timeoutMS);
+      session.setCompressionEnabled(isCompressionEnabled());
 
       ReplicationServerHandler rsHandler = new ReplicationServerHandler(
           session, config.getQueueSize(), this, config.getWindowSize());
@@ -874,6 +877,11 @@ public class ReplicationServer
     {
       this.changelogDB.setPurgeDelay(getPurgeDelay());
     }
+    if (config.getChangelogGroupCommitInterval() != oldConfig.getChangelogGroupCommitInterval()
+        || config.getChangelogGroupCommitBatchSize() != oldConfig.getChangelogGroupCommitBatchSize())
+    {
+      this.changelogDB.setGroupCommit(getChangelogGroupCommitInterval(), getChangelogGroupCommitBatchSize());
+    }
     final boolean computeCN = config.isComputeChangeNumber();
     if (computeCN != oldConfig.isComputeChangeNumber())
     {
@@ -1068,6 +1076,39 @@ public class ReplicationServer
     return this.config.getAssuredTimeout();
   }
 
+  /**
+   * Returns the maximum time in milliseconds between two synchronizations of
+   * the changelog DB to disk.
+   *
+   * @return the group commit interval in milliseconds, or zero if group commit
+   *         is disabled
+   */
+  public long getChangelogGroupCommitInterval()
+  {
+    return this.config.getChangelogGroupCommitInterval();
+  }
+
+  /**
+   * Returns the number of changes triggering a synchronization of the
+   * changelog DB to disk before the end of the group commit interval.
+   *
+   * @return the group commit batch size
+   */
+  public int getChangelogGroupCommitBatchSize()
+  {
+    return this.config.getChangelogGroupCommitBatchSize();
+  }
+
+  /**
+   * Returns whether the messages sent to the other servers are compressed.
+   *
+   * @return whether the messages sent to the other servers are compressed
+   */
+  private boolean isCompressionEnabled()
+  {
+    return this.config.getReplicationCompression() != ReplicationCompression.NONE;
+  }
+
   /**
    * Get The replication server group id.
    * @return The replication server group id.
@@ -326,6 +326,10 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     {
       return;
     }
+    if (preparedAssuredInfo != null && preparedAssuredInfo.sendAckWhenDurable)
+    {
+      sendAckWhenDurable(sourceHandler, new AckMsg(updateMsg.getCSN()));
+    }
 
     final List<Integer> assuredServers = getAssuredServers(updateMsg, preparedAssuredInfo);
 
@@ -573,6 +577,12 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
        * received. Null if expectedServers is null.
        */
       public ExpectedAcksInfo expectedAcksInfo;
+
+      /**
+       * Whether the ack of a safe data update must be sent back as soon as the
+       * update is persisted in the changelog, without waiting for other acks.
+       */
+      public boolean sendAckWhenDurable;
   }
 
   /**
@@ -660,7 +670,8 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
 
   /**
    * Process a just received assured update message in Safe Data mode. If the
-   * ack can be sent immediately, it is done here. This will also determine to
+   * ack can be sent without waiting for other acks, it is flagged to be sent
+   * once the update is persisted in the changelog. This will also determine to
    * which suitable servers an ack should be requested from, and which ones are
    * not eligible for an ack request.
    * This method is an helper method for the put method. Have a look at the put
@@ -670,13 +681,12 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
    *        update was received
    * @return A suitable PreparedAssuredInfo object that contains every needed
    * info to proceed with post to server writers.
-   * @throws IOException When an IO exception happens during the update
-   *         processing.
    */
   private PreparedAssuredInfo processSafeDataUpdateMsg(
-    UpdateMsg update, ServerHandler sourceHandler) throws IOException
+    UpdateMsg update, ServerHandler sourceHandler)
   {
     CSN csn = update.getCSN();
+    PreparedAssuredInfo preparedAssuredInfo = new PreparedAssuredInfo();
     boolean interestedInAcks = false;
     byte safeDataLevel = update.getSafeDataLevel();
     byte groupId = localReplicationServer.getGroupId();
@@ -696,11 +706,11 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
           if (safeDataLevel == (byte) 1)
           {
             /**
-             * Immediately return the ack for an assured message in safe data
-             * mode with safe data level 1, coming from a DS. No need to wait
-             * for more acks
+             * Return the ack for an assured message in safe data mode with
+             * safe data level 1, coming from a DS, as soon as it is persisted.
+             * No need to wait for more acks
              */
-            sourceHandler.send(new AckMsg(csn));
+            preparedAssuredInfo.sendAckWhenDurable = true;
           } else
           {
             /**
@@ -720,7 +730,7 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
            */
           if (safeDataLevel > (byte) 1)
           {
-            sourceHandler.send(new AckMsg(csn));
+            preparedAssuredInfo.sendAckWhenDurable = true;
           }
         }
     }
@@ -732,7 +742,6 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
     }
 
     // Return computed structures
-    PreparedAssuredInfo preparedAssuredInfo = new PreparedAssuredInfo();
     int nExpectedServers = expectedServers.size();
     if (interestedInAcks) // interestedInAcks so level > 1
     {
@@ -754,8 +763,8 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
       } else
       {
         // level > 1 and source is a DS but no eligible servers found, send the
-        // ack immediately
-        sourceHandler.send(new AckMsg(csn));
+        // ack as soon as the update is persisted
+        preparedAssuredInfo.sendAckWhenDurable = true;
       }
     }
 
@@ -823,22 +832,14 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
           waitingAcks.remove(csn);
           AckMsg finalAck = expectedAcksInfo.createAck(false);
           ServerHandler origServer = expectedAcksInfo.getRequesterServer();
-          try
+          if (expectedAcksInfo instanceof SafeDataExpectedAcksInfo)
           {
-            origServer.send(finalAck);
-          } catch (IOException e)
+            // The update must also be persisted by this replication server
+            sendAckWhenDurable(origServer, finalAck);
+          }
+          else
           {
-            /**
-             * An error happened trying the send back an ack to the server.
-             * Log an error and close the connection to this server.
-             */
-            LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
-            mb.append(ERR_RS_ERROR_SENDING_ACK.get(
-                localReplicationServer.getServerId(), origServer.getServerId(), csn, baseDN));
-            mb.append(" ");
-            mb.append(stackTraceToSingleLineString(e));
-            logger.error(mb.toMessage());
-            stopServer(origServer, false);
+            sendAck(origServer, finalAck);
           }
           // Mark the ack info object as completed to prevent potential timeout
           // code parallel run
@@ -851,6 +852,52 @@ public class ReplicationServerDomain extends MonitorProvider<MonitorProviderCfg>
      */
   }
 
+  /**
+   * Sends the provided ack once all the changes published so far to the
+   * changelog are persisted.
+   *
+   * @param origServer The server to send the ack to.
+   * @param ack The ack to send.
+   */
+  private void sendAckWhenDurable(final ServerHandler origServer, final AckMsg ack)
+  {
+    domainDB.runWhenDurable(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        sendAck(origServer, ack);
+      }
+    });
+  }
+
+  /**
+   * Sends an ack to the server the acknowledged update came from.
+   *
+   * @param origServer The server to send the ack to.
+   * @param ack The ack to send.
+   */
+  private void sendAck(ServerHandler origServer, AckMsg ack)
+  {
+    try
+    {
+      origServer.send(ack);
+    } catch (IOException e)
+    {
+      /**
+       * An error happened trying the send back an ack to the server.
+       * Log an error and close the connection to this server.
+       */
+      LocalizableMessageBuilder mb = new LocalizableMessageBuilder();
+      mb.append(ERR_RS_ERROR_SENDING_ACK.get(
+          localReplicationServer.getServerId(), origServer.getServerId(), ack.getCSN(), baseDN));
+      mb.append(" ");
+      mb.append(stackTraceToSingleLineString(e));
+      logger.error(mb.toMessage());
+      stopServer(origServer, false);
+    }
+  }
+
   /**
    * The code run when the timeout occurs while waiting for acks of the
    * eligible servers. This basically sends a timeout ack (with any additional
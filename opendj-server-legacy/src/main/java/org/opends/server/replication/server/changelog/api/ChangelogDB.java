@@ -45,6 +45,24 @@ public interface ChangelogDB
    */
   void setPurgeDelay(long delayInMillis);
 
+  /**
+   * Sets the group commit parameters of the replication database. Can be
+   * called while the database is running.
+   * <p>
+   * When group commit is enabled, the changes published to the replication
+   * database are synchronized to the file system together, once per interval
+   * or as soon as the batch size is reached.
+   *
+   * @param intervalInMillis
+   *          the maximum time in milliseconds between two synchronizations, or
+   *          zero to disable group commit and leave the synchronization to the
+   *          file system
+   * @param batchSize
+   *          the number of published changes triggering a synchronization
+   *          before the end of the interval
+   */
+  void setGroupCommit(long intervalInMillis, int batchSize);
+
   /**
    * Sets whether the replication database must compute change numbers for
    * replicated changes. Change numbers are computed using a separate new
@@ -199,6 +199,19 @@ public interface ReplicationDomainDB
   boolean publishUpdateMsg(DN baseDN, UpdateMsg updateMsg)
       throws ChangelogException;
 
+  /**
+   * Runs the provided task once all the changes published so far are
+   * persisted, for example to acknowledge a change only once it is durable.
+   * <p>
+   * The task is run immediately if there is nothing to wait for, otherwise it
+   * is run by another thread. It is never run if the changes cannot be
+   * persisted, for example because the changelog is shutting down.
+   *
+   * @param task
+   *          the task to run
+   */
+  void runWhenDurable(Runnable task);
+
   /**
    * Let the DB know this replica is alive.
    * <p>
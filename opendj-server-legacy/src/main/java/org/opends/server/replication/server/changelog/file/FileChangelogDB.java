@@ -108,6 +108,8 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
    */
   private volatile long purgeDelayInMillis;
   private final AtomicReference<ChangelogDBPurger> cnPurger = new AtomicReference<>();
+  /** Performs the group commits of the replica DBs, null if group commit is disabled. */
+  private final AtomicReference<ReplicaDBSyncer> replicaDBSyncer = new AtomicReference<>();
 
   /** The local replication server. */
   private final ReplicationServer replicationServer;
@@ -290,6 +292,8 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
         startIndexer();
       }
       setPurgeDelay(replicationServer.getPurgeDelay());
+      setGroupCommit(replicationServer.getChangelogGroupCommitInterval(),
+          replicationServer.getChangelogGroupCommitBatchSize());
     }
     catch (ChangelogException e)
     {
@@ -334,6 +338,7 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
 
     shutdownCNIndexerAndPurger();
+    shutdownReplicaDBSyncer();
 
     // Remember the first exception because :
     // - we want to try to remove everything we want to remove
@@ -374,6 +379,24 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
   }
 
+  /** Stops the group commits, after the last published changes have been persisted. */
+  private void shutdownReplicaDBSyncer()
+  {
+    final ReplicaDBSyncer syncer = replicaDBSyncer.getAndSet(null);
+    if (syncer != null)
+    {
+      syncer.initiateShutdown();
+      try
+      {
+        syncer.join();
+      }
+      catch (InterruptedException e)
+      {
+        // do nothing: we are already shutting down
+      }
+    }
+  }
+
   private void shutdownCNIndexerAndPurger()
   {
     final ChangeNumberIndexer indexer = cnIndexer.getAndSet(null);
@@ -579,6 +602,36 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     }
   }
 
+  @Override
+  public void setGroupCommit(final long intervalInMillis, final int batchSize)
+  {
+    if (intervalInMillis > 0)
+    {
+      final ReplicaDBSyncer newSyncer = new ReplicaDBSyncer(replicationServer, intervalInMillis, batchSize);
+      if (replicaDBSyncer.compareAndSet(null, newSyncer))
+      {
+        newSyncer.start();
+      }
+      else
+      {
+        final ReplicaDBSyncer currentSyncer = replicaDBSyncer.get();
+        if (currentSyncer != null)
+        {
+          currentSyncer.setParameters(intervalInMillis, batchSize);
+        }
+      }
+    }
+    else
+    {
+      // the syncer persists the last published changes before exiting
+      final ReplicaDBSyncer syncerToStop = replicaDBSyncer.getAndSet(null);
+      if (syncerToStop != null)
+      {
+        syncerToStop.initiateShutdown();
+      }
+    }
+  }
+
   private void startCNPurger()
   {
     final ChangelogDBPurger newPurger = new ChangelogDBPurger();
@@ -809,6 +862,11 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
         csn.getServerId(), replicationServer);
     final FileReplicaDB replicaDB = pair.getFirst();
     replicaDB.add(updateMsg);
+    final ReplicaDBSyncer syncer = replicaDBSyncer.get();
+    if (syncer != null)
+    {
+      syncer.appended(replicaDB);
+    }
 
     ChangelogBackend.getInstance().notifyCookieEntryAdded(baseDN, updateMsg);
 
@@ -821,6 +879,20 @@ public class FileChangelogDB implements ChangelogDB, ReplicationDomainDB
     return pair.getSecond(); // replica DB was created
   }
 
+  @Override
+  public void runWhenDurable(final Runnable task)
+  {
+    final ReplicaDBSyncer syncer = replicaDBSyncer.get();
+    if (syncer != null)
+    {
+      syncer.runWhenDurable(task);
+    }
+    else
+    {
+      task.run();
+    }
+  }
+
   @Override
   public void replicaHeartbeat(final DN baseDN, final CSN heartbeatCSN) throws ChangelogException
   {
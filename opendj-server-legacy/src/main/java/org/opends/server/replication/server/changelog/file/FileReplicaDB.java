@@ -168,6 +168,18 @@ class FileReplicaDB
     }
   }
 
+  /**
+   * Synchronizes the changes added to this replicaDB with the file system,
+   * ensuring that they are persisted.
+   *
+   * @throws ChangelogException
+   *           If the synchronization fails.
+   */
+  void syncToFileSystem() throws ChangelogException
+  {
+    log.syncToFileSystem();
+  }
+
   /**
    * Get the oldest CSN that has not been purged yet.
    *
@@ -172,11 +172,11 @@ final class Log<K extends Comparable<K>, V> implements Closeable
 
   /**
    * The exclusive lock used for log rotation and lifecycle operations on this log:
-   * initialize, clear, sync and close.
+   * initialize, clear and close.
    */
   private final Lock exclusiveLock;
 
-  /** The shared lock used for write operations and accessing {@link #logFiles} map. */
+  /** The shared lock used for write and sync operations and accessing {@link #logFiles} map. */
   private final Lock sharedLock;
 
   /**
@@ -505,14 +505,19 @@ final class Log<K extends Comparable<K>, V> implements Closeable
    */
   public void syncToFileSystem() throws ChangelogException
   {
-    exclusiveLock.lock();
+    // The shared lock is enough to prevent rotation of the head log file:
+    // appends to other log files are not blocked while synchronizing
+    sharedLock.lock();
     try
     {
-      getHeadLogFile().syncToFileSystem();
+      if (!isClosed)
+      {
+        getHeadLogFile().syncToFileSystem();
+      }
     }
     finally
     {
-      exclusiveLock.unlock();
+      sharedLock.unlock();
     }
   }
 
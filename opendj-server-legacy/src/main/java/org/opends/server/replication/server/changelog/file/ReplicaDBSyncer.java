@@ -0,0 +1,300 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.server.changelog.file;
+
+import static org.opends.messages.ReplicationMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.replication.server.ReplicationServer;
+import org.opends.server.replication.server.changelog.api.ChangelogException;
+
+/**
+ * Thread performing group commits of the replica DBs: the changes appended to
+ * the replica DBs of all the replication domains are synchronized to the file
+ * system together, once per interval or as soon as a given number of changes
+ * has been appended, instead of once per change.
+ * <p>
+ * Tasks which must only run once the changes published so far are persisted,
+ * like sending safe data acknowledgements, are run by this thread right after
+ * the synchronization covering these changes. The tasks waiting for changes
+ * which are not synchronized when this thread terminates are never run.
+ */
+final class ReplicaDBSyncer extends DirectoryThread
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** A task waiting for the changes appended before its registration to be synchronized. */
+  private static final class DurabilityTask
+  {
+    private final long nbAppends;
+    private final Runnable task;
+
+    private DurabilityTask(long nbAppends, Runnable task)
+    {
+      this.nbAppends = nbAppends;
+      this.task = task;
+    }
+  }
+
+  /** The replica DBs with changes appended since they were last synchronized. */
+  private final Set<FileReplicaDB> replicaDBsToSync =
+      Collections.newSetFromMap(new ConcurrentHashMap<FileReplicaDB, Boolean>());
+  /** The tasks waiting for a synchronization, in registration order. */
+  private final Queue<DurabilityTask> durabilityTasks = new ConcurrentLinkedQueue<>();
+  /** The number of changes appended since this thread was started. */
+  private final AtomicLong nbAppends = new AtomicLong();
+  /** The number of changes appended before the start of the last successful synchronization. */
+  private volatile long nbSyncedAppends;
+  /** Whether this thread has completed its last synchronization and no longer synchronizes changes. */
+  private volatile boolean terminated;
+  /** Whether this thread is waiting for changes to be appended. */
+  private volatile boolean idle;
+
+  private final ReplicationServer replicationServer;
+  private volatile long syncIntervalInMillis;
+  private volatile int syncBatchSize;
+
+  /**
+   * Creates a new replica DB syncer.
+   *
+   * @param replicationServer
+   *          the replication server to shutdown if synchronizing fails, may be {@code null}
+   * @param syncIntervalInMillis
+   *          the maximum time in milliseconds between two synchronizations
+   * @param syncBatchSize
+   *          the number of appended changes triggering a synchronization before the end of the interval
+   */
+  ReplicaDBSyncer(ReplicationServer replicationServer, long syncIntervalInMillis, int syncBatchSize)
+  {
+    super("Changelog DB syncer");
+    this.replicationServer = replicationServer;
+    setParameters(syncIntervalInMillis, syncBatchSize);
+  }
+
+  /**
+   * Changes the group commit parameters.
+   *
+   * @param syncIntervalInMillis
+   *          the maximum time in milliseconds between two synchronizations, which must be positive
+   * @param syncBatchSize
+   *          the number of appended changes triggering a synchronization before the end of the interval
+   */
+  void setParameters(long syncIntervalInMillis, int syncBatchSize)
+  {
+    this.syncIntervalInMillis = syncIntervalInMillis;
+    this.syncBatchSize = syncBatchSize;
+  }
+
+  /**
+   * Notifies this thread that a change has been appended to the provided replica DB.
+   *
+   * @param replicaDB
+   *          the replica DB to which a change has been appended
+   */
+  void appended(FileReplicaDB replicaDB)
+  {
+    // The replica DB must be registered before counting the change, so that a
+    // synchronization covering this change always sees the replica DB
+    replicaDBsToSync.add(replicaDB);
+    final long nb = nbAppends.incrementAndGet();
+    if (idle || nb - nbSyncedAppends >= syncBatchSize)
+    {
+      wakeUp();
+    }
+  }
+
+  /**
+   * Runs the provided task once all the changes appended so far have been
+   * synchronized to the file system. The task is run immediately when there
+   * is nothing to synchronize, otherwise it is run by this thread. The task is
+   * never run if this thread terminates before synchronizing these changes.
+   *
+   * @param task
+   *          the task to run
+   */
+  void runWhenDurable(Runnable task)
+  {
+    final long nb = nbAppends.get();
+    if (nb <= nbSyncedAppends)
+    {
+      task.run();
+      return;
+    }
+    durabilityTasks.add(new DurabilityTask(nb, task));
+    if (terminated)
+    {
+      // Too late for this thread to pick the task up, or to synchronize the changes
+      terminateDurabilityTasks();
+    }
+    else if (nb <= nbSyncedAppends)
+    {
+      // A synchronization covering the task completed while it was being
+      // registered, and may have run the tasks before this one was added
+      runDurabilityTasks(nbSyncedAppends);
+    }
+  }
+
+  /**
+   * Returns the number of changes appended but not yet synchronized.
+   *
+   * @return the number of changes appended but not yet synchronized
+   */
+  long getNbUnsyncedAppends()
+  {
+    return nbAppends.get() - nbSyncedAppends;
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      while (!isShutdownInitiated())
+      {
+        waitForChanges();
+        sync();
+      }
+      // Persist the last changes before exiting
+      sync();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (ChangelogException e)
+    {
+      logger.error(ERR_CHANGELOG_SHUTDOWN_DATABASE_ERROR, stackTraceToSingleLineString(e));
+      if (replicationServer != null)
+      {
+        replicationServer.shutdown();
+      }
+    }
+    finally
+    {
+      terminated = true;
+      terminateDurabilityTasks();
+    }
+  }
+
+  private void waitForChanges() throws InterruptedException
+  {
+    synchronized (this)
+    {
+      if (nbAppends.get() == nbSyncedAppends && durabilityTasks.isEmpty())
+      {
+        idle = true;
+        try
+        {
+          // Check again now that appenders will wake us up
+          while (nbAppends.get() == nbSyncedAppends && durabilityTasks.isEmpty() && !isShutdownInitiated())
+          {
+            wait();
+          }
+        }
+        finally
+        {
+          idle = false;
+        }
+      }
+      final long interval = syncIntervalInMillis;
+      if (!isShutdownInitiated() && getNbUnsyncedAppends() < syncBatchSize && interval > 0)
+      {
+        wait(interval);
+      }
+    }
+  }
+
+  private void sync() throws ChangelogException
+  {
+    // Read the count first: all the changes it covers have their replica DB registered
+    final long nb = nbAppends.get();
+    for (Iterator<FileReplicaDB> it = replicaDBsToSync.iterator(); it.hasNext();)
+    {
+      final FileReplicaDB replicaDB = it.next();
+      it.remove();
+      replicaDB.syncToFileSystem();
+    }
+    nbSyncedAppends = nb;
+    runDurabilityTasks(nb);
+  }
+
+  private void runDurabilityTasks(long nbSynced)
+  {
+    DurabilityTask durabilityTask;
+    while ((durabilityTask = durabilityTasks.peek()) != null && durabilityTask.nbAppends <= nbSynced)
+    {
+      if (durabilityTasks.remove(durabilityTask))
+      {
+        runTask(durabilityTask);
+      }
+    }
+  }
+
+  /**
+   * Runs the remaining tasks covered by the last synchronization, and drops the
+   * others: their changes will not be synchronized, so they must not be
+   * reported as durable.
+   */
+  private void terminateDurabilityTasks()
+  {
+    final long nbSynced = nbSyncedAppends;
+    DurabilityTask durabilityTask;
+    while ((durabilityTask = durabilityTasks.poll()) != null)
+    {
+      if (durabilityTask.nbAppends <= nbSynced)
+      {
+        runTask(durabilityTask);
+      }
+    }
+  }
+
+  private void runTask(DurabilityTask durabilityTask)
+  {
+    try
+    {
+      durabilityTask.task.run();
+    }
+    catch (RuntimeException e)
+    {
+      logger.traceException(e);
+    }
+  }
+
+  private void wakeUp()
+  {
+    synchronized (this)
+    {
+      notify();
+    }
+  }
+
+  @Override
+  public void initiateShutdown()
+  {
+    super.initiateShutdown();
+    wakeUp();
+  }
+}
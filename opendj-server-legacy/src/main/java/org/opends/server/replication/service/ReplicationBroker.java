@@ -49,6 +49,7 @@ import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.server.config.server.ReplicationDomainCfg;
 import org.forgerock.util.Utils;
+import org.opends.server.api.MonitorData;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.replication.common.CSN;
 import org.opends.server.replication.common.DSInfo;
@@ -2821,6 +2822,22 @@ public class ReplicationBroker
     return session != null ? session.isEncrypted() : false;
   }
 
+  /**
+   * Adds the statistics of the connection to the replication server to the
+   * provided monitor data.
+   *
+   * @param attributes
+   *          the monitor data to which the statistics are added
+   */
+  public void addSessionMonitorData(MonitorData attributes)
+  {
+    final Session session = connectedRS.get().session;
+    if (session != null)
+    {
+      session.addMonitorData(attributes);
+    }
+  }
+
   /**
    * Signals the RS we just entered a new status.
    * @param newStatus The status the local DS just entered
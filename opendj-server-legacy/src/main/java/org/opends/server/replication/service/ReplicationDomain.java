@@ -2674,6 +2674,21 @@ public abstract class ReplicationDomain
     return broker != null && broker.isSessionEncrypted();
   }
 
+  /**
+   * Adds the statistics of the connection to the replication server to the
+   * provided monitor data.
+   *
+   * @param attributes
+   *          the monitor data to which the statistics are added
+   */
+  void addSessionMonitorData(MonitorData attributes)
+  {
+    if (broker != null)
+    {
+      broker.addSessionMonitorData(attributes);
+    }
+  }
+
   /**
    * Check if the domain is connected to a ReplicationServer.
    *
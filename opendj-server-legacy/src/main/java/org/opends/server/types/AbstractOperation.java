@@ -70,6 +70,8 @@ public abstract class AbstractOperation
 
   /** Whether nanotime was used for this operation. */
   private final boolean useNanoTime;
+  /** Whether the latencies of this operation are kept in histograms. */
+  private final boolean keepLatencyHistograms;
 
   /** The cancel request for this operation. */
   protected CancelRequest cancelRequest;
@@ -131,6 +133,8 @@ public abstract class AbstractOperation
   private long processingStartTime;
   /** The time that processing ended on this operation in milliseconds. */
   private long processingStopTime;
+  /** The time that this operation was created in nanoseconds, only set when keeping latency histograms. */
+  private final long creationNanoTime;
   /** The time that processing started on this operation in nanoseconds. */
   private long processingStartNanoTime;
   /** The time that processing ended on this operation in nanoseconds. */
@@ -159,6 +163,8 @@ public abstract class AbstractOperation
     this.operationID      = operationID;
     this.messageID        = messageID;
     this.useNanoTime = DirectoryServer.getCoreConfigManager().isUseNanoTime();
+    this.keepLatencyHistograms = clientConnection.isKeepingLatencyHistograms();
+    this.creationNanoTime = keepLatencyHistograms ? System.nanoTime() : 0;
     this.requestControls = requestControls != null ? requestControls : new ArrayList<Control>(0);
     authorizationEntry = clientConnection.getAuthenticationInfo().getAuthorizationEntry();
   }
@@ -579,7 +585,7 @@ public abstract class AbstractOperation
   public final void setProcessingStartTime()
   {
     processingStartTime = System.currentTimeMillis();
-    if(useNanoTime)
+    if (useNanoTime || keepLatencyHistograms)
     {
       processingStartNanoTime = System.nanoTime();
     }
@@ -621,6 +627,16 @@ public abstract class AbstractOperation
     return -1;
   }
 
+  @Override
+  public final long getQueueingNanoTime()
+  {
+    if (keepLatencyHistograms && processingStartTime != 0)
+    {
+      return processingStartNanoTime - creationNanoTime;
+    }
+    return -1;
+  }
+
   @Override
   public final void registerPostResponseCallback(Runnable callback)
   {
@@ -3679,6 +3679,33 @@ public class Entry
    */
   public boolean toLDIF(LDIFExportConfig exportConfig)
          throws IOException, LDIFException
+  {
+    return toLDIF(exportConfig, exportConfig.getWriter());
+  }
+
+
+  /**
+   * Writes this entry in LDIF form according to the provided
+   * configuration, but to the provided writer rather than to the
+   * writer of the configuration.  This allows several threads to
+   * encode the entries of the same export.
+   *
+   * @param  exportConfig  The configuration that specifies how the
+   *                       entry should be written.
+   * @param  writer        The writer to which the entry should be
+   *                       written.
+   *
+   * @return  {@code true} if the entry is actually written, or
+   *          {@code false} if it is not for some reason.
+   *
+   * @throws  IOException  If a problem occurs while writing the
+   *                       information.
+   *
+   * @throws  LDIFException  If a problem occurs while trying to
+   *                         determine whether to write the entry.
+   */
+  public boolean toLDIF(LDIFExportConfig exportConfig, BufferedWriter writer)
+         throws IOException, LDIFException
   {
     // See if this entry should be included in the export at all.
     try
@@ -3712,7 +3739,6 @@ public class Entry
 
 
     // Get the information necessary to write the LDIF.
-    BufferedWriter writer     = exportConfig.getWriter();
     int            wrapColumn = exportConfig.getWrapColumn();
     boolean        wrapLines  = wrapColumn > 1;
 
@@ -87,6 +87,8 @@ public final class LDIFExportConfig extends OperationConfig
 
   /** The column number at which long lines should be wrapped. */
   private int wrapColumn;
+  /** The number of threads encoding the exported entries. */
+  private int threadCount;
 
   /** The set of base DNs to exclude from the export. */
   private List<DN> excludeBranches;
@@ -452,6 +454,33 @@ public final class LDIFExportConfig extends OperationConfig
     this.wrapColumn = wrapColumn;
   }
 
+  /**
+   * Retrieves the number of threads which decode, filter and encode
+   * the exported entries, for the backends supporting it.
+   *
+   * @return  The number of threads, or a value less than or equal to
+   *          one to indicate that the entries are exported by a single
+   *          thread.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Specifies the number of threads which decode, filter and encode
+   * the exported entries, for the backends supporting it.  A value
+   * less than or equal to one indicates that the entries are exported
+   * by a single thread.  Whatever the number of threads, the entries
+   * are written in the same order.
+   *
+   * @param  threadCount  The number of threads.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
+
   /**
    * Retrieves the set of base DNs that specify the set of entries to
    * exclude from the export.  The list that is returned may be
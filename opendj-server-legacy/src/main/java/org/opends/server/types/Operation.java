@@ -555,6 +555,17 @@ public interface Operation extends Runnable
    */
   long getProcessingNanoTime();
 
+  /**
+   * Retrieves the length of time in nanoseconds that this operation
+   * waited, for example in the work queue, between its creation and
+   * the start of its processing.
+   *
+   * @return  The length of time in nanoseconds that this operation
+   *          waited before being processed or -1 if its latencies
+   *          are not kept or its processing has not started.
+   */
+  long getQueueingNanoTime();
+
   /**
    * Indicates that processing on this operation has completed
    * successfully and that the client should perform any associated
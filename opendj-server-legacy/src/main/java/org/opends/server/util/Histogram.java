@@ -0,0 +1,191 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.util.Reject;
+
+/**
+ * A histogram of non negative values using power of two buckets: bucket 0 counts the values up to 1, and bucket
+ * {@code i} counts the values greater than 2<sup>i-1</sup> and up to 2<sup>i</sup>. The last bucket also counts all
+ * the values which are greater than its upper bound.
+ * <p>
+ * Recording a value is a single atomic increment, so a histogram can be shared by several threads. Threads recording
+ * at a very high rate should preferably use their own histogram, histograms being merged when they are read with
+ * {@link #addCountsTo(long[])}.
+ */
+public final class Histogram
+{
+  private final AtomicLongArray counts;
+
+  /**
+   * Creates a new histogram.
+   *
+   * @param nbBuckets
+   *          the number of buckets, all the values greater than 2<sup>nbBuckets-2</sup> being counted in the last
+   *          bucket
+   */
+  public Histogram(int nbBuckets)
+  {
+    Reject.ifFalse(nbBuckets > 0 && nbBuckets < 64, "The number of buckets must be between 1 and 63");
+    counts = new AtomicLongArray(nbBuckets);
+  }
+
+  /**
+   * Records the provided value.
+   *
+   * @param value
+   *          the value to record, negative values being counted in the first bucket
+   */
+  public void record(long value)
+  {
+    counts.incrementAndGet(bucketOf(value));
+  }
+
+  /**
+   * Returns the number of buckets of this histogram.
+   *
+   * @return the number of buckets of this histogram
+   */
+  public int getNbBuckets()
+  {
+    return counts.length();
+  }
+
+  /**
+   * Returns a snapshot of the counts of each bucket.
+   *
+   * @return a snapshot of the counts of each bucket
+   */
+  public long[] getCounts()
+  {
+    return addCountsTo(new long[counts.length()]);
+  }
+
+  /**
+   * Adds the counts of each bucket of this histogram to the provided array, for example to merge several histograms.
+   *
+   * @param totals
+   *          the array to which the counts are added, which must have at least as many elements as this histogram
+   *          has buckets
+   * @return the provided array
+   */
+  public long[] addCountsTo(long[] totals)
+  {
+    for (int i = 0; i < counts.length(); i++)
+    {
+      totals[i] += counts.get(i);
+    }
+    return totals;
+  }
+
+  /** Resets all the counts to zero. Values which are recorded concurrently with this method may be lost. */
+  public void reset()
+  {
+    for (int i = 0; i < counts.length(); i++)
+    {
+      counts.set(i, 0);
+    }
+  }
+
+  /**
+   * Returns the upper bound of the values counted in the provided bucket.
+   *
+   * @param bucket
+   *          the bucket index
+   * @return the upper bound of the values counted in the provided bucket
+   */
+  public static long upperBound(int bucket)
+  {
+    return 1L << bucket;
+  }
+
+  /**
+   * Formats the provided counts as monitor attribute values, one value per non empty bucket, of the form
+   * {@code "<count> <=<upper bound><unit>"}, the last bucket being formatted as {@code "<count> ><lower bound><unit>"}.
+   *
+   * @param counts
+   *          the counts of each bucket, as returned by {@link #getCounts()}
+   * @param unit
+   *          the unit of the recorded values, appended to the bucket bounds, which may be empty
+   * @return the formatted values
+   */
+  public static List<String> toMonitorValues(long[] counts, String unit)
+  {
+    final List<String> values = new ArrayList<>();
+    final int last = counts.length - 1;
+    for (int i = 0; i < counts.length; i++)
+    {
+      if (counts[i] != 0)
+      {
+        final String bound = i < last || last == 0 ? "<=" + upperBound(i) : ">" + upperBound(i - 1);
+        values.add(counts[i] + " " + bound + unit);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns an estimate of the provided percentile of the recorded values: the upper bound of the bucket containing
+   * this percentile, which is at most twice the actual value, or the lower bound of the last bucket when the percentile
+   * falls in the last bucket.
+   *
+   * @param counts
+   *          the counts of each bucket, as returned by {@link #getCounts()}
+   * @param percentile
+   *          the percentile to estimate, between 0 and 100
+   * @return the estimated percentile, or -1 if no values were recorded
+   */
+  public static long percentile(long[] counts, double percentile)
+  {
+    long total = 0;
+    for (long count : counts)
+    {
+      total += count;
+    }
+    if (total == 0)
+    {
+      return -1;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    final int last = counts.length - 1;
+    long cumulated = 0;
+    for (int i = 0; i < last; i++)
+    {
+      cumulated += counts[i];
+      if (cumulated >= rank)
+      {
+        return upperBound(i);
+      }
+    }
+    return last == 0 ? upperBound(0) : upperBound(last - 1);
+  }
+
+  private int bucketOf(long value)
+  {
+    final int bucket = value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+    return Math.min(bucket, counts.length() - 1);
+  }
+
+  @Override
+  public String toString()
+  {
+    return toMonitorValues(getCounts(), "").toString();
+  }
+}
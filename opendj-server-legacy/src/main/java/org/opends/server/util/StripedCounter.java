@@ -0,0 +1,95 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which can be incremented by many threads concurrently without contending on a single memory location.
+ * <p>
+ * The count is spread over several cells, each on its own cache line, and each thread always updates the same cell.
+ * Updates are therefore cheap, whereas reading the count requires summing all the cells: this suits statistics which
+ * are updated on every operation but only read when monitoring.
+ * <p>
+ * The value returned by {@link #sum()} is not an atomic snapshot when updates are concurrent.
+ */
+public final class StripedCounter
+{
+  /** Number of longs in a cache line, so that two cells never share one. */
+  private static final int PADDING = 8;
+  /** Number of cells, a power of two. */
+  private static final int NB_CELLS = Integer.highestOneBit(Math.min(64, 2 * Runtime.getRuntime().availableProcessors()));
+  private static final int MASK = NB_CELLS - 1;
+
+  /** The cells, the first and last cache lines being left empty to avoid false sharing with other objects. */
+  private final AtomicLongArray cells = new AtomicLongArray((NB_CELLS + 2) * PADDING);
+
+  /**
+   * Adds the provided value to this counter.
+   *
+   * @param delta
+   *          the value to add
+   */
+  public void add(long delta)
+  {
+    cells.getAndAdd(cellIndex(), delta);
+  }
+
+  /** Increments this counter. */
+  public void increment()
+  {
+    add(1);
+  }
+
+  /**
+   * Returns the current value of this counter.
+   *
+   * @return the current value of this counter
+   */
+  public long sum()
+  {
+    long sum = 0;
+    for (int i = 1; i <= NB_CELLS; i++)
+    {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /** Resets this counter to zero. Updates which are concurrent with this method may be lost. */
+  public void reset()
+  {
+    for (int i = 1; i <= NB_CELLS; i++)
+    {
+      cells.set(i * PADDING, 0);
+    }
+  }
+
+  private static int cellIndex()
+  {
+    long h = Thread.currentThread().getId();
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (((int) h & MASK) + 1) * PADDING;
+  }
+
+  @Override
+  public String toString()
+  {
+    return Long.toString(sum());
+  }
+}
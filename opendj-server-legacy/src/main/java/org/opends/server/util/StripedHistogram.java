@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+/**
+ * A {@link Histogram} which can be recorded by many threads concurrently without contending on the same buckets.
+ * <p>
+ * The counts are spread over several histograms and each thread always records to the same one. Recording is therefore
+ * cheap, whereas reading the counts requires merging all the histograms: this suits statistics which are recorded on
+ * every operation but only read when monitoring.
+ */
+public final class StripedHistogram
+{
+  /** Number of stripes, a power of two. */
+  private static final int NB_STRIPES = Integer.highestOneBit(Math.min(32, 2 * Runtime.getRuntime().availableProcessors()));
+  private static final int MASK = NB_STRIPES - 1;
+
+  private final Histogram[] stripes = new Histogram[NB_STRIPES];
+
+  /**
+   * Creates a new striped histogram.
+   *
+   * @param nbBuckets
+   *          the number of buckets, as for {@link Histogram#Histogram(int)}
+   */
+  public StripedHistogram(int nbBuckets)
+  {
+    for (int i = 0; i < NB_STRIPES; i++)
+    {
+      stripes[i] = new Histogram(nbBuckets);
+    }
+  }
+
+  /**
+   * Records the provided value.
+   *
+   * @param value
+   *          the value to record, negative values being counted in the first bucket
+   */
+  public void record(long value)
+  {
+    stripes[stripeIndex()].record(value);
+  }
+
+  /**
+   * Returns a snapshot of the counts of each bucket, merged over all the stripes.
+   *
+   * @return a snapshot of the counts of each bucket
+   */
+  public long[] getCounts()
+  {
+    final long[] counts = new long[stripes[0].getNbBuckets()];
+    for (Histogram stripe : stripes)
+    {
+      stripe.addCountsTo(counts);
+    }
+    return counts;
+  }
+
+  /** Resets all the counts to zero. Values which are recorded concurrently with this method may be lost. */
+  public void reset()
+  {
+    for (Histogram stripe : stripes)
+    {
+      stripe.reset();
+    }
+  }
+
+  private static int stripeIndex()
+  {
+    long h = Thread.currentThread().getId();
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h & MASK;
+  }
+
+  @Override
+  public String toString()
+  {
+    return Histogram.toMonitorValues(getCounts(), "").toString();
+  }
+}
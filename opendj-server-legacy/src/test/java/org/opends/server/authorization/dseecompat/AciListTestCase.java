@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.authorization.dseecompat;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AciListTestCase extends DirectoryServerTestCase
+{
+  private static final String READ_ACI =
+      "aci: (targetattr=\"*\")(version 3.0; acl \"read\"; allow(read) userdn=\"ldap:///anyone\";)";
+  private static final String WRITE_ACI =
+      "aci: (targetattr=\"*\")(version 3.0; acl \"write\"; allow(write) userdn=\"ldap:///self\";)";
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startFakeServer();
+  }
+
+  @AfterClass
+  public void tearDown() throws DirectoryException
+  {
+    TestCaseUtils.shutdownFakeServer();
+  }
+
+  private Entry aciEntry(String dn, String aci) throws Exception
+  {
+    return TestCaseUtils.makeEntry(
+        "dn: " + dn,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        aci);
+  }
+
+  @Test
+  public void testCandidateAcisFollowAciChanges() throws Exception
+  {
+    final AciList aciList = new AciList(DN.valueOf("cn=config"));
+    final DN userDN = DN.valueOf("uid=user.0,ou=people,o=test");
+    final List<LocalizableMessage> failedAcis = new ArrayList<>();
+    assertThat(aciList.getCandidateAcis(userDN)).isEmpty();
+
+    assertThat(aciList.addAci(aciEntry("o=test", READ_ACI), true, false, failedAcis)).isEqualTo(1);
+    final List<Aci> candidates = aciList.getCandidateAcis(userDN);
+    assertThat(candidates).hasSize(1);
+    assertThat(aciList.getCandidateAcis(userDN)).isSameAs(candidates);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("o=other"))).isEmpty();
+
+    final Entry people = aciEntry("ou=people,o=test", WRITE_ACI);
+    assertThat(aciList.addAci(people, true, false, failedAcis)).isEqualTo(1);
+    assertThat(aciList.getCandidateAcis(userDN)).hasSize(2);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("ou=groups,o=test"))).hasSize(1);
+
+    aciList.renameAci(DN.valueOf("ou=people,o=test"), DN.valueOf("ou=staff,o=test"));
+    assertThat(aciList.getCandidateAcis(userDN)).hasSize(1);
+    assertThat(aciList.getCandidateAcis(DN.valueOf("uid=user.0,ou=staff,o=test"))).hasSize(2);
+
+    assertThat(aciList.removeAci(aciEntry("ou=staff,o=test", WRITE_ACI), true, false)).isTrue();
+    assertThat(aciList.getCandidateAcis(DN.valueOf("uid=user.0,ou=staff,o=test"))).hasSize(1);
+    assertThat(failedAcis).isEmpty();
+  }
+
+  @Test
+  public void testPublishedCandidatesAreNotModifiedByLaterChanges() throws Exception
+  {
+    final AciList aciList = new AciList(DN.valueOf("cn=config"));
+    final DN userDN = DN.valueOf("uid=user.0,o=test");
+    final List<LocalizableMessage> failedAcis = new ArrayList<>();
+
+    aciList.addAci(aciEntry("o=test", READ_ACI), true, false, failedAcis);
+    final List<Aci> candidates = aciList.getCandidateAcis(userDN);
+    aciList.addAci(aciEntry("o=test", WRITE_ACI), true, false, failedAcis);
+
+    assertThat(candidates).hasSize(1);
+    assertThat(aciList.getCandidateAcis(userDN)).hasSize(2);
+  }
+
+  @Test
+  public void testChangesOfEntriesWithoutAcisKeepThePublishedAcis() throws Exception
+  {
+    final AciList aciList = new AciList(DN.valueOf("cn=config"));
+    final DN userDN = DN.valueOf("uid=user.0,ou=people,o=test");
+    final List<LocalizableMessage> failedAcis = new ArrayList<>();
+    aciList.addAci(aciEntry("o=test", READ_ACI), true, false, failedAcis);
+    final List<Aci> candidates = aciList.getCandidateAcis(userDN);
+
+    final Entry user = TestCaseUtils.makeEntry(
+        "dn: " + userDN,
+        "objectClass: top",
+        "objectClass: person",
+        "cn: user.0",
+        "sn: user.0");
+    assertThat(aciList.removeAci(user, false, false)).isFalse();
+    assertThat(aciList.getCandidateAcis(userDN)).isSameAs(candidates);
+
+    aciList.renameAci(DN.valueOf("ou=people,o=test"), DN.valueOf("ou=staff,o=test"));
+    assertThat(aciList.getCandidateAcis(userDN)).isSameAs(candidates);
+
+    // Deleting the entry holding the ACIs publishes new ACIs
+    assertThat(aciList.removeAci(aciEntry("o=test", READ_ACI), true, false)).isTrue();
+    assertThat(aciList.getCandidateAcis(userDN)).isEmpty();
+  }
+}
@@ -0,0 +1,552 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.StorageSnapshot;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LSMStorageTest extends DirectoryServerTestCase
+{
+  private static final int NB_RECORDS = 2000;
+
+  private final TreeName treeName = new TreeName("dc=test", "test");
+  private ServerContext serverContext;
+  private LSMStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    serverContext = mock(ServerContext.class);
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+    storage = new LSMStorage(createBackendCfg(), serverContext);
+    storage.removeStorageFiles();
+    storage.open(AccessMode.READ_WRITE);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+        txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("1"));
+        txn.put(treeName, valueOfUtf8("c"), valueOfUtf8("3"));
+      }
+    });
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+  }
+
+  @Test
+  public void testFailedWriteIsNotApplied() throws Exception
+  {
+    final TreeName otherTreeName = new TreeName("dc=test", "other");
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("updated"));
+          txn.put(treeName, valueOfUtf8("b"), valueOfUtf8("2"));
+          txn.delete(treeName, valueOfUtf8("c"));
+          txn.openTree(otherTreeName, true);
+          assertThat(txn.read(treeName, valueOfUtf8("a"))).isEqualTo(valueOfUtf8("updated"));
+          assertThat(txn.read(treeName, valueOfUtf8("c"))).isNull();
+          throw new IllegalStateException("rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // expected
+    }
+
+    assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("1"));
+    assertThat(read(valueOfUtf8("b"))).isNull();
+    assertThat(read(valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+    assertThat(storage.listTrees()).containsOnly(treeName);
+  }
+
+  @Test
+  public void testCursorPositioning() throws Exception
+  {
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKey(valueOfUtf8("b"))).isFalse();
+          assertThat(cursor.isDefined()).isFalse();
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("c"));
+          assertThat(cursor.next()).isFalse();
+          assertThat(cursor.positionToKeyOrNext(valueOfUtf8("0"))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("a"));
+          assertThat(cursor.positionToIndex(1)).isTrue();
+          assertThat(cursor.getValue()).isEqualTo(valueOfUtf8("3"));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("c"));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testRecordsAreMergedAcrossTables() throws Exception
+  {
+    // The memory table is small enough to be written to several sorted tables, which are merged
+    for (int i = 0; i < NB_RECORDS; i++)
+    {
+      put(key(i), valueOfUtf8("value" + i));
+    }
+    for (int i = 0; i < NB_RECORDS; i += 2)
+    {
+      delete(key(i));
+    }
+    put(key(1), valueOfUtf8("updated"));
+
+    assertOddRecords();
+    assertThat(getTableFiles()).isNotEmpty();
+
+    storage.close();
+    storage = new LSMStorage(createBackendCfg(), serverContext);
+    storage.open(AccessMode.READ_WRITE);
+    assertOddRecords();
+  }
+
+  @Test
+  public void testWriteAheadLogIsReplayed() throws Exception
+  {
+    put(valueOfUtf8("b"), valueOfUtf8("2"));
+    delete(valueOfUtf8("c"));
+
+    // Open the same files while the changes are only in the write-ahead log, as after an abnormal exit
+    final LSMStorage otherStorage = new LSMStorage(createBackendCfg(), serverContext);
+    otherStorage.open(AccessMode.READ_ONLY);
+    try
+    {
+      final LSMStorage previousStorage = storage;
+      storage = otherStorage;
+      try
+      {
+        assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("1"));
+        assertThat(read(valueOfUtf8("b"))).isEqualTo(valueOfUtf8("2"));
+        assertThat(read(valueOfUtf8("c"))).isNull();
+      }
+      finally
+      {
+        storage = previousStorage;
+      }
+    }
+    finally
+    {
+      otherStorage.close();
+    }
+  }
+
+  /** The write operations of several threads share the syncs of the write-ahead log, including across log files. */
+  @Test(timeOut = 120000)
+  public void testConcurrentWritesAreSyncedAndPublished() throws Exception
+  {
+    storage.close();
+    final LSMBackendCfg syncedCfg = createBackendCfg();
+    when(syncedCfg.isDBTxnNoSync()).thenReturn(false);
+    storage = new LSMStorage(syncedCfg, serverContext);
+    storage.open(AccessMode.READ_WRITE);
+
+    final int nbThreads = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+    try
+    {
+      final List<Future<Void>> writes = new ArrayList<>();
+      for (int t = 0; t < nbThreads; t++)
+      {
+        final int firstKey = t;
+        writes.add(executor.submit(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws Exception
+          {
+            for (int i = firstKey; i < NB_RECORDS; i += nbThreads)
+            {
+              put(key(i), valueOfUtf8("value" + i));
+              // Published as soon as the write operation returns
+              assertThat(read(key(i))).isEqualTo(valueOfUtf8("value" + i));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> write : writes)
+      {
+        write.get();
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    // Open the same files while the last changes are only in the write-ahead log, as after an abnormal exit
+    final LSMStorage otherStorage = new LSMStorage(createBackendCfg(), serverContext);
+    otherStorage.open(AccessMode.READ_ONLY);
+    try
+    {
+      otherStorage.read(new ReadOperation<Void>()
+      {
+        @Override
+        public Void run(ReadableTransaction txn) throws Exception
+        {
+          assertThat(txn.getRecordCount(treeName)).isEqualTo(NB_RECORDS + 2);
+          return null;
+        }
+      });
+    }
+    finally
+    {
+      otherStorage.close();
+    }
+  }
+
+  @Test
+  public void testDeletedTreeIsEmptyWhenRecreated() throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.deleteTree(treeName);
+        txn.openTree(treeName, true);
+      }
+    });
+
+    assertThat(read(valueOfUtf8("a"))).isNull();
+    assertThat(storage.listTrees()).containsOnly(treeName);
+  }
+
+  @Test
+  public void testSnapshotIsNotAffectedByLaterWrites() throws Exception
+  {
+    for (int i = 0; i < NB_RECORDS; i++)
+    {
+      put(key(i), valueOfUtf8("value" + i));
+    }
+    final StorageSnapshot snapshot = storage.openSnapshot();
+    try
+    {
+      assertThat(snapshot.isConsistent()).isTrue();
+      // Write enough records for the sorted tables read by the snapshot to be merged
+      for (int i = 0; i < NB_RECORDS; i += 2)
+      {
+        delete(key(i));
+      }
+      delete(valueOfUtf8("a"));
+      put(key(1), valueOfUtf8("updated"));
+
+      snapshot.read(new ReadOperation<Void>()
+      {
+        @Override
+        public Void run(ReadableTransaction txn) throws Exception
+        {
+          assertThat(txn.getRecordCount(treeName)).isEqualTo(NB_RECORDS + 2);
+          assertThat(txn.read(treeName, valueOfUtf8("a"))).isEqualTo(valueOfUtf8("1"));
+          assertThat(txn.read(treeName, key(0))).isEqualTo(valueOfUtf8("value0"));
+          assertThat(txn.read(treeName, key(1))).isEqualTo(valueOfUtf8("value1"));
+          try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+          {
+            assertThat(cursor.positionToKeyOrNext(key(2))).isTrue();
+            assertThat(cursor.getKey()).isEqualTo(key(2));
+          }
+          return null;
+        }
+      });
+    }
+    finally
+    {
+      snapshot.close();
+    }
+
+    assertOddRecords();
+    try
+    {
+      snapshot.read(new ReadOperation<Void>()
+      {
+        @Override
+        public Void run(ReadableTransaction txn) throws Exception
+        {
+          return null;
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // expected
+    }
+  }
+
+  @Test(timeOut = 30000)
+  public void testReadOperationsDoNotBlockWriteOperations() throws Exception
+  {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch writeDone = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      final Future<ByteString> readResult = executor.submit(new Callable<ByteString>()
+      {
+        @Override
+        public ByteString call() throws Exception
+        {
+          return storage.read(new ReadOperation<ByteString>()
+          {
+            @Override
+            public ByteString run(ReadableTransaction txn) throws Exception
+            {
+              assertThat(txn.read(treeName, valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+              readStarted.countDown();
+              writeDone.await();
+              // The changes committed after the read operation started are not read
+              assertThat(txn.read(treeName, valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+              return txn.read(treeName, valueOfUtf8("a"));
+            }
+          });
+        }
+      });
+      readStarted.await();
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("updated"));
+          txn.delete(treeName, valueOfUtf8("c"));
+        }
+      });
+      writeDone.countDown();
+
+      assertThat(readResult.get()).isEqualTo(valueOfUtf8("1"));
+      assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("updated"));
+      assertThat(read(valueOfUtf8("c"))).isNull();
+    }
+    finally
+    {
+      writeDone.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  /** Each write operation updates both records, which must never be read from different write operations. */
+  @Test(timeOut = 60000)
+  public void testReadOperationsNeverReadPartOfAWriteOperation() throws Exception
+  {
+    put(valueOfUtf8("a"), valueOfUtf8("0"));
+    put(valueOfUtf8("c"), valueOfUtf8("0"));
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      // Enough write operations for the memory table to be written to sorted tables, which are merged
+      final Future<?> writes = executor.submit(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws Exception
+        {
+          for (int i = 1; i <= NB_RECORDS; i++)
+          {
+            final ByteString value = valueOfUtf8(Integer.toString(i));
+            storage.write(new WriteOperation()
+            {
+              @Override
+              public void run(WriteableTransaction txn) throws Exception
+              {
+                txn.put(treeName, valueOfUtf8("a"), value);
+                txn.put(treeName, valueOfUtf8("c"), value);
+              }
+            });
+          }
+          return null;
+        }
+      });
+      int lastValue = 0;
+      while (!writes.isDone() || lastValue < NB_RECORDS)
+      {
+        lastValue = storage.read(new ReadOperation<Integer>()
+        {
+          @Override
+          public Integer run(ReadableTransaction txn) throws Exception
+          {
+            // The later reads cannot read older changes
+            final int c = Integer.parseInt(txn.read(treeName, valueOfUtf8("c")).toString());
+            final int a = Integer.parseInt(txn.read(treeName, valueOfUtf8("a")).toString());
+            assertThat(a).isGreaterThanOrEqualTo(c);
+            try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+            {
+              assertThat(cursor.next()).isTrue();
+              final int cursorA = Integer.parseInt(cursor.getValue().toString());
+              assertThat(cursor.next()).isTrue();
+              assertThat(Integer.parseInt(cursor.getValue().toString())).isGreaterThanOrEqualTo(cursorA);
+              assertThat(cursorA).isGreaterThanOrEqualTo(a);
+            }
+            return a;
+          }
+        });
+        if (writes.isDone())
+        {
+          writes.get();
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private void assertOddRecords() throws Exception
+  {
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(NB_RECORDS / 2 + 2);
+        assertThat(txn.read(treeName, key(0))).isNull();
+        assertThat(txn.read(treeName, key(1))).isEqualTo(valueOfUtf8("updated"));
+        assertThat(txn.read(treeName, key(NB_RECORDS - 1))).isEqualTo(valueOfUtf8("value" + (NB_RECORDS - 1)));
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKeyOrNext(key(2))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(3));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(NB_RECORDS - 1));
+        }
+        return null;
+      }
+    });
+  }
+
+  private File[] getTableFiles()
+  {
+    return storage.getDirectory().listFiles(new FilenameFilter()
+    {
+      @Override
+      public boolean accept(File dir, String name)
+      {
+        return name.endsWith(".sst");
+      }
+    });
+  }
+
+  private static ByteString key(int i)
+  {
+    return valueOfUtf8(String.format("key%06d", i));
+  }
+
+  private void put(final ByteString key, final ByteString value) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, key, value);
+      }
+    });
+  }
+
+  private void delete(final ByteString key) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.delete(treeName, key);
+      }
+    });
+  }
+
+  private ByteString read(final ByteString key) throws Exception
+  {
+    return storage.read(new ReadOperation<ByteString>()
+    {
+      @Override
+      public ByteString run(ReadableTransaction txn) throws Exception
+      {
+        return txn.read(treeName, key);
+      }
+    });
+  }
+
+  private LSMBackendCfg createBackendCfg()
+  {
+    LSMBackendCfg backendCfg = mockCfg(LSMBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("LSMStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("LSMStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.isDBTxnNoSync()).thenReturn(true);
+    when(backendCfg.getDBMemtableSize()).thenReturn(16L * 1024);
+    when(backendCfg.getDBCompactionThreshold()).thenReturn(2);
+    return backendCfg;
+  }
+}
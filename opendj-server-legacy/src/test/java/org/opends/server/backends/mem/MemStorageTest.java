@@ -0,0 +1,260 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.mem;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.MemBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MemStorageTest extends DirectoryServerTestCase
+{
+  private final TreeName treeName = new TreeName("dc=test", "test");
+  private MemStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    storage = new MemStorage(createBackendCfg());
+    storage.removeStorageFiles();
+    storage.open(AccessMode.READ_WRITE);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(treeName, true);
+        txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("1"));
+        txn.put(treeName, valueOfUtf8("c"), valueOfUtf8("3"));
+      }
+    });
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+  }
+
+  @Test
+  public void testFailedWriteIsRolledBack() throws Exception
+  {
+    final TreeName otherTreeName = new TreeName("dc=test", "other");
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("updated"));
+          txn.put(treeName, valueOfUtf8("b"), valueOfUtf8("2"));
+          txn.delete(treeName, valueOfUtf8("c"));
+          txn.openTree(otherTreeName, true);
+          throw new IllegalStateException("rollback");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // expected
+    }
+
+    assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("1"));
+    assertThat(read(valueOfUtf8("b"))).isNull();
+    assertThat(read(valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+    assertThat(storage.listTrees()).containsOnly(treeName);
+  }
+
+  @Test
+  public void testCursorPositioning() throws Exception
+  {
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.positionToKey(valueOfUtf8("b"))).isFalse();
+          assertThat(cursor.isDefined()).isFalse();
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("c"));
+          assertThat(cursor.next()).isFalse();
+          assertThat(cursor.positionToKeyOrNext(valueOfUtf8("0"))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("a"));
+          assertThat(cursor.positionToIndex(1)).isTrue();
+          assertThat(cursor.getValue()).isEqualTo(valueOfUtf8("3"));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("c"));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testWriteOperationReadsItsOwnChanges() throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, valueOfUtf8("b"), valueOfUtf8("2"));
+        txn.delete(treeName, valueOfUtf8("c"));
+        assertThat(txn.read(treeName, valueOfUtf8("b"))).isEqualTo(valueOfUtf8("2"));
+        assertThat(txn.read(treeName, valueOfUtf8("c"))).isNull();
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("a"));
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("b"));
+          assertThat(cursor.next()).isFalse();
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("b"));
+        }
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(2);
+      }
+    });
+    assertThat(read(valueOfUtf8("b"))).isEqualTo(valueOfUtf8("2"));
+    assertThat(read(valueOfUtf8("c"))).isNull();
+  }
+
+  @Test(timeOut = 30000)
+  public void testReadOperationsDoNotBlockWriteOperations() throws Exception
+  {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch writeDone = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      final Future<ByteString> readResult = executor.submit(new Callable<ByteString>()
+      {
+        @Override
+        public ByteString call() throws Exception
+        {
+          return storage.read(new ReadOperation<ByteString>()
+          {
+            @Override
+            public ByteString run(ReadableTransaction txn) throws Exception
+            {
+              assertThat(txn.read(treeName, valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+              readStarted.countDown();
+              writeDone.await();
+              // The changes committed after the read operation started are not read
+              assertThat(txn.read(treeName, valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+              try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+              {
+                assertThat(cursor.positionToLastKey()).isTrue();
+                assertThat(cursor.getKey()).isEqualTo(valueOfUtf8("c"));
+              }
+              return txn.read(treeName, valueOfUtf8("a"));
+            }
+          });
+        }
+      });
+      readStarted.await();
+      for (int i = 0; i < 3; i++)
+      {
+        storage.write(new WriteOperation()
+        {
+          @Override
+          public void run(WriteableTransaction txn) throws Exception
+          {
+            txn.put(treeName, valueOfUtf8("a"), valueOfUtf8("updated"));
+            txn.delete(treeName, valueOfUtf8("c"));
+          }
+        });
+      }
+      writeDone.countDown();
+
+      assertThat(readResult.get()).isEqualTo(valueOfUtf8("1"));
+      assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("updated"));
+      assertThat(read(valueOfUtf8("c"))).isNull();
+    }
+    finally
+    {
+      writeDone.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSnapshotIsReloaded() throws Exception
+  {
+    storage.close();
+
+    storage = new MemStorage(createBackendCfg());
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(storage.listTrees()).containsOnly(treeName);
+    assertThat(read(valueOfUtf8("a"))).isEqualTo(valueOfUtf8("1"));
+    assertThat(read(valueOfUtf8("c"))).isEqualTo(valueOfUtf8("3"));
+  }
+
+  private ByteString read(final ByteString key) throws Exception
+  {
+    return storage.read(new ReadOperation<ByteString>()
+    {
+      @Override
+      public ByteString run(ReadableTransaction txn) throws Exception
+      {
+        return txn.read(treeName, key);
+      }
+    });
+  }
+
+  private MemBackendCfg createBackendCfg()
+  {
+    MemBackendCfg backendCfg = mockCfg(MemBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("MemStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("MemStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.isDBSnapshotEnabled()).thenReturn(true);
+    return backendCfg;
+  }
+}
@@ -38,6 +38,7 @@ import org.opends.server.TestCaseUtils;
 import org.opends.server.backends.pdb.PDBStorage;
 import org.opends.server.backends.pluggable.spi.AccessMode;
 import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadCommittedSnapshot;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
@@ -220,6 +221,38 @@ public class DN2IDTest extends DirectoryServerTestCase
                    get("cn=foofoo,ou=People,dc=example,dc=com"));
   }
 
+  @Test
+  public void testKeyFilter() throws Exception
+  {
+    dn2ID = new DN2ID(dn2IDTreeName, baseDN, true);
+    put(dn("dc=example,dc=com"), 1);
+    put(dn("ou=People,dc=example,dc=com"), 2);
+    assertThat(get("ou=Devices,dc=example,dc=com")).isNull();
+    assertThat(dn2ID.getKeyFilter().getStats()).contains("state:building");
+
+    // Written while the filter is built, before being published
+    put(dn("ou=Devices,dc=example,dc=com"), 3);
+    assertThat(dn2ID.getKeyFilter().build(new ReadCommittedSnapshot(storage))).isEqualTo(3);
+    put(dn("cn=dev0,ou=Devices,dc=example,dc=com"), 4);
+
+    assertThat(get("dc=example,dc=com")).isEqualTo(id(1));
+    assertThat(get("ou=People,dc=example,dc=com")).isEqualTo(id(2));
+    assertThat(get("ou=Devices,dc=example,dc=com")).isEqualTo(id(3));
+    assertThat(get("cn=dev0,ou=Devices,dc=example,dc=com")).isEqualTo(id(4));
+    for (int i = 0; i < 100; i++)
+    {
+      assertThat(get("uid=user." + i + ",ou=People,dc=example,dc=com")).isNull();
+    }
+    assertThat(dn2ID.getKeyFilter().getStats()).contains("state:ready", "lookups:104");
+
+    assertThat(remove("ou=People,dc=example,dc=com")).isTrue();
+    assertThat(get("ou=People,dc=example,dc=com")).isNull();
+
+    dn2ID.getKeyFilter().disable();
+    assertThat(get("dc=example,dc=com")).isEqualTo(id(1));
+    assertThat(dn2ID.getKeyFilter().getStats()).contains("state:disabled");
+  }
+
   private EntryID get(final String dn) throws Exception
   {
     return storage.read(new ReadOperation<EntryID>()
@@ -290,9 +290,77 @@ public class EntryIDSetTest extends DirectoryServerTestCase
     assertIdsEquals(retained, 1, 3, 5, 7, 9);
   }
 
+  @Test
+  public void testBitmapAddRemove()
+  {
+    final EntryIDSet set = newDefinedBitmapSet(6, 8, 10, 12);
+
+    assertThat(set.add(id(4))).isTrue();
+    assertThat(set.add(id(100000))).isTrue();
+    assertThat(set.add(id(10))).isFalse();
+    assertIdsEquals(set, 4, 6, 8, 10, 12, 100000);
+
+    assertThat(set.remove(id(8))).isTrue();
+    assertThat(set.remove(id(8))).isFalse();
+    assertThat(set.contains(id(100000))).isTrue();
+    assertThat(set.contains(id(8))).isFalse();
+    assertThat(set.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void testBitmapSetOperations()
+  {
+    final long[] dense = new long[10000];
+    for (int i = 0; i < dense.length; i++)
+    {
+      dense[i] = i * 2;
+    }
+    final EntryIDSet set = newDefinedBitmapSet(dense);
+    set.retainAll(newDefinedBitmapSet(1, 2, 3, 4, 19998, 70000));
+    assertThat(set.toLongArray()).containsExactly(2, 4, 19998);
+
+    set.addAll(newDefinedBitmapSet(3, 5, 70000));
+    assertThat(set.toLongArray()).containsExactly(2, 3, 4, 5, 19998, 70000);
+
+    set.removeAll(newDefinedSet(4, 5, 70000));
+    assertThat(set.toLongArray()).containsExactly(2, 3, 19998);
+
+    final EntryIDSet mixed = newDefinedSet(1, 2, 3);
+    mixed.retainAll(newDefinedBitmapSet(dense));
+    assertThat(mixed.toLongArray()).containsExactly(2);
+
+    final EntryIDSet union =
+        newSetFromUnion(Arrays.asList(newDefinedSet(1, 2, 3), newDefinedBitmapSet(3, 4), newDefinedSet()));
+    assertThat(union.toLongArray()).containsExactly(1, 2, 3, 4);
+  }
+
+  @Test
+  public void testBitmapCodecRoundTrip()
+  {
+    final long[] ids = new long[20000];
+    for (int i = 0; i < ids.length; i++)
+    {
+      ids[i] = (i % 2 == 0) ? i : 1000000L + i * 37;
+    }
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, CODEC_V4.encode(newDefinedSet(ids)));
+    assertThat(decoded.toLongArray()).isEqualTo(ids);
+  }
+
+  @Test
+  public void testBitmapCodecEmptyDefinedSet()
+  {
+    final ByteString encoded = CODEC_V4.encode(newDefinedSet());
+    // Must not be mistaken for a value encoded by EntryIDSetCodecV3
+    assertThat(encoded.byteAt(0)).isNotEqualTo((byte) 0x00);
+
+    final EntryIDSet decoded = CODEC_V4.decode(KEY, encoded);
+    assertThat(decoded.isDefined()).isTrue();
+    assertThat(decoded.size()).isEqualTo(0);
+  }
+
   @DataProvider(name = "codecs")
   public static Object[][] codecs() {
-     return new Object[][] { { CODEC_V1 }, { CODEC_V2 } };
+     return new Object[][] { { CODEC_V1 }, { CODEC_V2 }, { CODEC_V4 } };
   }
 
 }
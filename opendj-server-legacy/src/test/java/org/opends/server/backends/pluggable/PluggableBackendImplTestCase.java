@@ -35,6 +35,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ConditionResult;
@@ -79,6 +81,7 @@ import org.opends.server.types.BackupConfig;
 import org.opends.server.types.BackupDirectory;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
 import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.types.LDIFImportConfig;
 import org.opends.server.types.Modification;
@@ -925,6 +928,102 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testMultiReadID2Entry() throws Exception
+  {
+    final EntryContainer entryContainer = backend.getRootContainer().getEntryContainer(testBaseDN);
+    backend.getRootContainer().getStorage().read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        final EntryID baseID = entryContainer.getDN2ID().get(txn, testBaseDN);
+        final EntryID peopleID = entryContainer.getDN2ID().get(txn, testBaseDN.child(DN.valueOf("ou=People")));
+        final EntryID missingID = new EntryID(Long.MAX_VALUE);
+        final ID2Entry id2entry = entryContainer.getID2Entry();
+
+        final List<Entry> actual = id2entry.get(txn, Arrays.asList(baseID, peopleID, missingID));
+        assertThat(actual).hasSize(3);
+        assertThat(actual.get(0).getName()).isEqualTo(testBaseDN);
+        assertThat(actual.get(1).getName()).isEqualTo(id2entry.get(txn, peopleID).getName());
+        assertThat(actual.get(2)).isNull();
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testParallelExportLDIF() throws Exception
+  {
+    String sequentialExport = exportLDIF(0);
+    assertThat(sequentialExport).contains(searchDN.toString());
+    assertThat(exportLDIF(4)).isEqualTo(sequentialExport);
+  }
+
+  private String exportLDIF(int threadCount) throws Exception
+  {
+    ByteArrayOutputStream ldifOutputContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(ldifOutputContent))
+    {
+      exportConfig.setIncludeOperationalAttributes(true);
+      exportConfig.setThreadCount(threadCount);
+      backend.exportLDIF(exportConfig);
+    }
+    return ldifOutputContent.toString();
+  }
+
+  /** The export reads the records by chunks, which must not export an entry twice or a child before its parent. */
+  @Test
+  public void testExportLDIFReadByChunks() throws Exception
+  {
+    final DN exportDN = testBaseDN.child(DN.valueOf("ou=Export"));
+    final List<Entry> exportEntries = new ArrayList<>();
+    exportEntries.add(TestCaseUtils.makeEntry(
+        "dn: " + exportDN,
+        "objectClass: top",
+        "objectClass: organizationalUnit",
+        "ou: Export"));
+    for (int i = 0; i < ExportJob.READ_CHUNK_SIZE + 100; i++)
+    {
+      exportEntries.add(TestCaseUtils.makeEntry(
+          "dn: cn=export." + i + "," + exportDN,
+          "objectClass: top",
+          "objectClass: device",
+          "cn: export." + i));
+    }
+    addEntriesToBackend(exportEntries);
+    try
+    {
+      final String sequentialExport = exportLDIF(0);
+      assertThat(exportLDIF(4)).isEqualTo(sequentialExport);
+
+      final Set<DN> exportedDNs = new HashSet<>();
+      for (String line : sequentialExport.split("\n"))
+      {
+        if (line.startsWith("dn: "))
+        {
+          final DN dn = DN.valueOf(line.substring("dn: ".length()).trim());
+          assertTrue(exportedDNs.add(dn), "Entry exported twice: " + dn);
+          assertTrue(dn.equals(testBaseDN) || exportedDNs.contains(dn.parent()),
+              "Entry exported before its parent: " + dn);
+        }
+      }
+      assertEquals(exportedDNs.size(), backend.getEntryCount());
+      for (Entry entry : exportEntries)
+      {
+        assertTrue(exportedDNs.contains(entry.getName()), "Entry not exported: " + entry.getName());
+      }
+    }
+    finally
+    {
+      final DeleteOperation op = mock(DeleteOperation.class);
+      for (int i = exportEntries.size() - 1; i >= 0; i--)
+      {
+        backend.deleteEntry(exportEntries.get(i).getName(), op);
+      }
+    }
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -1100,6 +1199,142 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     assertThat(backend.verifyBackend(config)).isEqualTo(0);
   }
 
+  @Test
+  public void testRebuildDegradedIndexOnline() throws Exception
+  {
+    final EntryContainer entryContainer =  backend.getRootContainer().getEntryContainers().iterator().next();
+
+    final Set<String> dirtyIndexes = new HashSet<>(Arrays.asList("sn", "uid", "telephoneNumber"));
+    assertThat(backendIndexes.keySet()).containsAll(dirtyIndexes);
+
+    backend.getRootContainer().getStorage().write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        for(AttributeIndex attribute : entryContainer.getAttributeIndexes())
+        {
+          boolean trusted = !dirtyIndexes.contains(attribute.getAttributeType().getNameOrOID());
+          for(Index idx : attribute.getNameToIndexes().values())
+          {
+            idx.setTrusted(txn, trusted);
+          }
+        }
+      }
+    });
+
+    RebuildConfig rebuildConf = new RebuildConfig();
+    rebuildConf.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    rebuildConf.setRebuildMode(RebuildMode.DEGRADED);
+    rebuildConf.setOnline(true);
+
+    // The backend remains open
+    backend.rebuildBackend(rebuildConf, TestCaseUtils.getServerContext());
+
+    for (AttributeIndex attribute : entryContainer.getAttributeIndexes())
+    {
+      assertThat(attribute.isTrusted()).isTrue();
+    }
+
+    VerifyConfig config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    for (String indexName : backendIndexes.keySet())
+    {
+      config.addCompleteIndex(indexName);
+    }
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+
+    config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    for (String indexName : backendIndexes.keySet())
+    {
+      config.addCleanIndex(indexName);
+    }
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+  }
+
+  /** The concurrent updates of the entries must not leave stale keys in the indexes being built. */
+  @Test
+  public void testRebuildIndexOnlineWithConcurrentModifies() throws Exception
+  {
+    final DN dn = entries.get(0).getName();
+    final String originalValue = entries.get(0).parseAttribute("telephoneNumber").asString();
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicReference<Exception> modifyFailure = new AtomicReference<>();
+    final Thread modifier = new Thread("Modifier of " + dn)
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          for (int i = 0; !stop.get(); i++)
+          {
+            replaceTelephoneNumber(dn, "555-555-" + (i % 10000));
+            replaceTelephoneNumber(dn, originalValue);
+          }
+        }
+        catch (Exception e)
+        {
+          modifyFailure.set(e);
+        }
+      }
+    };
+
+    RebuildConfig rebuildConf = new RebuildConfig();
+    rebuildConf.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    rebuildConf.addRebuildIndex("telephoneNumber");
+    rebuildConf.setOnline(true);
+
+    modifier.start();
+    try
+    {
+      for (int i = 0; i < 50; i++)
+      {
+        backend.rebuildBackend(rebuildConf, TestCaseUtils.getServerContext());
+      }
+    }
+    finally
+    {
+      stop.set(true);
+      modifier.join();
+    }
+    assertNull(modifyFailure.get());
+
+    VerifyConfig config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    config.addCompleteIndex("telephoneNumber");
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+
+    config = new VerifyConfig();
+    config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    config.addCleanIndex("telephoneNumber");
+    assertThat(backend.verifyBackend(config)).isEqualTo(0);
+  }
+
+  private void replaceTelephoneNumber(DN dn, String telephoneNumber) throws Exception
+  {
+    Entry oldEntry = backend.getEntry(dn);
+    Entry newEntry = oldEntry.duplicate(false);
+    List<Modification> mods = Arrays.asList(new Modification(REPLACE, create("telephoneNumber", telephoneNumber)));
+    newEntry.applyModifications(mods);
+
+    ModifyOperation modifyOp = mock(ModifyOperation.class);
+    when(modifyOp.getModifications()).thenReturn(mods);
+    backend.replaceEntry(oldEntry, newEntry, modifyOp);
+  }
+
+  @Test(expectedExceptions = InitializationException.class)
+  public void testRebuildSystemIndexOnline() throws Exception
+  {
+    RebuildConfig rebuildConf = new RebuildConfig();
+    rebuildConf.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    rebuildConf.setRebuildMode(RebuildMode.ALL);
+    rebuildConf.setOnline(true);
+
+    backend.rebuildBackend(rebuildConf, TestCaseUtils.getServerContext());
+  }
+
   @Test
   public void testVerifyID2ChildrenCount() throws Exception
   {
@@ -0,0 +1,75 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class SortedKeysTest extends DirectoryServerTestCase
+{
+  private static final int[] VALUES = { 7, 3, 9, 1, 5, 3, 8 };
+
+  @Test
+  public void testAllKeysAreSorted()
+  {
+    assertThat(addAll(SortedKeys.all()).toSortedEntryIDs()).containsExactly(3, 1, 5, 4, 0, 6, 2);
+  }
+
+  @Test
+  public void testSmallestKeysAreRetained()
+  {
+    assertThat(addAll(SortedKeys.smallest(3)).toSortedEntryIDs()).containsExactly(3, 1, 5);
+    assertThat(addAll(SortedKeys.smallest(0)).toSortedEntryIDs()).isEmpty();
+  }
+
+  @Test
+  public void testLargestKeysAreRetained()
+  {
+    assertThat(addAll(SortedKeys.largest(2)).toSortedEntryIDs()).containsExactly(6, 2);
+  }
+
+  @Test
+  public void testBoundedKeys()
+  {
+    final SortedKeys below = addAll(SortedKeys.largestBelow(key(5, 0), 1));
+    assertThat(below.toSortedEntryIDs()).containsExactly(5);
+    assertThat(below.getNbAdded()).isEqualTo(3);
+
+    final SortedKeys from = addAll(SortedKeys.smallestFrom(key(5, 0), 2));
+    assertThat(from.toSortedEntryIDs()).containsExactly(4, 0);
+    assertThat(from.getNbAdded()).isEqualTo(4);
+  }
+
+  private static SortedKeys addAll(SortedKeys sortedKeys)
+  {
+    for (int id = 0; id < VALUES.length; id++)
+    {
+      sortedKeys.add(key(VALUES[id], id));
+    }
+    return sortedKeys;
+  }
+
+  private static ByteString key(int value, long entryID)
+  {
+    return new ByteStringBuilder().appendInt(value).appendLong(entryID).toByteString();
+  }
+}
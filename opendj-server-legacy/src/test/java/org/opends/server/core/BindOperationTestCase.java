@@ -24,6 +24,7 @@ import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.TestCaseUtils;
 import org.opends.server.plugins.DisconnectClientPlugin;
 import org.opends.server.plugins.InvocationCounterPlugin;
@@ -38,10 +39,12 @@ import com.forgerock.opendj.ldap.tools.LDAPDelete;
 import com.forgerock.opendj.ldap.tools.LDAPModify;
 import com.forgerock.opendj.ldap.tools.LDAPSearch;
 import org.opends.server.tools.RemoteConnection;
+import org.opends.server.types.Attributes;
 import org.opends.server.types.AuthenticationInfo;
 import org.opends.server.types.AuthenticationType;
 import org.opends.server.types.CancelRequest;
 import org.opends.server.types.Control;
+import org.opends.server.types.Modification;
 import org.opends.server.types.Operation;
 import org.opends.server.types.OperationType;
 import org.testng.annotations.DataProvider;
@@ -1690,6 +1693,142 @@ public class BindOperationTestCase
     }
   }
 
+  /**
+   * Tests that the last login time updates are buffered, coalesced and written
+   * behind the bind operations when the password policy allows it.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testStateUpdateWriteBehind()
+         throws Exception
+  {
+    TestCaseUtils.initializeTestBackend(true);
+
+    TestCaseUtils.applyModifications(false,
+      "dn: uid=test.user,o=test",
+      "changetype: add",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: test.user",
+      "givenName: Test",
+      "sn: User",
+      "cn: Test User",
+      "userPassword: password",
+      "",
+      "dn: cn=Default Password Policy,cn=Password Policies,cn=config",
+      "changetype: modify",
+      "replace: ds-cfg-last-login-time-attribute",
+      "ds-cfg-last-login-time-attribute: ds-pwp-last-login-time",
+      "-",
+      "replace: ds-cfg-last-login-time-format",
+      "ds-cfg-last-login-time-format: yyyyMMddHHmmss.SSS'Z'",
+      "-",
+      "replace: ds-cfg-state-update-write-behind-interval",
+      "ds-cfg-state-update-write-behind-interval: 1 hours"
+    );
+
+    DN userDN = DN.valueOf("uid=test.user,o=test");
+    AttributeType lastLoginTimeType =
+        DirectoryServer.getInstance().getServerContext().getSchema().getAttributeType("ds-pwp-last-login-time");
+    DeferredPasswordPolicyStateUpdater updater = DirectoryServer.getDeferredPasswordPolicyStateUpdater();
+    try
+    {
+      String[] args =
+      {
+        "-h", "127.0.0.1",
+        "-p", String.valueOf(TestCaseUtils.getServerLdapPort()),
+        "-D", "uid=test.user,o=test",
+        "-w", "password",
+        "-b", "",
+        "-s", "base",
+        "(objectClass=*)"
+      };
+
+      // The updates are coalesced and not written before the interval has elapsed
+      assertEquals(LDAPSearch.run(nullPrintStream(), System.err, args), 0);
+      assertEquals(LDAPSearch.run(nullPrintStream(), System.err, args), 0);
+      assertNotNull(updater.getPendingAttribute(userDN, lastLoginTimeType));
+      assertFalse(DirectoryServer.getEntry(userDN).hasAttribute(lastLoginTimeType));
+      assertEquals(updater.takePendingModifications(userDN).size(), 1);
+
+      TestCaseUtils.applyModifications(true,
+        "dn: cn=Default Password Policy,cn=Password Policies,cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-state-update-write-behind-interval",
+        "ds-cfg-state-update-write-behind-interval: 1 seconds"
+      );
+      assertEquals(LDAPSearch.run(nullPrintStream(), System.err, args), 0);
+      for (int i = 0; i < 100 && !DirectoryServer.getEntry(userDN).hasAttribute(lastLoginTimeType); i++)
+      {
+        Thread.sleep(100);
+      }
+      assertTrue(DirectoryServer.getEntry(userDN).hasAttribute(lastLoginTimeType));
+      assertNull(updater.getPendingAttribute(userDN, lastLoginTimeType));
+    }
+    finally
+    {
+      updater.takePendingModifications(userDN);
+      TestCaseUtils.applyModifications(true,
+        "dn: cn=Default Password Policy,cn=Password Policies,cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-last-login-time-attribute",
+        "-",
+        "replace: ds-cfg-last-login-time-format",
+        "-",
+        "replace: ds-cfg-state-update-write-behind-interval"
+      );
+    }
+  }
+
+  /**
+   * Tests that the password policy state updates are no longer deferred once
+   * the server shutdown has started, and that the deferred ones are written.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testStateUpdatesAreNotDeferredDuringShutdown()
+         throws Exception
+  {
+    TestCaseUtils.initializeTestBackend(true);
+    TestCaseUtils.addEntry(
+      "dn: uid=test.user,o=test",
+      "objectClass: top",
+      "objectClass: person",
+      "objectClass: organizationalPerson",
+      "objectClass: inetOrgPerson",
+      "uid: test.user",
+      "givenName: Test",
+      "sn: User",
+      "cn: Test User");
+
+    DN userDN = DN.valueOf("uid=test.user,o=test");
+    AttributeType lastLoginTimeType =
+        DirectoryServer.getInstance().getServerContext().getSchema().getAttributeType("ds-pwp-last-login-time");
+    List<Modification> mods = new ArrayList<>();
+    mods.add(new Modification(REPLACE, Attributes.create(lastLoginTimeType, "20160101000000.000Z")));
+
+    // Not started, so that only the final flush writes the deferred updates
+    DeferredPasswordPolicyStateUpdater updater = new DeferredPasswordPolicyStateUpdater();
+    try
+    {
+      assertTrue(updater.defer(userDN, mods, 3600000L));
+      updater.processServerShutdown(LocalizableMessage.raw("test"));
+      assertNull(updater.getPendingAttribute(userDN, lastLoginTimeType));
+      assertTrue(DirectoryServer.getEntry(userDN).hasAttribute(lastLoginTimeType));
+
+      assertFalse(updater.defer(userDN, mods, 3600000L));
+      assertNull(updater.getPendingAttribute(userDN, lastLoginTimeType));
+    }
+    finally
+    {
+      DirectoryServer.deregisterShutdownListener(updater);
+    }
+  }
+
   /**
    * Tests to ensure that the "reactive" password policy state update policy
    * works as expected.
@@ -16,6 +16,7 @@
  */
 package org.opends.server.core;
 
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,6 +51,7 @@ import static org.forgerock.opendj.ldap.requests.Requests.*;
 import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.opends.server.protocols.internal.Requests.*;
 import static org.opends.server.types.NullOutputStream.nullPrintStream;
+import static org.opends.server.util.CollectionUtils.*;
 import static org.opends.server.util.ServerConstants.*;
 import static org.testng.Assert.*;
 
@@ -200,6 +202,81 @@ public class GroupManagerTestCase
     assertTrue(group1Instance.isMember(user5DN));
   }
 
+  /**
+   * Tests the reverse membership index of the group manager with nested
+   * static and dynamic groups, while the member lists are being updated.
+   *
+   * @throws  Exception  If an unexpected problem occurs.
+   */
+  @Test
+  public void testGroupInstancesForMember() throws Exception {
+    TestCaseUtils.initializeTestBackend(true);
+    GroupManager groupManager = DirectoryServer.getGroupManager();
+    groupManager.deregisterAllGroups();
+    addNestedGroupTestEntries();
+    DN group1DN = DN.valueOf("cn=group 1,ou=Groups,o=test");
+    DN group2DN = DN.valueOf("cn=group 2,ou=Groups,o=test");
+    DN group3DN = DN.valueOf("cn=group 3,ou=Groups,o=test");
+    DN group4DN = DN.valueOf("cn=group 4,ou=Groups,o=test");
+    Entry user1Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.1,ou=People,o=test"));
+    Entry user2Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.2,ou=People,o=test"));
+    Entry user3Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.3,ou=People,o=test"));
+    Entry user5Entry = DirectoryServer.getEntry(DN.valueOf("uid=user.5,ou=People,o=test"));
+    Group<?> group1Instance = groupManager.getGroupInstance(group1DN);
+    Group<?> group2Instance = groupManager.getGroupInstance(group2DN);
+    Group<?> group3Instance = groupManager.getGroupInstance(group3DN);
+    Group<?> group4Instance = groupManager.getGroupInstance(group4DN);
+    group1Instance.addNestedGroup(group2DN);
+    group2Instance.addNestedGroup(group3DN);
+    group3Instance.addNestedGroup(group4DN);
+    group1Instance.addMember(user1Entry);
+    group3Instance.addMember(user3Entry);
+
+    assertEquals(getGroupDNsForMember(user1Entry), newHashSet(group1DN));
+    assertEquals(getGroupDNsForMember(user2Entry), newHashSet());
+    assertEquals(getGroupDNsForMember(user3Entry), newHashSet(group1DN, group2DN, group3DN));
+    // User 5 is only a member of the dynamic group 4, nested in group 3
+    assertEquals(getGroupDNsForMember(user5Entry), newHashSet(group1DN, group2DN, group3DN, group4DN));
+    assertTrue(groupManager.isMember(group1Instance, user5Entry));
+    assertTrue(groupManager.isMember(group2Instance, user3Entry.getName()));
+    assertFalse(groupManager.isMember(group2Instance, user1Entry));
+    assertTrue(groupManager.isMember(group4Instance, user5Entry));
+
+    group2Instance.removeNestedGroup(group3DN);
+    assertEquals(getGroupDNsForMember(user3Entry), newHashSet(group3DN));
+    assertFalse(groupManager.isMember(group1Instance, user5Entry));
+
+    final ModifyRequest modifyRequest = newModifyRequest(group2DN)
+        .addModification(ADD, "member", "uid=user.2,ou=People,o=test", "cn=group 3,ou=Groups,o=test");
+    ModifyOperation modifyOperation = getRootConnection().processModify(modifyRequest);
+    assertEquals(modifyOperation.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(getGroupDNsForMember(user2Entry), newHashSet(group1DN, group2DN));
+    assertEquals(getGroupDNsForMember(user3Entry), newHashSet(group1DN, group2DN, group3DN));
+
+    final ModifyRequest replaceRequest = newModifyRequest(group1DN)
+        .addModification(REPLACE, "member", "uid=user.2,ou=People,o=test");
+    modifyOperation = getRootConnection().processModify(replaceRequest);
+    assertEquals(modifyOperation.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(getGroupDNsForMember(user1Entry), newHashSet());
+    assertEquals(getGroupDNsForMember(user2Entry), newHashSet(group1DN, group2DN));
+    assertEquals(getGroupDNsForMember(user3Entry), newHashSet(group2DN, group3DN));
+
+    DeleteOperation deleteOperation = getRootConnection().processDelete(group2DN);
+    assertEquals(deleteOperation.getResultCode(), ResultCode.SUCCESS);
+    assertEquals(getGroupDNsForMember(user2Entry), newHashSet(group1DN));
+    assertEquals(getGroupDNsForMember(user3Entry), newHashSet(group3DN));
+  }
+
+  private Set<DN> getGroupDNsForMember(Entry memberEntry)
+  {
+    Set<DN> groupDNs = new HashSet<>();
+    for (Group<?> group : DirectoryServer.getGroupManager().getGroupInstancesForMember(memberEntry))
+    {
+      assertTrue(groupDNs.add(group.getGroupDN()), "Duplicate group " + group.getGroupDN());
+    }
+    return groupDNs;
+  }
+
   /**
    * Invokes membership and nested group APIs using a group instance that has
    * been changed by the group manager via ldap modify.
@@ -0,0 +1,314 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.testng.Assert.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.core.PersistentSearch.CancellationCallback;
+import org.opends.server.protocols.internal.InternalSearchListener;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.types.DisconnectReason;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchResultEntry;
+import org.opends.server.types.SearchResultReference;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** A set of test cases for the persistent search dispatcher. */
+@SuppressWarnings("javadoc")
+public class PersistentSearchDispatcherTestCase extends CoreTestCase
+{
+  private static final int PSEARCH_QUEUE_SIZE = 5;
+
+  /** Blocks the notifier thread in the first change notification sent to the client, until released. */
+  private static final class BlockingSearchListener implements InternalSearchListener
+  {
+    private final CountDownLatch entryReceived = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicInteger nbEntries = new AtomicInteger();
+
+    @Override
+    public void handleInternalSearchEntry(InternalSearchOperation searchOperation, SearchResultEntry searchEntry)
+    {
+      nbEntries.incrementAndGet();
+      entryReceived.countDown();
+      try
+      {
+        released.await();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void handleInternalSearchReference(
+        InternalSearchOperation searchOperation, SearchResultReference searchReference)
+    {
+      // No references
+    }
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  private PersistentSearch newPersistentSearch(String baseDN, SearchScope scope, String filter) throws Exception
+  {
+    InternalSearchOperation searchOperation = new InternalSearchOperation(
+        getRootConnection(), nextOperationID(), nextMessageID(), newSearchRequest(baseDN, scope, filter));
+    return new PersistentSearch(searchOperation, EnumSet.allOf(PersistentSearchChangeType.class), true, false);
+  }
+
+  private InternalSearchOperation newSearchOperation(InternalSearchListener listener) throws Exception
+  {
+    return new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(),
+        newSearchRequest("o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=person)"), listener);
+  }
+
+  private void setPSearchOverflowPolicy(String policy) throws Exception
+  {
+    TestCaseUtils.dsconfig(
+        "set-global-configuration-prop",
+        "--set", "psearch-queue-size:" + PSEARCH_QUEUE_SIZE,
+        "--set", "psearch-overflow-policy:" + policy);
+  }
+
+  private void resetPSearchOverflowPolicy() throws Exception
+  {
+    TestCaseUtils.dsconfig(
+        "set-global-configuration-prop",
+        "--reset", "psearch-queue-size",
+        "--reset", "psearch-overflow-policy");
+  }
+
+  /**
+   * Produces one more change notification than the queue of the persistent search can hold while the notifier thread
+   * is blocked sending the first one, then unblocks it.
+   */
+  private void overflowNotificationQueue(PersistentSearch psearch, BlockingSearchListener listener) throws Exception
+  {
+    psearch.processAdd(newUser("uid=user.0,o=test", "user.0"));
+    assertTrue(listener.entryReceived.await(10, SECONDS));
+    for (int i = 1; i <= PSEARCH_QUEUE_SIZE; i++)
+    {
+      psearch.processAdd(newUser("uid=user." + i + ",o=test", "user." + i));
+    }
+    assertEquals(psearch.getNbPendingNotifications(), PSEARCH_QUEUE_SIZE);
+
+    psearch.processAdd(newUser("uid=user.overflow,o=test", "user.overflow"));
+    assertEquals(psearch.getNbPendingNotifications(), PSEARCH_QUEUE_SIZE);
+    listener.released.countDown();
+  }
+
+  private Entry newUser(String dn, String uid) throws Exception
+  {
+    return TestCaseUtils.makeEntry(
+        "dn: " + dn,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: " + uid,
+        "cn: " + uid,
+        "sn: " + uid);
+  }
+
+  @Test
+  public void testCandidatesAreSelectedByBaseDN() throws Exception
+  {
+    PersistentSearchDispatcher dispatcher = new PersistentSearchDispatcher();
+    PersistentSearch people = newPersistentSearch("ou=people,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    PersistentSearch groups = newPersistentSearch("ou=groups,o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    PersistentSearch root = newPersistentSearch("o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    dispatcher.register(people);
+    dispatcher.register(groups);
+    dispatcher.register(root);
+
+    Entry user = newUser("uid=user.1,ou=people,o=test", "user.1");
+    assertThat(dispatcher.getCandidates(user.getName(), null, user, null)).containsOnly(people, root);
+
+    // A renamed entry is a candidate for both its old and new locations
+    DN oldDN = DN.valueOf("uid=user.1,ou=groups,o=test");
+    assertThat(dispatcher.getCandidates(user.getName(), oldDN, user, null)).containsOnly(people, groups, root);
+
+    dispatcher.deregister(people);
+    assertThat(dispatcher.getCandidates(user.getName(), null, user, null)).containsOnly(root);
+    assertThat(dispatcher.getPersistentSearches()).containsOnly(groups, root);
+  }
+
+  @Test
+  public void testCandidatesAreSelectedByEqualityAssertion() throws Exception
+  {
+    PersistentSearchDispatcher dispatcher = new PersistentSearchDispatcher();
+    PersistentSearch user1 = newPersistentSearch("o=test", SearchScope.WHOLE_SUBTREE, "(uid=USER.1)");
+    PersistentSearch user2 =
+        newPersistentSearch("o=test", SearchScope.WHOLE_SUBTREE, "(&(objectClass=person)(uid=user.2))");
+    PersistentSearch substring = newPersistentSearch("o=test", SearchScope.WHOLE_SUBTREE, "(uid=user*)");
+    dispatcher.register(user1);
+    dispatcher.register(user2);
+    dispatcher.register(substring);
+
+    Entry entry1 = newUser("uid=user.1,o=test", "user.1");
+    Entry entry2 = newUser("uid=user.2,o=test", "user.2");
+    Entry entry3 = newUser("uid=user.3,o=test", "user.3");
+    assertThat(dispatcher.getCandidates(entry1.getName(), null, entry1, null)).containsOnly(user1, substring);
+    assertThat(dispatcher.getCandidates(entry2.getName(), null, entry2, null)).containsOnly(user2, substring);
+    assertThat(dispatcher.getCandidates(entry3.getName(), null, entry3, null)).containsOnly(substring);
+
+    // A modified entry is a candidate when either its old or its new version may match
+    assertThat(dispatcher.getCandidates(entry1.getName(), null, entry3, entry1)).containsOnly(user1, substring);
+
+    dispatcher.deregister(user1);
+    dispatcher.deregister(user2);
+    dispatcher.deregister(substring);
+    assertThat(dispatcher.getPersistentSearches()).isEmpty();
+    assertThat(dispatcher.getCandidates(entry1.getName(), null, entry1, null)).isEmpty();
+  }
+
+  @Test
+  public void testChangesAreSentInOrder() throws Exception
+  {
+    PersistentSearch psearch = newPersistentSearch("o=test", SearchScope.WHOLE_SUBTREE, "(objectClass=person)");
+    InternalSearchOperation searchOperation = (InternalSearchOperation) psearch.getSearchOperation();
+
+    for (int i = 0; i < 100; i++)
+    {
+      psearch.processAdd(newUser("uid=user." + i + ",o=test", "user." + i));
+    }
+    // The changes are sent in the background
+    for (int i = 0; i < 100 && searchOperation.getSearchEntries().size() < 100; i++)
+    {
+      Thread.sleep(50);
+    }
+
+    assertEquals(psearch.getNbPendingNotifications(), 0);
+    assertEquals(searchOperation.getSearchEntries().size(), 100);
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(searchOperation.getSearchEntries().get(i).getName(), DN.valueOf("uid=user." + i + ",o=test"));
+    }
+  }
+
+  @Test
+  public void testQueueOverflowCancelsSearch() throws Exception
+  {
+    setPSearchOverflowPolicy("cancel-search");
+    BlockingSearchListener listener = new BlockingSearchListener();
+    InternalSearchOperation searchOperation = newSearchOperation(listener);
+    PersistentSearch psearch =
+        new PersistentSearch(searchOperation, EnumSet.allOf(PersistentSearchChangeType.class), true, false);
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    psearch.registerCancellationCallback(new CancellationCallback()
+    {
+      @Override
+      public void persistentSearchCancelled(PersistentSearch cancelledSearch)
+      {
+        cancelled.set(true);
+      }
+    });
+    psearch.enable();
+    try
+    {
+      overflowNotificationQueue(psearch, listener);
+      for (int i = 0; i < 100 && searchOperation.getResultCode() != ResultCode.ADMIN_LIMIT_EXCEEDED; i++)
+      {
+        Thread.sleep(50);
+      }
+
+      assertEquals(searchOperation.getResultCode(), ResultCode.ADMIN_LIMIT_EXCEEDED);
+      assertTrue(cancelled.get());
+      assertThat(getRootConnection().getPersistentSearches()).doesNotContain(psearch);
+
+      // The queued notifications are dropped and the later changes are not sent
+      psearch.processAdd(newUser("uid=user.after,o=test", "user.after"));
+      Thread.sleep(100);
+      assertEquals(listener.nbEntries.get(), 1);
+    }
+    finally
+    {
+      listener.released.countDown();
+      psearch.cancel();
+      resetPSearchOverflowPolicy();
+    }
+  }
+
+  @Test
+  public void testQueueOverflowDisconnectsClient() throws Exception
+  {
+    setPSearchOverflowPolicy("disconnect");
+    BlockingSearchListener listener = new BlockingSearchListener();
+    final ClientConnection connection = mock(ClientConnection.class);
+    SearchOperation searchOperation = new SearchOperationWrapper(newSearchOperation(listener))
+    {
+      @Override
+      public ClientConnection getClientConnection()
+      {
+        return connection;
+      }
+    };
+    PersistentSearch psearch =
+        new PersistentSearch(searchOperation, EnumSet.allOf(PersistentSearchChangeType.class), true, false);
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    psearch.registerCancellationCallback(new CancellationCallback()
+    {
+      @Override
+      public void persistentSearchCancelled(PersistentSearch cancelledSearch)
+      {
+        cancelled.set(true);
+      }
+    });
+    try
+    {
+      overflowNotificationQueue(psearch, listener);
+
+      verify(connection, timeout(5000))
+          .disconnect(eq(DisconnectReason.ADMIN_LIMIT_EXCEEDED), eq(true), any(LocalizableMessage.class));
+      assertFalse(cancelled.get());
+
+      // The queued notifications are dropped and the later changes are not sent
+      psearch.processAdd(newUser("uid=user.after,o=test", "user.after"));
+      Thread.sleep(100);
+      assertEquals(listener.nbEntries.get(), 1);
+    }
+    finally
+    {
+      listener.released.countDown();
+      resetPSearchOverflowPolicy();
+    }
+  }
+}
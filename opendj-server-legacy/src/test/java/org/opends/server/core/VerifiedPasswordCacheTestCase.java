@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.testng.Assert.*;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.testng.annotations.Test;
+
+/** Tests the cache of the successful password verifications. */
+@SuppressWarnings("javadoc")
+public class VerifiedPasswordCacheTestCase extends CoreTestCase
+{
+  private final DN user1 = DN.valueOf("uid=user.1,o=test");
+  private final DN user2 = DN.valueOf("uid=user.2,o=test");
+  private final ByteString storedPassword = ByteString.valueOfUtf8("{PBKDF2}10000:c2FsdHNhbHQ=");
+  private final ByteString password = ByteString.valueOfUtf8("password");
+
+  @Test
+  public void testVerificationsAreKeyedByUserStoredValueAndPassword()
+  {
+    VerifiedPasswordCache cache = new VerifiedPasswordCache(10);
+    assertFalse(cache.isVerified(user1, storedPassword, password));
+
+    cache.putVerified(user1, storedPassword, password, 60000);
+    assertTrue(cache.isVerified(user1, storedPassword, password));
+    assertTrue(cache.isVerified(DN.valueOf("UID=User.1, O=Test"), storedPassword, password));
+    assertFalse(cache.isVerified(user2, storedPassword, password));
+    assertFalse(cache.isVerified(user1, ByteString.valueOfUtf8("{PBKDF2}10000:b3RoZXI="), password));
+    assertFalse(cache.isVerified(user1, storedPassword, ByteString.valueOfUtf8("wrong")));
+  }
+
+  @Test
+  public void testVerificationsExpire() throws Exception
+  {
+    VerifiedPasswordCache cache = new VerifiedPasswordCache(10);
+    cache.putVerified(user1, storedPassword, password, 1);
+    Thread.sleep(10);
+    assertFalse(cache.isVerified(user1, storedPassword, password));
+  }
+
+  @Test
+  public void testVerificationsAreInvalidatedByUser()
+  {
+    VerifiedPasswordCache cache = new VerifiedPasswordCache(10);
+    cache.putVerified(user1, storedPassword, password, 60000);
+    cache.putVerified(user2, storedPassword, password, 60000);
+    cache.invalidate(user1);
+    assertFalse(cache.isVerified(user1, storedPassword, password));
+    assertTrue(cache.isVerified(user2, storedPassword, password));
+  }
+
+  @Test
+  public void testSizeIsBounded() throws Exception
+  {
+    VerifiedPasswordCache cache = new VerifiedPasswordCache(1);
+    cache.putVerified(user1, storedPassword, password, 60000);
+    cache.putVerified(user2, storedPassword, password, 60000);
+    assertTrue(cache.isVerified(user1, storedPassword, password));
+    assertFalse(cache.isVerified(user2, storedPassword, password));
+
+    // Expired verifications make room for new ones
+    cache = new VerifiedPasswordCache(1);
+    cache.putVerified(user1, storedPassword, password, 1);
+    Thread.sleep(10);
+    cache.putVerified(user2, storedPassword, password, 60000);
+    assertTrue(cache.isVerified(user2, storedPassword, password));
+  }
+
+  @Test
+  public void testInvalidatedVerificationsMakeRoom()
+  {
+    VerifiedPasswordCache cache = new VerifiedPasswordCache(2);
+    cache.putVerified(user1, storedPassword, password, 60000);
+    cache.putVerified(user1, storedPassword, ByteString.valueOfUtf8("other"), 60000);
+    cache.invalidate(DN.valueOf("UID=User.1, O=Test"));
+    assertFalse(cache.isVerified(user1, storedPassword, ByteString.valueOfUtf8("other")));
+
+    cache.putVerified(user2, storedPassword, password, 60000);
+    assertTrue(cache.isVerified(user2, storedPassword, password));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.extensions;
+
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+import static org.opends.server.protocols.internal.Requests.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.server.config.meta.ShardedWorkQueueCfgDefn;
+import org.forgerock.opendj.server.config.server.ShardedWorkQueueCfg;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.protocols.internal.InternalSearchOperation;
+import org.opends.server.protocols.internal.SearchRequest;
+import org.opends.server.types.Entry;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/** A set of test cases for the sharded work queue. */
+@SuppressWarnings("javadoc")
+public class ShardedWorkQueueTestCase extends ExtensionsTestCase
+{
+  private static final String MONITOR_NAME = "Sharded Work Queue";
+
+  private ShardedWorkQueue workQueue;
+
+  @BeforeClass
+  public void startWorkQueue() throws Exception
+  {
+    TestCaseUtils.startServer();
+    TestCaseUtils.initializeTestBackend(true);
+
+    workQueue = new ShardedWorkQueue();
+    workQueue.initializeWorkQueue(getConfiguration("4", "100"));
+  }
+
+  @AfterClass
+  public void stopWorkQueue()
+  {
+    workQueue.finalizeWorkQueue(LocalizableMessage.raw("Test completed"));
+    assertFalse(DirectoryServer.getMonitorProviders().containsKey(MONITOR_NAME.toLowerCase()));
+  }
+
+  private ShardedWorkQueueCfg getConfiguration(String numWorkerThreads, String maxCapacity) throws Exception
+  {
+    Entry configEntry = TestCaseUtils.makeEntry(
+        "dn: cn=" + MONITOR_NAME + ",cn=config",
+        "objectClass: top",
+        "objectClass: ds-cfg-work-queue",
+        "objectClass: ds-cfg-sharded-work-queue",
+        "cn: " + MONITOR_NAME,
+        "ds-cfg-java-class: org.opends.server.extensions.ShardedWorkQueue",
+        "ds-cfg-num-worker-threads: " + numWorkerThreads,
+        "ds-cfg-max-work-queue-capacity: " + maxCapacity);
+    return InitializationUtils.getConfiguration(ShardedWorkQueueCfgDefn.getInstance(), configEntry);
+  }
+
+  private List<InternalSearchOperation> submitSearches(int nbSearches) throws Exception
+  {
+    SearchRequest request = newSearchRequest(DN.valueOf("o=test"), SearchScope.BASE_OBJECT);
+    List<InternalSearchOperation> operations = new ArrayList<>(nbSearches);
+    for (int i = 0; i < nbSearches; i++)
+    {
+      InternalSearchOperation searchOperation =
+          new InternalSearchOperation(getRootConnection(), nextOperationID(), nextMessageID(), request);
+      workQueue.submitOperation(searchOperation);
+      operations.add(searchOperation);
+    }
+    return operations;
+  }
+
+  @Test
+  public void testOperationsAreProcessed() throws Exception
+  {
+    long opsSubmitted = workQueue.getOpsSubmitted();
+
+    List<InternalSearchOperation> operations = submitSearches(50);
+    assertTrue(workQueue.waitUntilIdle(10000));
+
+    for (InternalSearchOperation operation : operations)
+    {
+      assertEquals(operation.getResultCode(), ResultCode.SUCCESS);
+      assertEquals(operation.getEntriesSent(), 1);
+    }
+    assertEquals(workQueue.getOpsSubmitted(), opsSubmitted + 50);
+    assertEquals(workQueue.size(), 0);
+    assertEquals(workQueue.getShardSizes().length, 4);
+  }
+
+  @Test(dependsOnMethods = "testOperationsAreProcessed")
+  public void testMonitorData() throws Exception
+  {
+    long nbDequeued = 0;
+    for (long count : workQueue.getWaitTimeHistogram())
+    {
+      nbDequeued += count;
+    }
+    assertEquals(nbDequeued, workQueue.getOpsSubmitted());
+
+    assertTrue(DirectoryServer.getMonitorProviders().containsKey(MONITOR_NAME.toLowerCase()));
+    assertNotNull(DirectoryServer.getMonitorProviders().get(MONITOR_NAME.toLowerCase()).getMonitorData());
+  }
+
+  @Test(dependsOnMethods = "testMonitorData")
+  public void testChangingNumWorkerThreads() throws Exception
+  {
+    workQueue.applyConfigurationChange(getConfiguration("7", "100"));
+    assertEquals(workQueue.getNumWorkerThreads(), 7);
+    submitSearches(20);
+    assertTrue(workQueue.waitUntilIdle(10000));
+
+    workQueue.applyConfigurationChange(getConfiguration("2", "10"));
+    assertEquals(workQueue.getNumWorkerThreads(), 2);
+    List<InternalSearchOperation> operations = submitSearches(20);
+    assertTrue(workQueue.waitUntilIdle(10000));
+    for (InternalSearchOperation operation : operations)
+    {
+      assertEquals(operation.getResultCode(), ResultCode.SUCCESS);
+    }
+    // The number of shards does not change online
+    assertEquals(workQueue.getShardSizes().length, 4);
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.tools.LDAPReader;
+import org.opends.server.tools.LDAPWriter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the writes to clients which do not read their responses fast enough, through an LDAP connection handler
+ * queuing at most a few kilobytes per connection.
+ */
+@SuppressWarnings("javadoc")
+public class LDAPClientConnectionTestCase extends LdapTestCase
+{
+  private static final DN HANDLER_DN =
+      DN.valueOf("cn=Write Queue LDAP Connection Handler,cn=Connection Handlers,cn=config");
+  /** Each search returns the whole schema, so that the responses overflow the socket buffers and the write queue. */
+  private static final int NB_SEARCHES = 30;
+
+  private int port;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    port = TestCaseUtils.findFreePort();
+    TestCaseUtils.addEntry(
+        "dn: " + HANDLER_DN,
+        "objectClass: top",
+        "objectClass: ds-cfg-connection-handler",
+        "objectClass: ds-cfg-ldap-connection-handler",
+        "cn: Write Queue LDAP Connection Handler",
+        "ds-cfg-java-class: org.opends.server.protocols.ldap.LDAPConnectionHandler",
+        "ds-cfg-enabled: true",
+        "ds-cfg-listen-address: 127.0.0.1",
+        "ds-cfg-listen-port: " + port,
+        "ds-cfg-num-request-handlers: 1",
+        "ds-cfg-max-queued-write-size: 4 kb",
+        "ds-cfg-max-blocked-write-time-limit: 5 minutes");
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    TestCaseUtils.deleteEntry(HANDLER_DN);
+  }
+
+  /** The workers wait for the queued data to drain, and then write the rest of their responses. */
+  @Test(timeOut = 120000)
+  public void testWritesQueuedPastMaxQueuedWriteSize() throws Exception
+  {
+    try (Socket socket = connect())
+    {
+      sendSchemaSearches(socket);
+      // Let the responses fill the socket buffers and the write queue
+      Thread.sleep(1000);
+
+      final LDAPReader reader = new LDAPReader(socket);
+      final Set<Integer> entryMessageIDs = new HashSet<>();
+      int nbDone = 0;
+      while (nbDone < NB_SEARCHES)
+      {
+        final LDAPMessage message = reader.readMessage();
+        assertNotNull(message, "Connection closed before all the responses were received");
+        final ProtocolOp op = message.getProtocolOp();
+        if (op instanceof SearchResultEntryProtocolOp)
+        {
+          assertTrue(entryMessageIDs.add(message.getMessageID()));
+        }
+        else
+        {
+          assertTrue(op instanceof SearchResultDoneProtocolOp, "Unexpected response " + op);
+          assertEquals(((SearchResultDoneProtocolOp) op).getResultCode(), LDAPResultCode.SUCCESS);
+          nbDone++;
+        }
+      }
+      assertEquals(entryMessageIDs.size(), NB_SEARCHES);
+    }
+  }
+
+  /**
+   * The request handler cannot wait for itself to write the queued data: disconnecting a client on a protocol error
+   * must neither block the request handler nor the other connections it serves.
+   */
+  @Test(timeOut = 60000)
+  public void testRequestHandlerDoesNotWaitForItsOwnQueue() throws Exception
+  {
+    try (Socket socket = connect())
+    {
+      sendSchemaSearches(socket);
+      Thread.sleep(1000);
+
+      // SEQUENCE { INTEGER 1 } is not an LDAP message
+      final OutputStream out = socket.getOutputStream();
+      out.write(new byte[] { 0x30, 0x03, 0x02, 0x01, 0x01 });
+      out.flush();
+
+      // Another connection served by the same request handler
+      try (Socket otherSocket = connect())
+      {
+        new LDAPWriter(otherSocket).writeMessage(new LDAPMessage(1, newSearch("", SearchScope.BASE_OBJECT)));
+        final LDAPReader otherReader = new LDAPReader(otherSocket);
+        assertTrue(otherReader.readMessage().getProtocolOp() instanceof SearchResultEntryProtocolOp);
+        final ProtocolOp done = otherReader.readMessage().getProtocolOp();
+        assertEquals(((SearchResultDoneProtocolOp) done).getResultCode(), LDAPResultCode.SUCCESS);
+      }
+
+      // The first connection is closed once the data queued before the error has been received
+      final LDAPReader reader = new LDAPReader(socket);
+      try
+      {
+        while (reader.readMessage() != null)
+        {
+          // Drain the responses
+        }
+      }
+      catch (IOException e)
+      {
+        // The server may reset the connection
+      }
+    }
+  }
+
+  private Socket connect() throws Exception
+  {
+    final Socket socket = new Socket();
+    // Small buffer, so that the responses are not absorbed by the client socket
+    socket.setReceiveBufferSize(4096);
+    socket.connect(new InetSocketAddress("127.0.0.1", port));
+    TestCaseUtils.configureSocket(socket);
+    return socket;
+  }
+
+  private void sendSchemaSearches(Socket socket) throws Exception
+  {
+    final LDAPWriter writer = new LDAPWriter(socket);
+    for (int messageID = 1; messageID <= NB_SEARCHES; messageID++)
+    {
+      writer.writeMessage(new LDAPMessage(messageID, newSearch("cn=schema", SearchScope.BASE_OBJECT,
+          "attributeTypes", "objectClasses", "ldapSyntaxes", "matchingRules")));
+    }
+  }
+
+  private SearchRequestProtocolOp newSearch(String baseDN, SearchScope scope, String... attributes)
+  {
+    final LinkedHashSet<String> attributeSet = new LinkedHashSet<>();
+    for (String attribute : attributes)
+    {
+      attributeSet.add(attribute);
+    }
+    return new SearchRequestProtocolOp(ByteString.valueOfUtf8(baseDN), scope, DereferenceAliasesPolicy.NEVER, 0, 0,
+        false, LDAPFilter.objectClassPresent(), attributeSet);
+  }
+}
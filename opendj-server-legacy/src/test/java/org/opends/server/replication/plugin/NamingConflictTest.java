@@ -23,6 +23,7 @@ import static org.opends.server.protocols.internal.InternalClientConnection.*;
 import static org.testng.Assert.*;
 
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.opendj.ldap.DN;
@@ -55,7 +56,7 @@ public class NamingConflictTest extends ReplicationTestCase
   private LDAPReplicationDomain domain;
   private CSNGenerator gen;
 
-  private TestSynchronousReplayQueue queue;
+  private PartitionedReplayQueue queue;
 
   @BeforeMethod
   public void setUpLocal() throws Exception
@@ -64,7 +65,7 @@ public class NamingConflictTest extends ReplicationTestCase
 
     TestCaseUtils.initializeTestBackend(true);
 
-    queue = new TestSynchronousReplayQueue();
+    queue = new PartitionedReplayQueue(100);
 
     final DomainFakeCfg conf = new DomainFakeCfg(baseDN, 1, new TreeSet<String>());
     conf.setIsolationPolicy(IsolationPolicy.ACCEPT_ALL_UPDATES);
@@ -362,7 +363,7 @@ public class NamingConflictTest extends ReplicationTestCase
   private void replayMsg(UpdateMsg updateMsg) throws InterruptedException
   {
     domain.processUpdate(updateMsg);
-    LDAPUpdateMsg ldapUpdate = queue.take().getUpdateMessage();
+    LDAPUpdateMsg ldapUpdate = queue.poll(0, 1, TimeUnit.SECONDS).getUpdateMessage();
     domain.markInProgress(ldapUpdate);
     domain.replay(ldapUpdate, SHUTDOWN);
   }
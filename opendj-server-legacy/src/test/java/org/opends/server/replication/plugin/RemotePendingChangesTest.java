@@ -0,0 +1,192 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.plugin;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.ObjectClass;
+import org.opends.server.core.AddOperation;
+import org.opends.server.core.DeleteOperation;
+import org.opends.server.replication.ReplicationTestCase;
+import org.opends.server.replication.common.CSNGenerator;
+import org.opends.server.replication.common.ServerState;
+import org.opends.server.replication.protocol.AddMsg;
+import org.opends.server.replication.protocol.DeleteMsg;
+import org.opends.server.replication.protocol.LDAPUpdateMsg;
+import org.opends.server.replication.protocol.ModifyDNMsg;
+import org.opends.server.types.Attribute;
+import org.testng.annotations.Test;
+
+/** Tests the dependencies between the remote changes and their partitioning for the replay threads. */
+@SuppressWarnings("javadoc")
+public class RemotePendingChangesTest extends ReplicationTestCase
+{
+  private final CSNGenerator gen = new CSNGenerator(1, 0);
+
+  private AddMsg newAddMsg(String dn) throws Exception
+  {
+    return new AddMsg(gen.newCSN(), DN.valueOf(dn), "uuid-" + dn, null, new HashMap<ObjectClass, String>(),
+        new HashMap<AttributeType, List<Attribute>>(), new HashMap<AttributeType, List<Attribute>>());
+  }
+
+  private DeleteMsg newDeleteMsg(String dn) throws Exception
+  {
+    return new DeleteMsg(DN.valueOf(dn), gen.newCSN(), "uuid-" + dn);
+  }
+
+  private void putInProgress(RemotePendingChanges changes, LDAPUpdateMsg... msgs)
+  {
+    for (LDAPUpdateMsg msg : msgs)
+    {
+      assertTrue(changes.putRemoteUpdate(msg));
+      changes.markInProgress(msg);
+    }
+  }
+
+  @Test
+  public void testAddDependsOnAddOfParent() throws Exception
+  {
+    RemotePendingChanges changes = new RemotePendingChanges(new ServerState());
+    AddMsg parent = newAddMsg("ou=parent,dc=example,dc=com");
+    AddMsg other = newAddMsg("ou=other,dc=example,dc=com");
+    AddMsg child = newAddMsg("cn=child,ou=parent,dc=example,dc=com");
+    AddMsg otherChild = newAddMsg("cn=child,ou=unrelated,dc=example,dc=com");
+    putInProgress(changes, parent, other, child, otherChild);
+
+    assertFalse(changes.checkDependencies((AddOperation) parent.createOperation(connection)));
+    assertFalse(changes.checkDependencies((AddOperation) otherChild.createOperation(connection)));
+    assertTrue(changes.checkDependencies((AddOperation) child.createOperation(connection)));
+    assertEquals(changes.getDependentChangesSize(), 1);
+
+    // The dependent change is replayed once all the older changes are committed
+    changes.commit(parent.getCSN());
+    assertNull(changes.getNextUpdate());
+    changes.commit(other.getCSN());
+    assertEquals(changes.getNextUpdate(), child);
+    assertEquals(changes.getDependentChangesSize(), 0);
+  }
+
+  @Test
+  public void testDeleteDependsOnChangesOfSubordinates() throws Exception
+  {
+    RemotePendingChanges changes = new RemotePendingChanges(new ServerState());
+    DeleteMsg child = newDeleteMsg("cn=child,ou=parent,dc=example,dc=com");
+    DeleteMsg sibling = newDeleteMsg("cn=child,ou=parent2,dc=example,dc=com");
+    DeleteMsg parent = newDeleteMsg("ou=parent,dc=example,dc=com");
+    putInProgress(changes, child, sibling, parent);
+
+    assertTrue(changes.checkDependencies((DeleteOperation) parent.createOperation(connection)));
+    changes.commit(child.getCSN());
+    changes.commit(sibling.getCSN());
+    assertEquals(changes.getNextUpdate(), parent);
+
+    // Once committed, the changes are no longer dependencies
+    DeleteMsg parent2 = newDeleteMsg("ou=parent2,dc=example,dc=com");
+    putInProgress(changes, parent2);
+    assertFalse(changes.checkDependencies((DeleteOperation) parent2.createOperation(connection)));
+  }
+
+  @Test
+  public void testModifyDNDependencies() throws Exception
+  {
+    RemotePendingChanges changes = new RemotePendingChanges(new ServerState());
+    AddMsg newParent = newAddMsg("ou=new,dc=example,dc=com");
+    ModifyDNMsg modDN = new ModifyDNMsg(DN.valueOf("cn=entry,ou=old,dc=example,dc=com"), gen.newCSN(),
+        "uuid-entry", "uuid-new", true, "ou=new,dc=example,dc=com", "cn=entry");
+    AddMsg renamedChild = newAddMsg("cn=child,cn=entry,ou=new,dc=example,dc=com");
+    putInProgress(changes, newParent, modDN, renamedChild);
+
+    // Depends on the add of the new superior
+    assertTrue(changes.checkDependencies(modDN));
+    // Depends on the modify DN creating the parent entry
+    assertTrue(changes.checkDependencies((AddOperation) renamedChild.createOperation(connection)));
+    changes.commit(newParent.getCSN());
+    assertEquals(changes.getNextUpdate(), modDN);
+  }
+
+  @Test
+  public void testUpdatesOfAnEntryStayInTheSamePartition() throws Exception
+  {
+    PartitionedReplayQueue queue = new PartitionedReplayQueue(100);
+    queue.setNumberOfPartitions(4);
+    List<UpdateToReplay> updates = new ArrayList<>();
+    for (int i = 0; i < 40; i++)
+    {
+      UpdateToReplay update = new UpdateToReplay(newDeleteMsg("cn=entry" + (i % 10) + ",dc=example,dc=com"), null);
+      assertTrue(queue.offer(update, 1, SECONDS));
+      updates.add(update);
+    }
+    assertEquals(queue.size(), 40);
+    assertEquals(queue.remainingCapacity(), 60);
+
+    // Changing the number of partitions keeps the updates of each entry in order
+    queue.setNumberOfPartitions(3);
+    List<List<DN>> dnsByPartition = new ArrayList<>();
+    List<UpdateToReplay> polled = new ArrayList<>();
+    for (int partition = 0; partition < queue.getNumberOfPartitions(); partition++)
+    {
+      List<DN> dns = new ArrayList<>();
+      UpdateToReplay update;
+      while ((update = queue.poll(partition, 0, SECONDS)) != null)
+      {
+        dns.add(update.getUpdateMessage().getDN());
+        polled.add(update);
+      }
+      dnsByPartition.add(dns);
+    }
+    assertEquals(polled.size(), 40);
+    assertEquals(queue.remainingCapacity(), 100);
+    for (UpdateToReplay update : updates)
+    {
+      int nbPartitions = 0;
+      for (List<DN> dns : dnsByPartition)
+      {
+        nbPartitions += dns.contains(update.getUpdateMessage().getDN()) ? 1 : 0;
+      }
+      assertEquals(nbPartitions, 1, "updates of the entry are in several partitions");
+    }
+    for (int i = 0; i < updates.size(); i++)
+    {
+      for (int j = i + 1; j < updates.size(); j++)
+      {
+        if (updates.get(i).getUpdateMessage().getDN().equals(updates.get(j).getUpdateMessage().getDN()))
+        {
+          assertTrue(polled.indexOf(updates.get(i)) < polled.indexOf(updates.get(j)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCapacityIsSharedByThePartitions() throws Exception
+  {
+    PartitionedReplayQueue queue = new PartitionedReplayQueue(2);
+    queue.setNumberOfPartitions(8);
+    assertTrue(queue.offer(new UpdateToReplay(newDeleteMsg("cn=entry1,dc=example,dc=com"), null)));
+    assertTrue(queue.offer(new UpdateToReplay(newDeleteMsg("cn=entry2,dc=example,dc=com"), null)));
+    assertFalse(queue.offer(new UpdateToReplay(newDeleteMsg("cn=entry3,dc=example,dc=com"), null), 10, MILLISECONDS));
+    assertNotNull(queue.poll());
+    assertTrue(queue.offer(new UpdateToReplay(newDeleteMsg("cn=entry3,dc=example,dc=com"), null)));
+    assertEquals(queue.size(), 2);
+  }
+}
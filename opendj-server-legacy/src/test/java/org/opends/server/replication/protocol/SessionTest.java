@@ -0,0 +1,201 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.replication.protocol;
+
+import static org.mockito.Mockito.*;
+import static org.opends.server.replication.protocol.ProtocolVersion.*;
+import static org.testng.Assert.*;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import javax.net.ssl.SSLSocket;
+
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.MonitorData;
+import org.opends.server.types.Attribute;
+import org.opends.server.util.StaticUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/** Test for the framing of the messages sent on a {@link Session}. */
+@SuppressWarnings("javadoc")
+public class SessionTest extends DirectoryServerTestCase
+{
+  private static final int NB_MESSAGES = 2000;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startFakeServer();
+  }
+
+  /** Creates a session reading and writing directly to the provided socket, without any security layer. */
+  private Session newSession(Socket socket) throws Exception
+  {
+    SSLSocket secureSocket = mock(SSLSocket.class);
+    when(secureSocket.getInputStream()).thenReturn(socket.getInputStream());
+    when(secureSocket.getOutputStream()).thenReturn(socket.getOutputStream());
+    return new Session(socket, secureSocket);
+  }
+
+  @DataProvider
+  public Object[][] framings()
+  {
+    return new Object[][] {
+      // sender version, receiver version, compression, asynchronous sender
+      { REPLICATION_PROTOCOL_V8, REPLICATION_PROTOCOL_V8, false, false },
+      { REPLICATION_PROTOCOL_V8, REPLICATION_PROTOCOL_V9, true, true },
+      { REPLICATION_PROTOCOL_V9, REPLICATION_PROTOCOL_V9, false, false },
+      { REPLICATION_PROTOCOL_V9, REPLICATION_PROTOCOL_V9, true, false },
+      { REPLICATION_PROTOCOL_V9, REPLICATION_PROTOCOL_V9, true, true },
+    };
+  }
+
+  @Test(dataProvider = "framings")
+  public void testMessagesAreReceivedInOrder(short senderVersion, short receiverVersion, boolean compression,
+      boolean asynchronousSender) throws Exception
+  {
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket acceptedSocket = serverSocket.accept())
+    {
+      final Session sender = newSession(clientSocket);
+      final Session receiver = newSession(acceptedSocket);
+      try
+      {
+        sender.setProtocolVersion(senderVersion);
+        sender.setCompressionEnabled(compression);
+        receiver.setProtocolVersion(receiverVersion);
+        if (asynchronousSender)
+        {
+          sender.start();
+          sender.waitForStartup();
+        }
+
+        Thread publisher = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              for (int i = 0; i < NB_MESSAGES; i++)
+              {
+                sender.publish(new EntryMsg(1, 2, entryBytes(i), i));
+              }
+            }
+            catch (Exception e)
+            {
+              throw new RuntimeException(e);
+            }
+          }
+        };
+        publisher.start();
+
+        for (int i = 0; i < NB_MESSAGES; i++)
+        {
+          EntryMsg msg = (EntryMsg) receiver.receive();
+          assertEquals(msg.getMsgId(), i);
+          assertEquals(msg.getEntryBytes(), entryBytes(i));
+        }
+        publisher.join();
+
+        MonitorData sent = new MonitorData();
+        sender.addMonitorData(sent);
+        MonitorData received = new MonitorData();
+        receiver.addMonitorData(received);
+        assertEquals(getMonitorValue(sent, "sent-messages"), String.valueOf(NB_MESSAGES));
+        assertEquals(getMonitorValue(received, "received-messages"), String.valueOf(NB_MESSAGES));
+        assertEquals(getMonitorValue(received, "received-frames"), getMonitorValue(sent, "sent-frames"));
+        assertEquals(getMonitorValue(received, "received-bytes"), getMonitorValue(sent, "sent-bytes"));
+        long sentBytes = Long.parseLong(getMonitorValue(sent, "sent-bytes"));
+        long uncompressedBytes = Long.parseLong(getMonitorValue(sent, "sent-uncompressed-bytes"));
+        boolean isCompressed = compression && senderVersion >= REPLICATION_PROTOCOL_V9;
+        assertEquals(sentBytes < uncompressedBytes, isCompressed);
+      }
+      finally
+      {
+        StaticUtils.close(sender, receiver);
+      }
+    }
+  }
+
+  /** A frame compressed with a preset dictionary must be rejected instead of making the receiver spin. */
+  @Test(timeOut = 10000, expectedExceptions = DataFormatException.class)
+  public void testCompressedFrameWithPresetDictionaryIsRejected() throws Exception
+  {
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket acceptedSocket = serverSocket.accept())
+    {
+      final Deflater deflater = new Deflater();
+      deflater.setDictionary(entryBytes(1));
+      deflater.setInput(entryBytes(2));
+      deflater.finish();
+      final byte[] compressed = new byte[1024];
+      final int compressedLength = deflater.deflate(compressed);
+      deflater.end();
+
+      // Compressed frame marker, frame length, uncompressed length, compressed messages
+      final DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+      out.writeByte(2);
+      out.writeInt(compressedLength);
+      out.writeInt(0);
+      out.write(compressed, 0, compressedLength);
+      out.flush();
+
+      final Session receiver = newSession(acceptedSocket);
+      try
+      {
+        receiver.setProtocolVersion(REPLICATION_PROTOCOL_V9);
+        receiver.receive();
+      }
+      finally
+      {
+        StaticUtils.close(receiver);
+      }
+    }
+  }
+
+  private static String getMonitorValue(MonitorData data, String name)
+  {
+    for (Attribute attribute : data)
+    {
+      if (attribute.getAttributeDescription().getAttributeType().getNameOrOID().equals(name))
+      {
+        return attribute.iterator().next().toString();
+      }
+    }
+    return null;
+  }
+
+  private static byte[] entryBytes(int i)
+  {
+    StringBuilder entry = new StringBuilder("dn: uid=user.").append(i).append(",ou=people,dc=example,dc=com\n");
+    for (int j = 0; j < i % 20; j++)
+    {
+      entry.append("description: value ").append(j).append(" of user ").append(i).append('\n');
+    }
+    return entry.toString().getBytes();
+  }
+}
@@ -24,6 +24,7 @@ import org.forgerock.opendj.config.Configuration;
 import org.forgerock.opendj.config.server.ConfigurationChangeListener;
 import org.forgerock.opendj.config.server.ServerManagedObject;
 import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.server.config.meta.ReplicationServerCfgDefn.ReplicationCompression;
 import org.forgerock.opendj.server.config.server.ReplicationServerCfg;
 
 /**
@@ -41,6 +42,7 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
   private int windowSize;
   private SortedSet<String> servers;
   private boolean confidentialityEnabled;
+  private ReplicationCompression replicationCompression = ReplicationCompression.NONE;
 
   /*
    * Assured mode properties
@@ -60,6 +62,7 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
   /** The monitoring publisher period. */
   private long monitoringPeriod = 3000;
   private boolean computeChangenumber;
+  private long changelogGroupCommitInterval;
 
   /** Constructor without group id, assured info and weight. */
   public ReplServerFakeConfiguration(
@@ -267,6 +270,34 @@ public class ReplServerFakeConfiguration implements ReplicationServerCfg
     return computeChangenumber;
   }
 
+  @Override
+  public long getChangelogGroupCommitInterval()
+  {
+    return changelogGroupCommitInterval;
+  }
+
+  public void setChangelogGroupCommitInterval(long changelogGroupCommitInterval)
+  {
+    this.changelogGroupCommitInterval = changelogGroupCommitInterval;
+  }
+
+  @Override
+  public int getChangelogGroupCommitBatchSize()
+  {
+    return 1000;
+  }
+
+  @Override
+  public ReplicationCompression getReplicationCompression()
+  {
+    return replicationCompression;
+  }
+
+  public void setReplicationCompression(ReplicationCompression replicationCompression)
+  {
+    this.replicationCompression = replicationCompression;
+  }
+
   public void setComputeChangeNumber(boolean computeChangenumber)
   {
     this.computeChangenumber = computeChangenumber;
@@ -18,6 +18,8 @@ package org.opends.server.replication.server.changelog.file;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.assertj.core.api.SoftAssertions;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -177,6 +179,119 @@ public class FileReplicaDBTest extends ReplicationTestCase
     }
   }
 
+  @Test
+  public void testGroupCommitRunsTasksOnceChangesAreSynced() throws Exception
+  {
+    ReplicationServer replicationServer = null;
+    FileReplicaDB replicaDB = null;
+    ReplicaDBSyncer syncer = null;
+    try
+    {
+      TestCaseUtils.startServer();
+      replicationServer = configureReplicationServer(100, 5000);
+
+      replicaDB = newReplicaDB(replicationServer);
+      syncer = new ReplicaDBSyncer(replicationServer, 10, 1000);
+      syncer.start();
+
+      // nothing to wait for
+      final CountDownLatch immediateTask = new CountDownLatch(1);
+      syncer.runWhenDurable(newCountDownTask(immediateTask));
+      assertEquals(immediateTask.getCount(), 0);
+
+      CSN[] csns = generateCSNs(1, 0, 4);
+      final CountDownLatch durableTasks = new CountDownLatch(2);
+      for (int i = 0; i < 3; i++)
+      {
+        final CSN csn = csns[i];
+        replicaDB.add(new DeleteMsg(TEST_ROOT_DN, csn, "uid"));
+        syncer.appended(replicaDB);
+        if (durableTasks.getCount() > 0)
+        {
+          syncer.runWhenDurable(newCountDownTask(durableTasks));
+        }
+      }
+      assertTrue(durableTasks.await(10, TimeUnit.SECONDS));
+      syncer.initiateShutdown();
+      syncer.join(10000);
+      assertEquals(syncer.getNbUnsyncedAppends(), 0);
+
+      // tasks registered after the syncer terminated are run if their changes were synced
+      final CountDownLatch syncedTask = new CountDownLatch(1);
+      syncer.runWhenDurable(newCountDownTask(syncedTask));
+      assertEquals(syncedTask.getCount(), 0);
+
+      // but never if their changes will not be synced
+      replicaDB.add(new DeleteMsg(TEST_ROOT_DN, csns[3], "uid"));
+      syncer.appended(replicaDB);
+      final CountDownLatch unsyncedTask = new CountDownLatch(1);
+      syncer.runWhenDurable(newCountDownTask(unsyncedTask));
+      assertFalse(unsyncedTask.await(100, TimeUnit.MILLISECONDS));
+      assertEquals(syncer.getNbUnsyncedAppends(), 1);
+    }
+    finally
+    {
+      if (syncer != null)
+      {
+        syncer.initiateShutdown();
+      }
+      shutdown(replicaDB);
+      remove(replicationServer);
+    }
+  }
+
+  /** Registers each task right when the synchronization covering its change may complete. */
+  @Test
+  public void testGroupCommitRunsTasksRegisteredDuringSync() throws Exception
+  {
+    ReplicationServer replicationServer = null;
+    FileReplicaDB replicaDB = null;
+    ReplicaDBSyncer syncer = null;
+    try
+    {
+      TestCaseUtils.startServer();
+      replicationServer = configureReplicationServer(100, 5000);
+
+      replicaDB = newReplicaDB(replicationServer);
+      // Each change wakes up the syncer, which synchronizes it immediately
+      syncer = new ReplicaDBSyncer(replicationServer, 10, 1);
+      syncer.start();
+
+      final int nbChanges = 500;
+      CSN[] csns = generateCSNs(1, 0, nbChanges);
+      for (int i = 0; i < nbChanges; i++)
+      {
+        replicaDB.add(new DeleteMsg(TEST_ROOT_DN, csns[i], "uid"));
+        syncer.appended(replicaDB);
+        final CountDownLatch task = new CountDownLatch(1);
+        syncer.runWhenDurable(newCountDownTask(task));
+        // No other change will wake up the syncer
+        assertTrue(task.await(10, TimeUnit.SECONDS), "Task registered after change " + i + " was not run");
+      }
+    }
+    finally
+    {
+      if (syncer != null)
+      {
+        syncer.initiateShutdown();
+      }
+      shutdown(replicaDB);
+      remove(replicationServer);
+    }
+  }
+
+  private Runnable newCountDownTask(final CountDownLatch latch)
+  {
+    return new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        latch.countDown();
+      }
+    };
+  }
+
   @Test
   public void testGenerateCursorFrom() throws Exception
   {
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/** Tests the {@link Histogram} and {@link StripedHistogram} classes. */
+@SuppressWarnings("javadoc")
+public class HistogramTestCase extends UtilTestCase
+{
+  @Test
+  public void testPercentiles()
+  {
+    Histogram histogram = new Histogram(8);
+    assertEquals(Histogram.percentile(histogram.getCounts(), 50), -1);
+
+    for (int i = 1; i <= 100; i++)
+    {
+      histogram.record(i);
+    }
+    long[] counts = histogram.getCounts();
+    assertEquals(counts, new long[] { 1, 1, 2, 4, 8, 16, 32, 36 });
+    assertEquals(Histogram.percentile(counts, 0), 1);
+    assertEquals(Histogram.percentile(counts, 2), 2);
+    assertEquals(Histogram.percentile(counts, 50), 64);
+    // Falls in the last bucket, which has no upper bound
+    assertEquals(Histogram.percentile(counts, 99), 64);
+    assertEquals(Histogram.toMonitorValues(new long[] { 3, 0, 1 }, "us"), Arrays.asList("3 <=1us", "1 >2us"));
+  }
+
+  @Test
+  public void testStripedHistogramMergesAllThreads() throws Exception
+  {
+    final StripedHistogram histogram = new StripedHistogram(4);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (int j = 0; j < 1000; j++)
+          {
+            histogram.record(j % 2 == 0 ? 1 : 100);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    assertEquals(histogram.getCounts(), new long[] { 4000, 0, 0, 4000 });
+    histogram.reset();
+    assertEquals(histogram.getCounts(), new long[4]);
+  }
+}